@@ -0,0 +1,71 @@
+package org.obiba.magma;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A non-null value of {@code BooleanType} holding its {@code boolean} inline. {@code BooleanType} has one instance for
+ * {@code true} and one for {@code false}, which deserialization resolves to.
+ */
+public final class BooleanValue extends Value {
+
+  private static final long serialVersionUID = -4287163402616340791L;
+
+  private final boolean value;
+
+  BooleanValue(@Nonnull ValueType valueType, boolean value) {
+    super(valueType);
+    this.value = value;
+  }
+
+  public boolean getBoolean() {
+    return value;
+  }
+
+  @Nonnull
+  @Override
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  Object getComparedValue() {
+    return value;
+  }
+
+  @Override
+  public boolean isNull() {
+    return false;
+  }
+
+  @Nonnull
+  @Override
+  public Value copy() {
+    return this;
+  }
+
+  @Override
+  public long getLength() {
+    //noinspection ConstantConditions
+    return toString().length();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if(obj instanceof BooleanValue) {
+      BooleanValue other = (BooleanValue) obj;
+      return value == other.value && getValueType().equals(other.getValueType());
+    }
+    return super.equals(obj);
+  }
+
+  @Override
+  public int hashCode() {
+    // Same as Boolean#hashCode()
+    return hashCode(value ? 1231 : 1237);
+  }
+
+  private Object readResolve() {
+    return ValueType.Factory.forName(getValueType().getName()).valueOf((Object) value);
+  }
+
+}
@@ -0,0 +1,58 @@
+package org.obiba.magma;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A non-null value of {@code DecimalType} holding its {@code double} inline.
+ */
+public final class DecimalValue extends NumberValue {
+
+  private static final long serialVersionUID = -3360409296612432291L;
+
+  private final double value;
+
+  DecimalValue(@Nonnull ValueType valueType, double value) {
+    super(valueType);
+    this.value = value;
+  }
+
+  @Override
+  public long getLong() {
+    return (long) value;
+  }
+
+  @Override
+  public double getDouble() {
+    return value;
+  }
+
+  @Nonnull
+  @Override
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  Object getComparedValue() {
+    return value;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if(obj instanceof DecimalValue) {
+      DecimalValue other = (DecimalValue) obj;
+      // Same as Double#equals(Object)
+      return Double.doubleToLongBits(value) == Double.doubleToLongBits(other.value) &&
+          getValueType().equals(other.getValueType());
+    }
+    return super.equals(obj);
+  }
+
+  @Override
+  public int hashCode() {
+    // Same as Double#hashCode()
+    long bits = Double.doubleToLongBits(value);
+    return hashCode((int) (bits ^ bits >>> 32));
+  }
+
+}
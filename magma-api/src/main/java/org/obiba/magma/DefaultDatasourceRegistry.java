@@ -9,6 +9,7 @@ import javax.annotation.Nullable;
 
 import org.obiba.magma.support.Disposables;
 import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.StructureVersion;
 import org.obiba.magma.support.ValueTableReference;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -73,6 +74,7 @@ public class DefaultDatasourceRegistry implements DatasourceRegistry, Disposable
     for(Datasource datasource : datasources.values()) {
       datasources.put(datasource.getName(), decorator.decorate(datasource));
     }
+    StructureVersion.increment();
   }
 
   @Override
@@ -88,6 +90,7 @@ public class DefaultDatasourceRegistry implements DatasourceRegistry, Disposable
       Datasource decorated = decorateDatasource(datasource);
       Initialisables.initialise(decorated);
       datasources.put(decorated.getName(), decorated);
+      StructureVersion.increment();
       return decorated;
     }
     return datasource;
@@ -110,6 +113,7 @@ public class DefaultDatasourceRegistry implements DatasourceRegistry, Disposable
   @Override
   public void removeDatasource(Datasource datasource) {
     datasources.remove(datasource.getName());
+    StructureVersion.increment();
     Disposables.dispose(datasource);
   }
 
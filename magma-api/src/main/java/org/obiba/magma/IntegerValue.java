@@ -0,0 +1,55 @@
+package org.obiba.magma;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A non-null value of {@code IntegerType} holding its {@code long} inline.
+ */
+public final class IntegerValue extends NumberValue {
+
+  private static final long serialVersionUID = 6640584532939578316L;
+
+  private final long value;
+
+  IntegerValue(@Nonnull ValueType valueType, long value) {
+    super(valueType);
+    this.value = value;
+  }
+
+  @Override
+  public long getLong() {
+    return value;
+  }
+
+  @Override
+  public double getDouble() {
+    return value;
+  }
+
+  @Nonnull
+  @Override
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  Object getComparedValue() {
+    return value;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if(obj instanceof IntegerValue) {
+      IntegerValue other = (IntegerValue) obj;
+      return value == other.value && getValueType().equals(other.getValueType());
+    }
+    return super.equals(obj);
+  }
+
+  @Override
+  public int hashCode() {
+    // Same as Long#hashCode()
+    return hashCode((int) (value ^ value >>> 32));
+  }
+
+}
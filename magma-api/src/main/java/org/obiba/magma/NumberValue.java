@@ -0,0 +1,48 @@
+package org.obiba.magma;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A non-null numeric {@code Value} holding its number inline, instead of boxed in a {@code ValueLoader}: see {@link
+ * IntegerValue} and {@link DecimalValue}. Its accessors read the number without boxing it, {@link #getValue()} boxes
+ * it on each call.
+ */
+public abstract class NumberValue extends Value {
+
+  private static final long serialVersionUID = -2969339505371049528L;
+
+  NumberValue(@Nonnull ValueType valueType) {
+    super(valueType);
+  }
+
+  /**
+   * Returns the {@code double} of a non-null numeric value, without boxing it when it is a {@code NumberValue}.
+   */
+  public static double doubleValue(Value value) {
+    return value instanceof NumberValue
+        ? ((NumberValue) value).getDouble()
+        : ((Number) value.getValue()).doubleValue();
+  }
+
+  public abstract long getLong();
+
+  public abstract double getDouble();
+
+  @Override
+  public boolean isNull() {
+    return false;
+  }
+
+  @Nonnull
+  @Override
+  public Value copy() {
+    return this;
+  }
+
+  @Override
+  public long getLength() {
+    //noinspection ConstantConditions
+    return toString().length();
+  }
+
+}
@@ -14,7 +14,9 @@ public class Value implements Serializable, Comparable<Value> {
   @Nonnull
   private final ValueType valueType;
 
-  @Nonnull
+  /**
+   * Null for the values held inline by a subclass, such as {@link NumberValue} and {@link BooleanValue}.
+   */
   private final ValueLoader valueLoader;
 
   private transient int hashCode;
@@ -30,6 +32,16 @@ public class Value implements Serializable, Comparable<Value> {
     this.valueLoader = valueLoader == null ? new StaticValueLoader(null) : valueLoader;
   }
 
+  /**
+   * Constructor of the subclasses holding their value inline: they override the methods reading the {@code
+   * ValueLoader}.
+   */
+  Value(@Nonnull ValueType valueType) {
+    if(valueType == null) throw new IllegalArgumentException("valueType cannot be null");
+    this.valueType = valueType;
+    valueLoader = null;
+  }
+
   @Nonnull
   public Value copy() {
     return valueType.valueOf(valueLoader.getValue());
@@ -94,17 +106,17 @@ public class Value implements Serializable, Comparable<Value> {
     if(this == obj) {
       return true;
     }
-    if(obj == null) {
-      return false;
-    }
-    if(getClass() != obj.getClass()) {
+    if(!(obj instanceof Value)) {
       return false;
     }
 
     Value other = (Value) obj;
+    if(isSequence() != other.isSequence()) {
+      return false;
+    }
     // Shortcut
-    Object val = valueLoader.getValue();
-    Object otherVal = other.valueLoader.getValue();
+    Object val = getComparedValue();
+    Object otherVal = other.getComparedValue();
     //noinspection SimplifiableIfStatement
     if(val == otherVal) {
       return true;
@@ -115,15 +127,30 @@ public class Value implements Serializable, Comparable<Value> {
   @Override
   public int hashCode() {
     if(hashCode == 0) {
-      int prime = 31;
-      int result = 1;
-      result = prime * result + valueLoader.getValue().hashCode();
-      result = prime * result + valueType.hashCode();
-      hashCode = result;
+      hashCode = hashCode(getComparedValue().hashCode());
     }
     return hashCode;
   }
 
+  /**
+   * The hash code of a value of this type: the subclasses holding their value inline compute it from the hash code of
+   * their boxed value, without boxing it.
+   */
+  int hashCode(int valueHashCode) {
+    int prime = 31;
+    int result = 1;
+    result = prime * result + valueHashCode;
+    result = prime * result + valueType.hashCode();
+    return result;
+  }
+
+  /**
+   * The object compared by {@link #equals(Object)}: the value of the loader, or a marker when it is null.
+   */
+  Object getComparedValue() {
+    return valueLoader.getValue();
+  }
+
   @Override
   public int compareTo(Value o) {
     return valueType.compare(this, o);
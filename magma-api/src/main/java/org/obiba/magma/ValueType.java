@@ -63,11 +63,43 @@ public interface ValueType extends Serializable, Comparator<Value> {
       return newValue(forClass(value.getClass()), value);
     }
 
+    /**
+     * Returns a {@code Value} holding the specified object. The {@code Long}, {@code Double} and {@code Boolean} values
+     * of the types of these Java classes are held inline, see {@link NumberValue} and {@link BooleanValue}.
+     */
     @Nonnull
     public static Value newValue(ValueType type, Serializable value) {
+      if(value instanceof Long && type.getJavaClass() == Long.class) {
+        return newValue(type, ((Long) value).longValue());
+      }
+      if(value instanceof Double && type.getJavaClass() == Double.class) {
+        return newValue(type, ((Double) value).doubleValue());
+      }
+      if(value instanceof Boolean && type.getJavaClass() == Boolean.class) {
+        return newValue(type, ((Boolean) value).booleanValue());
+      }
       return new Value(type, value);
     }
 
+    @Nonnull
+    public static Value newValue(ValueType type, long value) {
+      return new IntegerValue(type, value);
+    }
+
+    @Nonnull
+    public static Value newValue(ValueType type, double value) {
+      return new DecimalValue(type, value);
+    }
+
+    /**
+     * Returns a new {@code BooleanValue}, prefer {@code BooleanType#valueOf(boolean)} which returns one of its two
+     * instances.
+     */
+    @Nonnull
+    public static Value newValue(ValueType type, boolean value) {
+      return new BooleanValue(type, value);
+    }
+
     @Nonnull
     public static Value newValue(ValueType type, @Nullable ValueLoader valueLoader) {
       return new Value(type, valueLoader);
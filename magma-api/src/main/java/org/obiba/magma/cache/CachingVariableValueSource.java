@@ -0,0 +1,36 @@
+package org.obiba.magma.cache;
+
+import javax.annotation.Nonnull;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.support.AbstractVariableValueSourceWrapper;
+
+/**
+ * Keeps the values of a {@code VariableValueSource} in a {@link ValueSetCache}. The values are qualified by the name of
+ * the variable, so the cache can be shared by the sources of the variables of a table.
+ */
+public class CachingVariableValueSource extends AbstractVariableValueSourceWrapper {
+
+  @Nonnull
+  private final ValueSetCache<Value> cache;
+
+  public CachingVariableValueSource(@Nonnull VariableValueSource wrapped, @Nonnull ValueSetCache<Value> cache) {
+    super(wrapped);
+    this.cache = cache;
+  }
+
+  @Nonnull
+  @Override
+  public Value getValue(ValueSet valueSet) {
+    String variableName = getVariable().getName();
+    Value value = cache.getIfPresent(valueSet, variableName);
+    if(value == null) {
+      value = getWrapped().getValue(valueSet);
+      cache.put(valueSet, variableName, value);
+    }
+    return value;
+  }
+
+}
@@ -0,0 +1,268 @@
+package org.obiba.magma.cache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableEntity;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A bounded cache of anything computed for a value set: where clause results, value sets, values of a variable...
+ * Entries are keyed by table reference and entity identifier, so that they are found again whatever the {@code
+ * ValueSet} instance, and by an optional qualifier telling apart what is computed for the same value set: a variable,
+ * a last update of the table... Tables that do not belong to a datasource have no reference: they are then identified
+ * by the instance. Hits, misses and evictions are counted and reported by {@link #stats()}.
+ * <p/>
+ * The keys are also indexed by table and entity, so that invalidating the entries of a table or of an entity does not
+ * go through the whole cache.
+ *
+ * @param <V> type of the cached objects
+ */
+public class ValueSetCache<V> {
+
+  public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+  @SuppressWarnings({ "UnusedDeclaration", "ParameterHidesMemberVariable" })
+  public static class Builder {
+
+    private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    private long expireAfterWrite = -1;
+
+    private long expireAfterAccess = -1;
+
+    private Builder() {
+    }
+
+    public static Builder newCache() {
+      return new Builder();
+    }
+
+    public Builder maximumSize(long maximumSize) {
+      if(maximumSize < 0) throw new IllegalArgumentException("maximumSize cannot be negative");
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    public Builder expireAfterWrite(long duration, TimeUnit unit) {
+      if(duration < 0) throw new IllegalArgumentException("duration cannot be negative");
+      expireAfterWrite = unit.toNanos(duration);
+      return this;
+    }
+
+    public Builder expireAfterAccess(long duration, TimeUnit unit) {
+      if(duration < 0) throw new IllegalArgumentException("duration cannot be negative");
+      expireAfterAccess = unit.toNanos(duration);
+      return this;
+    }
+
+    public <V> ValueSetCache<V> build() {
+      CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats();
+      if(expireAfterWrite >= 0) builder.expireAfterWrite(expireAfterWrite, TimeUnit.NANOSECONDS);
+      if(expireAfterAccess >= 0) builder.expireAfterAccess(expireAfterAccess, TimeUnit.NANOSECONDS);
+      return new ValueSetCache<V>(builder);
+    }
+  }
+
+  private final Cache<Key, V> cache;
+
+  /**
+   * Keys of the cached entries by table key and entity identifier. Guarded by itself.
+   */
+  private final Map<Object, Map<String, Set<Key>>> index = Maps.newHashMap();
+
+  private ValueSetCache(CacheBuilder<Object, Object> builder) {
+    cache = builder.<Key, V>removalListener(new RemovalListener<Key, V>() {
+      @Override
+      public void onRemoval(RemovalNotification<Key, V> notification) {
+        // a replaced entry is still in the cache
+        if(notification.getCause() != RemovalCause.REPLACED) {
+          unindex(notification.getKey());
+        }
+      }
+    }).build();
+  }
+
+  @Nullable
+  public V getIfPresent(@Nonnull ValueSet valueSet) {
+    return getIfPresent(valueSet, null);
+  }
+
+  @Nullable
+  public V getIfPresent(@Nonnull ValueSet valueSet, @Nullable Object qualifier) {
+    return getIfPresent(valueSet.getValueTable(), valueSet.getVariableEntity(), qualifier);
+  }
+
+  @Nullable
+  public V getIfPresent(@Nonnull ValueTable table, @Nonnull VariableEntity entity) {
+    return getIfPresent(table, entity, null);
+  }
+
+  @Nullable
+  public V getIfPresent(@Nonnull ValueTable table, @Nonnull VariableEntity entity, @Nullable Object qualifier) {
+    return cache.getIfPresent(new Key(table, entity, qualifier));
+  }
+
+  public void put(@Nonnull ValueSet valueSet, @Nonnull V value) {
+    put(valueSet, null, value);
+  }
+
+  public void put(@Nonnull ValueSet valueSet, @Nullable Object qualifier, @Nonnull V value) {
+    put(valueSet.getValueTable(), valueSet.getVariableEntity(), qualifier, value);
+  }
+
+  public void put(@Nonnull ValueTable table, @Nonnull VariableEntity entity, @Nonnull V value) {
+    put(table, entity, null, value);
+  }
+
+  public void put(@Nonnull ValueTable table, @Nonnull VariableEntity entity, @Nullable Object qualifier,
+      @Nonnull V value) {
+    Key key = new Key(table, entity, qualifier);
+    // indexed before the put, so that an invalidation running right after the put finds the entry, and again after
+    // it, as an invalidation running right before the put may have removed the key from the index
+    index(key);
+    cache.put(key, value);
+    index(key);
+  }
+
+  /**
+   * Removes the entries of an entity of a table, whatever their qualifier.
+   */
+  public void invalidate(@Nonnull ValueTable table, @Nonnull VariableEntity entity) {
+    List<Key> keys = Lists.newArrayList();
+    synchronized(index) {
+      Map<String, Set<Key>> entities = index.get(tableKey(table));
+      if(entities != null && entities.containsKey(entity.getIdentifier())) {
+        keys.addAll(entities.get(entity.getIdentifier()));
+      }
+    }
+    invalidate(keys);
+  }
+
+  /**
+   * Removes the entries of all the entities of a table.
+   */
+  public void invalidate(@Nonnull ValueTable table) {
+    List<Key> keys = Lists.newArrayList();
+    synchronized(index) {
+      Map<String, Set<Key>> entities = index.get(tableKey(table));
+      if(entities != null) {
+        for(Set<Key> entityKeys : entities.values()) {
+          keys.addAll(entityKeys);
+        }
+      }
+    }
+    invalidate(keys);
+  }
+
+  private void invalidate(Iterable<Key> keys) {
+    cache.invalidateAll(keys);
+    // keys of entries evicted before being indexed are not removed by the removal listener
+    for(Key key : keys) {
+      unindex(key);
+    }
+  }
+
+  private void index(Key key) {
+    synchronized(index) {
+      Map<String, Set<Key>> entities = index.get(key.table);
+      if(entities == null) {
+        entities = Maps.newHashMap();
+        index.put(key.table, entities);
+      }
+      Set<Key> keys = entities.get(key.identifier);
+      if(keys == null) {
+        keys = Sets.newHashSet();
+        entities.put(key.identifier, keys);
+      }
+      keys.add(key);
+    }
+  }
+
+  private void unindex(Key key) {
+    synchronized(index) {
+      Map<String, Set<Key>> entities = index.get(key.table);
+      if(entities == null) return;
+      Set<Key> keys = entities.get(key.identifier);
+      if(keys != null && keys.remove(key) && keys.isEmpty()) {
+        entities.remove(key.identifier);
+        if(entities.isEmpty()) index.remove(key.table);
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Hits, misses and evictions since this cache was built.
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this).add("size", cache.size()).add("stats", cache.stats()).toString();
+  }
+
+  /**
+   * Returns the reference of a table, the table itself when it does not belong to a datasource.
+   */
+  private static Object tableKey(ValueTable table) {
+    return table.getDatasource() == null ? table : table.getTableReference();
+  }
+
+  private static final class Key {
+
+    private final Object table;
+
+    private final String identifier;
+
+    @Nullable
+    private final Object qualifier;
+
+    private Key(ValueTable table, VariableEntity entity, @Nullable Object qualifier) {
+      this.table = tableKey(table);
+      identifier = entity.getIdentifier();
+      this.qualifier = qualifier;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj) return true;
+      if(obj == null || obj.getClass() != getClass()) return false;
+      Key other = (Key) obj;
+      return identifier.equals(other.identifier) && table.equals(other.table) &&
+          Objects.equal(qualifier, other.qualifier);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(table, identifier, qualifier);
+    }
+  }
+
+}
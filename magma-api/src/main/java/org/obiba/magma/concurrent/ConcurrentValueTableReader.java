@@ -1,13 +1,16 @@
 package org.obiba.magma.concurrent;
 
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.annotation.Nullable;
 
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
@@ -27,6 +30,13 @@ public class ConcurrentValueTableReader {
 
   private static final Logger log = LoggerFactory.getLogger(ConcurrentValueTableReader.class);
 
+  private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+  /**
+   * Put in the write queue by each reader when it is done.
+   */
+  private static final VariableEntityValues END_OF_READ = new VariableEntityValues(null);
+
   private boolean ignoreReadErrors = false;
 
   @SuppressWarnings("ParameterHidesMemberVariable")
@@ -51,6 +61,25 @@ public class ConcurrentValueTableReader {
       return this;
     }
 
+    /**
+     * Runs the readers with {@code executor} instead of a thread pool created (and shut down) by each read. The
+     * executor is not shut down by the reader and should not be the one running {@link #read()}.
+     */
+    public Builder withExecutor(ExecutorService executor) {
+      reader.executor = executor;
+      return this;
+    }
+
+    /**
+     * Maximum number of value sets read ahead of the callback. Readers block when it is reached, so that a slow
+     * callback does not fill the heap with pending values.
+     */
+    public Builder withQueueCapacity(int capacity) {
+      if(capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+      reader.queueCapacity = capacity;
+      return this;
+    }
+
     public Builder from(ValueTable source) {
       reader.valueTable = source;
       return this;
@@ -119,10 +148,15 @@ public class ConcurrentValueTableReader {
 
   private ThreadFactory threadFactory;
 
+  @Nullable
+  private ExecutorService executor;
+
   private ConcurrentReaderCallback callback;
 
   private int concurrentReaders = Runtime.getRuntime().availableProcessors() * 2;
 
+  private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
   private ValueTable valueTable;
 
   private Iterable<Variable> variables;
@@ -133,10 +167,17 @@ public class ConcurrentValueTableReader {
 
   }
 
+  /**
+   * Reads the values and hands them to the callback on the calling thread. The calling thread blocks until values are
+   * available, readers block while the write queue is full.
+   */
   public void read() {
-    ThreadPoolExecutor executor = threadFactory != null
-        ? (ThreadPoolExecutor) Executors.newFixedThreadPool(concurrentReaders, threadFactory)
-        : (ThreadPoolExecutor) Executors.newFixedThreadPool(concurrentReaders);
+    ExecutorService readerExecutor = executor;
+    if(readerExecutor == null) {
+      readerExecutor = threadFactory != null
+          ? Executors.newFixedThreadPool(concurrentReaders, threadFactory)
+          : Executors.newFixedThreadPool(concurrentReaders);
+    }
 
     Variable[] variables = prepareVariables();
     VariableValueSource[] sources = prepareSources(variables);
@@ -144,53 +185,53 @@ public class ConcurrentValueTableReader {
     List<VariableEntity> entitiesToCopy = ImmutableList
         .copyOf(entities == null ? valueTable.getVariableEntities() : entities);
 
-    // A queue containing all entities to read the values for. Once this is empty, and all readers are done, then
-    // reading is over.
+    // A queue containing all entities to read the values for. Once this is empty, readers are done.
     BlockingQueue<VariableEntity> readQueue = new LinkedBlockingDeque<VariableEntity>(entitiesToCopy);
-    BlockingQueue<VariableEntityValues> writeQueue = new LinkedBlockingDeque<VariableEntityValues>();
+    BlockingQueue<VariableEntityValues> writeQueue = new ArrayBlockingQueue<VariableEntityValues>(queueCapacity);
 
+    List<Future<?>> readers = Lists.newArrayList();
     try {
       callback.onBegin(entitiesToCopy, variables);
-      List<Future<?>> readers = Lists.newArrayList();
       if(entitiesToCopy.size() > 0) {
-        for(int i = 0; i < concurrentReaders; i++) {
-          readers.add(executor.submit(new ConcurrentValueSetReader(sources, readQueue, writeQueue)));
+        int readerCount = Math.min(concurrentReaders, entitiesToCopy.size());
+        for(int i = 0; i < readerCount; i++) {
+          readers.add(readerExecutor.submit(new ConcurrentValueSetReader(sources, readQueue, writeQueue)));
         }
-
-        while(!isReadCompleted(readers)) {
-          flushQueue(variables, writeQueue);
-        }
-        // Flush remaining values if any
-        // This is necessary due to a race condition between isReadComplete() and readers appending to the write queue
-        flushQueue(variables, writeQueue);
+        flushQueue(variables, writeQueue, readerCount);
       }
       callback.onComplete();
       waitForReaders(readers);
     } finally {
-      executor.shutdownNow();
-    }
-  }
-
-  private void flushQueue(@SuppressWarnings("ParameterHidesMemberVariable") Variable[] variables,
-      BlockingQueue<VariableEntityValues> writeQueue) {
-    VariableEntityValues values = null;
-    while((values = writeQueue.poll()) != null) {
-      callback.onValues(values.getEntity(), variables, values.getValues());
+      if(executor == null) {
+        readerExecutor.shutdownNow();
+      } else {
+        // readers blocked on a full queue when the callback failed
+        for(Future<?> reader : readers) {
+          reader.cancel(true);
+        }
+      }
     }
   }
 
   /**
-   * Returns true when all readers have finished submitting to the writeQueue. false otherwise.
-   *
-   * @return
+   * Hands the values to the callback until each reader has put its end of read marker.
    */
-  private boolean isReadCompleted(Iterable<Future<?>> readers) {
-    for(Future<?> reader : readers) {
-      if(!reader.isDone()) {
-        return false;
+  private void flushQueue(@SuppressWarnings("ParameterHidesMemberVariable") Variable[] variables,
+      BlockingQueue<VariableEntityValues> writeQueue, int readerCount) {
+    int completedReaders = 0;
+    try {
+      while(completedReaders < readerCount) {
+        VariableEntityValues values = writeQueue.take();
+        if(values == END_OF_READ) {
+          completedReaders++;
+        } else {
+          callback.onValues(values.getEntity(), variables, values.getValues());
+        }
       }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
     }
-    return true;
   }
 
   private void waitForReaders(Iterable<Future<?>> readers) {
@@ -260,9 +301,22 @@ public class ConcurrentValueTableReader {
       this.writeQueue = writeQueue;
     }
 
-    @SuppressWarnings("OverlyNestedMethod")
     @Override
     public void run() {
+      try {
+        read();
+      } finally {
+        try {
+          writeQueue.put(END_OF_READ);
+        } catch(InterruptedException e) {
+          // cancelled: nobody is waiting for this reader
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    @SuppressWarnings("OverlyNestedMethod")
+    private void read() {
       try {
         VariableEntity entity = readQueue.poll();
         while(entity != null && !callback.isCancelled()) {
@@ -135,6 +135,14 @@ public abstract class AbstractDatasource extends AbstractAttributeAware implemen
     throw new UnsupportedOperationException("cannot drop table");
   }
 
+  /**
+   * Returns true when several {@code ValueTableWriter} of a same table can be used at the same time, from different
+   * threads, provided that they write distinct entities. Default is false.
+   */
+  public boolean canWriteConcurrently() {
+    return false;
+  }
+
   @Override
   protected ListMultimap<String, Attribute> getInstanceAttributes() {
     return attributes;
@@ -142,11 +150,13 @@ public abstract class AbstractDatasource extends AbstractAttributeAware implemen
 
   protected void addValueTable(ValueTable vt) {
     valueTables.add(vt);
+    StructureVersion.increment();
   }
 
   protected void removeValueTable(String tableName) {
     ValueTable toRemove = getValueTable(tableName);
     valueTables.remove(toRemove);
+    StructureVersion.increment();
     Disposables.dispose(toRemove);
   }
 
@@ -2,7 +2,8 @@ package org.obiba.magma.support;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.NoSuchElementException;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -22,9 +23,11 @@ import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.VariableValueSourceFactory;
 
 import com.google.common.base.Function;
-import com.google.common.base.Predicate;
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.collect.ForwardingSet;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 public abstract class AbstractValueTable implements ValueTable, Initialisable {
@@ -35,7 +38,13 @@ public abstract class AbstractValueTable implements ValueTable, Initialisable {
   @Nonnull
   private final String name;
 
-  private final Set<VariableValueSource> sources = Sets.newLinkedHashSet();
+  private final Set<VariableValueSource> sources = new VariableValueSourceSet();
+
+  /**
+   * Sources by variable name and variables, dropped when the sources are modified.
+   */
+  @Nullable
+  private volatile VariableIndex variableIndex;
 
   private VariableEntityProvider variableEntityProvider;
 
@@ -98,12 +107,7 @@ public abstract class AbstractValueTable implements ValueTable, Initialisable {
 
   @Override
   public boolean hasVariable(String variableName) {
-    for(VariableValueSource source : getSources()) {
-      if(source.getVariable().getName().equals(variableName)) {
-        return true;
-      }
-    }
-    return false;
+    return getVariableIndex().sourcesByName.containsKey(variableName);
   }
 
   @Override
@@ -118,27 +122,25 @@ public abstract class AbstractValueTable implements ValueTable, Initialisable {
 
   @Override
   public Set<Variable> getVariables() {
-    return ImmutableSet.copyOf(Iterables.transform(getSources(), new Function<VariableValueSource, Variable>() {
-      @Override
-      public Variable apply(VariableValueSource from) {
-        return from.getVariable();
-
-      }
-    }));
+    return getVariableIndex().variables;
   }
 
   @Override
-  public VariableValueSource getVariableValueSource(final String variableName) throws NoSuchVariableException {
-    try {
-      return Iterables.find(getSources(), new Predicate<VariableValueSource>() {
-        @Override
-        public boolean apply(VariableValueSource input) {
-          return input.getVariable().getName().equals(variableName);
-        }
-      });
-    } catch(NoSuchElementException e) {
+  public VariableValueSource getVariableValueSource(String variableName) throws NoSuchVariableException {
+    VariableValueSource source = getVariableIndex().sourcesByName.get(variableName);
+    if(source == null) {
       throw new NoSuchVariableException(getName(), variableName);
     }
+    return source;
+  }
+
+  private VariableIndex getVariableIndex() {
+    VariableIndex index = variableIndex;
+    if(index == null) {
+      index = new VariableIndex(sources);
+      variableIndex = index;
+    }
+    return index;
   }
 
   @Override
@@ -188,4 +190,99 @@ public abstract class AbstractValueTable implements ValueTable, Initialisable {
   public String getTableReference() {
     return getDatasource().getName() + "." + getName();
   }
+
+  private static final class VariableIndex {
+
+    /**
+     * First source of each variable name, in the sources order.
+     */
+    private final Map<String, VariableValueSource> sourcesByName;
+
+    private final Set<Variable> variables;
+
+    private VariableIndex(Iterable<VariableValueSource> sources) {
+      sourcesByName = Maps.newHashMap();
+      ImmutableSet.Builder<Variable> builder = ImmutableSet.builder();
+      for(VariableValueSource source : sources) {
+        Variable variable = source.getVariable();
+        if(!sourcesByName.containsKey(variable.getName())) {
+          sourcesByName.put(variable.getName(), source);
+        }
+        builder.add(variable);
+      }
+      variables = builder.build();
+    }
+  }
+
+  /**
+   * Drops the variable index whenever it is modified, including through {@link #getSources()}, and increments the
+   * {@link StructureVersion}. Modifications that leave the set as it was change nothing.
+   */
+  private class VariableValueSourceSet extends ForwardingSet<VariableValueSource> {
+
+    private final Set<VariableValueSource> delegate = Sets.newLinkedHashSet();
+
+    @Override
+    protected Set<VariableValueSource> delegate() {
+      return delegate;
+    }
+
+    @Override
+    public boolean add(VariableValueSource element) {
+      return sourcesChanged(delegate.add(element));
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends VariableValueSource> collection) {
+      return sourcesChanged(delegate.addAll(collection));
+    }
+
+    @Override
+    public boolean remove(Object object) {
+      return sourcesChanged(delegate.remove(object));
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> collection) {
+      return sourcesChanged(delegate.removeAll(collection));
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> collection) {
+      return sourcesChanged(delegate.retainAll(collection));
+    }
+
+    @Override
+    public void clear() {
+      if(!delegate.isEmpty()) {
+        delegate.clear();
+        sourcesChanged(true);
+      }
+    }
+
+    @Override
+    public Iterator<VariableValueSource> iterator() {
+      final Iterator<VariableValueSource> iterator = delegate.iterator();
+      return new ForwardingIterator<VariableValueSource>() {
+        @Override
+        protected Iterator<VariableValueSource> delegate() {
+          return iterator;
+        }
+
+        @Override
+        public void remove() {
+          iterator.remove();
+          sourcesChanged(true);
+        }
+      };
+    }
+
+    private boolean sourcesChanged(boolean changed) {
+      if(changed) {
+        variableIndex = null;
+        StructureVersion.increment();
+      }
+      return changed;
+    }
+  }
 }
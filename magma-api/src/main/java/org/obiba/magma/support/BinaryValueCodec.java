@@ -0,0 +1,148 @@
+package org.obiba.magma.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.obiba.magma.MagmaDate;
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.NumberValue;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.type.BooleanType;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.DateType;
+import org.obiba.magma.type.DecimalType;
+import org.obiba.magma.type.IntegerType;
+
+/**
+ * Compact binary encoding of {@code Value} instances, which avoids formatting and parsing their string
+ * representation:
+ * <ul>
+ * <li>integer: 8 bytes long</li>
+ * <li>decimal: 8 bytes double</li>
+ * <li>boolean: 1 byte</li>
+ * <li>datetime: 8 bytes epoch millis</li>
+ * <li>date: 4 bytes year, 1 byte month, 1 byte day of month (no time zone involved)</li>
+ * <li>other types: length prefixed UTF-8 of the string representation</li>
+ * </ul>
+ * The encoding of a value starts with a format version byte. A sequence is encoded as its size followed by its
+ * occurrences, each one preceded by a byte telling if it is null.
+ * <p/>
+ * Stores that frame values themselves, such as columns of values, write and read the occurrences only.
+ */
+public final class BinaryValueCodec {
+
+  private static final byte VERSION = 1;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private BinaryValueCodec() {}
+
+  public static byte[] encode(Value value) {
+    ValueType valueType = value.getValueType();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.isSequence() ? 64 : 16);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeByte(VERSION);
+      if(value.isSequence()) {
+        List<Value> values = value.asSequence().getValues();
+        out.writeInt(values.size());
+        for(Value occurrence : values) {
+          if(occurrence.isNull()) {
+            out.writeByte(0);
+          } else {
+            out.writeByte(1);
+            writeOccurrence(out, valueType, occurrence);
+          }
+        }
+      } else {
+        writeOccurrence(out, valueType, value);
+      }
+    } catch(IOException e) {
+      // not thrown by a byte array
+      throw new MagmaRuntimeException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static Value decode(ValueType valueType, boolean isSequence, byte[] bytes) {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    try {
+      byte version = in.readByte();
+      if(version != VERSION) {
+        throw new MagmaRuntimeException("Unsupported binary value version: " + version);
+      }
+      if(isSequence) {
+        int size = in.readInt();
+        List<Value> values = new ArrayList<Value>(size);
+        for(int i = 0; i < size; i++) {
+          values.add(in.readByte() == 0 ? valueType.nullValue() : readOccurrence(in, valueType));
+        }
+        return valueType.sequenceOf(values);
+      }
+      return readOccurrence(in, valueType);
+    } catch(IOException e) {
+      throw new MagmaRuntimeException("Truncated binary value", e);
+    }
+  }
+
+  /**
+   * Writes a non null value that is not a sequence, without the version byte.
+   */
+  public static void writeOccurrence(DataOutput out, ValueType valueType, Value value) throws IOException {
+    if(valueType == IntegerType.get()) {
+      out.writeLong(value instanceof NumberValue
+          ? ((NumberValue) value).getLong()
+          : ((Number) value.getValue()).longValue());
+    } else if(valueType == DecimalType.get()) {
+      out.writeDouble(NumberValue.doubleValue(value));
+    } else if(valueType == BooleanType.get()) {
+      out.writeBoolean((Boolean) value.getValue());
+    } else if(valueType == DateTimeType.get()) {
+      out.writeLong(((Date) value.getValue()).getTime());
+    } else if(valueType == DateType.get()) {
+      MagmaDate date = (MagmaDate) value.getValue();
+      out.writeInt(date.getYear());
+      out.writeByte(date.getMonth());
+      out.writeByte(date.getDayOfMonth());
+    } else {
+      byte[] text = value.toString().getBytes(UTF8);
+      out.writeInt(text.length);
+      out.write(text);
+    }
+  }
+
+  /**
+   * Reads a value written by {@link #writeOccurrence(DataOutput, ValueType, Value)}.
+   */
+  public static Value readOccurrence(DataInput in, ValueType valueType) throws IOException {
+    if(valueType == IntegerType.get()) {
+      return IntegerType.get().valueOf(in.readLong());
+    }
+    if(valueType == DecimalType.get()) {
+      return DecimalType.get().valueOf(in.readDouble());
+    }
+    if(valueType == BooleanType.get()) {
+      return BooleanType.get().valueOf(in.readBoolean());
+    }
+    if(valueType == DateTimeType.get()) {
+      return valueType.valueOf(new Date(in.readLong()));
+    }
+    if(valueType == DateType.get()) {
+      return valueType.valueOf(new MagmaDate(in.readInt(), in.readByte(), in.readByte()));
+    }
+    byte[] text = new byte[in.readInt()];
+    in.readFully(text);
+    return valueType.valueOf(new String(text, UTF8));
+  }
+
+}
@@ -5,7 +5,12 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
 
 import org.obiba.magma.Datasource;
 import org.obiba.magma.MagmaEngine;
@@ -17,11 +22,13 @@ import org.obiba.magma.ValueTableWriter.ValueSetWriter;
 import org.obiba.magma.ValueTableWriter.VariableWriter;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VectorSource;
 import org.obiba.magma.support.MultiplexingValueTableWriter.MultiplexedValueSetWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 
 @SuppressWarnings("UnusedDeclaration")
 public class DatasourceCopier {
@@ -92,6 +99,16 @@ public class DatasourceCopier {
       return this;
     }
 
+    /**
+     * Copies the values by blocks of {@code blockSize} entities, one variable at a time, when all the variables of the
+     * source table have a {@link VectorSource}. Otherwise, values are copied one value set at a time.
+     */
+    public Builder withVectorCopy(int blockSize) {
+      if(blockSize < 1) throw new IllegalArgumentException("blockSize must be at least 1");
+      copier.vectorBlockSize = blockSize;
+      return this;
+    }
+
     public DatasourceCopier build() {
       return new DatasourceCopier(copier);
     }
@@ -109,6 +126,8 @@ public class DatasourceCopier {
 
   private MultiplexingStrategy multiplexer = null;
 
+  private int vectorBlockSize = 0;
+
   private DatasourceCopier() {
   }
 
@@ -119,6 +138,7 @@ public class DatasourceCopier {
     listeners = ImmutableList.copyOf(other.listeners);
     variableTransformer = other.variableTransformer;
     multiplexer = other.multiplexer;
+    vectorBlockSize = other.vectorBlockSize;
   }
 
   public void copy(String sourceDatasource, String destinationDatasource) throws IOException {
@@ -167,6 +187,17 @@ public class DatasourceCopier {
     if(!copyValues) return;
 
     log.debug("Copy values from {} {}", sourceTable.getClass(), sourceTable.getName());
+    if(vectorBlockSize > 0) {
+      List<Variable> variables = ImmutableList.copyOf(sourceTable.getVariables());
+      VectorSource[] vectorSources = getVectorSources(sourceTable, variables);
+      if(vectorSources != null) {
+        copyVectors(sourceTable, destinationTable.getName(), variables.toArray(new Variable[variables.size()]),
+            vectorSources, tableWriter);
+        return;
+      }
+      log.debug("Not all the variables of {} have a vector source, values are copied by value sets",
+          sourceTable.getName());
+    }
     for(ValueSet valueSet : sourceTable.getValueSets()) {
       ValueSetWriter valueSetWriter = tableWriter.writeValueSet(valueSet.getVariableEntity());
       try {
@@ -177,6 +208,47 @@ public class DatasourceCopier {
     }
   }
 
+  /**
+   * Returns the vector source of each variable, or null if one of them has none.
+   */
+  @Nullable
+  private VectorSource[] getVectorSources(ValueTable sourceTable, List<Variable> variables) {
+    VectorSource[] vectorSources = new VectorSource[variables.size()];
+    for(int i = 0; i < vectorSources.length; i++) {
+      vectorSources[i] = sourceTable.getVariableValueSource(variables.get(i).getName()).asVectorSource();
+      if(vectorSources[i] == null) return null;
+    }
+    return vectorSources;
+  }
+
+  /**
+   * Reads the values of a block of entities variable by variable, and writes them entity by entity. Listeners are
+   * notified with a {@link ValueSetBean} of the source table, so that the value sets are not loaded.
+   */
+  private void copyVectors(ValueTable sourceTable, String destinationTableName, Variable[] variables,
+      VectorSource[] vectorSources, ValueTableWriter tableWriter) throws IOException {
+    for(List<VariableEntity> block : Iterables.partition(sourceTable.getVariableEntities(), vectorBlockSize)) {
+      SortedSet<VariableEntity> entities = new TreeSet<VariableEntity>(block);
+      Value[][] values = new Value[entities.size()][variables.length];
+      for(int v = 0; v < vectorSources.length; v++) {
+        int e = 0;
+        for(Value value : vectorSources[v].getValues(entities)) {
+          values[e++][v] = value;
+        }
+      }
+      int e = 0;
+      for(VariableEntity entity : entities) {
+        ValueSetWriter valueSetWriter = tableWriter.writeValueSet(entity);
+        try {
+          copyValues(sourceTable, destinationTableName, new ValueSetBean(sourceTable, entity), variables, values[e++],
+              valueSetWriter);
+        } finally {
+          valueSetWriter.close();
+        }
+      }
+    }
+  }
+
   public void copyValues(ValueTable sourceTable, ValueSet valueSet, String destinationTableName,
       ValueSetWriter valueSetWriter) {
     if(!copyValues) return;
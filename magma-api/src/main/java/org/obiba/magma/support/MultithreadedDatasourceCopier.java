@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
@@ -23,6 +24,7 @@ import org.obiba.magma.ValueTableWriter.ValueSetWriter;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.lang.Closeables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +63,17 @@ public class MultithreadedDatasourceCopier {
       return this;
     }
 
+    /**
+     * Writes with several threads, each one with its own {@code ValueTableWriter} and its own share of the entities. This
+     * is ignored when the destination datasource cannot write concurrently (see {@link
+     * AbstractDatasource#canWriteConcurrently()}).
+     */
+    public Builder withWriters(int writers) {
+      if(writers < 1) throw new IllegalArgumentException("writers must be at least 1");
+      copier.concurrentWriters = writers;
+      return this;
+    }
+
     public Builder withReaderListener(ReaderListener readerListener) {
       copier.readerListener = readerListener;
       return this;
@@ -107,6 +120,8 @@ public class MultithreadedDatasourceCopier {
 
   private int concurrentReaders = 3;
 
+  private int concurrentWriters = 1;
+
   @Nonnull
   private DatasourceCopier.Builder copier = DatasourceCopier.Builder.newCopier();
 
@@ -125,7 +140,6 @@ public class MultithreadedDatasourceCopier {
 
   private long entitiesToCopy = 0;
 
-  @SuppressWarnings("FieldMayBeFinal")
   private long entitiesCopied = 0;
 
   private int nextPercentIncrement = 0;
@@ -145,8 +159,13 @@ public class MultithreadedDatasourceCopier {
 
     prepareVariables();
 
-    // A queue containing all entity values available for writing to the destinationDatasource.
-    BlockingQueue<VariableEntityValues> writeQueue = new LinkedBlockingDeque<VariableEntityValues>(bufferSize);
+    // Queues containing the entity values available for writing to the destinationDatasource, one per writer.
+    // An entity always goes to the same writer.
+    int writers = getWriters();
+    List<BlockingQueue<VariableEntityValues>> writeQueues = Lists.newArrayListWithCapacity(writers);
+    for(int i = 0; i < writers; i++) {
+      writeQueues.add(new LinkedBlockingDeque<VariableEntityValues>(bufferSize));
+    }
 
     DatasourceCopier datasourceCopier = copier.build();
     if(datasourceCopier.isCopyValues()) {
@@ -158,11 +177,11 @@ public class MultithreadedDatasourceCopier {
       entitiesToCopy = readQueue.size();
       for(int i = 0; i < concurrentReaders; i++) {
         readers.add(
-            executor.submit(new ConcurrentValueSetReader(readQueue, writeQueue, datasourceCopier.isCopyNullValues())));
+            executor.submit(new ConcurrentValueSetReader(readQueue, writeQueues, datasourceCopier.isCopyNullValues())));
       }
     }
     try {
-      write(writeQueue);
+      write(writeQueues);
       checkReadersForException();
     } finally {
       log.debug("Finished multi-threaded copy. Submitted tasks {}, executed tasks {}", executor.getTaskCount(),
@@ -171,18 +190,69 @@ public class MultithreadedDatasourceCopier {
     }
   }
 
-  private void write(BlockingQueue<VariableEntityValues> writeQueue) throws IOException {
+  private int getWriters() {
+    if(concurrentWriters > 1 && !canWriteConcurrently(destinationDatasource)) {
+      log.info("Datasource {} cannot write concurrently, values will be written by a single writer.",
+          destinationDatasource.getName());
+      return 1;
+    }
+    return concurrentWriters;
+  }
+
+  private static boolean canWriteConcurrently(Datasource datasource) {
+    if(datasource instanceof AbstractDatasourceWrapper) {
+      return canWriteConcurrently(((AbstractDatasourceWrapper) datasource).getWrappedDatasource());
+    }
+    return datasource instanceof AbstractDatasource && ((AbstractDatasource) datasource).canWriteConcurrently();
+  }
+
+  private void write(List<BlockingQueue<VariableEntityValues>> writeQueues) throws IOException {
     copyVariables();
-    // The writers could also be concurrent, but dues to transaction isolation issues, it is currently ran
-    // synchronously
-    new ConcurrentValueSetWriter(writeQueue).run();
+    if(writeQueues.size() == 1) {
+      // Due to transaction isolation issues, most datasources must be written synchronously
+      new ConcurrentValueSetWriter(writeQueues.get(0)).run();
+      return;
+    }
+
+    // Table writers are created here, one at a time, so that the destination table is created once
+    List<ConcurrentValueSetWriter> writers = Lists.newArrayList();
+    boolean started = false;
+    try {
+      for(BlockingQueue<VariableEntityValues> writeQueue : writeQueues) {
+        writers.add(new ConcurrentValueSetWriter(writeQueue));
+      }
+      started = true;
+    } finally {
+      // A writer closes its table writer once run: close those already created when creating another one failed
+      if(!started) {
+        for(ConcurrentValueSetWriter writer : writers) {
+          Closeables.closeQuietly(writer.tableWriter);
+        }
+      }
+    }
+    ExecutorService executor = threadFactory == null //
+        ? Executors.newFixedThreadPool(writers.size()) //
+        : Executors.newFixedThreadPool(writers.size(), threadFactory);
+    try {
+      List<Future<?>> futures = Lists.newArrayList();
+      for(ConcurrentValueSetWriter writer : writers) {
+        futures.add(executor.submit(writer));
+      }
+      checkForException(futures);
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
-  @SuppressWarnings("OverlyNestedMethod")
   private void checkReadersForException() {
-    for(Future<?> reader : readers) {
+    checkForException(readers);
+  }
+
+  @SuppressWarnings("OverlyNestedMethod")
+  private void checkForException(Iterable<Future<?>> futures) {
+    for(Future<?> future : futures) {
       try {
-        reader.get();
+        future.get();
       } catch(InterruptedException e) {
         throw new RuntimeException(e);
       } catch(ExecutionException e) {
@@ -232,14 +302,14 @@ public class MultithreadedDatasourceCopier {
 
     private final BlockingQueue<VariableEntity> readQueue;
 
-    private final BlockingQueue<VariableEntityValues> writeQueue;
+    private final List<BlockingQueue<VariableEntityValues>> writeQueues;
 
     private final boolean copyNullValues;
 
     private ConcurrentValueSetReader(BlockingQueue<VariableEntity> readQueue,
-        BlockingQueue<VariableEntityValues> writeQueue, boolean copyNullValues) {
+        List<BlockingQueue<VariableEntityValues>> writeQueues, boolean copyNullValues) {
       this.readQueue = readQueue;
-      this.writeQueue = writeQueue;
+      this.writeQueues = writeQueues;
       this.copyNullValues = copyNullValues;
     }
 
@@ -269,7 +339,8 @@ public class MultithreadedDatasourceCopier {
 
       if(copyNullValues || !hasOnlyNullValues) {
         log.debug("Enqueued entity {}", entity.getIdentifier());
-        writeQueue.put(new VariableEntityValues(valueSet, values));
+        writeQueues.get((entity.hashCode() & Integer.MAX_VALUE) % writeQueues.size())
+            .put(new VariableEntityValues(valueSet, values));
       } else {
         log.debug("Skip entity {} because of null values", entity.getIdentifier());
       }
@@ -284,8 +355,14 @@ public class MultithreadedDatasourceCopier {
 
     private final BlockingQueue<VariableEntityValues> writeQueue;
 
+    private final DatasourceCopier datasourceCopier;
+
+    private final ValueTableWriter tableWriter;
+
     private ConcurrentValueSetWriter(BlockingQueue<VariableEntityValues> writeQueue) {
       this.writeQueue = writeQueue;
+      datasourceCopier = copier.build();
+      tableWriter = datasourceCopier.innerValueTableWriter(sourceTable, destinationName, destinationDatasource);
     }
 
     /**
@@ -324,14 +401,17 @@ public class MultithreadedDatasourceCopier {
     @SuppressWarnings("ThrowFromFinallyBlock")
     @Override
     public void run() {
-      DatasourceCopier datasourceCopier = copier.build();
-      ValueTableWriter tableWriter = datasourceCopier
-          .innerValueTableWriter(sourceTable, destinationName, destinationDatasource);
       try {
         VariableEntityValues values = null;
         while((values = next()) != null) {
-          copyValue(datasourceCopier, tableWriter, values);
+          copyValue(values);
+        }
+      } catch(RuntimeException e) {
+        // stop the readers, they could be blocked on this writer queue
+        for(Future<?> reader : readers) {
+          reader.cancel(true);
         }
+        throw e;
       } finally {
         log.debug("Writer finished.");
         try {
@@ -343,8 +423,7 @@ public class MultithreadedDatasourceCopier {
     }
 
     @SuppressWarnings("ThrowFromFinallyBlock")
-    private void copyValue(DatasourceCopier datasourceCopier, ValueTableWriter tableWriter,
-        VariableEntityValues values) {
+    private void copyValue(VariableEntityValues values) {
       ValueSetWriter writer = tableWriter.writeValueSet(values.valueSet.getVariableEntity());
       try {
         // Copy the ValueSet to the destinationDatasource
@@ -357,23 +436,23 @@ public class MultithreadedDatasourceCopier {
           throw new RuntimeException(e);
         }
       }
-      entitiesCopied++;
-      printProgress();
+      entityCopied();
     }
+  }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
-    private void printProgress() {
-      try {
-        if(log.isInfoEnabled() && entitiesToCopy > 0) {
-          int percentComplete = (int) (entitiesCopied / (double) entitiesToCopy * 100);
-          if(percentComplete >= nextPercentIncrement) {
-            log.info("Copy {}% complete.", percentComplete);
-            nextPercentIncrement = percentComplete + 1;
-          }
+  @SuppressWarnings("NumericCastThatLosesPrecision")
+  private synchronized void entityCopied() {
+    entitiesCopied++;
+    try {
+      if(log.isInfoEnabled() && entitiesToCopy > 0) {
+        int percentComplete = (int) (entitiesCopied / (double) entitiesToCopy * 100);
+        if(percentComplete >= nextPercentIncrement) {
+          log.info("Copy {}% complete.", percentComplete);
+          nextPercentIncrement = percentComplete + 1;
         }
-      } catch(RuntimeException e) {
-        // Ignore
       }
+    } catch(RuntimeException e) {
+      // Ignore
     }
   }
 }
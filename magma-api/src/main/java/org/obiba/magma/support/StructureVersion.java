@@ -0,0 +1,24 @@
+package org.obiba.magma.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the changes of the structure of the datasources: datasources, tables, views or variable sources added or
+ * removed. Anything caching the resolution of a reference (datasource, table or variable name) compares the version
+ * at resolution time with the current one to know when it is stale.
+ */
+public final class StructureVersion {
+
+  private static final AtomicLong version = new AtomicLong();
+
+  private StructureVersion() {}
+
+  public static long current() {
+    return version.get();
+  }
+
+  public static void increment() {
+    version.incrementAndGet();
+  }
+
+}
@@ -5,6 +5,7 @@ import java.lang.ref.WeakReference;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.obiba.magma.BooleanValue;
 import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.Value;
 
@@ -20,8 +21,8 @@ public class BooleanType extends AbstractValueType {
   private final Value falseValue;
 
   private BooleanType() {
-    trueValue = Factory.newValue(this, Boolean.TRUE);
-    falseValue = Factory.newValue(this, Boolean.FALSE);
+    trueValue = Factory.newValue(this, true);
+    falseValue = Factory.newValue(this, false);
   }
 
   @SuppressWarnings("ConstantConditions")
@@ -114,6 +115,9 @@ public class BooleanType extends AbstractValueType {
     if(value.isNull()) {
       return value;
     }
+    if(value instanceof BooleanValue) {
+      return valueOf(!((BooleanValue) value).getBoolean());
+    }
     if(trueValue.equals(value)) {
       return falseValue;
     }
@@ -126,6 +130,10 @@ public class BooleanType extends AbstractValueType {
 
   @Override
   public int compare(Value o1, Value o2) {
+    if(o1 instanceof BooleanValue && o2 instanceof BooleanValue) {
+      boolean b1 = ((BooleanValue) o1).getBoolean();
+      return b1 == ((BooleanValue) o2).getBoolean() ? 0 : b1 ? 1 : -1;
+    }
     return ((Boolean) o1.getValue()).compareTo((Boolean) o2.getValue());
   }
 }
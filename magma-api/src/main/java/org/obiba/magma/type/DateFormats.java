@@ -0,0 +1,113 @@
+package org.obiba.magma.type;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import javax.annotation.Nullable;
+
+/**
+ * Non lenient {@link SimpleDateFormat}s confined to the thread using them, so they are used without locking.
+ * <p/>
+ * A string is parsed by the first format that accepts it, as {@link SimpleDateFormat#parse(String)} would, but without
+ * throwing an exception for each format that does not: the formats are tried with a {@link ParsePosition}, and only
+ * those whose first separator is the character following the leading digits of the string are tried at all.
+ */
+class DateFormats extends ThreadLocal<SimpleDateFormat[]> {
+
+  private final String[] patterns;
+
+  /**
+   * The character following the first field of each pattern.
+   */
+  private final char[] separators;
+
+  @Nullable
+  private final TimeZone timeZone;
+
+  /**
+   * @param timeZone the time zone of the formats, null for the default time zone of each thread
+   */
+  DateFormats(@Nullable TimeZone timeZone, String... patterns) {
+    this.timeZone = timeZone;
+    this.patterns = patterns;
+    separators = new char[patterns.length];
+    for(int i = 0; i < patterns.length; i++) {
+      separators[i] = charAfterFirstField(patterns[i]);
+    }
+  }
+
+  @Override
+  protected SimpleDateFormat[] initialValue() {
+    SimpleDateFormat[] formats = new SimpleDateFormat[patterns.length];
+    for(int i = 0; i < patterns.length; i++) {
+      formats[i] = new SimpleDateFormat(patterns[i]);
+      // Force strict year parsing, otherwise 2 digits can be interpreted as a 4 digits year...
+      formats[i].setLenient(false);
+      if(timeZone != null) {
+        formats[i].setTimeZone((TimeZone) timeZone.clone());
+      }
+    }
+    return formats;
+  }
+
+  /**
+   * Formats a date with the first format.
+   */
+  String format(Date date) {
+    return get()[0].format(date);
+  }
+
+  /**
+   * Returns the date parsed by the first format that accepts the string, null if none does.
+   */
+  @Nullable
+  Date parse(String string) {
+    // A leading numeric field takes all the leading digits, so the string must then match the separator of the pattern
+    char separator = charAfterLeadingDigits(string);
+    SimpleDateFormat[] formats = get();
+    for(int i = 0; i < formats.length; i++) {
+      if(separator != 0 && separators[i] != separator) continue;
+      // Parsing a time zone name sets it to the format: restore the time zone of the format
+      TimeZone formatTimeZone = formats[i].getTimeZone();
+      Date date = formats[i].parse(string, new ParsePosition(0));
+      formats[i].setTimeZone(formatTimeZone);
+      if(date != null) return date;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the patterns, quoted and separated by commas.
+   */
+  String getPatterns() {
+    StringBuilder sb = new StringBuilder();
+    for(String pattern : patterns) {
+      if(sb.length() > 0) sb.append(", ");
+      sb.append('\'').append(pattern).append('\'');
+    }
+    return sb.toString();
+  }
+
+  private static char charAfterFirstField(String pattern) {
+    int i = 0;
+    while(i < pattern.length() && Character.isLetter(pattern.charAt(i))) {
+      i++;
+    }
+    return i < pattern.length() ? pattern.charAt(i) : 0;
+  }
+
+  /**
+   * Returns the character following the leading ASCII digits, 0 if the string does not start with a digit or has
+   * nothing else.
+   */
+  private static char charAfterLeadingDigits(CharSequence string) {
+    int i = 0;
+    while(i < string.length() && string.charAt(i) >= '0' && string.charAt(i) <= '9') {
+      i++;
+    }
+    return i > 0 && i < string.length() ? string.charAt(i) : 0;
+  }
+
+}
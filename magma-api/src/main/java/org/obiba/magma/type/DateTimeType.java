@@ -3,10 +3,9 @@ package org.obiba.magma.type;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
 import java.sql.Timestamp;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -23,40 +22,29 @@ public class DateTimeType extends AbstractValueType {
   private static WeakReference<DateTimeType> instance;
 
   /**
-   * Preferred date time format.
+   * Time zone of the date times, and of the strings that do not specify one.
    */
-  private static final SimpleDateFormat ISO_8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+  private static final TimeZone TIME_ZONE = TimeZone.getDefault();
 
   /**
-   * These are used to support other common date time formats.
+   * Supported date time formats, the first one being the preferred one. The ISO 8601 strings are parsed and formatted
+   * by {@link Iso8601}, these formats are used for the others.
    */
-  private final SimpleDateFormat[] dateFormats = new SimpleDateFormat[] { //
-      ISO_8601, //
-      new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ"), //
-      new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ"), //
-      new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSzzz"), //
-      new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"), //
-      new SimpleDateFormat("yyyy/MM/dd HH:mm:ss"), //
-      new SimpleDateFormat("yyyy.MM.dd HH:mm:ss"), //
-      new SimpleDateFormat("yyyy MM dd HH:mm:ss"), //
-      new SimpleDateFormat("yyyy-MM-dd HH:mm"), //
-      new SimpleDateFormat("yyyy/MM/dd HH:mm"), //
-      new SimpleDateFormat("yyyy.MM.dd HH:mm"), //
-      new SimpleDateFormat("yyyy MM dd HH:mm") };
-
-  private String dateFormatPatterns = "";
-
-  private DateTimeType() {
-    // Force strict year parsing, otherwise 2 digits can be interpreted as a 4 digits year...
-    for(SimpleDateFormat format : dateFormats) {
-      format.setLenient(false);
-      if(dateFormatPatterns.isEmpty()) {
-        dateFormatPatterns = "'" + format.toPattern() + "'";
-      } else {
-        dateFormatPatterns += ", '" + format.toPattern() + "'";
-      }
-    }
-  }
+  private static final DateFormats DATE_FORMATS = new DateFormats(TIME_ZONE, //
+      "yyyy-MM-dd'T'HH:mm:ss.SSSZ", //
+      "yyyy-MM-dd'T'HH:mm:ssZ", //
+      "yyyy-MM-dd'T'HH:mmZ", //
+      "yyyy-MM-dd'T'HH:mm:ss.SSSzzz", //
+      "yyyy-MM-dd HH:mm:ss", //
+      "yyyy/MM/dd HH:mm:ss", //
+      "yyyy.MM.dd HH:mm:ss", //
+      "yyyy MM dd HH:mm:ss", //
+      "yyyy-MM-dd HH:mm", //
+      "yyyy/MM/dd HH:mm", //
+      "yyyy.MM.dd HH:mm", //
+      "yyyy MM dd HH:mm");
+
+  private DateTimeType() {}
 
   @SuppressWarnings("ConstantConditions")
   @edu.umd.cs.findbugs.annotations.SuppressWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
@@ -97,10 +85,8 @@ public class DateTimeType extends AbstractValueType {
 
   @Override
   public String toString(Object object) {
-    // DateFormat is not thread safe
-    synchronized(ISO_8601) {
-      return ISO_8601.format((Date) object);
-    }
+    String string = Iso8601.formatDateTime((Date) object, TIME_ZONE);
+    return string == null ? DATE_FORMATS.format((Date) object) : string;
   }
 
   @Nonnull
@@ -109,28 +95,21 @@ public class DateTimeType extends AbstractValueType {
     if(string == null) {
       return nullValue();
     }
+    Date date = Iso8601.parseDateTime(string, TIME_ZONE);
+    if(date != null) {
+      return Factory.newValue(this, date);
+    }
     String dateToParse = string;
     if(string.endsWith("Z")) {
       // Java before 7 does not support the 'Zulu' timezone (Z). Replace it with a SimpleDateFormat-friendly timezone
       dateToParse = string.replaceFirst("Z$", "UTC");
     }
-
-    for(SimpleDateFormat format : dateFormats) {
-      try {
-        return parseDate(format, dateToParse);
-      } catch(ParseException e) {
-        // ignored
-      }
-    }
-    throw new MagmaRuntimeException(
-        "Cannot parse date from string value '" + string + "'. Expected format is one of " + dateFormatPatterns);
-  }
-
-  private Value parseDate(SimpleDateFormat format, String string) throws ParseException {
-    // DateFormat is not thread safe
-    synchronized(format) {
-      return Factory.newValue(this, format.parse(string));
+    date = DATE_FORMATS.parse(dateToParse);
+    if(date == null) {
+      throw new MagmaRuntimeException("Cannot parse date from string value '" + string +
+          "'. Expected format is one of " + DATE_FORMATS.getPatterns());
     }
+    return Factory.newValue(this, date);
   }
 
   @Nonnull
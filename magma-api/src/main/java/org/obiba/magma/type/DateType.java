@@ -2,8 +2,6 @@ package org.obiba.magma.type;
 
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -23,36 +21,20 @@ public class DateType extends AbstractValueType {
   private static WeakReference<DateType> instance;
 
   /**
-   * Preferred format.
+   * Supported date formats, the first one being the preferred one. The ISO 8601 strings are parsed and formatted by
+   * {@link Iso8601}, these formats are used for the others.
    */
-  private static final SimpleDateFormat ISO_8601 = new SimpleDateFormat("yyyy-MM-dd");
-
-  /**
-   * These are used to support common date formats.
-   */
-  private final SimpleDateFormat[] dateFormats = new SimpleDateFormat[] { //
-      ISO_8601, //
-      new SimpleDateFormat("yyyy/MM/dd"), //
-      new SimpleDateFormat("yyyy.MM.dd"), //
-      new SimpleDateFormat("yyyy MM dd"), //
-      new SimpleDateFormat("dd-MM-yyyy"), //
-      new SimpleDateFormat("dd/MM/yyyy"), //
-      new SimpleDateFormat("dd.MM.yyyy"), //
-      new SimpleDateFormat("dd MM yyyy") };
-
-  private String dateFormatPatterns = "";
-
-  private DateType() {
-    // Force strict year parsing, otherwise 2 digits can be interpreted as a 4 digits year...
-    for(SimpleDateFormat format : dateFormats) {
-      format.setLenient(false);
-      if(dateFormatPatterns.isEmpty()) {
-        dateFormatPatterns = "'" + format.toPattern() + "'";
-      } else {
-        dateFormatPatterns += ", '" + format.toPattern() + "'";
-      }
-    }
-  }
+  private static final DateFormats DATE_FORMATS = new DateFormats(null, //
+      "yyyy-MM-dd", //
+      "yyyy/MM/dd", //
+      "yyyy.MM.dd", //
+      "yyyy MM dd", //
+      "dd-MM-yyyy", //
+      "dd/MM/yyyy", //
+      "dd.MM.yyyy", //
+      "dd MM yyyy");
+
+  private DateType() {}
 
   @SuppressWarnings("ConstantConditions")
   @edu.umd.cs.findbugs.annotations.SuppressWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
@@ -104,22 +86,16 @@ public class DateType extends AbstractValueType {
       return nullValue();
     }
 
-    for(SimpleDateFormat format : dateFormats) {
-      try {
-        return parseDate(format, string);
-      } catch(ParseException e) {
-        // ignored
-      }
+    MagmaDate date = Iso8601.parseDate(string);
+    if(date != null) {
+      return Factory.newValue(this, date);
     }
-    throw new MagmaRuntimeException(
-        "Cannot parse date from string value '" + string + "'. Expected format is one of " + dateFormatPatterns);
-  }
-
-  private Value parseDate(SimpleDateFormat format, String string) throws ParseException {
-    // DateFormat is not thread safe
-    synchronized(format) {
-      return Factory.newValue(this, new MagmaDate(format.parse(string)));
+    Date parsed = DATE_FORMATS.parse(string);
+    if(parsed == null) {
+      throw new MagmaRuntimeException("Cannot parse date from string value '" + string +
+          "'. Expected format is one of " + DATE_FORMATS.getPatterns());
     }
+    return Factory.newValue(this, new MagmaDate(parsed));
   }
 
   @Nonnull
@@ -166,9 +142,9 @@ public class DateType extends AbstractValueType {
   @Override
   protected String toString(Object object) {
     if(object != null) {
-      synchronized(ISO_8601) {
-        return ISO_8601.format(((MagmaDate) object).asDate());
-      }
+      MagmaDate date = (MagmaDate) object;
+      String string = Iso8601.formatDate(date);
+      return string == null ? DATE_FORMATS.format(date.asDate()) : string;
     }
     return null;
   }
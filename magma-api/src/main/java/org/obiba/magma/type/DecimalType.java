@@ -6,6 +6,7 @@ import java.math.BigDecimal;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.obiba.magma.DecimalValue;
 import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.MagmaRuntimeException;
 import org.obiba.magma.Value;
@@ -56,7 +57,7 @@ public class DecimalType extends AbstractNumberType {
       return nullValue();
     }
     try {
-      return Factory.newValue(this, Double.valueOf(normalize(string)));
+      return Factory.newValue(this, Double.parseDouble(normalize(string)));
     } catch(NumberFormatException e) {
       throw new MagmaRuntimeException("Not a decimal value: " + string, e);
     }
@@ -79,8 +80,16 @@ public class DecimalType extends AbstractNumberType {
         "Cannot construct " + getClass().getSimpleName() + " from type " + object.getClass() + ".");
   }
 
+  @Nonnull
+  public Value valueOf(double value) {
+    return Factory.newValue(this, value);
+  }
+
   @Override
   public int compare(Value o1, Value o2) {
+    if(o1 instanceof DecimalValue && o2 instanceof DecimalValue) {
+      return Double.compare(((DecimalValue) o1).getDouble(), ((DecimalValue) o2).getDouble());
+    }
     return ((Double) o1.getValue()).compareTo((Double) o2.getValue());
   }
 
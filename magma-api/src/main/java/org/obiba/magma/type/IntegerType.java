@@ -6,6 +6,7 @@ import java.math.BigInteger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.obiba.magma.IntegerValue;
 import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.MagmaRuntimeException;
 import org.obiba.magma.Value;
@@ -56,7 +57,7 @@ public class IntegerType extends AbstractNumberType {
       return nullValue();
     }
     try {
-      return Factory.newValue(this, Long.valueOf(normalize(string)));
+      return Factory.newValue(this, Long.parseLong(normalize(string)));
     } catch(NumberFormatException e) {
       throw new MagmaRuntimeException("Not a integer value: " + string, e);
     }
@@ -79,8 +80,18 @@ public class IntegerType extends AbstractNumberType {
         "Cannot construct " + getClass().getSimpleName() + " from type " + object.getClass() + ".");
   }
 
+  @Nonnull
+  public Value valueOf(long value) {
+    return Factory.newValue(this, value);
+  }
+
   @Override
   public int compare(Value o1, Value o2) {
+    if(o1 instanceof IntegerValue && o2 instanceof IntegerValue) {
+      long l1 = ((IntegerValue) o1).getLong();
+      long l2 = ((IntegerValue) o2).getLong();
+      return l1 < l2 ? -1 : l1 == l2 ? 0 : 1;
+    }
     return ((Long) o1.getValue()).compareTo((Long) o2.getValue());
   }
 
@@ -0,0 +1,269 @@
+package org.obiba.magma.type;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import javax.annotation.Nullable;
+
+import org.obiba.magma.MagmaDate;
+
+/**
+ * Parses and formats the ISO 8601 representations of dates and date times without {@link java.text.SimpleDateFormat},
+ * its calendar, nor any lock:
+ * <ul>
+ * <li>{@code yyyy-MM-dd}</li>
+ * <li>{@code yyyy-MM-dd'T'HH:mm:ss.SSSZ}, {@code yyyy-MM-dd'T'HH:mm:ssZ} and {@code yyyy-MM-dd'T'HH:mmZ}, where the time
+ * zone is either {@code Z} or {@code +hhmm}</li>
+ * <li>{@code yyyy-MM-dd HH:mm:ss} and {@code yyyy-MM-dd HH:mm}, in the local time zone</li>
+ * </ul>
+ * The fields are validated as a non lenient {@code SimpleDateFormat} does. Only the years {@value #MIN_YEAR} to {@value
+ * #MAX_YEAR} are handled, where the Gregorian calendar applies: the other years, invalid strings and local times close
+ * to a change of the offset of the time zone are left to {@code SimpleDateFormat}, the methods returning null.
+ */
+final class Iso8601 {
+
+  private static final int MIN_YEAR = 1600;
+
+  private static final int MAX_YEAR = 9999;
+
+  private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+  /**
+   * A local time is converted only when the offset of the time zone is the same for that long around it.
+   */
+  private static final long OFFSET_CHANGE_MARGIN = 2 * MILLIS_PER_DAY;
+
+  /**
+   * Days from 0000-03-01 to 1970-01-01.
+   */
+  private static final int EPOCH_DAY_SHIFT = 719468;
+
+  private static final int DAYS_PER_400_YEARS = 146097;
+
+  /**
+   * Range of the time zone offsets of a non lenient calendar.
+   */
+  private static final int MIN_OFFSET = -13 * 60 * 60 * 1000;
+
+  private static final int MAX_OFFSET = 14 * 60 * 60 * 1000;
+
+  private Iso8601() {}
+
+  /**
+   * Returns the date of a {@code yyyy-MM-dd} string, null if the string is not in that form.
+   */
+  @Nullable
+  static MagmaDate parseDate(String string) {
+    if(string.length() != 10 || !isDate(string)) return null;
+    int year = digits(string, 0, 4);
+    int month = digits(string, 5, 2);
+    int day = digits(string, 8, 2);
+    if(!isValidDate(year, month, day)) return null;
+    return new MagmaDate(year, month - 1, day);
+  }
+
+  /**
+   * Returns the {@code yyyy-MM-dd} representation of a date, null if its year is not supported or if its fields are not
+   * those of a valid date, that its calendar normalizes.
+   */
+  @Nullable
+  static String formatDate(MagmaDate date) {
+    int year = date.getYear();
+    int month = date.getMonth() + 1;
+    int day = date.getDayOfMonth();
+    if(!isValidDate(year, month, day)) return null;
+    char[] chars = new char[10];
+    appendDate(chars, year, month, day);
+    return new String(chars);
+  }
+
+  /**
+   * Returns the date time of an ISO 8601 string, null if the string is not in one of the supported forms.
+   *
+   * @param timeZone the time zone of the strings without one
+   */
+  @SuppressWarnings("OverlyComplexMethod")
+  @Nullable
+  static Date parseDateTime(String string, TimeZone timeZone) {
+    int length = string.length();
+    if(length < 16 || !isDate(string) || string.charAt(13) != ':') return null;
+    char separator = string.charAt(10);
+    if(separator != 'T' && separator != ' ') return null;
+    int year = digits(string, 0, 4);
+    int month = digits(string, 5, 2);
+    int day = digits(string, 8, 2);
+    int hour = digits(string, 11, 2);
+    int minute = digits(string, 14, 2);
+    int second = 0;
+    int millisecond = 0;
+    int index = 16;
+    if(index < length && string.charAt(index) == ':') {
+      second = digits(string, index + 1, 2);
+      index += 3;
+      if(separator == 'T' && index < length && string.charAt(index) == '.') {
+        millisecond = digits(string, index + 1, 3);
+        index += 4;
+      }
+    }
+    if(!isValidDate(year, month, day) || hour < 0 || hour > 23 || minute < 0 || minute > 59 ||
+        second < 0 || second > 59 || millisecond < 0) {
+      return null;
+    }
+    long local = epochDay(year, month, day) * MILLIS_PER_DAY +
+        ((hour * 60 + minute) * 60 + second) * 1000L + millisecond;
+    if(separator == ' ') {
+      // yyyy-MM-dd HH:mm:ss and yyyy-MM-dd HH:mm have no time zone
+      return index == length ? fromLocal(local, timeZone) : null;
+    }
+    if(index == length - 1 && string.charAt(index) == 'Z') {
+      return new Date(local);
+    }
+    int offset = offset(string, index);
+    return offset == Integer.MIN_VALUE ? null : new Date(local - offset);
+  }
+
+  /**
+   * Returns the {@code yyyy-MM-dd'T'HH:mm:ss.SSSZ} representation of a date time, null if its year is not supported.
+   */
+  @Nullable
+  static String formatDateTime(Date date, TimeZone timeZone) {
+    long millis = date.getTime();
+    int offset = timeZone.getOffset(millis);
+    long local = millis + offset;
+    long epochDay = floorDiv(local, MILLIS_PER_DAY);
+    int millisOfDay = (int) (local - epochDay * MILLIS_PER_DAY);
+
+    // Civil date of a day since the epoch, in a calendar starting in March so leap days are at the end of years
+    long shifted = epochDay + EPOCH_DAY_SHIFT;
+    long era = floorDiv(shifted, DAYS_PER_400_YEARS);
+    int dayOfEra = (int) (shifted - era * DAYS_PER_400_YEARS);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / (DAYS_PER_400_YEARS - 1)) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+    int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+    long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+    if(year < MIN_YEAR || year > MAX_YEAR) return null;
+
+    char[] chars = new char[28];
+    appendDate(chars, (int) year, month, day);
+    chars[10] = 'T';
+    appendDigits(chars, 11, millisOfDay / 3600000, 2);
+    chars[13] = ':';
+    appendDigits(chars, 14, millisOfDay / 60000 % 60, 2);
+    chars[16] = ':';
+    appendDigits(chars, 17, millisOfDay / 1000 % 60, 2);
+    chars[19] = '.';
+    appendDigits(chars, 20, millisOfDay % 1000, 3);
+    // As SimpleDateFormat, seconds of the offset are truncated
+    int offsetMinutes = offset / 60000;
+    chars[23] = offsetMinutes < 0 ? '-' : '+';
+    offsetMinutes = Math.abs(offsetMinutes);
+    appendDigits(chars, 24, offsetMinutes / 60 * 100 + offsetMinutes % 60, 4);
+    return new String(chars);
+  }
+
+  /**
+   * Returns the instant of a local time, null if the offset of the time zone changes around it: the local time may
+   * then be skipped or repeated.
+   */
+  @Nullable
+  private static Date fromLocal(long local, TimeZone timeZone) {
+    int offset = timeZone.getOffset(local - timeZone.getRawOffset());
+    long millis = local - offset;
+    if(timeZone.getOffset(millis) != offset || timeZone.getOffset(millis - OFFSET_CHANGE_MARGIN) != offset ||
+        timeZone.getOffset(millis + OFFSET_CHANGE_MARGIN) != offset) {
+      return null;
+    }
+    return new Date(millis);
+  }
+
+  /**
+   * Returns the offset in milliseconds of a {@code +hhmm} time zone ending the string, {@code Integer.MIN_VALUE} if
+   * there is none or if a calendar does not support it.
+   */
+  private static int offset(String string, int index) {
+    if(index != string.length() - 5) return Integer.MIN_VALUE;
+    char sign = string.charAt(index);
+    if(sign != '+' && sign != '-') return Integer.MIN_VALUE;
+    int hours = digits(string, index + 1, 2);
+    int minutes = digits(string, index + 3, 2);
+    if(hours < 0 || hours > 23 || minutes < 0 || minutes > 59) return Integer.MIN_VALUE;
+    int offset = sign == '-' ? -(hours * 60 + minutes) * 60000 : (hours * 60 + minutes) * 60000;
+    return offset < MIN_OFFSET || offset > MAX_OFFSET ? Integer.MIN_VALUE : offset;
+  }
+
+  /**
+   * Checks the separators of a string starting with {@code yyyy-MM-dd}.
+   */
+  private static boolean isDate(CharSequence string) {
+    return string.charAt(4) == '-' && string.charAt(7) == '-';
+  }
+
+  private static boolean isValidDate(int year, int month, int day) {
+    return year >= MIN_YEAR && year <= MAX_YEAR && month >= 1 && month <= 12 && day >= 1 &&
+        day <= daysInMonth(year, month);
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch(month) {
+      case 2:
+        return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Returns the number of days from 1970-01-01 to a date of the Gregorian calendar.
+   */
+  private static long epochDay(int year, int month, int day) {
+    int shiftedYear = month <= 2 ? year - 1 : year;
+    int era = shiftedYear / 400;
+    int yearOfEra = shiftedYear - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return (long) era * DAYS_PER_400_YEARS + dayOfEra - EPOCH_DAY_SHIFT;
+  }
+
+  private static long floorDiv(long dividend, long divisor) {
+    long quotient = dividend / divisor;
+    return dividend % divisor < 0 ? quotient - 1 : quotient;
+  }
+
+  /**
+   * Returns the value of {@code count} ASCII digits, -1 if the string is too short or a character is not a digit.
+   */
+  private static int digits(CharSequence string, int index, int count) {
+    if(index + count > string.length()) return -1;
+    int value = 0;
+    for(int i = index; i < index + count; i++) {
+      int digit = string.charAt(i) - '0';
+      if(digit < 0 || digit > 9) return -1;
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private static void appendDate(char[] chars, int year, int month, int day) {
+    appendDigits(chars, 0, year, 4);
+    chars[4] = '-';
+    appendDigits(chars, 5, month, 2);
+    chars[7] = '-';
+    appendDigits(chars, 8, day, 2);
+  }
+
+  private static void appendDigits(char[] chars, int index, int value, int count) {
+    int remaining = value;
+    for(int i = index + count - 1; i >= index; i--) {
+      chars[i] = (char) ('0' + remaining % 10);
+      remaining /= 10;
+    }
+  }
+
+}
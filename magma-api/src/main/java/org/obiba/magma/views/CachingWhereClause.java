@@ -1,35 +1,91 @@
 package org.obiba.magma.views;
 
-import java.util.concurrent.ConcurrentMap;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
-import org.obiba.magma.ValueSet;
+import javax.annotation.Nonnull;
 
-import com.google.common.collect.MapMaker;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.cache.ValueSetCache;
 
+/**
+ * Caches the results of a where clause, qualified by the clause and by the last update of the table of the value set:
+ * results computed before an update of the table are not found again. The last update of a table is read again only if
+ * it was not checked less than {@link TimestampsCheck#INTERVAL_NANOS} ago, as {@link View} does. The results of a
+ * table without a last update are not cached: its changes cannot be detected.
+ */
 class CachingWhereClause implements WhereClause {
 
   /**
-   * Cache the result in this map. Note that this cache will only work if == returns true for the keys. This should be
-   * the case as we pass-around the same ValueSet instance all the time. It is important to use weak keys since we don't
-   * want the cache to prevent collecting garbage.
+   * Results that are not used for a while are dropped, even when the table was not updated.
    */
-  // TODO: this should be handled in a general-level caching package.
-  private final ConcurrentMap<ValueSet, Boolean> cache = new MapMaker().weakKeys().makeMap();
+  private static final long DEFAULT_EXPIRY_MINUTES = 10;
 
   private final WhereClause expensiveClause;
 
+  private final ValueSetCache<Boolean> cache;
+
+  private volatile TableLastUpdate tableLastUpdate;
+
   CachingWhereClause(WhereClause expensiveClause) {
+    this(expensiveClause, ValueSetCache.Builder.newCache().expireAfterWrite(DEFAULT_EXPIRY_MINUTES, TimeUnit.MINUTES)
+        .<Boolean>build());
+  }
+
+  CachingWhereClause(WhereClause expensiveClause, ValueSetCache<Boolean> cache) {
     this.expensiveClause = expensiveClause;
+    this.cache = cache;
   }
 
   @Override
   public boolean where(ValueSet valueSet) {
-    if(cache.containsKey(valueSet)) {
-      return cache.get(valueSet);
+    Value lastUpdate = getLastUpdate(valueSet.getValueTable());
+    if(lastUpdate.isNull()) {
+      return expensiveClause.where(valueSet);
+    }
+    Object qualifier = Arrays.asList(expensiveClause, lastUpdate);
+    Boolean where = cache.getIfPresent(valueSet, qualifier);
+    if(where == null) {
+      where = expensiveClause.where(valueSet);
+      cache.put(valueSet, qualifier, where);
     }
-    boolean where = expensiveClause.where(valueSet);
-    cache.put(valueSet, where);
     return where;
   }
 
+  /**
+   * Records the last update of a table, just read by the caller, so that the following results are qualified by it.
+   */
+  void checked(@Nonnull ValueTable table, @Nonnull Value lastUpdate) {
+    tableLastUpdate = new TableLastUpdate(table, lastUpdate);
+  }
+
+  private Value getLastUpdate(ValueTable table) {
+    TableLastUpdate last = tableLastUpdate;
+    if(last != null && last.table == table && last.check.isRecent()) return last.lastUpdate;
+    Value lastUpdate = table.getTimestamps().getLastUpdate();
+    checked(table, lastUpdate);
+    return lastUpdate;
+  }
+
+  /**
+   * The last update of a table and when it was read.
+   */
+  private static final class TableLastUpdate {
+
+    @Nonnull
+    private final ValueTable table;
+
+    @Nonnull
+    private final Value lastUpdate;
+
+    private final TimestampsCheck check = new TimestampsCheck();
+
+    private TableLastUpdate(@Nonnull ValueTable table, @Nonnull Value lastUpdate) {
+      this.table = table;
+      this.lastUpdate = lastUpdate;
+    }
+  }
+
 }
@@ -4,14 +4,21 @@
 package org.obiba.magma.views;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.obiba.magma.Datasource;
 import org.obiba.magma.Initialisable;
@@ -48,9 +55,23 @@ public class JoinTable implements ValueTable, Initialisable {
   private final List<ValueTable> tables;
 
   /**
-   * Cached set of all variables of all tables in the join (i.e., the union).
+   * First position of each table in the join, by identity.
    */
-  private transient Set<Variable> unionOfVariables;
+  @Nonnull
+  private transient final Map<ValueTable, Integer> tablePositions = Maps.newIdentityHashMap();
+
+  /**
+   * Cached set of all variables of all tables in the join (i.e., the union), by name.
+   */
+  @Nullable
+  private transient volatile Map<String, Variable> unionOfVariables;
+
+  /**
+   * Cached variable value sources, by variable name.
+   */
+  @Nonnull
+  private transient final ConcurrentMap<String, VariableValueSource> variableValueSources
+      = new ConcurrentHashMap<String, VariableValueSource>();
 
   /**
    * Cached map of variable names to tables.
@@ -70,6 +91,12 @@ public class JoinTable implements ValueTable, Initialisable {
 
   private transient boolean variableAnalysed = false;
 
+  /**
+   * Tables of each entity, rebuilt when the last update of a table changes.
+   */
+  @Nullable
+  private transient volatile EntityIndex entityIndex;
+
   /**
    * No-arg constructor (mainly for XStream).
    */
@@ -95,6 +122,9 @@ public class JoinTable implements ValueTable, Initialisable {
       }
     }
     this.tables = ImmutableList.copyOf(tables);
+    for(int i = 0; i < this.tables.size(); i++) {
+      if(!tablePositions.containsKey(this.tables.get(i))) tablePositions.put(this.tables.get(i), i);
+    }
   }
 
   @Nonnull
@@ -159,8 +189,18 @@ public class JoinTable implements ValueTable, Initialisable {
 
   @Override
   public ValueSet getValueSet(VariableEntity entity) throws NoSuchValueSetException {
-    if(hasValueSet(entity)) {
-      return new JoinedValueSet(this, entity);
+    if(!variableAnalysed) analyseVariables();
+
+    EntityIndex index = getEntityIndex(true);
+    if(index == null) {
+      if(hasValueSet(entity)) {
+        return new JoinedValueSet(this, entity);
+      }
+    } else {
+      BitSet entityTables = index.tablesByEntity.get(entity);
+      if(entityTables != null) {
+        return new JoinedValueSet(this, entity, entityTables);
+      }
     }
     throw new NoSuchValueSetException(this, entity);
   }
@@ -174,6 +214,9 @@ public class JoinTable implements ValueTable, Initialisable {
   public Set<VariableEntity> getVariableEntities() {
     if(!variableAnalysed) analyseVariables();
 
+    EntityIndex index = getEntityIndex(false);
+    if(index != null) return index.entities;
+
     // Set the initial capacity to the number of entities we saw in the previous call to this method
     Set<VariableEntity> entities = new LinkedHashSet<VariableEntity>(lastEntityCount);
     for(ValueTable table : getTables()) {
@@ -186,6 +229,18 @@ public class JoinTable implements ValueTable, Initialisable {
 
   @Override
   public Iterable<ValueSet> getValueSets() {
+    if(!variableAnalysed) analyseVariables();
+
+    final EntityIndex index = getEntityIndex(false);
+    if(index != null) {
+      return Iterables.transform(index.tablesByEntity.entrySet(),
+          new Function<Map.Entry<VariableEntity, BitSet>, ValueSet>() {
+            @Override
+            public ValueSet apply(Map.Entry<VariableEntity, BitSet> from) {
+              return new JoinedValueSet(JoinTable.this, from.getKey(), from.getValue());
+            }
+          });
+    }
     return Iterables.transform(getVariableEntities(), new Function<VariableEntity, ValueSet>() {
       @Override
       public ValueSet apply(VariableEntity from) {
@@ -201,18 +256,29 @@ public class JoinTable implements ValueTable, Initialisable {
 
   @Override
   public Variable getVariable(String name) throws NoSuchVariableException {
-    for(Variable variable : getVariables()) {
-      if(variable.getName().equals(name)) {
-        return variable;
-      }
+    if(!variableAnalysed) analyseVariables();
+
+    Variable variable = unionOfVariables().get(name);
+    if(variable == null) {
+      throw new NoSuchVariableException(name);
     }
-    throw new NoSuchVariableException(name);
+    return variable;
   }
 
   @Override
   public VariableValueSource getVariableValueSource(String variableName) throws NoSuchVariableException {
     if(!variableAnalysed) analyseVariables();
 
+    VariableValueSource source = variableValueSources.get(variableName);
+    if(source == null) {
+      source = createVariableValueSource(variableName);
+      VariableValueSource created = variableValueSources.putIfAbsent(variableName, source);
+      if(created != null) source = created;
+    }
+    return source;
+  }
+
+  private VariableValueSource createVariableValueSource(String variableName) throws NoSuchVariableException {
     // find first variable with this name
     JoinableVariable joinableVariable = getJoinableVariablesByName().get(variableName);
     if(joinableVariable == null) {
@@ -229,13 +295,16 @@ public class JoinTable implements ValueTable, Initialisable {
   @Override
   public Iterable<Variable> getVariables() {
     if(!variableAnalysed) analyseVariables();
-    return unionOfVariables();
+    return unionOfVariables().values();
   }
 
   @Override
   public boolean hasValueSet(VariableEntity entity) {
     if(!variableAnalysed) analyseVariables();
 
+    EntityIndex index = getEntityIndex(true);
+    if(index != null) return index.tablesByEntity.containsKey(entity);
+
     for(ValueTable table : getTables()) {
       if(table.hasValueSet(entity)) {
         return true;
@@ -258,6 +327,52 @@ public class JoinTable implements ValueTable, Initialisable {
     }
   }
 
+  /**
+   * Returns the entity index, built or rebuilt if a table was updated since the last call. Returns null when a table
+   * has no last update timestamp: its changes could not be detected.
+   *
+   * @param lookup true for the lookup of a single entity, which relies on a check of the last updates of the tables
+   * made less than {@link TimestampsCheck#INTERVAL_NANOS} ago, such as the one at the beginning of an iteration
+   */
+  @Nullable
+  private EntityIndex getEntityIndex(boolean lookup) {
+    EntityIndex index = entityIndex;
+    if(lookup && index != null && index.check.isRecent()) return index;
+
+    Value[] lastUpdates = new Value[tables.size()];
+    for(int i = 0; i < lastUpdates.length; i++) {
+      lastUpdates[i] = tables.get(i).getTimestamps().getLastUpdate();
+      if(lastUpdates[i].isNull()) return null;
+    }
+    index = entityIndex;
+    if(index != null && Arrays.equals(index.lastUpdates, lastUpdates)) {
+      index.check.checked();
+      return index;
+    }
+    return buildEntityIndex(lastUpdates);
+  }
+
+  private synchronized EntityIndex buildEntityIndex(Value... lastUpdates) {
+    EntityIndex index = entityIndex;
+    if(index != null && Arrays.equals(index.lastUpdates, lastUpdates)) return index;
+
+    Map<VariableEntity, BitSet> tablesByEntity = new LinkedHashMap<VariableEntity, BitSet>(lastEntityCount * 2);
+    for(int i = 0; i < tables.size(); i++) {
+      for(VariableEntity entity : tables.get(i).getVariableEntities()) {
+        BitSet entityTables = tablesByEntity.get(entity);
+        if(entityTables == null) {
+          entityTables = new BitSet(tables.size());
+          tablesByEntity.put(entity, entityTables);
+        }
+        entityTables.set(i);
+      }
+    }
+    lastEntityCount = tablesByEntity.size();
+    index = new EntityIndex(lastUpdates, tablesByEntity);
+    entityIndex = index;
+    return index;
+  }
+
   private String buildJoinTableName() {
     StringBuilder sb = new StringBuilder();
     for(Iterator<ValueTable> it = getTables().iterator(); it.hasNext(); ) {
@@ -267,24 +382,29 @@ public class JoinTable implements ValueTable, Initialisable {
     return sb.toString();
   }
 
-  private synchronized Iterable<Variable> unionOfVariables() {
-    if(unionOfVariables == null) {
-      unionOfVariables = new LinkedHashSet<Variable>();
-
-      if(!variableAnalysed) analyseVariables();
-
-      Collection<String> unionOfVariableNames = new LinkedHashSet<String>();
-      for(ValueTable table : getTables()) {
-        for(Variable variable : table.getVariables()) {
-          // Add returns true if the set did not already contain the value
-          if(unionOfVariableNames.add(variable.getName())) {
-            unionOfVariables.add(variable);
+  private Map<String, Variable> unionOfVariables() {
+    Map<String, Variable> union = unionOfVariables;
+    if(union == null) {
+      synchronized(this) {
+        union = unionOfVariables;
+        if(union == null) {
+          if(!variableAnalysed) analyseVariables();
+
+          union = new LinkedHashMap<String, Variable>();
+          for(ValueTable table : getTables()) {
+            for(Variable variable : table.getVariables()) {
+              // keep the first variable of each name
+              if(!union.containsKey(variable.getName())) {
+                union.put(variable.getName(), variable);
+              }
+            }
           }
+          union = Collections.unmodifiableMap(union);
+          unionOfVariables = union;
         }
       }
     }
-
-    return unionOfVariables;
+    return union;
   }
 
   @Nonnull
@@ -318,13 +438,54 @@ public class JoinTable implements ValueTable, Initialisable {
     return "";
   }
 
+  /**
+   * Entities of the tables and the positions of the tables that have each one, as of the tables last updates. Not
+   * modified once built.
+   */
+  private static final class EntityIndex {
+
+    @Nonnull
+    private final Value[] lastUpdates;
+
+    @Nonnull
+    private final Map<VariableEntity, BitSet> tablesByEntity;
+
+    @Nonnull
+    private final Set<VariableEntity> entities;
+
+    private final TimestampsCheck check = new TimestampsCheck();
+
+    private EntityIndex(@Nonnull Value[] lastUpdates, @Nonnull Map<VariableEntity, BitSet> tablesByEntity) {
+      this.lastUpdates = lastUpdates;
+      this.tablesByEntity = tablesByEntity;
+      entities = Collections.unmodifiableSet(tablesByEntity.keySet());
+    }
+  }
+
   static class JoinedValueSet extends ValueSetBean {
 
     @Nonnull
-    private final Map<String, ValueSet> valueSetsByTable = Maps.newHashMap();
+    private final ConcurrentMap<String, ValueSet> valueSetsByTable = new ConcurrentHashMap<String, ValueSet>();
+
+    /**
+     * Positions of the tables of the join and of the ones that have this entity, null if unknown.
+     */
+    @Nullable
+    private final Map<ValueTable, Integer> tablePositions;
+
+    @Nullable
+    private final BitSet entityTables;
 
     JoinedValueSet(@Nonnull ValueTable table, @Nonnull VariableEntity entity) {
       super(table, entity);
+      tablePositions = null;
+      entityTables = null;
+    }
+
+    JoinedValueSet(@Nonnull JoinTable table, @Nonnull VariableEntity entity, @Nonnull BitSet entityTables) {
+      super(table, entity);
+      tablePositions = table.tablePositions;
+      this.entityTables = entityTables;
     }
 
     @Override
@@ -332,20 +493,29 @@ public class JoinTable implements ValueTable, Initialisable {
       return new UnionTimestamps(valueSetsByTable.values());
     }
 
-    synchronized Iterable<ValueSet> getInnerTableValueSets(Iterable<ValueTable> valueTables) {
+    Iterable<ValueSet> getInnerTableValueSets(Iterable<ValueTable> valueTables) {
       List<ValueSet> valueSets = Lists.newArrayList();
       for(ValueTable valueTable : valueTables) {
-        if(valueSetsByTable.containsKey(valueTable.getName())) {
-          ValueSet valueSet = valueSetsByTable.get(valueTable.getName());
-          if(valueSet != null) valueSets.add(valueSet);
-        } else if(valueTable.hasValueSet(getVariableEntity())) {
-          ValueSet valueSet = valueTable.getValueSet(getVariableEntity());
-          valueSetsByTable.put(valueTable.getName(), valueSet);
-          valueSets.add(valueSet);
+        ValueSet valueSet = valueSetsByTable.get(valueTable.getName());
+        if(valueSet == null && hasInnerValueSet(valueTable)) {
+          valueSet = valueTable.getValueSet(getVariableEntity());
+          // another thread may have loaded it meanwhile
+          ValueSet loaded = valueSetsByTable.putIfAbsent(valueTable.getName(), valueSet);
+          if(loaded != null) valueSet = loaded;
         }
+        if(valueSet != null) valueSets.add(valueSet);
       }
       return valueSets;
     }
+
+    private boolean hasInnerValueSet(ValueTable valueTable) {
+      if(entityTables != null) {
+        //noinspection ConstantConditions
+        Integer position = tablePositions.get(valueTable);
+        if(position != null) return entityTables.get(position);
+      }
+      return valueTable.hasValueSet(getVariableEntity());
+    }
   }
 
   private static class JoinedVariableValueSource extends AbstractVariableValueSourceWrapper {
@@ -0,0 +1,36 @@
+package org.obiba.magma.views;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the last check of the timestamps of tables against data computed from them.
+ * <p/>
+ * Reading the last update of a table may be costly, a query for a JDBC table: lookups of single entities rely on a
+ * check made less than {@link #INTERVAL_NANOS} ago, so that an iteration over the entities reads the timestamps once,
+ * when it gets the entities, instead of once per entity.
+ */
+final class TimestampsCheck {
+
+  static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private volatile long time;
+
+  TimestampsCheck() {
+    checked();
+  }
+
+  /**
+   * Records that the timestamps have just been checked.
+   */
+  void checked() {
+    time = System.nanoTime();
+  }
+
+  /**
+   * Returns true if the timestamps were checked less than {@link #INTERVAL_NANOS} ago.
+   */
+  boolean isRecent() {
+    return System.nanoTime() - time < INTERVAL_NANOS;
+  }
+
+}
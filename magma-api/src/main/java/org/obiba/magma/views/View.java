@@ -21,10 +21,12 @@ import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.cache.ValueSetCache;
 import org.obiba.magma.support.AbstractValueTableWrapper;
 import org.obiba.magma.support.AbstractVariableValueSourceWrapper;
 import org.obiba.magma.support.Disposables;
 import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.StructureVersion;
 import org.obiba.magma.transform.BijectiveFunction;
 import org.obiba.magma.transform.BijectiveFunctions;
 import org.obiba.magma.transform.TransformingValueTable;
@@ -70,6 +72,10 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
   @Nullable
   private transient ViewAwareDatasource viewDatasource;
 
+  @SuppressWarnings("TransientFieldInNonSerializableClass")
+  @Nullable
+  private transient volatile VariableEntitiesCache variableEntitiesCache;
+
   /**
    * No-arg constructor for XStream.
    */
@@ -120,6 +126,7 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
 
   @Override
   public void dispose() {
+    variableEntitiesCache = null;
     Disposables.silentlyDispose(getWrappedValueTable(), getSelectClause(), getWhereClause(), getListClause());
   }
 
@@ -208,6 +215,16 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
   public boolean hasValueSet(@Nullable VariableEntity entity) {
     if(entity == null) return false;
 
+    // the last update of the wrapped table is read again only if it was not checked recently
+    VariableEntitiesCache cache = variableEntitiesCache;
+    if(cache != null &&
+        (cache.check.isRecent() || cache.isValid(readWrappedTableLastUpdate()))) {
+      return cache.entities.contains(entity);
+    }
+    return evaluateHasValueSet(entity);
+  }
+
+  private boolean evaluateHasValueSet(VariableEntity entity) {
     VariableEntity unmapped = getVariableEntityMappingFunction().unapply(entity);
     if(unmapped == null) return false;
 
@@ -226,6 +243,7 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
 
   @Override
   public Iterable<ValueSet> getValueSets() {
+    if(getWhereClause() instanceof CachingWhereClause) readWrappedTableLastUpdate();
     // do not use Guava functional stuff to avoid multiple iterations over valueSets
     List<ValueSet> valueSets = Lists.newArrayList();
     for(ValueSet valueSet : super.getValueSets()) {
@@ -330,8 +348,35 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
     return getVariableValueSourceMappingFunction().apply(super.getVariableValueSource(variableName));
   }
 
+  /**
+   * The entities are evaluated once and cached until the last update of the wrapped table changes. They are not cached
+   * when the wrapped table has no last update timestamp. The last update is read on each call, {@link
+   * #hasValueSet(VariableEntity)} then relies on that check for {@link TimestampsCheck#INTERVAL_NANOS}.
+   */
   @Override
   public Set<VariableEntity> getVariableEntities() {
+    Value lastUpdate = readWrappedTableLastUpdate();
+    VariableEntitiesCache cache = variableEntitiesCache;
+    if(cache != null && cache.isValid(lastUpdate)) {
+      return cache.entities;
+    }
+    Set<VariableEntity> entities = loadVariableEntities();
+    variableEntitiesCache = lastUpdate.isNull() ? null : new VariableEntitiesCache(lastUpdate, entities);
+    return entities;
+  }
+
+  /**
+   * Reads the last update of the wrapped table, which a caching where clause then relies on.
+   */
+  private Value readWrappedTableLastUpdate() {
+    Value lastUpdate = getWrappedValueTable().getTimestamps().getLastUpdate();
+    if(getWhereClause() instanceof CachingWhereClause) {
+      ((CachingWhereClause) getWhereClause()).checked(getWrappedValueTable(), lastUpdate);
+    }
+    return lastUpdate;
+  }
+
+  private Set<VariableEntity> loadVariableEntities() {
     // do not use Guava functional stuff to avoid multiple iterations over entities
     Set<VariableEntity> entities = Sets.newLinkedHashSet();
     for(VariableEntity entity : super.getVariableEntities()) {
@@ -341,7 +386,7 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
 
       // filter the resulting entities to remove the ones for which hasValueSet() is false
       // (usually due to a where clause)
-      if(hasValueSet(entity)) {
+      if(evaluateHasValueSet(entity)) {
         entities.add(entity);
       }
     }
@@ -362,18 +407,21 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
   public void setSelectClause(@Nonnull SelectClause selectClause) {
     Preconditions.checkArgument(selectClause != null, "null selectClause");
     select = selectClause;
+    StructureVersion.increment();
   }
 
   @SuppressWarnings("ConstantConditions")
   public void setWhereClause(@Nonnull WhereClause whereClause) {
     Preconditions.checkArgument(whereClause != null, "null whereClause");
     where = whereClause;
+    variableEntitiesCache = null;
   }
 
   @SuppressWarnings("ConstantConditions")
   public void setListClause(@Nonnull ListClause listClause) {
     Preconditions.checkArgument(listClause != null, "null listClause");
     variables = listClause;
+    StructureVersion.increment();
   }
 
   @Override
@@ -412,6 +460,31 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
     };
   }
 
+  /**
+   * Entities of the view, as of a last update of the wrapped table.
+   */
+  private static final class VariableEntitiesCache {
+
+    @Nonnull
+    private final Value lastUpdate;
+
+    @Nonnull
+    private final Set<VariableEntity> entities;
+
+    private final TimestampsCheck check = new TimestampsCheck();
+
+    private VariableEntitiesCache(@Nonnull Value lastUpdate, @Nonnull Set<VariableEntity> entities) {
+      this.lastUpdate = lastUpdate;
+      this.entities = entities;
+    }
+
+    private boolean isValid(@Nonnull Value currentLastUpdate) {
+      if(!lastUpdate.equals(currentLastUpdate)) return false;
+      check.checked();
+      return true;
+    }
+  }
+
   protected class ViewVariableValueSource extends AbstractVariableValueSourceWrapper {
 
     public ViewVariableValueSource(VariableValueSource wrapped) {
@@ -458,6 +531,15 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
       return this;
     }
 
+    /**
+     * Caches the where clause results in {@code cache}, which statistics tell how effective it is. Results are
+     * qualified by the where clause, so the cache can be shared by views.
+     */
+    public Builder cacheWhere(@Nonnull ValueSetCache<Boolean> cache) {
+      view.setWhereClause(new CachingWhereClause(view.where, cache));
+      return this;
+    }
+
     public View build() {
       return view;
     }
@@ -12,6 +12,7 @@ import org.obiba.magma.ValueTableWriter;
 import org.obiba.magma.support.AbstractDatasourceWrapper;
 import org.obiba.magma.support.Disposables;
 import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.StructureVersion;
 import org.obiba.magma.type.DateTimeType;
 
 import com.google.common.collect.ImmutableSet;
@@ -108,12 +109,14 @@ public class ViewAwareDatasource extends AbstractDatasourceWrapper {
     Initialisables.initialise(view);
     views.put(view.getName(), view);
     view.setDatasource(this);
+    StructureVersion.increment();
   }
 
   public synchronized void removeView(String name) {
     if(views.containsKey(name)) {
       View view = views.get(name);
       views.remove(name);
+      StructureVersion.increment();
       Disposables.dispose(view);
     }
   }
@@ -0,0 +1,157 @@
+package org.obiba.magma.cache;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.support.StaticDatasource;
+import org.obiba.magma.support.StaticValueTable;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.views.JoinTable;
+import org.obiba.magma.views.View;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ValueSetCacheTest extends AbstractMagmaTest {
+
+  @Test
+  public void test_getIfPresent_hitsWithAnotherValueSetInstance() {
+    StaticValueTable table = createTable("table", "1", "2");
+    ValueSetCache<Boolean> cache = ValueSetCache.Builder.newCache().build();
+    cache.put(table.getValueSet(entity("1")), true);
+
+    assertThat(cache.getIfPresent(table.getValueSet(entity("1"))), is(true));
+    assertThat(cache.getIfPresent(table.getValueSet(entity("2"))), nullValue());
+    assertThat(cache.stats().hitCount(), is(1L));
+    assertThat(cache.stats().missCount(), is(1L));
+  }
+
+  @Test
+  public void test_put_evictsWhenMaximumSizeIsReached() {
+    StaticValueTable table = createTable("table", "1", "2", "3");
+    ValueSetCache<Boolean> cache = ValueSetCache.Builder.newCache().maximumSize(2).build();
+    for(VariableEntity entity : table.getVariableEntities()) {
+      cache.put(table, entity, true);
+    }
+
+    assertThat(cache.size(), is(2L));
+    assertThat(cache.stats().evictionCount(), is(1L));
+  }
+
+  @Test
+  public void test_invalidate_removesEntriesOfTableOnly() {
+    StaticDatasource datasource = new StaticDatasource("ds");
+    StaticValueTable table = new StaticValueTable(datasource, "table", Arrays.asList("1"));
+    StaticValueTable other = new StaticValueTable(datasource, "other", Arrays.asList("1"));
+    ValueSetCache<Boolean> cache = ValueSetCache.Builder.newCache().build();
+    cache.put(table, entity("1"), true);
+    cache.put(other, entity("1"), false);
+
+    cache.invalidate(table);
+    assertThat(cache.getIfPresent(table, entity("1")), nullValue());
+    assertThat(cache.getIfPresent(other, entity("1")), is(false));
+  }
+
+  @Test
+  public void test_invalidate_removesEntriesOfEntityWhateverTheirQualifier() {
+    StaticValueTable table = createTable("table", "1", "2");
+    ValueSetCache<Boolean> cache = ValueSetCache.Builder.newCache().build();
+    cache.put(table, entity("1"), "a", true);
+    cache.put(table, entity("1"), "b", true);
+    cache.put(table, entity("2"), "a", false);
+
+    cache.invalidate(table, entity("1"));
+    assertThat(cache.getIfPresent(table, entity("1"), "a"), nullValue());
+    assertThat(cache.getIfPresent(table, entity("1"), "b"), nullValue());
+    assertThat(cache.getIfPresent(table, entity("2"), "a"), is(false));
+
+    // entries put again after an invalidation are invalidated again
+    cache.put(table, entity("1"), "a", true);
+    cache.invalidate(table, entity("1"));
+    assertThat(cache.getIfPresent(table, entity("1"), "a"), nullValue());
+  }
+
+  @Test
+  public void test_invalidate_removesEntriesPutAfterEvictions() {
+    StaticValueTable table = createTable("table", "1", "2", "3");
+    ValueSetCache<Boolean> cache = ValueSetCache.Builder.newCache().maximumSize(2).build();
+    for(VariableEntity entity : table.getVariableEntities()) {
+      cache.put(table, entity, true);
+    }
+    cache.put(table, entity("1"), true);
+
+    cache.invalidate(table);
+    assertThat(cache.size(), is(0L));
+  }
+
+  @Test
+  public void test_cachingVariableValueSource_readsWrappedSourceOnce() {
+    StaticValueTable table = createTable("table", "1");
+    VariableValueSource sourceMock = createMock(VariableValueSource.class);
+    Value value = IntegerType.get().valueOf(1);
+    expect(sourceMock.getVariable()).andReturn(Variable.Builder.newVariable("var", IntegerType.get(), "Participant")
+        .build()).anyTimes();
+    expect(sourceMock.getValue((ValueSet) anyObject())).andReturn(value).once();
+    replay(sourceMock);
+
+    VariableValueSource source = new CachingVariableValueSource(sourceMock,
+        ValueSetCache.Builder.newCache().<Value>build());
+    assertThat(source.getValue(table.getValueSet(entity("1"))), is(value));
+    assertThat(source.getValue(table.getValueSet(entity("1"))), is(value));
+    verify(sourceMock);
+  }
+
+  @Test
+  public void test_cachingVariableValueSource_sharedCacheKeepsValuesOfEachVariable() {
+    StaticValueTable table = createTable("table", "1");
+    table.addVariables(IntegerType.get(), "var1", "var2");
+    table.addValues("1", "var1", 1, "var2", 2);
+    ValueSetCache<Value> cache = ValueSetCache.Builder.newCache().build();
+    VariableValueSource source1 = new CachingVariableValueSource(table.getVariableValueSource("var1"), cache);
+    VariableValueSource source2 = new CachingVariableValueSource(table.getVariableValueSource("var2"), cache);
+
+    ValueSet valueSet = table.getValueSet(entity("1"));
+    assertThat(source1.getValue(valueSet), is(IntegerType.get().valueOf(1)));
+    assertThat(source2.getValue(valueSet), is(IntegerType.get().valueOf(2)));
+    assertThat(source1.getValue(valueSet), is(IntegerType.get().valueOf(1)));
+    assertThat(cache.size(), is(2L));
+  }
+
+  @Test
+  public void test_put_tablesWithoutDatasourceAreIdentifiedByInstance() {
+    StaticValueTable table = createTable("table", "1");
+    // views of join tables belong to no datasource and have no table reference
+    ValueTable view1 = new View("view", new JoinTable(Arrays.<ValueTable>asList(table, createTable("other", "1"))));
+    ValueTable view2 = new View("view", new JoinTable(Arrays.<ValueTable>asList(table, createTable("other", "1"))));
+    ValueSetCache<Boolean> cache = ValueSetCache.Builder.newCache().build();
+    cache.put(view1, entity("1"), true);
+
+    assertThat(cache.getIfPresent(view1, entity("1")), is(true));
+    assertThat(cache.getIfPresent(view2, entity("1")), nullValue());
+    cache.invalidate(view1);
+    assertThat(cache.size(), is(0L));
+  }
+
+  private StaticValueTable createTable(String name, String... entities) {
+    return new StaticValueTable(new StaticDatasource("ds"), name, Arrays.asList(entities));
+  }
+
+  private VariableEntity entity(String identifier) {
+    return new VariableEntityBean("Participant", identifier);
+  }
+
+}
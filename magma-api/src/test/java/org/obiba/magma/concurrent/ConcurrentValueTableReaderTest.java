@@ -0,0 +1,99 @@
+package org.obiba.magma.concurrent;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.obiba.magma.Value;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.concurrent.ConcurrentValueTableReader.ConcurrentReaderCallback;
+import org.obiba.magma.support.StaticValueTable;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.IntegerType;
+
+import com.google.common.collect.Lists;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.obiba.magma.test.StaticTables.createIntegerTable;
+
+public class ConcurrentValueTableReaderTest extends AbstractMagmaTest {
+
+  @Test
+  public void test_read_handsAllValuesToCallback() {
+    StaticValueTable table = createIntegerTable(500);
+    RecordingCallback callback = new RecordingCallback(0);
+    ConcurrentValueTableReader.Builder.newReader().withReaders(4).withQueueCapacity(10).from(table).to(callback).build()
+        .read();
+
+    assertThat(callback.completed, is(true));
+    assertThat(callback.entities.size(), is(500));
+    for(int i = 0; i < callback.entities.size(); i++) {
+      assertThat(callback.values.get(i),
+          is(IntegerType.get().valueOf(callback.entities.get(i).getIdentifier())));
+    }
+  }
+
+  @Test
+  public void test_read_withSuppliedExecutor() {
+    StaticValueTable table = createIntegerTable(100);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for(int i = 0; i < 2; i++) {
+        // slow callback: readers are blocked by the queue capacity
+        RecordingCallback callback = new RecordingCallback(1);
+        ConcurrentValueTableReader.Builder.newReader().withExecutor(executor).withReaders(2).withQueueCapacity(1)
+            .from(table).to(callback).build().read();
+        assertThat(callback.entities.size(), is(100));
+      }
+      assertThat(executor.isShutdown(), is(false));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static class RecordingCallback implements ConcurrentReaderCallback {
+
+    private final long delay;
+
+    private final List<VariableEntity> entities = Lists.newArrayList();
+
+    private final List<Value> values = Lists.newArrayList();
+
+    private boolean completed;
+
+    private RecordingCallback(long delay) {
+      this.delay = delay;
+    }
+
+    @Override
+    public void onBegin(List<VariableEntity> entitiesToRead, Variable... variables) {
+    }
+
+    @Override
+    public void onValues(VariableEntity entity, Variable[] variables, Value... entityValues) {
+      entities.add(entity);
+      values.add(entityValues[0]);
+      if(delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch(InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,89 @@
+package org.obiba.magma.support;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.obiba.magma.NoSuchVariableException;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AbstractValueTableTest extends AbstractMagmaTest {
+
+  @Test
+  public void test_getVariableValueSource_returnsFirstSourceOfName() {
+    StaticValueTable table = createTable();
+    table.addVariables(IntegerType.get(), "A", "B");
+    VariableValueSource first = table.getVariableValueSource("A");
+    table.addVariables(TextType.get(), "A");
+
+    assertThat(table.getVariableValueSource("A"), sameInstance(first));
+    assertThat(table.getVariable("A").getValueType(), is((ValueType) IntegerType.get()));
+    assertThat(table.hasVariable("B"), is(true));
+    assertThat(table.hasVariable("C"), is(false));
+  }
+
+  @Test
+  public void test_getVariables_isUpdatedWhenSourcesAreModified() {
+    StaticValueTable table = createTable();
+    table.addVariables(IntegerType.get(), "A", "B");
+    assertThat(table.getVariables().size(), is(2));
+
+    table.addVariables(IntegerType.get(), "C");
+    assertThat(table.getVariables().size(), is(3));
+    assertThat(table.hasVariable("C"), is(true));
+
+    for(Iterator<VariableValueSource> sources = table.getSources().iterator(); sources.hasNext(); ) {
+      if(sources.next().getVariable().getName().equals("A")) sources.remove();
+    }
+    assertThat(table.hasVariable("A"), is(false));
+    assertThat(table.getVariables().size(), is(2));
+
+    table.getSources().clear();
+    assertThat(table.getVariables().isEmpty(), is(true));
+    try {
+      table.getVariableValueSource("B");
+      fail("NoSuchVariableException expected");
+    } catch(NoSuchVariableException ignored) {
+    }
+  }
+
+  @Test
+  public void test_getVariables_isCached() {
+    StaticValueTable table = createTable();
+    table.addVariables(IntegerType.get(), "A");
+
+    assertThat(table.getVariables(), sameInstance(table.getVariables()));
+    assertThat(table.getVariables().iterator().next().getName(), is("A"));
+  }
+
+  @Test
+  public void test_structureVersion_isOnlyIncrementedWhenSourcesChange() {
+    StaticValueTable table = createTable();
+    long version = StructureVersion.current();
+    table.getSources().clear();
+    assertThat(StructureVersion.current(), is(version));
+
+    table.addVariables(IntegerType.get(), "A");
+    assertThat(StructureVersion.current() > version, is(true));
+    version = StructureVersion.current();
+    VariableValueSource source = table.getVariableValueSource("A");
+    table.getSources().add(source);
+    table.getSources().removeAll(Collections.<VariableValueSource>emptySet());
+    assertThat(StructureVersion.current(), is(version));
+  }
+
+  private StaticValueTable createTable() {
+    return new StaticValueTable(new StaticDatasource("ds"), "table", Arrays.asList("1"));
+  }
+
+}
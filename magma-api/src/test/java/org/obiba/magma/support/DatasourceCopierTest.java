@@ -0,0 +1,136 @@
+package org.obiba.magma.support;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.VectorSource;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.IntegerType;
+
+import com.google.common.collect.Lists;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.obiba.magma.test.StaticTables.createTable;
+
+public class DatasourceCopierTest extends AbstractMagmaTest {
+
+  @Test
+  public void test_copy_byVectors() throws IOException {
+    StaticValueTable table = createTable(25);
+    CountingSource[] sources = { addSource(table, "A", true), addSource(table, "B", true) };
+    StaticDatasource destination = new StaticDatasource("destination");
+    DatasourceCopier.Builder.newCopier().withVectorCopy(10).build().copy(table, destination);
+
+    assertValuesCopied(destination.getValueTable("table"), 25);
+    for(CountingSource source : sources) {
+      assertThat(source.vectorReads, is(3));
+      assertThat(source.valueReads, is(0));
+    }
+  }
+
+  @Test
+  public void test_copy_byValueSetsWhenAVariableHasNoVector() throws IOException {
+    StaticValueTable table = createTable(25);
+    CountingSource[] sources = { addSource(table, "A", true), addSource(table, "B", false) };
+    StaticDatasource destination = new StaticDatasource("destination");
+    DatasourceCopier.Builder.newCopier().withVectorCopy(10).build().copy(table, destination);
+
+    assertValuesCopied(destination.getValueTable("table"), 25);
+    for(CountingSource source : sources) {
+      assertThat(source.vectorReads, is(0));
+      assertThat(source.valueReads, is(25));
+    }
+  }
+
+  private void assertValuesCopied(ValueTable copy, int size) {
+    assertThat(copy.getVariableEntities().size(), is(size));
+    for(VariableEntity entity : copy.getVariableEntities()) {
+      ValueSet valueSet = copy.getValueSet(entity);
+      assertThat(copy.getValue(copy.getVariable("A"), valueSet),
+          is(IntegerType.get().valueOf(entity.getIdentifier())));
+      assertThat(copy.getValue(copy.getVariable("B"), valueSet),
+          is(IntegerType.get().valueOf(Integer.parseInt(entity.getIdentifier()) * 2)));
+    }
+  }
+
+  private CountingSource addSource(StaticValueTable table, String name, boolean vector) {
+    CountingSource source = new CountingSource(
+        Variable.Builder.newVariable(name, IntegerType.get(), table.getEntityType()).build(), vector);
+    table.addVariableValueSource(source);
+    return source;
+  }
+
+  /**
+   * Values are the entity identifier times the variable position in the alphabet.
+   */
+  private static class CountingSource implements VariableValueSource, VectorSource {
+
+    private final Variable variable;
+
+    private final boolean vector;
+
+    private final int factor;
+
+    private int valueReads;
+
+    private int vectorReads;
+
+    private CountingSource(Variable variable, boolean vector) {
+      this.variable = variable;
+      this.vector = vector;
+      factor = variable.getName().charAt(0) - 'A' + 1;
+    }
+
+    @Override
+    public Variable getVariable() {
+      return variable;
+    }
+
+    @Nonnull
+    @Override
+    public ValueType getValueType() {
+      return variable.getValueType();
+    }
+
+    @Nonnull
+    @Override
+    public Value getValue(ValueSet valueSet) {
+      valueReads++;
+      return valueOf(valueSet.getVariableEntity());
+    }
+
+    @Nullable
+    @Override
+    public VectorSource asVectorSource() {
+      return vector ? this : null;
+    }
+
+    @Override
+    public Iterable<Value> getValues(SortedSet<VariableEntity> entities) {
+      vectorReads++;
+      List<Value> values = Lists.newArrayList();
+      for(VariableEntity entity : entities) {
+        values.add(valueOf(entity));
+      }
+      return values;
+    }
+
+    private Value valueOf(VariableEntity entity) {
+      return IntegerType.get().valueOf(Integer.parseInt(entity.getIdentifier()) * factor);
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+package org.obiba.magma.support;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.IntegerType;
+
+import com.google.common.collect.ImmutableSet;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.obiba.magma.test.StaticTables.createIntegerTable;
+
+public class MultithreadedDatasourceCopierTest extends AbstractMagmaTest {
+
+  @Test
+  public void test_copy_withConcurrentWriters() throws IOException {
+    StaticValueTable table = createIntegerTable(200);
+    RecordingDatasource destination = new RecordingDatasource(true);
+    MultithreadedDatasourceCopier.Builder.newCopier().withWriters(4).withQueueSize(5).from(table).to(destination)
+        .build().copy();
+
+    assertValuesCopied(destination, 200);
+    assertThat(new HashSet<String>(destination.threads.values()).size(), is(4));
+  }
+
+  @Test
+  public void test_copy_writesSynchronouslyWhenDatasourceCannotWriteConcurrently() throws IOException {
+    StaticValueTable table = createIntegerTable(200);
+    RecordingDatasource destination = new RecordingDatasource(false);
+    MultithreadedDatasourceCopier.Builder.newCopier().withWriters(4).from(table).to(destination).build().copy();
+
+    assertValuesCopied(destination, 200);
+    assertThat(new HashSet<String>(destination.threads.values()).size(), is(1));
+    assertThat(destination.threads.values().iterator().next(), is(Thread.currentThread().getName()));
+  }
+
+  @Test
+  public void test_copy_closesCreatedWritersWhenCreatingAWriterFails() throws IOException {
+    StaticValueTable table = createIntegerTable(200);
+    RecordingDatasource destination = new RecordingDatasource(true);
+    // the variables are written by the first writer, the third value set writer fails
+    destination.failingWriter = 4;
+    try {
+      MultithreadedDatasourceCopier.Builder.newCopier().withWriters(4).from(table).to(destination).build().copy();
+      fail("MagmaRuntimeException expected");
+    } catch(MagmaRuntimeException ignored) {
+    }
+
+    assertThat(destination.createdWriters.get(), is(4));
+    assertThat(destination.openWriters.get(), is(0));
+  }
+
+  private void assertValuesCopied(RecordingDatasource destination, int size) {
+    assertTrue(destination.hasValueTable("table"));
+    assertThat(destination.values.size(), is(size));
+    for(VariableEntity entity : destination.values.keySet()) {
+      assertThat(destination.values.get(entity), is(IntegerType.get().valueOf(entity.getIdentifier())));
+    }
+  }
+
+  /**
+   * Records the written values and the thread that wrote them.
+   */
+  private static class RecordingDatasource extends AbstractDatasource {
+
+    private final StaticDatasource tables = new StaticDatasource("destination");
+
+    private final boolean concurrent;
+
+    private final ConcurrentMap<VariableEntity, Value> values = new ConcurrentHashMap<VariableEntity, Value>();
+
+    private final ConcurrentMap<VariableEntity, String> threads = new ConcurrentHashMap<VariableEntity, String>();
+
+    private final AtomicInteger createdWriters = new AtomicInteger();
+
+    private final AtomicInteger openWriters = new AtomicInteger();
+
+    /**
+     * The number of the writer whose creation fails, 0 if none does.
+     */
+    private int failingWriter;
+
+    private RecordingDatasource(boolean concurrent) {
+      super("destination", "recording");
+      this.concurrent = concurrent;
+    }
+
+    @Override
+    protected Set<String> getValueTableNames() {
+      return ImmutableSet.of();
+    }
+
+    @Override
+    protected ValueTable initialiseValueTable(String tableName) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<ValueTable> getValueTables() {
+      return tables.getValueTables();
+    }
+
+    @Override
+    public boolean canWriteConcurrently() {
+      return concurrent;
+    }
+
+    @Nonnull
+    @Override
+    public ValueTableWriter createWriter(@Nonnull String tableName, @Nonnull String entityType) {
+      if(createdWriters.incrementAndGet() == failingWriter) {
+        throw new MagmaRuntimeException("cannot create writer");
+      }
+      final ValueTableWriter writer = tables.createWriter(tableName, entityType);
+      openWriters.incrementAndGet();
+      return new ValueTableWriter() {
+
+        @Override
+        public VariableWriter writeVariables() {
+          return writer.writeVariables();
+        }
+
+        @Nonnull
+        @Override
+        public ValueSetWriter writeValueSet(@Nonnull final VariableEntity entity) {
+          return new ValueSetWriter() {
+
+            @Override
+            public void writeValue(@Nonnull Variable variable, Value value) {
+              values.put(entity, value);
+              String previous = threads.putIfAbsent(entity, Thread.currentThread().getName());
+              assertTrue(previous == null || previous.equals(Thread.currentThread().getName()));
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+          };
+        }
+
+        @Override
+        public void close() throws IOException {
+          openWriters.decrementAndGet();
+          writer.close();
+        }
+      };
+    }
+  }
+
+}
@@ -1,5 +1,10 @@
 package org.obiba.magma.type;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.obiba.magma.Value;
@@ -69,6 +74,23 @@ public class BooleanTypeTest extends BaseValueTypeTest {
     Assert.assertEquals(getValueType().nullValue(), value);
   }
 
+  @Test
+  public void test_valueOf_returnsSameInstances() {
+    Assert.assertSame(getValueType().trueValue(), getValueType().valueOf((Object) Boolean.TRUE));
+    Assert.assertSame(getValueType().falseValue(), getValueType().valueOf("FALSE"));
+    Assert.assertSame(getValueType().nullValue(), getValueType().valueOf((Boolean) null));
+  }
+
+  @Test
+  public void test_deserialization_returnsSameInstance() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bytes);
+    oos.writeObject(getValueType().trueValue());
+    oos.close();
+    Object value = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    Assert.assertSame(getValueType().trueValue(), value);
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void test_not_onlyAcceptsBoolenType() {
     getValueType().not(TextType.get().valueOf("not a boolean"));
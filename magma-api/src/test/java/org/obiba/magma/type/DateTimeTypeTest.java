@@ -8,6 +8,7 @@ import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
 import org.junit.Test;
+import org.obiba.magma.MagmaRuntimeException;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueType;
 
@@ -141,6 +142,44 @@ public class DateTimeTypeTest extends BaseValueTypeTest {
     Assert.assertEquals(new Date(expected.getTimeInMillis()), value.getValue());
   }
 
+  @Test
+  public void test_valueOfISODateFormatWithOffset() {
+    Calendar expected = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    expected.clear();
+    expected.set(2011, 0, 25, 16, 0, 47);
+    expected.set(Calendar.MILLISECOND, 123);
+    Value value = DateTimeType.get().valueOf("2011-01-25T14:30:47.123-0130");
+    Assert.assertEquals(new Date(expected.getTimeInMillis()), value.getValue());
+  }
+
+  @Test
+  public void test_valueOfDotDateFormatString() {
+    Calendar expected = Calendar.getInstance();
+    expected.clear();
+    expected.set(2011, 0, 25, 14, 30, 47);
+    Value value = DateTimeType.get().valueOf("2011.01.25 14:30:47");
+    Assert.assertEquals(new Date(expected.getTimeInMillis()), value.getValue());
+  }
+
+  @Test(expected = MagmaRuntimeException.class)
+  public void test_valueOf_invalidDayOfMonth() {
+    DateTimeType.get().valueOf("2011-02-29T14:30:47.123+0000");
+  }
+
+  @Test
+  public void test_toString_isISODateFormat() {
+    for(Date date : ImmutableList.of(new Date(), new Date(0), new Date(-1), new Date(951782400123L))) {
+      Assert.assertEquals(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(date),
+          DateTimeType.get().valueOf(date).toString());
+    }
+  }
+
+  @Test
+  public void test_toString_parsesToSameDate() {
+    Value value = DateTimeType.get().now();
+    Assert.assertEquals(value, DateTimeType.get().valueOf(value.toString()));
+  }
+
   private void assertValueOfUsingDateFormat(String dateFormat) {
     assertValueOfUsingDateFormat(dateFormat, 0);
   }
@@ -131,6 +131,21 @@ public class DateTypeTest extends BaseValueTypeTest {
     getValueType().valueOf("2011_11_10");
   }
 
+  @Test(expected = MagmaRuntimeException.class)
+  public void test_valueOf_invalidDayOfMonth() {
+    getValueType().valueOf("2011-04-31");
+  }
+
+  @Test
+  public void test_valueOf_leapDay() {
+    Assert.assertEquals(new MagmaDate(2000, 1, 29), getValueType().valueOf("2000-02-29").getValue());
+  }
+
+  @Test
+  public void test_toString_isISODateFormat() {
+    Assert.assertEquals("2011-01-05", getValueType().valueOf(new MagmaDate(2011, 0, 5)).toString());
+  }
+
   @Test
   public void test_toString_nullValueReturnsNull() {
     String s = getValueType().toString((Object) null);
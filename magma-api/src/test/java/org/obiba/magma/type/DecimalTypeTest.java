@@ -1,6 +1,8 @@
 package org.obiba.magma.type;
 
 import org.junit.Test;
+import org.obiba.magma.DecimalValue;
+import org.obiba.magma.Value;
 import org.obiba.magma.ValueType;
 
 import com.google.common.collect.ImmutableList;
@@ -47,4 +49,16 @@ public class DecimalTypeTest extends BaseValueTypeTest {
     assertThat(result, is(1.2));
   }
 
+  @Test
+  public void test_equals_inlineValueEqualsLoadedValue() {
+    Value inline = DecimalType.get().valueOf(1.5);
+    Value loaded = DecimalType.get().valueOf(new Value.StaticValueLoader(1.5));
+    assertThat(inline instanceof DecimalValue, is(true));
+    assertThat(((DecimalValue) inline).getDouble(), is(1.5));
+    assertThat(inline.equals(loaded), is(true));
+    assertThat(loaded.equals(inline), is(true));
+    assertThat(inline.hashCode(), is(loaded.hashCode()));
+    assertThat(DecimalType.get().compare(inline, DecimalType.get().valueOf(2.5)), is(-1));
+  }
+
 }
@@ -1,6 +1,7 @@
 package org.obiba.magma.type;
 
 import org.junit.Test;
+import org.obiba.magma.IntegerValue;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueType;
 
@@ -79,4 +80,25 @@ public class IntegerTypeTest extends BaseValueTypeTest {
     Long result = (Long) getValueType().valueOf(" 1 ").getValue();
     assertThat(result.intValue(), is(1));
   }
+
+  @Test
+  public void test_valueOf_holdsLongInline() {
+    Value value = IntegerType.get().valueOf(42L);
+    assertThat(value instanceof IntegerValue, is(true));
+    assertThat(((IntegerValue) value).getLong(), is(42L));
+    assertThat(((IntegerValue) value).getDouble(), is(42.0));
+    assertThat(value.getLength(), is(2L));
+  }
+
+  @Test
+  public void test_equals_inlineValueEqualsLoadedValue() {
+    Value inline = IntegerType.get().valueOf(42L);
+    Value loaded = IntegerType.get().valueOf(new Value.StaticValueLoader(42L));
+    assertThat(inline instanceof IntegerValue, is(true));
+    assertThat(loaded instanceof IntegerValue, is(false));
+    assertThat(inline.equals(loaded), is(true));
+    assertThat(loaded.equals(inline), is(true));
+    assertThat(inline.hashCode(), is(loaded.hashCode()));
+    assertThat(inline.equals(IntegerType.get().valueOf(43L)), is(false));
+  }
 }
@@ -2,6 +2,7 @@ package org.obiba.magma.views;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -9,14 +10,17 @@ import java.util.Set;
 import org.junit.Test;
 import org.obiba.magma.NoSuchValueSetException;
 import org.obiba.magma.NoSuchVariableException;
+import org.obiba.magma.Timestamps;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.support.NullTimestamps;
 import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.DateTimeType;
 import org.obiba.magma.type.TextType;
 
 import com.google.common.collect.ImmutableSet;
@@ -27,6 +31,7 @@ import com.google.common.collect.Sets;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -219,6 +224,54 @@ public class JoinTableTest extends AbstractMagmaTest {
     assertNotNull(joinTable.getValueSet(newEntity("2")));
   }
 
+  @Test
+  public void test_entityIndex_isRebuiltWhenATableIsUpdated() {
+    MutableTimestamps timestamps = new MutableTimestamps(DateTimeType.get().valueOf(new Date(1000)));
+    MockValueTableBuilder builder1 = newTableMock().withName("table1").withTimestamps(timestamps);
+    MockValueTableBuilder builder2 = newTableMock().withName("table2").withTimestamps(timestamps);
+    // member tables entities are read once per update, hasValueSet() is never called on them
+    expect(builder1.mock.getVariableEntities()).andReturn(ImmutableSet.<VariableEntity>of(newEntity("1"))).times(2);
+    expect(builder2.mock.getVariableEntities())
+        .andReturn(ImmutableSet.<VariableEntity>of(newEntity("1"), newEntity("2"))).times(2);
+    ValueTable table1 = builder1.build();
+    ValueTable table2 = builder2.build();
+    JoinTable joinTable = JoinTableBuilder.newBuilder().withMockTable(table1).withMockTable(table2).build();
+
+    assertEquals(2, joinTable.getVariableEntities().size());
+    assertTrue(joinTable.hasValueSet(newEntity("1")));
+    assertTrue(joinTable.hasValueSet(newEntity("2")));
+    assertFalse(joinTable.hasValueSet(newEntity("3")));
+    JoinTable.JoinedValueSet valueSet = (JoinTable.JoinedValueSet) joinTable.getValueSet(newEntity("2"));
+    assertTrue(Iterables.isEmpty(valueSet.getInnerTableValueSets(ImmutableSet.of(table1))));
+
+    timestamps.setLastUpdate(DateTimeType.get().valueOf(new Date(2000)));
+    assertEquals(2, joinTable.getVariableEntities().size());
+    assertTrue(joinTable.hasValueSet(newEntity("2")));
+    verify(table1, table2);
+  }
+
+  @Test
+  public void test_lookups_doNotReadTablesLastUpdatesDuringIteration() {
+    MutableTimestamps timestamps = new MutableTimestamps(DateTimeType.get().valueOf(new Date(1000)));
+    MockValueTableBuilder builder1 = newTableMock().withName("table1").withTimestamps(timestamps);
+    MockValueTableBuilder builder2 = newTableMock().withName("table2").withTimestamps(timestamps);
+    expect(builder1.mock.getVariableEntities()).andReturn(ImmutableSet.<VariableEntity>of(newEntity("1")));
+    expect(builder2.mock.getVariableEntities()).andReturn(ImmutableSet.<VariableEntity>of(newEntity("2")));
+    JoinTable joinTable = JoinTableBuilder.newBuilder().withMockTable(builder1.build())
+        .withMockTable(builder2.build()).build();
+
+    int reads = timestamps.getLastUpdateReads();
+    for(VariableEntity entity : joinTable.getVariableEntities()) {
+      assertTrue(joinTable.hasValueSet(entity));
+      assertNotNull(joinTable.getValueSet(entity));
+    }
+    // once per table, when the iteration begins
+    assertEquals(reads + 2, timestamps.getLastUpdateReads());
+
+    joinTable.getVariableEntities();
+    assertEquals(reads + 4, timestamps.getLastUpdateReads());
+  }
+
   //TODO testGetValue but hard to test with mockups
   // @Test
   public void testGetValue() {
@@ -297,6 +350,8 @@ public class JoinTableTest extends AbstractMagmaTest {
 
     private final Collection<Variable> variables = new HashSet<Variable>();
 
+    private Timestamps timestamps = NullTimestamps.get();
+
     static MockValueTableBuilder newTableMock() {
       return newTableMock(PARTICIPANT_ENTITY_TYPE);
     }
@@ -310,6 +365,11 @@ public class JoinTableTest extends AbstractMagmaTest {
       return builder;
     }
 
+    MockValueTableBuilder withTimestamps(Timestamps timestamps) {
+      this.timestamps = timestamps;
+      return this;
+    }
+
     MockValueTableBuilder withName(String name) {
       expect(mock.getName()).andReturn(name).anyTimes();
       return this;
@@ -364,6 +424,7 @@ public class JoinTableTest extends AbstractMagmaTest {
     }
 
     ValueTable build() {
+      expect(mock.getTimestamps()).andReturn(timestamps).anyTimes();
       replay(mock);
       return mock;
     }
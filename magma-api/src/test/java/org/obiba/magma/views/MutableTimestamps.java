@@ -0,0 +1,41 @@
+package org.obiba.magma.views;
+
+import javax.annotation.Nonnull;
+
+import org.obiba.magma.Timestamps;
+import org.obiba.magma.Value;
+
+/**
+ * Timestamps of a mocked table that can be updated, and that count the reads of their last update.
+ */
+class MutableTimestamps implements Timestamps {
+
+  private Value lastUpdate;
+
+  private int lastUpdateReads;
+
+  MutableTimestamps(Value lastUpdate) {
+    this.lastUpdate = lastUpdate;
+  }
+
+  void setLastUpdate(Value lastUpdate) {
+    this.lastUpdate = lastUpdate;
+  }
+
+  int getLastUpdateReads() {
+    return lastUpdateReads;
+  }
+
+  @Nonnull
+  @Override
+  public Value getLastUpdate() {
+    lastUpdateReads++;
+    return lastUpdate;
+  }
+
+  @Nonnull
+  @Override
+  public Value getCreated() {
+    return lastUpdate;
+  }
+}
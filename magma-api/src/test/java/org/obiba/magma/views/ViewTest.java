@@ -1,7 +1,9 @@
 package org.obiba.magma.views;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -20,10 +22,12 @@ import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.support.ValueSetBean;
 import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.DateTimeType;
 import org.obiba.magma.type.TextType;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 
 import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
@@ -550,6 +554,119 @@ public class ViewTest extends AbstractMagmaTest {
     assertNotNull(result);
   }
 
+  @Test
+  public void testGetVariableEntitiesIsCachedUntilWrappedTableIsUpdated() {
+    ValueTable valueTableMock = createMock(ValueTable.class);
+    WhereClause whereClauseMock = createMock(WhereClause.class);
+    VariableEntity included = new VariableEntityBean("type", "id1");
+    VariableEntity excluded = new VariableEntityBean("type", "id2");
+    ValueSet includedValueSet = new ValueSetBean(valueTableMock, included);
+    ValueSet excludedValueSet = new ValueSetBean(valueTableMock, excluded);
+    MutableTimestamps timestamps = new MutableTimestamps(DateTimeType.get().valueOf(new Date(1000)));
+
+    expect(valueTableMock.getTimestamps()).andReturn(timestamps).anyTimes();
+    expect(valueTableMock.getVariableEntities()).andReturn(Sets.newLinkedHashSet(Arrays.asList(included, excluded)))
+        .anyTimes();
+    expect(valueTableMock.hasValueSet((VariableEntity) anyObject())).andReturn(true).anyTimes();
+    expect(valueTableMock.getValueSet(included)).andReturn(includedValueSet).anyTimes();
+    expect(valueTableMock.getValueSet(excluded)).andReturn(excludedValueSet).anyTimes();
+    // each entity is evaluated once per update of the table
+    expect(whereClauseMock.where(includedValueSet)).andReturn(true).times(2);
+    expect(whereClauseMock.where(excludedValueSet)).andReturn(false).times(2);
+    replay(valueTableMock, whereClauseMock);
+
+    View view = View.Builder.newView("view", valueTableMock).where(whereClauseMock).build();
+    assertEquals(Sets.newHashSet(included), view.getVariableEntities());
+    assertEquals(Sets.newHashSet(included), view.getVariableEntities());
+    assertTrue(view.hasValueSet(included));
+    assertFalse(view.hasValueSet(excluded));
+
+    timestamps.setLastUpdate(DateTimeType.get().valueOf(new Date(2000)));
+    assertEquals(Sets.newHashSet(included), view.getVariableEntities());
+    assertFalse(view.hasValueSet(excluded));
+
+    verify(valueTableMock, whereClauseMock);
+  }
+
+  @Test
+  public void testHasValueSetDoesNotReadLastUpdateOfWrappedTableDuringIteration() {
+    ValueTable valueTableMock = createMock(ValueTable.class);
+    WhereClause whereClauseMock = createMock(WhereClause.class);
+    VariableEntity included = new VariableEntityBean("type", "id1");
+    VariableEntity excluded = new VariableEntityBean("type", "id2");
+    MutableTimestamps timestamps = new MutableTimestamps(DateTimeType.get().valueOf(new Date(1000)));
+
+    expect(valueTableMock.getTimestamps()).andReturn(timestamps).anyTimes();
+    expect(valueTableMock.getVariableEntities()).andReturn(Sets.newLinkedHashSet(Arrays.asList(included, excluded)))
+        .anyTimes();
+    expect(valueTableMock.hasValueSet((VariableEntity) anyObject())).andReturn(true).anyTimes();
+    expect(valueTableMock.getValueSet(included)).andReturn(new ValueSetBean(valueTableMock, included)).anyTimes();
+    expect(valueTableMock.getValueSet(excluded)).andReturn(new ValueSetBean(valueTableMock, excluded)).anyTimes();
+    expect(whereClauseMock.where((ValueSet) anyObject())).andReturn(true).anyTimes();
+    replay(valueTableMock, whereClauseMock);
+
+    View view = View.Builder.newView("view", valueTableMock).where(whereClauseMock).build();
+    for(VariableEntity entity : view.getVariableEntities()) {
+      assertTrue(view.hasValueSet(entity));
+    }
+    assertEquals(1, timestamps.getLastUpdateReads());
+
+    view.getVariableEntities();
+    assertEquals(2, timestamps.getLastUpdateReads());
+  }
+
+  @Test
+  public void testCachedWhereClauseIsEvaluatedAgainWhenWrappedTableIsUpdated() {
+    ValueTable valueTableMock = createMock(ValueTable.class);
+    WhereClause whereClauseMock = createMock(WhereClause.class);
+    VariableEntity entity = new VariableEntityBean("type", "id1");
+    ValueSet valueSet = new ValueSetBean(valueTableMock, entity);
+    MutableTimestamps timestamps = new MutableTimestamps(DateTimeType.get().valueOf(new Date(1000)));
+
+    expect(valueTableMock.getTimestamps()).andReturn(timestamps).anyTimes();
+    expect(valueTableMock.getDatasource()).andReturn(null).anyTimes();
+    expect(valueTableMock.getVariableEntities()).andReturn(Sets.newLinkedHashSet(Arrays.asList(entity))).anyTimes();
+    expect(valueTableMock.hasValueSet(entity)).andReturn(true).anyTimes();
+    expect(valueTableMock.getValueSet(entity)).andReturn(valueSet).anyTimes();
+    expect(whereClauseMock.where(valueSet)).andReturn(true).once();
+    expect(whereClauseMock.where(valueSet)).andReturn(false).once();
+    replay(valueTableMock, whereClauseMock);
+
+    View view = View.Builder.newView("view", valueTableMock).where(whereClauseMock).cacheWhere().build();
+    assertEquals(Sets.newHashSet(entity), view.getVariableEntities());
+    view.dispose();
+    assertEquals(Sets.newHashSet(entity), view.getVariableEntities());
+
+    timestamps.setLastUpdate(DateTimeType.get().valueOf(new Date(2000)));
+    assertTrue(view.getVariableEntities().isEmpty());
+
+    verify(valueTableMock, whereClauseMock);
+  }
+
+  @Test
+  public void testCachedWhereClauseIsEvaluatedEachTimeWhenWrappedTableHasNoLastUpdate() {
+    ValueTable valueTableMock = createMock(ValueTable.class);
+    WhereClause whereClauseMock = createMock(WhereClause.class);
+    VariableEntity entity = new VariableEntityBean("type", "id1");
+    ValueSet valueSet = new ValueSetBean(valueTableMock, entity);
+    MutableTimestamps timestamps = new MutableTimestamps(DateTimeType.get().nullValue());
+
+    expect(valueTableMock.getTimestamps()).andReturn(timestamps).anyTimes();
+    expect(valueTableMock.getDatasource()).andReturn(null).anyTimes();
+    expect(valueTableMock.getVariableEntities()).andReturn(Sets.newLinkedHashSet(Arrays.asList(entity))).anyTimes();
+    expect(valueTableMock.hasValueSet(entity)).andReturn(true).anyTimes();
+    expect(valueTableMock.getValueSet(entity)).andReturn(valueSet).anyTimes();
+    expect(whereClauseMock.where(valueSet)).andReturn(true).times(2);
+    replay(valueTableMock, whereClauseMock);
+
+    View view = View.Builder.newView("view", valueTableMock).where(whereClauseMock).cacheWhere().build();
+    assertEquals(Sets.newHashSet(entity), view.getVariableEntities());
+    view.dispose();
+    assertEquals(Sets.newHashSet(entity), view.getVariableEntities());
+
+    verify(valueTableMock, whereClauseMock);
+  }
+
   @Test(expected = IncompatibleEntityTypeException.class)
   public void testCreateViewDifferentEntityType() {
     ValueTable valueTableMock = createMock(ValueTable.class);
@@ -0,0 +1,58 @@
+package org.obiba.magma.datasource.crypt;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.crypt.support.GeneratedKeyPairProvider;
+import org.obiba.magma.support.StaticDatasource;
+import org.obiba.magma.test.AbstractMagmaTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class DefaultDatasourceCipherFactoryTest extends AbstractMagmaTest {
+
+  private static final byte[] CONTENT = "some content of an entry of a datasource".getBytes();
+
+  private DatasourceCipherFactory cipherFactory;
+
+  @Before
+  public void createCipherFactory() throws GeneralSecurityException {
+    GeneratedSecretKeyDatasourceEncryptionStrategy strategy = new GeneratedSecretKeyDatasourceEncryptionStrategy();
+    strategy.setKeyProvider(new GeneratedKeyPairProvider());
+    cipherFactory = strategy.createDatasourceCipherFactory(new StaticDatasource("datasource"));
+  }
+
+  @Test
+  public void test_createCiphers_returnsNewCiphers() {
+    assertThat(cipherFactory.createEncryptingCipher(), not(sameInstance(cipherFactory.createEncryptingCipher())));
+    assertThat(cipherFactory.createDecryptingCipher(), not(sameInstance(cipherFactory.createDecryptingCipher())));
+  }
+
+  @Test
+  public void test_createCiphers_decryptWhatTheyEncrypt() throws GeneralSecurityException {
+    byte[] encrypted = cipherFactory.createEncryptingCipher().doFinal(CONTENT);
+
+    assertThat(encrypted, not(CONTENT));
+    assertThat(cipherFactory.createDecryptingCipher().doFinal(encrypted), is(CONTENT));
+  }
+
+  @Test
+  public void test_ciphers_encryptEachEntryFromTheStartAfterDoFinal() throws GeneralSecurityException {
+    byte[] encrypted = cipherFactory.createEncryptingCipher().doFinal(CONTENT);
+
+    // a cipher is reused for the following entries
+    Cipher encryptingCipher = cipherFactory.createEncryptingCipher();
+    assertThat(encryptingCipher.doFinal(CONTENT), is(encrypted));
+    assertThat(encryptingCipher.doFinal(CONTENT), is(encrypted));
+    Cipher decryptingCipher = cipherFactory.createDecryptingCipher();
+    assertThat(decryptingCipher.doFinal(encrypted), is(CONTENT));
+    assertThat(decryptingCipher.doFinal(encrypted), is(CONTENT));
+  }
+
+}
@@ -0,0 +1,88 @@
+package org.obiba.magma.datasource.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+import javax.annotation.Nonnull;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+/**
+ * Buffered writer of lines at the end of a csv data file. The file is opened once and kept open until {@link #close()},
+ * lines are encoded here so that their byte offsets are known without querying the file.
+ */
+class CsvDataAppender implements Closeable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileOutputStream fileOutputStream;
+
+  private final OutputStream out;
+
+  private final Charset charset;
+
+  private final StringWriter lineWriter = new StringWriter();
+
+  private final CSVWriter csvWriter;
+
+  private long position;
+
+  private long flushedPosition;
+
+  CsvDataAppender(@Nonnull CsvDatasource datasource, @Nonnull File file) throws IOException {
+    fileOutputStream = new FileOutputStream(file, true);
+    out = new BufferedOutputStream(fileOutputStream, BUFFER_SIZE);
+    charset = datasource.getCharset();
+    csvWriter = datasource.getCsvWriter(lineWriter);
+    position = fileOutputStream.getChannel().size();
+    flushedPosition = position;
+  }
+
+  /**
+   * Appends a csv line.
+   *
+   * @return the byte offsets of the line, end of line included
+   */
+  CsvIndexEntry append(String... line) throws IOException {
+    lineWriter.getBuffer().setLength(0);
+    csvWriter.writeNext(line);
+    csvWriter.flush();
+    byte[] bytes = lineWriter.toString().getBytes(charset);
+    out.write(bytes);
+    long start = position;
+    position += bytes.length;
+    return new CsvIndexEntry(start, position);
+  }
+
+  /**
+   * Makes sure the bytes before {@code end} can be read from the file.
+   */
+  void flushTo(long end) throws IOException {
+    if(end > flushedPosition) flush();
+  }
+
+  void flush() throws IOException {
+    out.flush();
+    flushedPosition = position;
+  }
+
+  /**
+   * Flushes, syncs the file once and closes it.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+      fileOutputStream.getChannel().force(false);
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -0,0 +1,315 @@
+package org.obiba.magma.datasource.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.lang.Closeables;
+import org.obiba.magma.support.VariableEntityBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Binary sidecar of a csv data file that persists its index (header map and entity record offsets), so that a large
+ * data file does not have to be scanned when its table is initialised.
+ * <p/>
+ * The index is only trusted if the data file still has the size, the last modification time and the checksum of its
+ * first {@value #CHECKSUM_BLOCK_SIZE} bytes (its header and first records) recorded when the index was written, and was
+ * parsed with the same character set, separator and quote. Records appended to the data file can be appended to the
+ * index, which is then kept open until closed; a later entry for an entity supersedes the previous ones.
+ * <p/>
+ * The index is read with a plain channel rather than mapped, so that no mapping keeps the file locked on platforms
+ * that do not allow deleting or replacing a mapped file.
+ * <p/>
+ * Layout: magic, version, data file size, data file last modification, data file checksum, entry count, character
+ * set, separator, quote, header map ({@code name, position} pairs), then {@code identifier, start, end} entries.
+ */
+class CsvDataIndexFile {
+
+  private static final Logger log = LoggerFactory.getLogger(CsvDataIndexFile.class);
+
+  static final String EXTENSION = ".idx";
+
+  private static final int MAGIC = 0x4d474958; // MGIX
+
+  private static final int VERSION = 2;
+
+  private static final int CHECKSUM_BLOCK_SIZE = 64 * 1024;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final long SIZE_OFFSET = 8;
+
+  private static final long COUNT_OFFSET = 32;
+
+  @Nonnull
+  private final File dataFile;
+
+  @Nonnull
+  private final File indexFile;
+
+  @Nonnull
+  private final String characterSet;
+
+  private final char separator;
+
+  private final char quote;
+
+  /**
+   * The index opened by {@link #append(VariableEntity, CsvIndexEntry)}, until {@link #close()}.
+   */
+  @Nullable
+  private RandomAccessFile appendFile;
+
+  /**
+   * The size of the data file indexed by the entries of {@link #appendFile}.
+   */
+  private long indexedSize;
+
+  private int indexedCount;
+
+  CsvDataIndexFile(@Nonnull File dataFile, @Nonnull String characterSet, char separator, char quote) {
+    this.dataFile = dataFile;
+    indexFile = new File(dataFile.getParentFile(), dataFile.getName() + EXTENSION);
+    this.characterSet = characterSet;
+    this.separator = separator;
+    this.quote = quote;
+  }
+
+  /**
+   * Loads the index if it is up to date with the data file.
+   *
+   * @return false if there is no valid index: the maps are then left untouched
+   */
+  boolean load(Map<String, Integer> dataHeaderMap, Map<VariableEntity, CsvIndexEntry> entityIndex, String entityType) {
+    if(!indexFile.exists() || !dataFile.exists()) return false;
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(indexFile, "r");
+      ByteBuffer buffer = read(raf.getChannel());
+      if(!isValid(buffer)) return false;
+
+      int count = buffer.getInt();
+      if(!characterSet.equals(getString(buffer)) || buffer.getChar() != separator || buffer.getChar() != quote) {
+        return false;
+      }
+      int headerSize = buffer.getInt();
+      Map<String, Integer> headerMap = new HashMap<String, Integer>();
+      for(int i = 0; i < headerSize; i++) {
+        headerMap.put(getString(buffer), buffer.getInt());
+      }
+      Map<VariableEntity, CsvIndexEntry> entries = new LinkedHashMap<VariableEntity, CsvIndexEntry>();
+      for(int i = 0; i < count; i++) {
+        VariableEntity entity = new VariableEntityBean(entityType, getString(buffer));
+        // superseded entries: the latest one is the last in the table order
+        entries.remove(entity);
+        entries.put(entity, new CsvIndexEntry(buffer.getLong(), buffer.getLong()));
+      }
+      dataHeaderMap.putAll(headerMap);
+      entityIndex.putAll(entries);
+      log.debug("Loaded index of {} with {} entities", dataFile.getName(), entries.size());
+      return true;
+    } catch(IOException e) {
+      log.warn("Unable to read csv index {}: {}", indexFile.getAbsolutePath(), e.getMessage());
+      return false;
+    } catch(BufferUnderflowException e) {
+      log.warn("Truncated csv index {}", indexFile.getAbsolutePath());
+      return false;
+    } finally {
+      Closeables.closeQuietly(raf);
+    }
+  }
+
+  /**
+   * Writes the whole index, replacing any previous one.
+   */
+  void save(Map<String, Integer> dataHeaderMap, Map<VariableEntity, CsvIndexEntry> entityIndex) {
+    abandonAppend();
+    File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(dataFile.length());
+      out.writeLong(dataFile.lastModified());
+      out.writeLong(checksumDataFile());
+      out.writeInt(entityIndex.size());
+      putString(out, characterSet);
+      out.writeChar(separator);
+      out.writeChar(quote);
+      out.writeInt(dataHeaderMap.size());
+      for(Map.Entry<String, Integer> entry : dataHeaderMap.entrySet()) {
+        putString(out, entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+      for(Map.Entry<VariableEntity, CsvIndexEntry> entry : entityIndex.entrySet()) {
+        putEntry(out, entry.getKey(), entry.getValue());
+      }
+      out.close();
+      out = null;
+      if(indexFile.exists() && !indexFile.delete() || !tmpFile.renameTo(indexFile)) {
+        throw new IOException("Cannot replace " + indexFile.getName());
+      }
+    } catch(IOException e) {
+      log.warn("Unable to write csv index {}: {}", indexFile.getAbsolutePath(), e.getMessage());
+      Closeables.closeQuietly(out);
+      delete();
+      if(tmpFile.exists() && !tmpFile.delete()) {
+        log.warn("Unable to delete {}", tmpFile.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * Appends the entry of a record written at the end of the data file. The index is kept open until {@link #close()},
+   * which updates its header: an index that is not closed does not validate.
+   *
+   * @return false if the index was not up to date with the data file before this record, the index must then be saved
+   * as a whole
+   */
+  boolean append(VariableEntity entity, CsvIndexEntry indexEntry) {
+    try {
+      if(appendFile == null) openForAppend();
+      if(appendFile == null || indexEntry.getStart() != indexedSize) {
+        abandonAppend();
+        return false;
+      }
+      appendFile.write(toBytes(entity, indexEntry));
+      indexedSize = indexEntry.getEnd();
+      indexedCount++;
+      return true;
+    } catch(IOException e) {
+      log.warn("Unable to update csv index {}: {}", indexFile.getAbsolutePath(), e.getMessage());
+      abandonAppend();
+      return false;
+    }
+  }
+
+  /**
+   * Writes the header of the entries appended since the index was opened by {@link #append(VariableEntity,
+   * CsvIndexEntry)}, and closes it.
+   */
+  void close() {
+    if(appendFile == null) return;
+    try {
+      appendFile.seek(SIZE_OFFSET);
+      appendFile.writeLong(indexedSize);
+      appendFile.writeLong(dataFile.lastModified());
+      appendFile.writeLong(checksumDataFile());
+      appendFile.writeInt(indexedCount);
+    } catch(IOException e) {
+      log.warn("Unable to update csv index {}: {}", indexFile.getAbsolutePath(), e.getMessage());
+    } finally {
+      abandonAppend();
+    }
+  }
+
+  void delete() {
+    abandonAppend();
+    if(indexFile.exists() && !indexFile.delete()) {
+      log.warn("Unable to delete csv index {}", indexFile.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Opens the index positioned after its last entry, if it exists.
+   */
+  private void openForAppend() throws IOException {
+    if(!indexFile.exists()) return;
+    RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+    try {
+      if(raf.readInt() != MAGIC || raf.readInt() != VERSION) return;
+      indexedSize = raf.readLong();
+      raf.seek(COUNT_OFFSET);
+      indexedCount = raf.readInt();
+      raf.seek(raf.length());
+      appendFile = raf;
+      raf = null;
+    } finally {
+      Closeables.closeQuietly(raf);
+    }
+  }
+
+  /**
+   * Closes the index opened for appending without updating its header.
+   */
+  private void abandonAppend() {
+    Closeables.closeQuietly(appendFile);
+    appendFile = null;
+  }
+
+  private boolean isValid(ByteBuffer buffer) throws IOException {
+    return buffer.getInt() == MAGIC && buffer.getInt() == VERSION && buffer.getLong() == dataFile.length() &&
+        buffer.getLong() == dataFile.lastModified() && buffer.getLong() == checksumDataFile();
+  }
+
+  /**
+   * Returns the CRC-32 of the first {@value #CHECKSUM_BLOCK_SIZE} bytes of the data file.
+   */
+  private long checksumDataFile() throws IOException {
+    InputStream in = new FileInputStream(dataFile);
+    try {
+      byte[] block = new byte[CHECKSUM_BLOCK_SIZE];
+      CRC32 crc = new CRC32();
+      crc.update(block, 0, ByteStreams.read(in, block, 0, block.length));
+      return crc.getValue();
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+    while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      // read the whole file
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static byte[] toBytes(VariableEntity entity, CsvIndexEntry indexEntry) {
+    byte[] identifier = entity.getIdentifier().getBytes(UTF8);
+    return ByteBuffer.allocate(4 + identifier.length + 16).putInt(identifier.length).put(identifier)
+        .putLong(indexEntry.getStart()).putLong(indexEntry.getEnd()).array();
+  }
+
+  private static void putEntry(DataOutputStream out, VariableEntity entity, CsvIndexEntry indexEntry)
+      throws IOException {
+    putString(out, entity.getIdentifier());
+    out.writeLong(indexEntry.getStart());
+    out.writeLong(indexEntry.getEnd());
+  }
+
+  private static void putString(DataOutputStream out, String str) throws IOException {
+    byte[] bytes = str.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+}
@@ -5,10 +5,12 @@ import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -53,6 +55,8 @@ public class CsvDatasource extends AbstractDatasource {
 
   private int firstRow = 1;
 
+  private boolean appendOnly;
+
   public CsvDatasource(String name) {
     super(name, TYPE);
   }
@@ -173,6 +177,13 @@ public class CsvDatasource extends AbstractDatasource {
     return new CSVReader(reader, separator.getCharacter(), quote.getCharacter(), DEL_CHAR, getFirstRow() - 1);
   }
 
+  /**
+   * Returns a csv reader that does not skip the first rows: to be used on a record read at a known position.
+   */
+  CSVReader getCsvRecordReader(Reader reader) {
+    return new CSVReader(reader, separator.getCharacter(), quote.getCharacter(), DEL_CHAR);
+  }
+
   CSVParser getCsvParser() {
     // we don't want escape processing try DEL as a rare character until we can turn it off
     return new CSVParser(separator.getCharacter(), quote.getCharacter(), DEL_CHAR);
@@ -180,7 +191,15 @@ public class CsvDatasource extends AbstractDatasource {
 
   Reader getReader(File file) {
     try {
-      return new InputStreamReader(new FileInputStream(file), getCharacterSet());
+      return new InputStreamReader(getInputStream(file), getCharacterSet());
+    } catch(IOException e) {
+      throw new CsvDatasourceParsingException("Can not get csv reader.", e, "CsvCannotObtainReader", 0);
+    }
+  }
+
+  InputStream getInputStream(File file) {
+    try {
+      return new FileInputStream(file);
     } catch(IOException e) {
       throw new CsvDatasourceParsingException("Can not get csv reader.", e, "CsvCannotObtainReader", 0);
     }
@@ -210,6 +229,10 @@ public class CsvDatasource extends AbstractDatasource {
     return characterSet;
   }
 
+  Charset getCharset() {
+    return Charset.forName(characterSet);
+  }
+
   public void setFirstRow(int firstRow) {
     this.firstRow = firstRow;
   }
@@ -218,4 +241,17 @@ public class CsvDatasource extends AbstractDatasource {
     return firstRow;
   }
 
+  /**
+   * In append-only mode, writers never modify the data files in place: an updated value set is appended as a new line
+   * and the line it supersedes is left dead in the file until the table is compacted, see
+   * {@link CsvValueTable#compact()}.
+   */
+  public void setAppendOnly(boolean appendOnly) {
+    this.appendOnly = appendOnly;
+  }
+
+  public boolean isAppendOnly() {
+    return appendOnly;
+  }
+
 }
@@ -1,15 +1,22 @@
 package org.obiba.magma.datasource.csv;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,14 +32,18 @@ import org.obiba.magma.MagmaRuntimeException;
 import org.obiba.magma.NoSuchValueSetException;
 import org.obiba.magma.NoSuchVariableException;
 import org.obiba.magma.Timestamps;
+import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.datasource.csv.converter.VariableConverter;
+import org.obiba.magma.datasource.csv.support.BufferedInputStreamEolSupport;
 import org.obiba.magma.datasource.csv.support.BufferedReaderEolSupport;
+import org.obiba.magma.datasource.csv.support.ByteRangeReader;
 import org.obiba.magma.datasource.csv.support.CsvDatasourceParsingException;
+import org.obiba.magma.datasource.csv.support.EolSupportReader;
 import org.obiba.magma.lang.Closeables;
 import org.obiba.magma.support.AbstractValueTable;
 import org.obiba.magma.support.VariableEntityBean;
@@ -43,6 +54,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.AbstractIterator;
 
 import au.com.bytecode.opencsv.CSVParser;
 import au.com.bytecode.opencsv.CSVReader;
@@ -59,6 +71,11 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
 
   private static final Logger log = LoggerFactory.getLogger(CsvValueTable.class);
 
+  /**
+   * Vectors of less than one entity out of this number are read record by record instead of scanning the data file.
+   */
+  private static final int INDEXED_READ_MAXIMUM_FRACTION = 10;
+
   private ValueTable refTable;
 
   @Nullable
@@ -78,6 +95,24 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
 
   private final LinkedHashMap<String, CsvIndexEntry> variableNameIndex = new LinkedHashMap<String, CsvIndexEntry>();
 
+  /**
+   * Shared random access to the data file records, null if the character set does not allow byte offsets.
+   */
+  @Nullable
+  private ByteRangeReader dataRangeReader;
+
+  /**
+   * Persisted copy of the data file index, null if there is no data file.
+   */
+  @Nullable
+  private CsvDataIndexFile dataIndexFile;
+
+  /**
+   * Writes to the data file in append-only mode, open while a writer appends to this table.
+   */
+  @Nullable
+  private CsvDataAppender dataAppender;
+
   private boolean isLastDataCharacterNewline;
 
   private boolean isLastVariablesCharacterNewline;
@@ -120,22 +155,68 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     return Collections.unmodifiableSet(variableEntityProvider.getVariableEntities());
   }
 
+  /**
+   * Value sets are read in a single forward pass over the data file, in file order.
+   */
+  @Override
+  public Iterable<ValueSet> getValueSets() {
+    return new Iterable<ValueSet>() {
+      @Override
+      public Iterator<ValueSet> iterator() {
+        if(dataFile == null || !dataFile.exists() || entityIndex.isEmpty()) {
+          return Collections.<ValueSet>emptyList().iterator();
+        }
+        try {
+          if(dataAppender != null) dataAppender.flush();
+        } catch(IOException e) {
+          throw new MagmaRuntimeException(e);
+        }
+        return new ValueSetScanIterator(getEolSupportReader(dataFile));
+      }
+    };
+  }
+
+  /**
+   * Reads the values of {@code variable} for the {@code entities} that have a value set. When they are few compared to
+   * the entities of the table and records can be read by byte offset, only their indexed records are read. Otherwise
+   * the data file is scanned until all of them are found; the values of the other variables are not converted.
+   */
+  Map<VariableEntity, Value> getValues(Variable variable, Set<VariableEntity> entities) {
+    Map<VariableEntity, Value> values = new HashMap<VariableEntity, Value>();
+    if(dataRangeReader != null && entities.size() * INDEXED_READ_MAXIMUM_FRACTION < entityIndex.size()) {
+      for(VariableEntity entity : entities) {
+        if(entityIndex.containsKey(entity)) {
+          values.put(entity, ((CsvValueSet) getValueSet(entity)).getValue(variable));
+        }
+      }
+      return values;
+    }
+    if(dataFile == null || !dataFile.exists() || entityIndex.isEmpty()) return values;
+    try {
+      if(dataAppender != null) dataAppender.flush();
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+    Iterator<ValueSet> valueSets = new ValueSetScanIterator(getEolSupportReader(dataFile), entities);
+    while(valueSets.hasNext()) {
+      CsvValueSet valueSet = (CsvValueSet) valueSets.next();
+      values.put(valueSet.getVariableEntity(), valueSet.getValue(variable));
+    }
+    return values;
+  }
+
   @Override
   public ValueSet getValueSet(VariableEntity entity) throws NoSuchValueSetException {
     CsvIndexEntry indexEntry = entityIndex.get(entity);
     if(indexEntry == null) {
       throw new NoSuchValueSetException(this, entity);
     }
-    @SuppressWarnings("ConstantConditions")
-    Reader reader = getCsvDatasource().getReader(dataFile);
     try {
-      CSVReader csvReader = getCsvDatasource().getCsvReader(reader);
-      skipSafely(reader, indexEntry.getStart());
-      return new CsvValueSet(this, entity, dataHeaderMap, csvReader.readNext());
+      if(dataAppender != null) dataAppender.flushTo(indexEntry.getEnd());
+      //noinspection ConstantConditions
+      return new CsvValueSet(this, entity, dataHeaderMap, readLine(dataRangeReader, dataFile, indexEntry));
     } catch(IOException e) {
       throw new MagmaRuntimeException(e);
-    } finally {
-      Closeables.closeQuietly(reader);
     }
   }
 
@@ -144,6 +225,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     try {
       initialiseVariables();
       initialiseData();
+      initialiseDataRangeReader();
       variableEntityProvider = new CSVVariableEntityProvider(entityType);
     } catch(IOException e) {
       throw new CsvDatasourceParsingException("Error occurred initialising csv datasource.", e,
@@ -153,6 +235,13 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
 
   @Override
   public void dispose() {
+    try {
+      closeDataAppender();
+    } catch(IOException e) {
+      log.warn("Unable to close data file of table {}: {}", getName(), e.getMessage());
+    }
+    Closeables.closeQuietly(dataRangeReader);
+    dataRangeReader = null;
   }
 
   private void initialiseVariables() throws IOException {
@@ -170,7 +259,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
   private void initialiseVariablesFromRefTable() throws IOException {
     entityType = refTable.getEntityType();
     for(Variable var : refTable.getVariables()) {
-      addVariableValueSource(new CsvVariableValueSource(var));
+      addVariableValueSource(new CsvVariableValueSource(this, var));
     }
     missingVariableNames = getMissingVariableNames();
   }
@@ -210,7 +299,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
       entityType = var.getEntityType();
 
       variableNameIndex.put(var.getName(), lineIndex.get(count));
-      addVariableValueSource(new CsvVariableValueSource(var));
+      addVariableValueSource(new CsvVariableValueSource(this, var));
       nextLine = variableReader.readNext();
     }
   }
@@ -238,7 +327,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
         for(int i = 1; i < line.length; i++) {
           String variableName = line[i].trim();
           Variable.Builder variableBuilder = Variable.Builder.newVariable(variableName, TextType.get(), entityType);
-          addVariableValueSource(new CsvVariableValueSource(variableBuilder.build()));
+          addVariableValueSource(new CsvVariableValueSource(this, variableBuilder.build()));
         }
       }
     }
@@ -261,7 +350,23 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
   }
 
   private void initialiseData() throws IOException {
+    dataIndexFile = dataFile == null ? null : new CsvDataIndexFile(dataFile, getCsvDatasource().getCharacterSet(),
+        getCsvDatasource().getSeparator().getCharacter(), getCsvDatasource().getQuote().getCharacter());
+    if(dataIndexFile != null && dataIndexFile.load(dataHeaderMap, entityIndex, entityType)) {
+      //noinspection ConstantConditions
+      isDataFileEmpty = dataFile.length() == 0;
+      dataHeaderMapInitialized = !isDataFileEmpty;
+      return;
+    }
     buildDataLineIndex();
+    if(dataIndexFile != null && !isDataFileEmpty) {
+      dataIndexFile.save(dataHeaderMap, entityIndex);
+    }
+  }
+
+  private void initialiseDataRangeReader() {
+    Closeables.closeQuietly(dataRangeReader);
+    dataRangeReader = dataFile != null && isByteIndexed() ? new ByteRangeReader(dataFile, getCharset()) : null;
   }
 
   @Nonnull
@@ -275,7 +380,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     }
 
     CSVParser parser = getCsvDatasource().getCsvParser();
-    BufferedReaderEolSupport reader = new BufferedReaderEolSupport(getCsvDatasource().getReader(variableFile));
+    EolSupportReader reader = getEolSupportReader(variableFile);
     try {
       int line = 0;
       int innerline = 0;
@@ -318,7 +423,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     }
 
     CSVParser parser = getCsvDatasource().getCsvParser();
-    BufferedReaderEolSupport reader = new BufferedReaderEolSupport(getCsvDatasource().getReader(dataFile));
+    EolSupportReader reader = getEolSupportReader(dataFile);
     try {
       int line = 0;
       int innerline = 0;
@@ -328,6 +433,13 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
       while((nextLine = reader.readLine()) != null) {
         if(isDataFileEmpty) isDataFileEmpty = false;
 
+        if(!parser.isPending() && nextLine.trim().isEmpty()) {
+          // blank or blanked out line
+          start = reader.getCursorPosition();
+          line++;
+          continue;
+        }
+
         String[] values = parser.parseLineMulti(nextLine);
         Collections.addAll(multiLineValues, values);
         if(parser.isPending()) {
@@ -373,20 +485,82 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
 
     if(!log.isTraceEnabled()) return;
 
-    for(Map.Entry<Integer, T> entry : lineNumberMap.entrySet()) {
-      CsvIndexEntry indexEntry = entry.getValue();
-      log.trace("{}: {}", entry.getKey(), indexEntry);
-      Reader reader = getCsvDatasource().getReader(file);
-      try {
-        CSVReader csvReader = getCsvDatasource().getCsvReader(reader);
-        skipSafely(reader, indexEntry.getStart());
-        log.trace("   '{}'", Arrays.toString(csvReader.readNext()));
-      } catch(IOException e) {
-        throw new MagmaRuntimeException(e);
-      } finally {
-        Closeables.closeQuietly(reader);
+    ByteRangeReader rangeReader = isByteIndexed() ? new ByteRangeReader(file, getCharset()) : null;
+    try {
+      for(Map.Entry<Integer, T> entry : lineNumberMap.entrySet()) {
+        CsvIndexEntry indexEntry = entry.getValue();
+        log.trace("{}: {}", entry.getKey(), indexEntry);
+        log.trace("   '{}'", Arrays.toString(readLine(rangeReader, file, indexEntry)));
       }
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    } finally {
+      Closeables.closeQuietly(rangeReader);
+    }
+  }
+
+  /**
+   * Reads the csv record located by {@code indexEntry}. When a {@link ByteRangeReader} is available only the bytes of
+   * this record are read and decoded, otherwise the file is read from its beginning. The line-termination characters
+   * within quoted values are kept as they are in the file, see {@link #parseRecord(CharSequence)}.
+   */
+  @Nullable
+  private String[] readLine(@Nullable ByteRangeReader rangeReader, @Nonnull File file, CsvIndexEntry indexEntry)
+      throws IOException {
+    if(rangeReader != null) {
+      return parseRecord(rangeReader.read(indexEntry.getStart(), indexEntry.getEnd()));
+    }
+    Reader reader = getCsvDatasource().getReader(file);
+    try {
+      skipSafely(reader, indexEntry.getStart());
+      return readRecord(new BufferedReaderEolSupport(reader));
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Reads the lines of the next record, with the line-termination characters of its quoted values, and parses them.
+   */
+  @Nullable
+  private String[] readRecord(EolSupportReader reader) throws IOException {
+    CSVParser parser = getCsvDatasource().getCsvParser();
+    StringBuilder record = new StringBuilder();
+    String line;
+    while((line = reader.readLine()) != null) {
+      record.append(line);
+      parser.parseLineMulti(line);
+      if(!parser.isPending()) return parseRecord(record);
+      record.append(reader.getLineTerminator());
+    }
+    return record.length() == 0 ? null : parseRecord(record);
+  }
+
+  /**
+   * Parses a record as a single line, so that the line-termination characters of quoted values are kept: a record read
+   * line by line would have them replaced by a single '\n' and its blank lines dropped. The line-termination characters
+   * that end the record are ignored.
+   */
+  private String[] parseRecord(CharSequence record) throws IOException {
+    int end = record.length();
+    while(end > 0 && (record.charAt(end - 1) == '\n' || record.charAt(end - 1) == '\r')) {
+      end--;
     }
+    return getCsvDatasource().getCsvParser().parseLine(record.subSequence(0, end).toString());
+  }
+
+  /**
+   * Index entries are byte offsets when the character set allows splitting lines on raw bytes, otherwise they are
+   * character offsets.
+   */
+  private boolean isByteIndexed() {
+    return BufferedInputStreamEolSupport.isSupported(getCharset());
+  }
+
+  private EolSupportReader getEolSupportReader(@Nonnull File file) {
+    return isByteIndexed()
+        ? new BufferedInputStreamEolSupport(getCsvDatasource().getInputStream(file), getCharset())
+        : new BufferedReaderEolSupport(getCsvDatasource().getReader(file));
   }
 
   public void clear(@Nonnull File file, CsvIndexEntry indexEntry) throws IOException {
@@ -427,6 +601,154 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     }
   }
 
+  /**
+   * True if the writers of this table append the updated value sets instead of blanking out their previous line. Only
+   * possible when the data file is indexed by byte offsets.
+   */
+  boolean isAppendOnly() {
+    return getCsvDatasource().isAppendOnly() && isByteIndexed();
+  }
+
+  /**
+   * Appends a line to the data file in append-only mode. The file is kept open until {@link #closeDataAppender()}.
+   *
+   * @param entity the entity of the line, null for the header line
+   */
+  void appendDataLine(@Nullable VariableEntity entity, String... line) throws IOException {
+    if(dataFile == null) {
+      throw new MagmaRuntimeException("Cannot write to null data file for table " + getName());
+    }
+    if(dataAppender == null) {
+      dataAppender = new CsvDataAppender(getCsvDatasource(), dataFile);
+    }
+    CsvIndexEntry indexEntry = dataAppender.append(line);
+    if(entity != null) {
+      // the previous line of the entity, if any, is now dead: it is left in the file until compact()
+      entityIndex.remove(entity);
+      entityIndex.put(entity, indexEntry);
+    }
+  }
+
+  /**
+   * Closes the data file opened by {@link #appendDataLine(VariableEntity, String...)} and the persisted index opened by
+   * {@link #updateDataIndex(VariableEntity, long, long)}, and persists the index.
+   */
+  void closeDataAppender() throws IOException {
+    if(dataAppender != null) {
+      try {
+        dataAppender.close();
+      } finally {
+        dataAppender = null;
+      }
+      if(dataIndexFile != null) dataIndexFile.save(dataHeaderMap, entityIndex);
+    }
+    if(dataIndexFile != null) dataIndexFile.close();
+  }
+
+  /**
+   * Rewrites the data file with the header and the indexed line of each entity only, in file order: dead lines left by
+   * append-only updates and lines blanked out by in-place updates are dropped.
+   */
+  public void compact() throws IOException {
+    if(dataFile == null || !dataFile.exists()) return;
+    if(!isByteIndexed()) {
+      throw new MagmaRuntimeException(
+          "Cannot compact data file of table " + getName() + " encoded with character set " + getCharset());
+    }
+    closeDataAppender();
+
+    List<Map.Entry<VariableEntity, CsvIndexEntry>> entries = new ArrayList<Map.Entry<VariableEntity, CsvIndexEntry>>(
+        entityIndex.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<VariableEntity, CsvIndexEntry>>() {
+      @Override
+      public int compare(Map.Entry<VariableEntity, CsvIndexEntry> e1, Map.Entry<VariableEntity, CsvIndexEntry> e2) {
+        long start1 = e1.getValue().getStart();
+        long start2 = e2.getValue().getStart();
+        return start1 < start2 ? -1 : start1 == start2 ? 0 : 1;
+      }
+    });
+
+    File compactFile = new File(dataFile.getParentFile(), dataFile.getName() + ".compact");
+    Map<VariableEntity, CsvIndexEntry> compactIndex = new LinkedHashMap<VariableEntity, CsvIndexEntry>();
+    RandomAccessFile in = new RandomAccessFile(dataFile, "r");
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(compactFile);
+      FileChannel src = in.getChannel();
+      FileChannel dst = out.getChannel();
+      long position = copyLine(src, 0, getDataHeaderEnd(), dst);
+      for(Map.Entry<VariableEntity, CsvIndexEntry> entry : entries) {
+        long start = position;
+        position += copyLine(src, entry.getValue().getStart(), entry.getValue().getEnd(), dst);
+        compactIndex.put(entry.getKey(), new CsvIndexEntry(start, position));
+      }
+      dst.force(true);
+    } finally {
+      Closeables.closeQuietly(out);
+      Closeables.closeQuietly(in);
+    }
+
+    Closeables.closeQuietly(dataRangeReader);
+    if(!compactFile.renameTo(dataFile) && !(dataFile.delete() && compactFile.renameTo(dataFile))) {
+      throw new IOException("Cannot replace " + dataFile.getName() + " by its compacted copy");
+    }
+    log.debug("Compacted {}: {} lines", dataFile.getName(), compactIndex.size());
+    entityIndex.clear();
+    entityIndex.putAll(compactIndex);
+    initialiseDataRangeReader();
+    if(dataIndexFile != null) dataIndexFile.save(dataHeaderMap, entityIndex);
+  }
+
+  /**
+   * Byte offset of the end of the data file header, including its end of line.
+   */
+  private long getDataHeaderEnd() throws IOException {
+    CSVParser parser = getCsvDatasource().getCsvParser();
+    //noinspection ConstantConditions
+    EolSupportReader reader = getEolSupportReader(dataFile);
+    try {
+      String nextLine;
+      while((nextLine = reader.readLine()) != null) {
+        if(!parser.isPending() && nextLine.trim().isEmpty()) continue;
+        parser.parseLineMulti(nextLine);
+        if(!parser.isPending()) break;
+      }
+      return reader.getCursorPosition();
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Copies the line from {@code start} to {@code end} at the end of {@code dst}, its trailing end of line characters
+   * (blank lines included) being replaced by a single one.
+   *
+   * @return the number of bytes written
+   */
+  private static long copyLine(FileChannel src, long start, long end, FileChannel dst) throws IOException {
+    long lineEnd = end;
+    ByteBuffer last = ByteBuffer.allocate(1);
+    while(lineEnd > start) {
+      last.clear();
+      if(src.read(last, lineEnd - 1) <= 0) {
+        throw new EOFException("Unexpected end of file reading byte range [" + start + ", " + end + "[");
+      }
+      if(last.get(0) != NEWLINE_CHARACTER && last.get(0) != '\r') break;
+      lineEnd--;
+    }
+    if(lineEnd == start) return 0;
+    long position = start;
+    while(position < lineEnd) {
+      long transferred = src.transferTo(position, lineEnd - position, dst);
+      if(transferred <= 0) {
+        throw new EOFException("Unexpected end of file copying byte range [" + start + ", " + end + "[");
+      }
+      position += transferred;
+    }
+    dst.write(ByteBuffer.wrap(new byte[] { NEWLINE_CHARACTER }));
+    return lineEnd - start + 1;
+  }
+
   private class CSVVariableEntityProvider implements VariableEntityProvider {
 
     private final String entityType;
@@ -452,6 +774,128 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
 
   }
 
+  /**
+   * Reads the data file records one after the other with a single reader and returns the value set of the records that
+   * are the indexed ones of their entity: records that are not (blanked out or superseded) are skipped.
+   */
+  private class ValueSetScanIterator extends AbstractIterator<ValueSet> {
+
+    private final EolSupportReader reader;
+
+    private final CSVParser parser = getCsvDatasource().getCsvParser();
+
+    private final boolean byteIndexed = isByteIndexed();
+
+    private final Set<VariableEntity> scannedEntities = new HashSet<VariableEntity>();
+
+    /**
+     * Entities of the value sets to return, null for all of them.
+     */
+    @Nullable
+    private final Set<VariableEntity> entities;
+
+    /**
+     * Number of value sets left to return, the scan stops when there is none.
+     */
+    private int remaining;
+
+    private boolean headerSkipped = false;
+
+    private ValueSetScanIterator(EolSupportReader reader) {
+      this(reader, null);
+    }
+
+    private ValueSetScanIterator(EolSupportReader reader, @Nullable Set<VariableEntity> entities) {
+      this.reader = reader;
+      this.entities = entities;
+      remaining = entities == null ? entityIndex.size() : countIndexed(entities);
+    }
+
+    private int countIndexed(Set<VariableEntity> entities) {
+      int count = 0;
+      for(VariableEntity entity : entities) {
+        if(entityIndex.containsKey(entity)) count++;
+      }
+      return count;
+    }
+
+    @Override
+    protected ValueSet computeNext() {
+      if(remaining == 0) {
+        Closeables.closeQuietly(reader);
+        return endOfData();
+      }
+      try {
+        List<String> values = new ArrayList<String>();
+        StringBuilder record = new StringBuilder();
+        boolean multiLine = false;
+        long start = reader.getCursorPosition();
+        int blanks = 0;
+        String nextLine;
+        while((nextLine = reader.readLine()) != null) {
+          if(!parser.isPending()) {
+            if(nextLine.trim().isEmpty()) {
+              start = reader.getCursorPosition();
+              continue;
+            }
+            // a blanked out line without its own end of line can be a prefix of this one
+            blanks = countBlankingCharacters(nextLine);
+          }
+          record.append(nextLine);
+          Collections.addAll(values, parser.parseLineMulti(nextLine));
+          if(parser.isPending()) {
+            // keep the line-termination characters of the quoted value as they are in the file
+            record.append(reader.getLineTerminator());
+            multiLine = true;
+            continue;
+          }
+          if(multiLine) {
+            values.clear();
+            Collections.addAll(values, parseRecord(record));
+          }
+
+          ValueSet valueSet = headerSkipped ? toValueSet(start, blanks, values) : null;
+          headerSkipped = true;
+          if(valueSet != null) {
+            remaining--;
+            return valueSet;
+          }
+          values.clear();
+          record.setLength(0);
+          multiLine = false;
+          start = reader.getCursorPosition();
+        }
+        Closeables.closeQuietly(reader);
+        return endOfData();
+      } catch(IOException e) {
+        Closeables.closeQuietly(reader);
+        throw new MagmaRuntimeException(e);
+      }
+    }
+
+    private int countBlankingCharacters(String line) {
+      int count = 0;
+      while(count < line.length() && line.charAt(count) == BLANKING_CHARACTER) {
+        count++;
+      }
+      return count;
+    }
+
+    @Nullable
+    private ValueSet toValueSet(long start, int blanks, List<String> values) {
+      VariableEntity entity = new VariableEntityBean(entityType, values.get(0));
+      if(entities != null && !entities.contains(entity)) return null;
+      CsvIndexEntry indexEntry = entityIndex.get(entity);
+      if(indexEntry == null) return null;
+      // offsets of written lines are byte offsets, they cannot be compared in character offset mode
+      boolean indexed = byteIndexed
+          ? indexEntry.getStart() >= start && indexEntry.getStart() <= start + blanks
+          : scannedEntities.add(entity);
+      return indexed ? new CsvValueSet(CsvValueTable.this, entity, dataHeaderMap,
+          values.toArray(new String[values.size()])) : null;
+    }
+  }
+
   @SuppressWarnings("UnusedDeclaration")
   public boolean isLastDataCharacterNewline() {
     return isLastDataCharacterNewline;
@@ -540,29 +984,25 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     isLastVariablesCharacterNewline = true;
   }
 
-  public void updateDataIndex(VariableEntity entity, long lastByte, String... line) {
+  /**
+   * Indexes the line written for {@code entity} between byte offsets {@code start} and {@code end}, in memory and in
+   * the persisted index, which is kept open until {@link #closeDataAppender()}.
+   */
+  public void updateDataIndex(VariableEntity entity, long start, long end) {
     log.trace("entityIndex: {}", entityIndex);
-    entityIndex.put(entity, new CsvIndexEntry(lastByte, lastByte + lineLength(line)));
-  }
-
-  public void updateVariableIndex(Variable variable, long lastByte, String... line) {
-    variableNameIndex.put(variable.getName(), new CsvIndexEntry(lastByte, lastByte + lineLength(line)));
-    addVariableValueSource(new CsvVariableValueSource(variable));
+    CsvIndexEntry indexEntry = new CsvIndexEntry(start, end);
+    entityIndex.put(entity, indexEntry);
+    if(dataIndexFile != null && !dataIndexFile.append(entity, indexEntry)) {
+      dataIndexFile.save(dataHeaderMap, entityIndex);
+    }
   }
 
-  private int lineLength(String... line) {
-    try {
-      int length = 0;
-      for(String word : line) {
-        if(word != null) {
-          length += word.getBytes(getCharacterSet()).length + 2; // word + quote marks
-        }
-      }
-      length += line.length - 1; // commas
-      return length;
-    } catch(UnsupportedEncodingException e) {
-      throw new MagmaRuntimeException("Unable determine line length. ", e);
-    }
+  /**
+   * Indexes the line written for {@code variable} between byte offsets {@code start} and {@code end}.
+   */
+  public void updateVariableIndex(Variable variable, long start, long end) {
+    variableNameIndex.put(variable.getName(), new CsvIndexEntry(start, end));
+    addVariableValueSource(new CsvVariableValueSource(this, variable));
   }
 
   public Map<String, Integer> getDataHeaderMap() {
@@ -619,8 +1059,8 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     return (CsvDatasource) getDatasource();
   }
 
-  private String getCharacterSet() {
-    return getCsvDatasource().getCharacterSet();
+  private Charset getCharset() {
+    return getCsvDatasource().getCharset();
   }
 
   /**
@@ -43,8 +43,18 @@ public class CsvValueTableWriter implements ValueTableWriter {
     return new CsvVariableWriter();
   }
 
+  /**
+   * Rewrites the data file of the table without the lines superseded by updates.
+   *
+   * @see CsvValueTable#compact()
+   */
+  public void compact() throws IOException {
+    valueTable.compact();
+  }
+
   @Override
   public void close() throws IOException {
+    valueTable.closeDataAppender();
   }
 
   private class CsvVariableWriter implements VariableWriter {
@@ -66,7 +76,7 @@ public class CsvValueTableWriter implements ValueTableWriter {
         String[] line = variableConverter.marshal(variable);
         long lastByte = valueTable.getVariablesLastByte();
         writeVariableToCsv(line);
-        valueTable.updateVariableIndex(variable, lastByte, line);
+        valueTable.updateVariableIndex(variable, lastByte, valueTable.getVariablesLastByte());
       } catch(IOException e) {
         throw new MagmaRuntimeException(e);
       }
@@ -136,7 +146,7 @@ public class CsvValueTableWriter implements ValueTableWriter {
               "]. The new ValueSet (record) included the following unexpected Variables (fields): " + sb.toString());
         }
 
-        if(valueTable.hasValueSet(entity)) {
+        if(!valueTable.isAppendOnly() && valueTable.hasValueSet(entity)) {
           // Delete existing value set.
           valueTable.clearEntity(entity);
         }
@@ -145,11 +155,16 @@ public class CsvValueTableWriter implements ValueTableWriter {
       }
 
       // Writer Value set. Throw exception if doesn't match header
-      long lastByte = valueTable.getDataLastByte();
       String[] line = csvLine.getLine();
+      if(valueTable.isAppendOnly()) {
+        // existing value set is superseded, not deleted
+        valueTable.appendDataLine(entity, line);
+        return;
+      }
+      long lastByte = valueTable.getDataLastByte();
       writeValueToCsv(line);
       // Update index
-      valueTable.updateDataIndex(entity, lastByte, line);
+      valueTable.updateDataIndex(entity, lastByte, valueTable.getDataLastByte());
     }
 
     private void writeTableWithoutData() throws IOException {
@@ -164,7 +179,11 @@ public class CsvValueTableWriter implements ValueTableWriter {
         }
       }
 
-      writeValueToCsv(valueTable.getDataHeaderAsArray());
+      if(valueTable.isAppendOnly()) {
+        valueTable.appendDataLine(null, valueTable.getDataHeaderAsArray());
+      } else {
+        writeValueToCsv(valueTable.getDataHeaderAsArray());
+      }
       getExistingHeaderMap();
       valueTable.setDataHeaderMap(csvLine.getHeaderMap());
       valueTable.setDataFileEmpty(false);
@@ -1,5 +1,8 @@
 package org.obiba.magma.datasource.csv;
 
+import java.util.Map;
+import java.util.SortedSet;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -7,9 +10,13 @@ import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.VectorSource;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+
 /**
  * Used in two cases:
  * <ol>
@@ -17,11 +24,19 @@ import org.obiba.magma.VectorSource;
  * <li>When the variables provided are a reference from another table</li>
  * </ol>
  */
-public class CsvVariableValueSource implements VariableValueSource {
+public class CsvVariableValueSource implements VariableValueSource, VectorSource {
+
+  @Nullable
+  private final CsvValueTable table;
 
   private final Variable variable;
 
   public CsvVariableValueSource(Variable variable) {
+    this(null, variable);
+  }
+
+  public CsvVariableValueSource(@Nullable CsvValueTable table, Variable variable) {
+    this.table = table;
     this.variable = variable;
   }
 
@@ -45,7 +60,26 @@ public class CsvVariableValueSource implements VariableValueSource {
   @Nullable
   @Override
   public VectorSource asVectorSource() {
-    return null;
+    return table == null ? null : this;
+  }
+
+  /**
+   * Values are read by the table (see {@link CsvValueTable#getValues(Variable, java.util.Set)}) and returned in the
+   * order of {@code entities}.
+   */
+  @Override
+  public Iterable<Value> getValues(final SortedSet<VariableEntity> entities) {
+    if(table == null) throw new IllegalStateException("No table to read values of " + variable.getName() + " from");
+
+    final Map<VariableEntity, Value> values = table.getValues(variable, entities);
+    return Iterables.transform(entities, new Function<VariableEntity, Value>() {
+      @Override
+      public Value apply(VariableEntity entity) {
+        Value value = values.get(entity);
+        if(value != null) return value;
+        return variable.isRepeatable() ? getValueType().nullSequence() : getValueType().nullValue();
+      }
+    });
   }
 
   @Override
@@ -0,0 +1,146 @@
+package org.obiba.magma.datasource.csv.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Byte oriented counterpart of {@link BufferedReaderEolSupport}: lines are split on raw '\n' and '\r' bytes and decoded
+ * one at a time, so that {@link #getCursorPosition()} is a byte offset in the file rather than a character count.
+ * <p/>
+ * Only usable with character sets that encode end of line characters as their single ASCII byte, see
+ * {@link #isSupported(Charset)}.
+ */
+public class BufferedInputStreamEolSupport implements EolSupportReader {
+
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private static final int DEFAULT_EXPECTED_LINE_LENGTH = 80;
+
+  private static final byte[] EOL_BYTES = { '\r', '\n' };
+
+  private InputStream in;
+
+  private final Charset charset;
+
+  private final byte[] buffer;
+
+  private int count;
+
+  private int position;
+
+  private long bufferOffset;
+
+  private byte[] line = new byte[DEFAULT_EXPECTED_LINE_LENGTH];
+
+  private int lineLength;
+
+  private final StringBuilder lineTerminator = new StringBuilder(2);
+
+  public BufferedInputStreamEolSupport(InputStream in, Charset charset, int size) {
+    if(size <= 0) throw new IllegalArgumentException("Buffer size <= 0");
+    this.in = in;
+    this.charset = charset;
+    buffer = new byte[size];
+  }
+
+  public BufferedInputStreamEolSupport(InputStream in, Charset charset) {
+    this(in, charset, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Returns true if lines of a file encoded with {@code charset} can be safely split on '\n' and '\r' bytes, which is
+   * the case of UTF-8 and of the ASCII based single byte encodings, but not of UTF-16 for instance.
+   */
+  public static boolean isSupported(Charset charset) {
+    return charset.canEncode() && Arrays.equals(EOL_BYTES, "\r\n".getBytes(charset));
+  }
+
+  @Nullable
+  @Override
+  public String readLine() throws IOException {
+    ensureOpen();
+    lineLength = 0;
+    lineTerminator.setLength(0);
+    while(true) {
+      if(position >= count && !fill()) {
+        // EOF
+        return lineLength > 0 ? decodeLine() : null;
+      }
+      int i = position;
+      while(i < count && !isEol(buffer[i])) {
+        i++;
+      }
+      appendToLine(position, i - position);
+      position = i;
+      if(i < count) {
+        skipEol();
+        return decodeLine();
+      }
+    }
+  }
+
+  @Override
+  public long getCursorPosition() {
+    return bufferOffset + position;
+  }
+
+  @Override
+  public String getLineTerminator() {
+    return lineTerminator.toString();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(in == null) return;
+    in.close();
+    in = null;
+  }
+
+  private void ensureOpen() throws IOException {
+    if(in == null) throw new IOException("Stream closed");
+  }
+
+  /**
+   * Skips consecutive '\n' or '\r', as {@link BufferedReaderEolSupport#readLine()} does.
+   */
+  private void skipEol() throws IOException {
+    while(true) {
+      if(position >= count && !fill()) return;
+      if(!isEol(buffer[position])) return;
+      lineTerminator.append((char) buffer[position]);
+      position++;
+    }
+  }
+
+  private boolean fill() throws IOException {
+    bufferOffset += count;
+    position = 0;
+    int n;
+    do {
+      n = in.read(buffer, 0, buffer.length);
+    } while(n == 0);
+    count = n < 0 ? 0 : n;
+    return count > 0;
+  }
+
+  private void appendToLine(int offset, int length) {
+    if(lineLength + length > line.length) {
+      line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+    }
+    System.arraycopy(buffer, offset, line, lineLength, length);
+    lineLength += length;
+  }
+
+  private String decodeLine() {
+    return new String(line, 0, lineLength, charset);
+  }
+
+  private static boolean isEol(byte b) {
+    return b == '\n' || b == '\r';
+  }
+
+}
@@ -21,7 +21,7 @@ import javax.annotation.Nullable;
 @SuppressWarnings({ "OverlyLongMethod", "FieldCanBeLocal", "SynchronizeOnNonFinalField", "UnusedLabel",
     "UnnecessaryLabelOnBreakStatement", "ParameterHidesMemberVariable", "StaticNonFinalField", "FieldMayBeFinal",
     "MagicNumber", "PMD.NcssMethodCount" })
-public class BufferedReaderEolSupport extends Reader {
+public class BufferedReaderEolSupport extends Reader implements EolSupportReader {
 
   private Reader in;
 
@@ -55,6 +55,8 @@ public class BufferedReaderEolSupport extends Reader {
 
   private long bufferOffset;
 
+  private final StringBuilder lineTerminator = new StringBuilder(2);
+
   /**
    * Creates a buffering character-input stream that uses an input buffer of the specified size.
    *
@@ -267,12 +269,14 @@ public class BufferedReaderEolSupport extends Reader {
    * @see java.io.LineNumberReader#readLine()
    */
   @Nullable
+  @Override
   public String readLine() throws IOException {
     StringBuffer s = null;
     int startChar;
 
     synchronized(lock) {
       ensureOpen();
+      lineTerminator.setLength(0);
 
       bufferLoop:
       for(; ; ) {
@@ -309,13 +313,15 @@ public class BufferedReaderEolSupport extends Reader {
             str = s.toString();
           }
           nextChar++;
+          lineTerminator.append(c);
           if(c == '\r') {
             skipLF = true;
           }
 
           // Skip leftover '\n' or '\r', if necessary
           if(nextChar >= nChars) fill();
-          while(nextChar < cb.length && (cb[nextChar] == '\n' || cb[nextChar] == '\r')) {
+          while(nextChar < nChars && (cb[nextChar] == '\n' || cb[nextChar] == '\r')) {
+            lineTerminator.append(cb[nextChar]);
             nextChar++;
             if(nextChar >= nChars) fill();
           }
@@ -462,7 +468,13 @@ public class BufferedReaderEolSupport extends Reader {
     }
   }
 
+  @Override
   public long getCursorPosition() {
     return bufferOffset + nextChar;
   }
+
+  @Override
+  public String getLineTerminator() {
+    return lineTerminator.toString();
+  }
 }
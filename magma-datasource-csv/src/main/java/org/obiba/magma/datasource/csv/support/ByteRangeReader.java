@@ -0,0 +1,86 @@
+package org.obiba.magma.datasource.csv.support;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.obiba.magma.lang.Closeables;
+
+/**
+ * Decodes arbitrary byte ranges of a file (usually one csv record) without reading what precedes them.
+ * <p/>
+ * A single {@link FileChannel} is opened on first access and shared by all callers. Ranges are read with positional
+ * channel reads, which do not depend on the channel position, so an instance can be used concurrently.
+ */
+public class ByteRangeReader implements Closeable {
+
+  @Nonnull
+  private final File file;
+
+  @Nonnull
+  private final Charset charset;
+
+  @Nullable
+  private RandomAccessFile randomAccessFile;
+
+  @Nullable
+  private volatile FileChannel channel;
+
+  public ByteRangeReader(@Nonnull File file, @Nonnull Charset charset) {
+    this.file = file;
+    this.charset = charset;
+  }
+
+  /**
+   * Decodes the bytes from {@code start} (inclusive) to {@code end} (exclusive).
+   */
+  public String read(long start, long end) throws IOException {
+    if(start < 0 || end < start) {
+      throw new IllegalArgumentException("Invalid byte range [" + start + ", " + end + "[ in file " + file.getName());
+    }
+    if(end - start > Integer.MAX_VALUE) {
+      throw new IOException("Byte range [" + start + ", " + end + "[ is too large to be read at once");
+    }
+    ByteBuffer dst = ByteBuffer.allocate((int) (end - start));
+    FileChannel fileChannel = getChannel();
+    while(dst.hasRemaining()) {
+      if(fileChannel.read(dst, start + dst.position()) < 0) {
+        throw new EOFException("Unexpected end of file " + file.getName() + " reading byte range [" + start + ", " + end +
+            "[");
+      }
+    }
+    dst.flip();
+    return charset.decode(dst).toString();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel = null;
+    RandomAccessFile raf = randomAccessFile;
+    randomAccessFile = null;
+    Closeables.closeQuietly(raf);
+  }
+
+  private FileChannel getChannel() throws IOException {
+    FileChannel fileChannel = channel;
+    if(fileChannel == null) {
+      synchronized(this) {
+        if(channel == null) {
+          randomAccessFile = new RandomAccessFile(file, "r");
+          channel = randomAccessFile.getChannel();
+        }
+        fileChannel = channel;
+      }
+    }
+    return fileChannel;
+  }
+
+}
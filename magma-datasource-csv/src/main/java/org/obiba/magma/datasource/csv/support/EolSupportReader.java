@@ -0,0 +1,34 @@
+package org.obiba.magma.datasource.csv.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A line reader that does not return end of line characters but exposes the position of its cursor in the underlying
+ * file, so that an index of the lines can be built while reading.
+ */
+public interface EolSupportReader extends Closeable {
+
+  /**
+   * Reads a line of text, not including any line-termination characters. Consecutive line-termination characters are
+   * skipped.
+   *
+   * @return the line or null if the end of the stream has been reached
+   */
+  @Nullable
+  String readLine() throws IOException;
+
+  /**
+   * Position in the underlying file of the next character to be read.
+   */
+  long getCursorPosition();
+
+  /**
+   * Returns the line-termination characters skipped by the last call to {@link #readLine()}, in the order of the file:
+   * the line and its terminator are what was read. Empty if the end of the stream was reached.
+   */
+  String getLineTerminator();
+
+}
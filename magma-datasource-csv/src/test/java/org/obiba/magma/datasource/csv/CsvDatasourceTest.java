@@ -2,8 +2,11 @@ package org.obiba.magma.datasource.csv;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
@@ -15,6 +18,7 @@ import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VectorSource;
 import org.obiba.magma.datasource.csv.support.Quote;
 import org.obiba.magma.datasource.csv.support.Separator;
 import org.obiba.magma.support.AbstractValueTable;
@@ -27,7 +31,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import junit.framework.Assert;
 
@@ -178,6 +184,112 @@ public class CsvDatasourceTest extends AbstractMagmaTest {
     }
   }
 
+  @Test
+  public void test_table_data_scan_in_file_order() {
+    CsvDatasource datasource = new CsvDatasource("csv-datasource").addValueTable("Table1", //
+        getFileFromResource("Table1/variables.csv"), //
+        getFileFromResource("Table1/data.csv"));
+    datasource.initialise();
+    ValueTable table = datasource.getValueTable("Table1");
+
+    List<String> identifiers = Lists.newArrayList();
+    for(ValueSet valueSet : table.getValueSets()) {
+      identifiers.add(valueSet.getVariableEntity().getIdentifier());
+    }
+    assertThat(identifiers, is((List<String>) Lists.newArrayList("1", "2", "3", "4")));
+  }
+
+  @Test
+  public void test_table_data_scan_keeps_line_terminators_of_quoted_values() throws IOException {
+    File directory = File.createTempFile("csv", "");
+    assertTrue(directory.delete() && directory.mkdir());
+    try {
+      File dataFile = new File(directory, "data.csv");
+      String value = "first line\r\n\r\nafter a blank line\nlast line";
+      FileUtils.writeStringToFile(dataFile,
+          "entity_id,var1,var2\r\n1,\"" + value + "\",a\r\n2,\"single line\",b\r\n", "UTF-8");
+      CsvDatasource datasource = new CsvDatasource("csv-datasource")
+          .addValueTable("Table", dataFile, DEFAULT_ENTITY_TYPE);
+      datasource.initialise();
+      ValueTable table = datasource.getValueTable("Table");
+      Variable variable = table.getVariable("var1");
+
+      List<Value> scanned = Lists.newArrayList();
+      for(ValueSet valueSet : table.getValueSets()) {
+        scanned.add(table.getValue(variable, valueSet));
+        assertThat(table.getValue(table.getVariable("var2"), valueSet),
+            is(table.getValue(table.getVariable("var2"), table.getValueSet(valueSet.getVariableEntity()))));
+      }
+      assertThat(scanned.size(), is(2));
+      assertThat(scanned.get(0), is(TextType.get().valueOf(value)));
+      assertThat(table.getValue(variable, table.getValueSet(new VariableEntityBean(DEFAULT_ENTITY_TYPE, "1"))),
+          is(TextType.get().valueOf(value)));
+      assertThat(scanned.get(1), is(TextType.get().valueOf("single line")));
+      datasource.dispose();
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void test_table_data_vector_read() {
+    CsvDatasource datasource = new CsvDatasource("csv-datasource").addValueTable("Table1", //
+        getFileFromResource("Table1/variables.csv"), //
+        getFileFromResource("Table1/data.csv"));
+    datasource.initialise();
+    ValueTable table = datasource.getValueTable("Table1");
+
+    VectorSource vectorSource = table.getVariableValueSource("var2").asVectorSource();
+    assertThat(vectorSource, notNullValue());
+    //noinspection ConstantConditions
+    List<Value> values = Lists.newArrayList(vectorSource.getValues(
+        ImmutableSortedSet.<VariableEntity>of(new VariableEntityBean(DEFAULT_ENTITY_TYPE, "4"),
+            new VariableEntityBean(DEFAULT_ENTITY_TYPE, "2"), new VariableEntityBean(DEFAULT_ENTITY_TYPE, "5"))));
+    assertThat(values.size(), is(3));
+    assertThat(values.get(0), is(IntegerType.get().valueOf(12)));
+    assertThat(values.get(1), is(IntegerType.get().valueOf(14)));
+    assertThat(values.get(2).isNull(), is(true));
+  }
+
+  @Test
+  public void test_table_data_vector_read_of_few_and_of_most_entities() throws IOException {
+    File directory = File.createTempFile("csv", "");
+    assertTrue(directory.delete() && directory.mkdir());
+    try {
+      File dataFile = new File(directory, "data.csv");
+      StringBuilder data = new StringBuilder("entity_id,var1,var2\n");
+      for(int i = 0; i < 100; i++) {
+        data.append(String.format("%03d", i)).append(",\"text\n").append(i).append("\",").append(i * 2).append("\n");
+      }
+      FileUtils.writeStringToFile(dataFile, data.toString(), "UTF-8");
+      CsvDatasource datasource = new CsvDatasource("csv-datasource")
+          .addValueTable("Table", dataFile, DEFAULT_ENTITY_TYPE);
+      datasource.initialise();
+      ValueTable table = datasource.getValueTable("Table");
+      //noinspection ConstantConditions
+      VectorSource vectorSource = table.getVariableValueSource("var2").asVectorSource();
+
+      // few entities are read by their offset, most of them by scanning the data file
+      for(int count : new int[] { 3, 60 }) {
+        SortedSet<VariableEntity> entities = new TreeSet<VariableEntity>();
+        entities.add(new VariableEntityBean(DEFAULT_ENTITY_TYPE, "unknown"));
+        for(int i = 0; i < count; i++) {
+          entities.add(new VariableEntityBean(DEFAULT_ENTITY_TYPE, String.format("%03d", i * 100 / count)));
+        }
+        //noinspection ConstantConditions
+        List<Value> values = Lists.newArrayList(vectorSource.getValues(entities));
+        assertThat(values.size(), is(count + 1));
+        for(int i = 0; i < count; i++) {
+          assertThat(values.get(i).toString(), is(String.valueOf(i * 100 / count * 2)));
+        }
+        assertThat(values.get(count).isNull(), is(true));
+      }
+      datasource.dispose();
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
   @Test
   public void test_reading_data_only_table_has_only_one_table() throws Exception {
     CsvDatasource datasource = new CsvDatasource("csv-datasource").addValueTable("TableDataOnly", //
@@ -540,6 +652,102 @@ public class CsvDatasourceTest extends AbstractMagmaTest {
     assertEolValue(table, "5", "Nero", "NERO CLAVDIVS CAESAR AVGVSTVS GERMANICVS");
   }
 
+  @Test
+  public void test_random_access_to_wide_characters() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append("entity_id,Name\n");
+    sb.append("1,\"H\u00e9l\u00e8ne\"\n");
+    sb.append("2,\"Fran\u00e7ois\nMa\u00eetre\"\r\n");
+    sb.append("3,\"\u00c9lodie\"\n\n");
+    sb.append("4,\"J\u00fcrgen\"");
+
+    File dataFile = File.createTempFile("magma", "test-wide");
+    dataFile.deleteOnExit();
+    FileUtils.writeStringToFile(dataFile, sb.toString(), "utf-8");
+
+    CsvDatasource datasource = new CsvDatasource("csv-datasource")
+        .addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    datasource.initialise();
+    ValueTable table = datasource.getValueTable("Table1");
+
+    // read backwards so that each value set is located by its own offset
+    assertNameValue(table, "4", "J\u00fcrgen");
+    assertNameValue(table, "3", "\u00c9lodie");
+    assertNameValue(table, "2", "Fran\u00e7ois\nMa\u00eetre");
+    assertNameValue(table, "1", "H\u00e9l\u00e8ne");
+    datasource.dispose();
+  }
+
+  @Test
+  public void test_data_index_is_persisted_and_validated() throws IOException {
+    File dataFile = File.createTempFile("magma", "test-index");
+    dataFile.deleteOnExit();
+    FileUtils.writeStringToFile(dataFile, "entity_id,Name\n1,Augustus\n2,Tiberius\n", "utf-8");
+    File indexFile = new File(dataFile.getParentFile(), dataFile.getName() + CsvDataIndexFile.EXTENSION);
+    indexFile.deleteOnExit();
+
+    CsvDatasource datasource = new CsvDatasource("csv-datasource")
+        .addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    datasource.initialise();
+    datasource.dispose();
+    assertThat(indexFile.exists(), is(true));
+
+    // index is reused
+    datasource = new CsvDatasource("csv-datasource").addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    datasource.initialise();
+    ValueTable table = datasource.getValueTable("Table1");
+    assertThat(table.getVariableEntities().size(), is(2));
+    assertNameValue(table, "2", "Tiberius");
+    datasource.dispose();
+
+    // index is outdated
+    FileUtils.writeStringToFile(dataFile, "entity_id,Name\n1,Augustus\n2,Tiberius\n3,Caligula\n", "utf-8");
+    datasource = new CsvDatasource("csv-datasource").addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    datasource.initialise();
+    table = datasource.getValueTable("Table1");
+    assertThat(table.getVariableEntities().size(), is(3));
+    assertNameValue(table, "3", "Caligula");
+    datasource.dispose();
+  }
+
+  @Test
+  public void test_data_index_is_not_trusted_when_data_file_start_changes_with_same_size_and_modification()
+      throws IOException {
+    File dataFile = File.createTempFile("magma", "test-index");
+    dataFile.deleteOnExit();
+    FileUtils.writeStringToFile(dataFile, "entity_id,Name\n1,Augustus\n2,Tiberius\n", "utf-8");
+    File indexFile = new File(dataFile.getParentFile(), dataFile.getName() + CsvDataIndexFile.EXTENSION);
+    indexFile.deleteOnExit();
+
+    CsvDatasource datasource = new CsvDatasource("csv-datasource")
+        .addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    datasource.initialise();
+    datasource.dispose();
+    assertThat(indexFile.exists(), is(true));
+
+    // same size and modification time, different entity
+    long lastModified = dataFile.lastModified();
+    FileUtils.writeStringToFile(dataFile, "entity_id,Name\n1,Augustus\n3,Tiberius\n", "utf-8");
+    assertThat(dataFile.setLastModified(lastModified), is(true));
+
+    datasource = new CsvDatasource("csv-datasource").addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    datasource.initialise();
+    ValueTable table = datasource.getValueTable("Table1");
+    assertThat(table.getVariableEntities().size(), is(2));
+    assertThat(table.hasValueSet(new VariableEntityBean(DEFAULT_ENTITY_TYPE, "2")), is(false));
+    assertNameValue(table, "3", "Tiberius");
+    datasource.dispose();
+
+    // the index read at initialisation does not prevent replacing it
+    assertThat(indexFile.delete(), is(true));
+  }
+
+  private void assertNameValue(ValueTable table, String entityId, String name) {
+    VariableEntity entity = new VariableEntityBean(DEFAULT_ENTITY_TYPE, entityId);
+    Value value = table.getValue(table.getVariable("Name"), table.getValueSet(entity));
+    assertThat((String) value.getValue(), is(name));
+  }
+
   private void assertEolVariable(ValueTable table, String name) {
     Variable variable = table.getVariable(name);
     assertThat(variable, notNullValue());
@@ -89,6 +89,98 @@ public class CsvValueTableWriterTest extends AbstractMagmaTest {
     }
   }
 
+  @Test
+  public void test_append_only_update_and_compact() throws Exception {
+    File tempTestDirectory = new TempTableBuilder("TableDataOnly")
+        .addData(getFileFromResource("TableDataOnly/data.csv")).build();
+    File dataFile = new File(tempTestDirectory.getCanonicalFile() + "/TableDataOnly", "data.csv");
+
+    CsvDatasource datasource = new CsvDatasource("csv-datasource").addValueTable("TableDataOnly", null, dataFile);
+    datasource.setAppendOnly(true);
+    datasource.initialise();
+    Variable firstName = datasource.getValueTable("TableDataOnly").getVariable("FirstName");
+    VariableEntity dennis = new VariableEntityBean("Participant", "2");
+
+    ValueTableWriter writer = datasource.createWriter("TableDataOnly", "Participant");
+    Map<Variable, Value> values = Maps.newHashMap();
+    values.put(firstName, TextType.get().valueOf("Denis"));
+    writeValueSet(dennis, writer, values);
+    // previous update is read back before being flushed
+    values.put(firstName, TextType.get().valueOf("Dennys"));
+    writeValueSet(dennis, writer, values);
+    writer.close();
+
+    // superseded lines are still in the file
+    List<String> lines = FileUtils.readLines(dataFile, "UTF-8");
+    assertThat(lines.size(), is(8));
+    assertThat(lines.get(2), is("2,Dennis,Spathis,M,Montreal,"));
+    assertThat(lines.get(6), is("\"2\",\"Denis\",\"Spathis\",\"M\",\"Montreal\","));
+
+    ValueTable table = datasource.getValueTable("TableDataOnly");
+    assertThat(table.getVariableEntities().size(), is(4));
+    assertThat((String) table.getValue(firstName, table.getValueSet(dennis)).getValue(), is("Dennys"));
+    assertThat(Lists.newArrayList(table.getValueSets()).size(), is(4));
+    assertThat((String) readValue(table, dennis, firstName).getValue(), is("Dennys"));
+
+    writer = datasource.createWriter("TableDataOnly", "Participant");
+    ((CsvValueTableWriter) writer).compact();
+    writer.close();
+    datasource.dispose();
+
+    lines = FileUtils.readLines(dataFile, "UTF-8");
+    assertThat(lines.size(), is(5));
+    assertThat(lines.get(4), is("\"2\",\"Dennys\",\"Spathis\",\"M\",\"Montreal\","));
+
+    CsvDatasource readDatasource = new CsvDatasource("read-csv-datasource")
+        .addValueTable("TableDataOnly", null, dataFile);
+    readDatasource.initialise();
+    table = readDatasource.getValueTable("TableDataOnly");
+    assertThat(table.getVariableEntities().size(), is(4));
+    assertThat((String) table.getValue(firstName, table.getValueSet(dennis)).getValue(), is("Dennys"));
+    assertThat((String) readValue(table, new VariableEntityBean("Participant", "4"), firstName).getValue(),
+        is("Chuping"));
+    readDatasource.dispose();
+  }
+
+  @Test
+  public void test_in_place_update_keeps_data_index_valid() throws Exception {
+    File tempTestDirectory = new TempTableBuilder("TableDataOnly")
+        .addData(getFileFromResource("TableDataOnly/data.csv")).build();
+    File dataFile = new File(tempTestDirectory.getCanonicalFile() + "/TableDataOnly", "data.csv");
+
+    CsvDatasource datasource = new CsvDatasource("csv-datasource").addValueTable("TableDataOnly", null, dataFile);
+    datasource.initialise();
+    Variable firstName = datasource.getValueTable("TableDataOnly").getVariable("FirstName");
+
+    ValueTableWriter writer = datasource.createWriter("TableDataOnly", "Participant");
+    Map<Variable, Value> values = Maps.newHashMap();
+    values.put(firstName, TextType.get().valueOf("Denis"));
+    // the previous line of the entity is blanked out in the checksummed start of the data file
+    writeValueSet(new VariableEntityBean("Participant", "2"), writer, values);
+    values.put(firstName, TextType.get().valueOf("Ana"));
+    writeValueSet(new VariableEntityBean("Participant", "5"), writer, values);
+    values.put(firstName, TextType.get().valueOf("Otto"));
+    writeValueSet(new VariableEntityBean("Participant", "6"), writer, values);
+    writer.close();
+    datasource.dispose();
+
+    CsvDataIndexFile indexFile = new CsvDataIndexFile(dataFile, datasource.getCharacterSet(),
+        datasource.getSeparator().getCharacter(), datasource.getQuote().getCharacter());
+    Map<VariableEntity, CsvIndexEntry> entityIndex = Maps.newLinkedHashMap();
+    assertThat(indexFile.load(Maps.<String, Integer>newHashMap(), entityIndex, "Participant"), is(true));
+    assertThat(entityIndex.size(), is(6));
+
+    CsvDatasource readDatasource = new CsvDatasource("read-csv-datasource")
+        .addValueTable("TableDataOnly", null, dataFile);
+    readDatasource.initialise();
+    ValueTable table = readDatasource.getValueTable("TableDataOnly");
+    assertThat((String) readValue(table, new VariableEntityBean("Participant", "2"), firstName).getValue(),
+        is("Denis"));
+    assertThat((String) readValue(table, new VariableEntityBean("Participant", "6"), firstName).getValue(),
+        is("Otto"));
+    readDatasource.dispose();
+  }
+
   @Ignore
   @Test
   public void test_write_variable_schema_line() throws Exception {
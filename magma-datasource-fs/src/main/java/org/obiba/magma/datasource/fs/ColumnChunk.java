@@ -0,0 +1,330 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.lang.Closeables;
+import org.obiba.magma.support.BinaryValueCodec;
+import org.obiba.magma.type.BinaryType;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+/**
+ * The values of a block of value sets of a columnar {@link FsValueTable} (see {@link FsDatasource#COLUMNAR_VERSION}).
+ * A chunk is stored in one entry of the table:
+ * <ul>
+ * <li>the number of rows (value sets) and of columns (variables having values in the chunk),</li>
+ * <li>for each column, its variable name, its value type name and the length of its data,</li>
+ * <li>the data of each column, deflated separately so that a column can be read without decoding the others.</li>
+ * </ul>
+ * A column holds the value of each row, preceded by a byte telling if it is null, a value or a sequence. Values are
+ * encoded as the occurrences of {@link BinaryValueCodec}, except binary values which are stored as length prefixed
+ * bytes. A sequence is encoded as its size followed by its occurrences, each one encoded as a value.
+ */
+class ColumnChunk {
+
+  private static final byte NULL_VALUE = 0;
+
+  private static final byte VALUE = 1;
+
+  private static final byte NULL_SEQUENCE = 2;
+
+  private static final byte SEQUENCE = 3;
+
+  private final int rowCount;
+
+  private final Map<String, Column> columns;
+
+  private ColumnChunk(int rowCount, Map<String, Column> columns) {
+    this.rowCount = rowCount;
+    this.columns = columns;
+  }
+
+  int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Returns the value of a variable in a row of this chunk, a null value if the chunk has no values for the variable.
+   */
+  Value getValue(Variable variable, int row) {
+    Column column = columns.get(variable.getName());
+    return column == null ? variable.getValueType().nullValue() : column.getValues()[row];
+  }
+
+  /**
+   * Returns all the values of a variable in this chunk, null if the chunk has no values for the variable.
+   */
+  @Nullable
+  Value[] getValues(Variable variable) {
+    Column column = columns.get(variable.getName());
+    return column == null ? null : column.getValues();
+  }
+
+  /**
+   * Reads a whole chunk. Its columns are decoded on first access.
+   */
+  static ColumnChunk read(InputStream input) throws IOException {
+    DataInputStream in = new DataInputStream(input);
+    int rowCount = in.readInt();
+    List<ColumnHeader> headers = readHeaders(in);
+    Map<String, Column> columns = Maps.newHashMap();
+    for(ColumnHeader header : headers) {
+      byte[] data = new byte[header.length];
+      in.readFully(data);
+      columns.put(header.name, new Column(header.valueType, rowCount, data));
+    }
+    return new ColumnChunk(rowCount, columns);
+  }
+
+  /**
+   * Reads the values of a variable in a chunk, skipping the data of the other columns. Returns null if the chunk has no
+   * values for the variable.
+   */
+  @Nullable
+  static Value[] readValues(InputStream input, Variable variable) throws IOException {
+    DataInputStream in = new DataInputStream(input);
+    int rowCount = in.readInt();
+    long offset = 0;
+    for(ColumnHeader header : readHeaders(in)) {
+      if(header.name.equals(variable.getName())) {
+        ByteStreams.skipFully(in, offset);
+        byte[] data = new byte[header.length];
+        in.readFully(data);
+        return new Column(header.valueType, rowCount, data).getValues();
+      }
+      offset += header.length;
+    }
+    return null;
+  }
+
+  private static List<ColumnHeader> readHeaders(DataInputStream in) throws IOException {
+    int columnCount = in.readInt();
+    List<ColumnHeader> headers = new ArrayList<ColumnHeader>(columnCount);
+    for(int i = 0; i < columnCount; i++) {
+      String name = in.readUTF();
+      ValueType valueType = ValueType.Factory.forName(in.readUTF());
+      headers.add(new ColumnHeader(name, valueType, in.readInt()));
+    }
+    return headers;
+  }
+
+  private static void writeValue(DataOutputStream out, ValueType valueType, @Nullable Value value) throws IOException {
+    if(value == null) {
+      out.writeByte(NULL_VALUE);
+    } else if(value.isSequence()) {
+      if(value.isNull()) {
+        out.writeByte(NULL_SEQUENCE);
+      } else {
+        List<Value> values = value.asSequence().getValues();
+        out.writeByte(SEQUENCE);
+        out.writeInt(values.size());
+        for(Value occurrence : values) {
+          writeValue(out, valueType, occurrence);
+        }
+      }
+    } else if(value.isNull()) {
+      out.writeByte(NULL_VALUE);
+    } else {
+      out.writeByte(VALUE);
+      writeOccurrence(out, valueType, value);
+    }
+  }
+
+  private static void writeOccurrence(DataOutputStream out, ValueType valueType, Value value) throws IOException {
+    if(valueType == BinaryType.get()) {
+      byte[] bytes = (byte[]) value.getValue();
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    } else {
+      BinaryValueCodec.writeOccurrence(out, valueType, value);
+    }
+  }
+
+  private static Value readValue(DataInputStream in, ValueType valueType) throws IOException {
+    switch(in.readByte()) {
+      case NULL_VALUE:
+        return valueType.nullValue();
+      case NULL_SEQUENCE:
+        return valueType.nullSequence();
+      case SEQUENCE:
+        int size = in.readInt();
+        List<Value> values = new ArrayList<Value>(size);
+        for(int i = 0; i < size; i++) {
+          values.add(readValue(in, valueType));
+        }
+        return valueType.sequenceOf(values);
+      default:
+        return readOccurrence(in, valueType);
+    }
+  }
+
+  private static Value readOccurrence(DataInputStream in, ValueType valueType) throws IOException {
+    if(valueType == BinaryType.get()) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return valueType.valueOf(bytes);
+    }
+    return BinaryValueCodec.readOccurrence(in, valueType);
+  }
+
+  private static class ColumnHeader {
+
+    private final String name;
+
+    private final ValueType valueType;
+
+    private final int length;
+
+    private ColumnHeader(String name, ValueType valueType, int length) {
+      this.name = name;
+      this.valueType = valueType;
+      this.length = length;
+    }
+  }
+
+  /**
+   * The deflated data of a column, inflated on first access.
+   */
+  private static class Column {
+
+    private final ValueType valueType;
+
+    private final int rowCount;
+
+    private final byte[] data;
+
+    private volatile Value[] values;
+
+    private Column(ValueType valueType, int rowCount, byte[] data) {
+      this.valueType = valueType;
+      this.rowCount = rowCount;
+      this.data = data;
+    }
+
+    Value[] getValues() {
+      if(values == null) {
+        values = decode();
+      }
+      return values;
+    }
+
+    private Value[] decode() {
+      DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+      try {
+        Value[] decoded = new Value[rowCount];
+        for(int row = 0; row < rowCount; row++) {
+          decoded[row] = readValue(in, valueType);
+        }
+        return decoded;
+      } catch(IOException e) {
+        throw new MagmaRuntimeException(e);
+      } finally {
+        Closeables.closeQuietly(in);
+      }
+    }
+  }
+
+  /**
+   * Accumulates the values of the value sets of a chunk, then writes them column by column.
+   */
+  static class Builder {
+
+    private final int capacity;
+
+    private final List<VariableEntity> entities;
+
+    private final Map<String, ValueType> valueTypes = Maps.newLinkedHashMap();
+
+    private final Map<String, Value[]> columns = Maps.newHashMap();
+
+    Builder(int capacity) {
+      this.capacity = capacity;
+      entities = Lists.newArrayListWithCapacity(capacity);
+    }
+
+    boolean isEmpty() {
+      return entities.isEmpty();
+    }
+
+    boolean isFull() {
+      return entities.size() == capacity;
+    }
+
+    /**
+     * The entity of each row, in the order of the rows.
+     */
+    List<VariableEntity> getEntities() {
+      return entities;
+    }
+
+    void addRow(VariableEntity entity, Map<Variable, Value> values) {
+      int row = entities.size();
+      entities.add(entity);
+      for(Map.Entry<Variable, Value> entry : values.entrySet()) {
+        String name = entry.getKey().getName();
+        ValueType valueType = valueTypes.get(name);
+        if(valueType == null) {
+          valueType = entry.getKey().getValueType();
+          valueTypes.put(name, valueType);
+          columns.put(name, new Value[capacity]);
+        }
+        Value value = entry.getValue();
+        columns.get(name)[row] = value == null || value.getValueType() == valueType ? value : valueType.convert(value);
+      }
+    }
+
+    void write(OutputStream output) throws IOException {
+      List<byte[]> data = new ArrayList<byte[]>(valueTypes.size());
+      for(Map.Entry<String, ValueType> entry : valueTypes.entrySet()) {
+        data.add(deflate(entry.getValue(), columns.get(entry.getKey())));
+      }
+      DataOutputStream out = new DataOutputStream(output);
+      out.writeInt(entities.size());
+      out.writeInt(valueTypes.size());
+      int column = 0;
+      for(Map.Entry<String, ValueType> entry : valueTypes.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue().getName());
+        out.writeInt(data.get(column++).length);
+      }
+      for(byte[] bytes : data) {
+        out.write(bytes);
+      }
+      out.flush();
+    }
+
+    private byte[] deflate(ValueType valueType, Value[] values) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+      try {
+        for(int row = 0; row < entities.size(); row++) {
+          writeValue(out, valueType, values[row]);
+        }
+      } finally {
+        out.close();
+      }
+      return bytes.toByteArray();
+    }
+  }
+
+}
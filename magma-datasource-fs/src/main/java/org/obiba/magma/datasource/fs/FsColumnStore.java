@@ -0,0 +1,310 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+import org.obiba.magma.Disposable;
+import org.obiba.magma.Initialisable;
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.NoSuchValueSetException;
+import org.obiba.magma.Value;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.datasource.fs.FsDatasource.InputStreamCallback;
+import org.obiba.magma.datasource.fs.FsDatasource.OutputStreamCallback;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.support.VariableEntityProvider;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * Stores the values of a {@link FsValueTable} of a columnar {@code FsDatasource} in {@link ColumnChunk}s of {@link
+ * #ROWS_PER_CHUNK} value sets. The chunk and row of the value set of each entity are indexed in {@code
+ * entities.bin}.
+ * <p/>
+ * Writing a value set of an entity that already has one appends it to the current chunk and points the index to it:
+ * the previous one is no longer reachable.
+ * <p/>
+ * The index is guarded by the lock of the store: value sets may be written while others are read.
+ */
+class FsColumnStore implements VariableEntityProvider, Initialisable, Disposable {
+
+  static final int ROWS_PER_CHUNK = 1000;
+
+  private static final String ENTITIES_NAME = "entities.bin";
+
+  private static final int CACHED_CHUNKS = 4;
+
+  private final FsValueTable valueTable;
+
+  private String entityType;
+
+  private final Map<VariableEntity, Location> locations = Maps.newLinkedHashMap();
+
+  /**
+   * Snapshot of the indexed entities, null when the index was modified since it was taken.
+   */
+  @Nullable
+  private Set<VariableEntity> entities;
+
+  /**
+   * The number of the last chunk written.
+   */
+  private int chunkCount = 0;
+
+  /**
+   * The number of the last chunk submitted, which may not be written yet.
+   */
+  private int lastChunk = 0;
+
+  private boolean locationsModified = false;
+
+  @Nullable
+  private ColumnChunk.Builder pendingChunk;
+
+  /**
+   * The last chunks read, by chunk number.
+   */
+  private final Cache<Integer, ColumnChunk> chunks = CacheBuilder.newBuilder().maximumSize(CACHED_CHUNKS).build();
+
+  FsColumnStore(FsValueTable valueTable, @Nullable String entityType) {
+    this.valueTable = valueTable;
+    this.entityType = entityType;
+  }
+
+  @Override
+  public synchronized void initialise() {
+    valueTable.readEntry(ENTITIES_NAME, new InputStreamCallback<Void>() {
+      @Override
+      public Void readEntry(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new InflaterInputStream(input));
+        try {
+          entityType = in.readUTF();
+          chunkCount = in.readInt();
+          int entityCount = in.readInt();
+          for(int i = 0; i < entityCount; i++) {
+            locations.put(new VariableEntityBean(entityType, in.readUTF()), new Location(in.readInt(), in.readInt()));
+          }
+          lastChunk = chunkCount;
+        } finally {
+          in.close();
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public synchronized void dispose() {
+    flush(null);
+    if(locationsModified || !valueTable.getEntry(ENTITIES_NAME).exists()) {
+      valueTable.writeEntry(ENTITIES_NAME, new OutputStreamCallback<Void>() {
+        @Override
+        public Void writeEntry(OutputStream output) throws IOException {
+          DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(output));
+          try {
+            out.writeUTF(entityType);
+            out.writeInt(chunkCount);
+            out.writeInt(locations.size());
+            for(Map.Entry<VariableEntity, Location> entry : locations.entrySet()) {
+              out.writeUTF(entry.getKey().getIdentifier());
+              out.writeInt(entry.getValue().chunk);
+              out.writeInt(entry.getValue().row);
+            }
+          } finally {
+            out.close();
+          }
+          locationsModified = false;
+          return null;
+        }
+      });
+    }
+  }
+
+  @Override
+  public String getEntityType() {
+    return entityType;
+  }
+
+  @Override
+  public synchronized Set<VariableEntity> getVariableEntities() {
+    if(entities == null) {
+      entities = ImmutableSet.copyOf(locations.keySet());
+    }
+    return entities;
+  }
+
+  @Override
+  public boolean isForEntityType(String entityType) {
+    return getEntityType().equals(entityType);
+  }
+
+  /**
+   * Adds the value set of an entity to the current chunk, which is written once full.
+   *
+   * @param entryWriter the writer of the chunk entries, null to write them in the calling thread
+   */
+  synchronized void addValueSet(VariableEntity entity, Map<Variable, Value> values,
+      @Nullable ParallelEntryWriter entryWriter) {
+    if(pendingChunk == null) {
+      pendingChunk = new ColumnChunk.Builder(ROWS_PER_CHUNK);
+    }
+    pendingChunk.addRow(entity, values);
+    if(pendingChunk.isFull()) {
+      flush(entryWriter);
+    }
+  }
+
+  /**
+   * Writes the current chunk and indexes its value sets once the chunk is written: the value sets of a chunk that
+   * fails to be written are not indexed.
+   *
+   * @param entryWriter the writer of the chunk entry, null to write it in the calling thread
+   */
+  synchronized void flush(@Nullable ParallelEntryWriter entryWriter) {
+    if(pendingChunk == null || pendingChunk.isEmpty()) return;
+    final ColumnChunk.Builder builder = pendingChunk;
+    pendingChunk = null;
+    final int chunk = ++lastChunk;
+    OutputStreamCallback<Void> callback = new OutputStreamCallback<Void>() {
+      @Override
+      public Void writeEntry(OutputStream output) throws IOException {
+        builder.write(output);
+        return null;
+      }
+    };
+    if(entryWriter == null) {
+      valueTable.writeEntry(getChunkName(chunk), callback);
+      index(chunk, builder.getEntities());
+    } else {
+      entryWriter.write(valueTable.getEntry(getChunkName(chunk)), callback, new Runnable() {
+        @Override
+        public void run() {
+          index(chunk, builder.getEntities());
+        }
+      });
+    }
+  }
+
+  /**
+   * Indexes the value sets of a written chunk. The value set of an entity in a later chunk is kept, whatever the order
+   * the chunks are written in.
+   */
+  private synchronized void index(int chunk, List<VariableEntity> chunkEntities) {
+    chunkCount = Math.max(chunkCount, chunk);
+    for(int row = 0; row < chunkEntities.size(); row++) {
+      Location location = locations.get(chunkEntities.get(row));
+      if(location == null || location.chunk <= chunk) {
+        locations.put(chunkEntities.get(row), new Location(chunk, row));
+      }
+    }
+    entities = null;
+    locationsModified = true;
+  }
+
+  Value getValue(VariableEntity entity, Variable variable) {
+    Location location = getLocation(entity);
+    return getChunk(location.chunk).getValue(variable, location.row);
+  }
+
+  /**
+   * Returns the values of a variable for the specified entities, reading only the column of the variable in each
+   * chunk. The values of the entities without a value set are null.
+   */
+  Iterable<Value> getValues(Variable variable, SortedSet<VariableEntity> entities) {
+    Map<Integer, Value[]> columns = Maps.newHashMap();
+    List<Value> values = new ArrayList<Value>(entities.size());
+    for(VariableEntity entity : entities) {
+      Location location = findLocation(entity);
+      if(location == null) {
+        values.add(variable.isRepeatable()
+            ? variable.getValueType().nullSequence()
+            : variable.getValueType().nullValue());
+        continue;
+      }
+      if(!columns.containsKey(location.chunk)) {
+        columns.put(location.chunk, readValues(location.chunk, variable));
+      }
+      Value[] column = columns.get(location.chunk);
+      values.add(column == null ? variable.getValueType().nullValue() : column[location.row]);
+    }
+    return values;
+  }
+
+  private Location getLocation(VariableEntity entity) {
+    Location location = findLocation(entity);
+    if(location == null) {
+      throw new NoSuchValueSetException(valueTable, entity);
+    }
+    return location;
+  }
+
+  @Nullable
+  private synchronized Location findLocation(VariableEntity entity) {
+    return locations.get(entity);
+  }
+
+  private ColumnChunk getChunk(int chunk) {
+    ColumnChunk columnChunk = chunks.getIfPresent(chunk);
+    if(columnChunk == null) {
+      columnChunk = valueTable.readEntry(getChunkName(chunk), new InputStreamCallback<ColumnChunk>() {
+        @Override
+        public ColumnChunk readEntry(InputStream input) throws IOException {
+          return ColumnChunk.read(input);
+        }
+      });
+      if(columnChunk == null) {
+        throw new MagmaRuntimeException("Missing entry " + getChunkName(chunk) + " in table " + valueTable.getName());
+      }
+      chunks.put(chunk, columnChunk);
+    }
+    return columnChunk;
+  }
+
+  @Nullable
+  private Value[] readValues(int chunk, final Variable variable) {
+    ColumnChunk columnChunk = chunks.getIfPresent(chunk);
+    if(columnChunk != null) {
+      return columnChunk.getValues(variable);
+    }
+    return valueTable.readEntry(getChunkName(chunk), new InputStreamCallback<Value[]>() {
+      @Override
+      public Value[] readEntry(InputStream input) throws IOException {
+        return ColumnChunk.readValues(input, variable);
+      }
+    });
+  }
+
+  private String getChunkName(int chunk) {
+    // Pads chunk names with zeroes
+    return String.format("%07d.bin", chunk);
+  }
+
+  private static class Location {
+
+    private final int chunk;
+
+    private final int row;
+
+    private Location(int chunk, int row) {
+      this.chunk = chunk;
+      this.row = row;
+    }
+  }
+
+}
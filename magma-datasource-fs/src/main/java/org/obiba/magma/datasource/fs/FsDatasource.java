@@ -1,18 +1,23 @@
 package org.obiba.magma.datasource.fs;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
 import java.util.LinkedList;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.crypto.Cipher;
 
 import org.obiba.magma.Attribute;
 import org.obiba.magma.MagmaEngine;
@@ -36,6 +41,7 @@ import org.obiba.magma.xstream.MagmaXStreamExtension;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.thoughtworks.xstream.XStream;
 
 import de.schlichtherle.io.ArchiveException;
@@ -46,9 +52,25 @@ import de.schlichtherle.io.FileOutputStream;
 
 /**
  * Implements a {@code Datasource} on top of an archive file in the local file system.
+ * <p/>
+ * The layout of the archive depends on its version: {@link #XML_VERSION} stores each value set in its own XML entry,
+ * {@link #COLUMNAR_VERSION} stores the values of each table by blocks of entities, variable by variable.
  */
 public class FsDatasource extends AbstractDatasource {
 
+  /**
+   * One XML entry per value set, the entities of a table are mapped to their entry in {@code entities.xml}.
+   */
+  public static final String XML_VERSION = "1";
+
+  /**
+   * The values of a table are stored in chunks of value sets, each chunk holding one compressed and typed column per
+   * variable. The entities of a table are mapped to their chunk in {@code entities.bin}.
+   */
+  public static final String COLUMNAR_VERSION = "2";
+
+  private static final String VERSION_ATTRIBUTE = "magma.datasource.fs.version";
+
   /**
    * Consistently use UTF-8 character set for reading and writing.
    */
@@ -63,8 +85,29 @@ public class FsDatasource extends AbstractDatasource {
 
   private OutputStreamWrapper outputStreamWrapper = new NullOutputStreamWrapper();
 
+  /**
+   * The ciphers of an encrypted datasource, null otherwise.
+   */
+  @Nullable
+  private DatasourceCipherFactory cipherFactory;
+
+  /**
+   * The ciphers of the threads encoding and decoding whole entries, created by the cipher factory on first use. As
+   * {@code doFinal} resets a cipher to its initial state, each one is reused for the next entries of its thread.
+   */
+  private ThreadLocal<Cipher> encryptingCiphers = new ThreadLocal<Cipher>();
+
+  private ThreadLocal<Cipher> decryptingCiphers = new ThreadLocal<Cipher>();
+
+  @Nullable
+  private DigestOutputStreamWrapper digestOutputStreamWrapper;
+
   private boolean instanceAttributesModified = false;
 
+  private String version = XML_VERSION;
+
+  private int writerThreads = 1;
+
   public FsDatasource(String name, java.io.File outputFile,
       @Nullable DatasourceEncryptionStrategy datasourceEncryptionStrategy) {
     this(name, outputFile);
@@ -80,6 +123,34 @@ public class FsDatasource extends AbstractDatasource {
     this.datasourceEncryptionStrategy = datasourceEncryptionStrategy;
   }
 
+  /**
+   * Sets the version of the archive to create, {@link #XML_VERSION} by default. An existing archive keeps the version
+   * it was created with.
+   */
+  public void setVersion(@Nonnull String version) {
+    if(!isSupportedVersion(version)) throw new IllegalArgumentException("unsupported version: " + version);
+    this.version = version;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public int getWriterThreads() {
+    return writerThreads;
+  }
+
+  /**
+   * Sets the number of threads encoding the value sets written by the table writers: serialising, compressing and
+   * encrypting them. The encoded entries are appended to the archive, in order, by the thread writing the value sets.
+   * Default is 1: value sets are encoded and written by the thread writing them, each one when its {@code
+   * ValueSetWriter} is closed.
+   */
+  public void setWriterThreads(int writerThreads) {
+    if(writerThreads < 1) throw new IllegalArgumentException("writerThreads must be at least 1");
+    this.writerThreads = writerThreads;
+  }
+
   @Override
   protected void onInitialise() {
 
@@ -87,8 +158,12 @@ public class FsDatasource extends AbstractDatasource {
     if(datasourceArchive.exists()) {
       readAttributes();
       newDatasource = false;
+      version = hasAttribute(VERSION_ATTRIBUTE) ? getAttributeValue(VERSION_ATTRIBUTE).toString() : XML_VERSION;
+      if(!isSupportedVersion(version)) {
+        throw new MagmaRuntimeException("Datasource '" + getName() + "' has an unsupported version: " + version);
+      }
     } else {
-      setAttributeValue("magma.datasource.fs.version", TextType.get().valueOf("1"));
+      setAttributeValue(VERSION_ATTRIBUTE, TextType.get().valueOf(version));
       setAttributeValue("magma.datasource.fs.encrypted",
           hasEncryptionStrategy() ? BooleanType.get().trueValue() : BooleanType.get().falseValue());
     }
@@ -102,10 +177,13 @@ public class FsDatasource extends AbstractDatasource {
       // Make sure our strategy is able to read an existing datasource.
       if(datasourceEncryptionStrategy != null &&
           (newDatasource || datasourceEncryptionStrategy.canDecryptExistingDatasource())) {
-        DatasourceCipherFactory cipherFactory = datasourceEncryptionStrategy.createDatasourceCipherFactory(this);
+        cipherFactory = datasourceEncryptionStrategy.createDatasourceCipherFactory(this);
+        encryptingCiphers = new ThreadLocal<Cipher>();
+        decryptingCiphers = new ThreadLocal<Cipher>();
+        digestOutputStreamWrapper = new DigestOutputStreamWrapper();
         inputStreamWrapper = new CipherInputStreamWrapper(cipherFactory);
         outputStreamWrapper = new ChainedOutputStreamWrapper(new CipherOutputStreamWrapper(cipherFactory),
-            new DigestOutputStreamWrapper());
+            digestOutputStreamWrapper);
       } else {
         throw new MagmaRuntimeException(
             "Existing Datasource '" + getName() + "' cannot be decrypted using the specified encryption strategy.");
@@ -151,6 +229,14 @@ public class FsDatasource extends AbstractDatasource {
     instanceAttributesModified = true;
   }
 
+  boolean isColumnar() {
+    return COLUMNAR_VERSION.equals(version);
+  }
+
+  private static boolean isSupportedVersion(String version) {
+    return XML_VERSION.equals(version) || COLUMNAR_VERSION.equals(version);
+  }
+
   protected boolean hasEncryptionStrategy() {
     return datasourceEncryptionStrategy != null;
   }
@@ -222,7 +308,7 @@ public class FsDatasource extends AbstractDatasource {
 
   XStream getXStreamInstance() {
     // TODO: Use the FsDatasource version to obtain the proper XStream instance
-    return MagmaEngine.get().getExtension(MagmaXStreamExtension.class).getXStreamFactory().createXStream();
+    return MagmaEngine.get().getExtension(MagmaXStreamExtension.class).getXStreamFactory().getXStream();
   }
 
   @Nullable
@@ -230,7 +316,7 @@ public class FsDatasource extends AbstractDatasource {
     if(entry.exists()) {
       Reader reader = null;
       try {
-        return callback.readEntry(reader = createReader(entry));
+        return callback.readEntry(reader = new InputStreamReader(openEntry(entry), CHARSET));
       } catch(FileNotFoundException e) {
         // this cannot happen since we tested file.exists().
         throw new MagmaRuntimeException(e);
@@ -254,22 +340,153 @@ public class FsDatasource extends AbstractDatasource {
     }
   }
 
+  @Nullable
+  <T> T readEntry(File entry, InputStreamCallback<T> callback) {
+    if(entry.exists()) {
+      InputStream input = null;
+      try {
+        return callback.readEntry(input = openEntry(entry));
+      } catch(IOException e) {
+        throw new MagmaRuntimeException(e);
+      } finally {
+        Closeables.closeQuietly(input);
+      }
+    }
+    return null;
+  }
+
+  <T> T writeEntry(File file, OutputStreamCallback<T> callback) {
+    OutputStream output = null;
+    try {
+      return callback.writeEntry(output = createOutputStream(file));
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    } finally {
+      Closeables.closeQuietly(output);
+    }
+  }
+
+  /**
+   * Encodes the content of an entry as it is stored in the archive: an entry of an encrypted datasource is encrypted
+   * at once with the cipher of the calling thread, and its digest is computed. Can be called by any thread.
+   */
+  EncodedEntry encodeEntry(File entry, byte[] content) {
+    if(cipherFactory == null) {
+      return new EncodedEntry(entry, content, null);
+    }
+    try {
+      //noinspection ConstantConditions
+      return new EncodedEntry(entry, getEncryptingCipher().doFinal(content), digestOutputStreamWrapper.digest(content));
+    } catch(GeneralSecurityException e) {
+      // the state of the cipher is unknown
+      encryptingCiphers.remove();
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes an encoded entry, and its digest if any, to the archive.
+   */
+  void appendEntry(EncodedEntry encodedEntry) {
+    OutputStream output = null;
+    try {
+      output = new FileOutputStream(encodedEntry.entry);
+      output.write(encodedEntry.content);
+      output.close();
+      if(encodedEntry.digest != null) {
+        //noinspection ConstantConditions
+        digestOutputStreamWrapper.writeDigest(encodedEntry.entry, encodedEntry.digest);
+      }
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    } finally {
+      Closeables.closeQuietly(output);
+    }
+  }
+
+  /**
+   * Opens an entry that is read whole: an entry of an encrypted datasource is decrypted at once with the cipher of the
+   * calling thread, instead of through a new {@code CipherInputStream}.
+   */
+  private InputStream openEntry(File entry) throws IOException {
+    if(cipherFactory == null) {
+      return createInputStream(entry);
+    }
+    InputStream input = new FileInputStream(entry);
+    try {
+      return new ByteArrayInputStream(getDecryptingCipher().doFinal(ByteStreams.toByteArray(input)));
+    } catch(GeneralSecurityException e) {
+      // the state of the cipher is unknown
+      decryptingCiphers.remove();
+      throw new MagmaRuntimeException(e);
+    } finally {
+      Closeables.closeQuietly(input);
+    }
+  }
+
+  private Cipher getEncryptingCipher() {
+    Cipher cipher = encryptingCiphers.get();
+    if(cipher == null) {
+      //noinspection ConstantConditions
+      cipher = cipherFactory.createEncryptingCipher();
+      encryptingCiphers.set(cipher);
+    }
+    return cipher;
+  }
+
+  private Cipher getDecryptingCipher() {
+    Cipher cipher = decryptingCiphers.get();
+    if(cipher == null) {
+      //noinspection ConstantConditions
+      cipher = cipherFactory.createDecryptingCipher();
+      decryptingCiphers.set(cipher);
+    }
+    return cipher;
+  }
+
   Reader createReader(File entry) {
+    return new InputStreamReader(createInputStream(entry), CHARSET);
+  }
+
+  Writer createWriter(File entry) {
+    return new OutputStreamWriter(createOutputStream(entry), CHARSET);
+  }
+
+  InputStream createInputStream(File entry) {
     try {
-      return new InputStreamReader(inputStreamWrapper.wrap(new FileInputStream(entry), entry), CHARSET);
+      return inputStreamWrapper.wrap(new FileInputStream(entry), entry);
     } catch(FileNotFoundException e) {
       throw new MagmaRuntimeException(e);
     }
   }
 
-  Writer createWriter(File entry) {
+  OutputStream createOutputStream(File entry) {
     try {
-      return new OutputStreamWriter(outputStreamWrapper.wrap(new FileOutputStream(entry), entry), CHARSET);
+      return outputStreamWrapper.wrap(new FileOutputStream(entry), entry);
     } catch(FileNotFoundException e) {
       throw new MagmaRuntimeException(e);
     }
   }
 
+  /**
+   * The content of an entry as stored in the archive, with its digest if the datasource is encrypted.
+   */
+  static class EncodedEntry {
+
+    private final File entry;
+
+    private final byte[] content;
+
+    @Nullable
+    private final byte[] digest;
+
+    private EncodedEntry(File entry, byte[] content, @Nullable byte[] digest) {
+      this.entry = entry;
+      this.content = content;
+      this.digest = digest;
+    }
+  }
+
   interface InputCallback<T> {
     T readEntry(Reader reader) throws IOException;
   }
@@ -278,4 +495,12 @@ public class FsDatasource extends AbstractDatasource {
     T writeEntry(Writer writer) throws IOException;
   }
 
+  interface InputStreamCallback<T> {
+    T readEntry(InputStream input) throws IOException;
+  }
+
+  interface OutputStreamCallback<T> {
+    T writeEntry(OutputStream output) throws IOException;
+  }
+
 }
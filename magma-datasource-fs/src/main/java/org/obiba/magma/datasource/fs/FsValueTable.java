@@ -5,6 +5,12 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -23,10 +29,12 @@ import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.VectorSource;
 import org.obiba.magma.datasource.fs.FsDatasource.InputCallback;
+import org.obiba.magma.datasource.fs.FsDatasource.InputStreamCallback;
 import org.obiba.magma.datasource.fs.FsDatasource.OutputCallback;
+import org.obiba.magma.datasource.fs.FsDatasource.OutputStreamCallback;
 import org.obiba.magma.support.AbstractValueTable;
 import org.obiba.magma.support.ValueSetBean;
-import org.obiba.magma.xstream.XStreamValueSet;
+import org.obiba.magma.xstream.StaxValueSetReader;
 
 import com.thoughtworks.xstream.XStream;
 
@@ -45,29 +53,41 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
   private XStream xstream;
 
   /**
-   * Our VariableEntityProvider instance
+   * Our VariableEntityProvider instance, null for a columnar datasource
    */
+  @Nullable
   private FsVariableEntityProvider variableEntityProvider;
 
+  /**
+   * Values of a table of a columnar datasource, null for an XML datasource.
+   */
+  @Nullable
+  private FsColumnStore columnStore;
+
   FsValueTable(FsDatasource datasource, String name) {
-    super(datasource, name);
-    valueTableEntry = datasource.getEntry(name);
-    xstream = datasource.getXStreamInstance();
-    setVariableEntityProvider(variableEntityProvider = new FsVariableEntityProvider(this));
+    this(datasource, name, null);
   }
 
-  FsValueTable(FsDatasource datasource, String name, String entityType) {
+  FsValueTable(FsDatasource datasource, String name, @Nullable String entityType) {
     super(datasource, name);
     valueTableEntry = datasource.getEntry(name);
     xstream = datasource.getXStreamInstance();
-    setVariableEntityProvider(variableEntityProvider = new FsVariableEntityProvider(this, entityType));
+    if(datasource.isColumnar()) {
+      setVariableEntityProvider(columnStore = new FsColumnStore(this, entityType));
+    } else {
+      setVariableEntityProvider(variableEntityProvider = new FsVariableEntityProvider(this, entityType));
+    }
   }
 
   @Override
   public void initialise() {
     super.initialise();
     try {
-      variableEntityProvider.initialise();
+      if(columnStore == null) {
+        variableEntityProvider.initialise();
+      } else {
+        columnStore.initialise();
+      }
       readVariables();
     } catch(RuntimeException e) {
       throw e;
@@ -78,7 +98,11 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
 
   @Override
   public void dispose() {
-    variableEntityProvider.dispose();
+    if(columnStore == null) {
+      variableEntityProvider.dispose();
+    } else {
+      columnStore.dispose();
+    }
   }
 
   @Nonnull
@@ -92,9 +116,16 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
     return new LazyValueSet(this, entity);
   }
 
-  @Override
-  public FsVariableEntityProvider getVariableEntityProvider() {
-    return variableEntityProvider;
+  @Nullable
+  FsColumnStore getColumnStore() {
+    return columnStore;
+  }
+
+  /**
+   * Adds an entity to a table of an XML datasource and returns the name of the entry of its value set.
+   */
+  String addEntity(VariableEntity entity) {
+    return variableEntityProvider.addEntity(entity);
   }
 
   File getEntry(String name) {
@@ -109,6 +140,14 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
     return getDatasource().writeEntry(getEntry(name), callback);
   }
 
+  <T> T readEntry(String name, InputStreamCallback<T> callback) {
+    return getDatasource().readEntry(getEntry(name), callback);
+  }
+
+  <T> T writeEntry(String name, OutputStreamCallback<T> callback) {
+    return getDatasource().writeEntry(getEntry(name), callback);
+  }
+
   Writer createWriter(String name) {
     return getDatasource().createWriter(getEntry(name));
   }
@@ -135,20 +174,25 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
 
   }
 
-  private XStreamValueSet readValueSet(VariableEntity entity) {
+  /**
+   * Reads the values of the value set of an entity of a table of an XML datasource.
+   *
+   * @param variables the names of the variables to read, null to read all of them
+   */
+  private Map<String, Value> readValues(VariableEntity entity, @Nullable final Set<String> variables) {
     String entryName = variableEntityProvider.getEntityFile(entity);
     if(entryName == null) {
       throw new NoSuchValueSetException(this, entity);
     }
-    return readEntry(entryName, new InputCallback<XStreamValueSet>() {
+    return readEntry(entryName, new InputCallback<Map<String, Value>>() {
       @Override
-      public XStreamValueSet readEntry(Reader reader) throws IOException {
-        return (XStreamValueSet) xstream.fromXML(reader);
+      public Map<String, Value> readEntry(Reader reader) throws IOException {
+        return StaxValueSetReader.read(reader, variables);
       }
     });
   }
 
-  private static class FsVariableValueSource implements VariableValueSource {
+  private class FsVariableValueSource implements VariableValueSource, VectorSource {
 
     private Variable variable;
 
@@ -170,13 +214,36 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
     @Nonnull
     @Override
     public Value getValue(ValueSet valueSet) {
-      return ((LazyValueSet) valueSet).getValueSet().getValue(variable);
+      return ((LazyValueSet) valueSet).getValue(variable);
     }
 
     @Nullable
     @Override
     public VectorSource asVectorSource() {
-      return null;
+      return this;
+    }
+
+    /**
+     * Reads the values of the variable only: the column of the variable in the chunks of a columnar datasource, the
+     * {@code variableValue} element of the variable in the value set entries of an XML datasource. The values of the
+     * entities without a value set are null.
+     */
+    @Override
+    public Iterable<Value> getValues(SortedSet<VariableEntity> entities) {
+      if(columnStore != null) {
+        return columnStore.getValues(variable, entities);
+      }
+      Set<String> variables = Collections.singleton(variable.getName());
+      List<Value> values = new ArrayList<Value>(entities.size());
+      for(VariableEntity entity : entities) {
+        if(variableEntityProvider.getEntityFile(entity) == null) {
+          values.add(variable.isRepeatable() ? getValueType().nullSequence() : getValueType().nullValue());
+          continue;
+        }
+        Value value = readValues(entity, variables).get(variable.getName());
+        values.add(value == null ? variable.getValueType().nullValue() : value);
+      }
+      return values;
     }
 
   }
@@ -184,17 +251,25 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
   private class LazyValueSet extends ValueSetBean {
 
     @SuppressWarnings("TransientFieldInNonSerializableClass")
-    private transient volatile XStreamValueSet valueSet;
+    private transient volatile Map<String, Value> values;
 
     LazyValueSet(ValueTable table, VariableEntity entity) {
       super(table, entity);
     }
 
-    XStreamValueSet getValueSet() {
-      if(valueSet == null) {
-        valueSet = readValueSet(getVariableEntity());
+    Value getValue(Variable variable) {
+      if(columnStore != null) {
+        return columnStore.getValue(getVariableEntity(), variable);
+      }
+      Value value = getValues().get(variable.getName());
+      return value == null ? variable.getValueType().nullValue() : value;
+    }
+
+    Map<String, Value> getValues() {
+      if(values == null) {
+        values = readValues(getVariableEntity(), null);
       }
-      return valueSet;
+      return values;
     }
 
   }
@@ -2,39 +2,55 @@ package org.obiba.magma.datasource.fs;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueTableWriter;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
+import org.obiba.magma.datasource.fs.FsDatasource.OutputStreamCallback;
 import org.obiba.magma.xstream.XStreamValueSet;
 
+import com.google.common.collect.Maps;
 import com.thoughtworks.xstream.XStream;
 
 class FsValueTableWriter implements ValueTableWriter {
 
+  private static final Charset CHARSET = Charset.forName("UTF-8");
+
   private final FsValueTable valueTable;
 
   private final XStream xstream;
 
+  /**
+   * Encodes the value sets on a pool of threads, null when they are encoded by the writing thread.
+   */
+  @Nullable
+  private final ParallelEntryWriter entryWriter;
+
   FsValueTableWriter(FsValueTable valueTable, XStream xstream) {
     this.valueTable = valueTable;
     this.xstream = xstream;
+    int writerThreads = valueTable.getDatasource().getWriterThreads();
+    entryWriter = writerThreads > 1 ? new ParallelEntryWriter(valueTable.getDatasource(), writerThreads) : null;
   }
 
   @Nonnull
   @Override
   public ValueSetWriter writeValueSet(@Nonnull VariableEntity entity) {
-    String entry = valueTable.getVariableEntityProvider().addEntity(entity);
-    try {
-      return new XStreamValueSetWriter(valueTable.createWriter(entry),
-          new XStreamValueSet(valueTable.getName(), entity));
-    } catch(IOException e) {
-      throw new RuntimeException(e);
+    FsColumnStore columnStore = valueTable.getColumnStore();
+    if(columnStore != null) {
+      return new ColumnValueSetWriter(columnStore, entity);
     }
+    String entry = valueTable.addEntity(entity);
+    return new XStreamValueSetWriter(entry, new XStreamValueSet(valueTable.getName(), entity));
   }
 
   @Override
@@ -48,6 +64,16 @@ class FsValueTableWriter implements ValueTableWriter {
 
   @Override
   public void close() throws IOException {
+    try {
+      FsColumnStore columnStore = valueTable.getColumnStore();
+      if(columnStore != null) {
+        columnStore.flush(entryWriter);
+      }
+    } finally {
+      if(entryWriter != null) {
+        entryWriter.close();
+      }
+    }
   }
 
   private class XStreamVariableWriter implements VariableWriter {
@@ -77,21 +103,30 @@ class FsValueTableWriter implements ValueTableWriter {
 
   private class XStreamValueSetWriter implements ValueSetWriter {
 
-    Writer os;
+    String entry;
 
     XStreamValueSet valueSet;
 
-    XStreamValueSetWriter(Writer os, XStreamValueSet valueSet) throws IOException {
-      this.os = os;
+    XStreamValueSetWriter(String entry, XStreamValueSet valueSet) {
+      this.entry = entry;
       this.valueSet = valueSet;
     }
 
     @Override
     public void close() throws IOException {
-      try {
-        xstream.toXML(valueSet, os);
-      } finally {
-        os.close();
+      OutputStreamCallback<Void> callback = new OutputStreamCallback<Void>() {
+        @Override
+        public Void writeEntry(OutputStream output) throws IOException {
+          Writer writer = new OutputStreamWriter(output, CHARSET);
+          xstream.toXML(valueSet, writer);
+          writer.flush();
+          return null;
+        }
+      };
+      if(entryWriter == null) {
+        valueTable.writeEntry(entry, callback);
+      } else {
+        entryWriter.write(valueTable.getEntry(entry), callback);
       }
     }
 
@@ -100,4 +135,28 @@ class FsValueTableWriter implements ValueTableWriter {
       valueSet.setValue(variable, value);
     }
   }
+
+  private class ColumnValueSetWriter implements ValueSetWriter {
+
+    private final FsColumnStore columnStore;
+
+    private final VariableEntity entity;
+
+    private final Map<Variable, Value> values = Maps.newLinkedHashMap();
+
+    ColumnValueSetWriter(FsColumnStore columnStore, VariableEntity entity) {
+      this.columnStore = columnStore;
+      this.entity = entity;
+    }
+
+    @Override
+    public void writeValue(@Nonnull Variable variable, Value value) {
+      values.put(variable, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+      columnStore.addValueSet(entity, values, entryWriter);
+    }
+  }
 }
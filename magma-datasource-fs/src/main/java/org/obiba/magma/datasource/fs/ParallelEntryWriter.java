@@ -0,0 +1,143 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.datasource.fs.FsDatasource.EncodedEntry;
+import org.obiba.magma.datasource.fs.FsDatasource.OutputStreamCallback;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.schlichtherle.io.File;
+
+/**
+ * Writes entries of a {@link FsDatasource} in the order they are submitted, encoding them on a pool of threads: the
+ * content of an entry is serialised in memory then encrypted by {@link FsDatasource#encodeEntry(File, byte[])}. Only
+ * appending the encoded entries to the archive is done by the thread submitting them, which appends the entries
+ * already encoded on each write, and waits for the oldest one when too many are pending.
+ * <p/>
+ * The failure to encode an entry is thrown by the {@code write} or {@code close} appending it, the entries that
+ * follow are then not appended.
+ */
+class ParallelEntryWriter {
+
+  /**
+   * Number of entries being encoded, or waiting to be appended, per thread.
+   */
+  private static final int PENDING_ENTRIES_PER_THREAD = 4;
+
+  private final FsDatasource datasource;
+
+  private final ExecutorService executor;
+
+  private final int maxPendingEntries;
+
+  private final Queue<PendingEntry> pendingEntries = new LinkedList<PendingEntry>();
+
+  ParallelEntryWriter(FsDatasource datasource, int threads) {
+    this.datasource = datasource;
+    executor = Executors
+        .newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fs-writer-%d").build());
+    maxPendingEntries = threads * PENDING_ENTRIES_PER_THREAD;
+  }
+
+  /**
+   * Submits an entry: the callback is called by a thread of the pool, with a stream in memory.
+   */
+  void write(File entry, OutputStreamCallback<?> callback) {
+    write(entry, callback, null);
+  }
+
+  /**
+   * Submits an entry: the callback is called by a thread of the pool, with a stream in memory.
+   *
+   * @param appended called by the thread appending the entry once it is appended, not called if the entry fails
+   */
+  void write(final File entry, final OutputStreamCallback<?> callback, @Nullable Runnable appended) {
+    pendingEntries.add(new PendingEntry(executor.submit(new Callable<EncodedEntry>() {
+      @Override
+      public EncodedEntry call() throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        callback.writeEntry(content);
+        return datasource.encodeEntry(entry, content.toByteArray());
+      }
+    }), appended));
+    append(maxPendingEntries);
+  }
+
+  /**
+   * Appends all the pending entries and stops the threads.
+   */
+  void close() {
+    try {
+      append(0);
+    } finally {
+      executor.shutdownNow();
+      discardPendingEntries();
+    }
+  }
+
+  /**
+   * Appends the encoded entries at the head of the queue, waiting for them while more than {@code maxPending} entries
+   * are pending.
+   */
+  private void append(int maxPending) {
+    while(!pendingEntries.isEmpty() &&
+        (pendingEntries.size() > maxPending || pendingEntries.peek().future.isDone())) {
+      PendingEntry pendingEntry = pendingEntries.poll();
+      try {
+        datasource.appendEntry(getEncodedEntry(pendingEntry.future));
+      } catch(RuntimeException e) {
+        discardPendingEntries();
+        throw e;
+      }
+      if(pendingEntry.appended != null) {
+        pendingEntry.appended.run();
+      }
+    }
+  }
+
+  private void discardPendingEntries() {
+    for(PendingEntry pendingEntry : pendingEntries) {
+      pendingEntry.future.cancel(true);
+    }
+    pendingEntries.clear();
+  }
+
+  private EncodedEntry getEncodedEntry(Future<EncodedEntry> future) {
+    try {
+      return future.get();
+    } catch(InterruptedException e) {
+      throw new MagmaRuntimeException(e);
+    } catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new MagmaRuntimeException(cause);
+    }
+  }
+
+  private static class PendingEntry {
+
+    private final Future<EncodedEntry> future;
+
+    @Nullable
+    private final Runnable appended;
+
+    private PendingEntry(Future<EncodedEntry> future, @Nullable Runnable appended) {
+      this.future = future;
+      this.appended = appended;
+    }
+  }
+
+}
@@ -42,8 +42,27 @@ public class DigestOutputStreamWrapper implements OutputStreamWrapper {
 
   @Override
   public OutputStream wrap(OutputStream os, File entry) {
-    File digestFile = new File(entry.getParent(), entry.getName() + entrySuffix);
-    return new WrappedDigestOutputStream(os, digestFile);
+    return new WrappedDigestOutputStream(os, entry);
+  }
+
+  /**
+   * Computes the digest of the whole content of an entry.
+   */
+  public byte[] digest(byte[] content) {
+    return newDigest().digest(content);
+  }
+
+  /**
+   * Writes the digest of an entry in the entry next to it.
+   */
+  public void writeDigest(File entry, byte[] digest) throws IOException {
+    File digestEntry = new File(entry.getParent(), entry.getName() + entrySuffix);
+    ByteArrayInputStream bais = new ByteArrayInputStream(digest);
+    try {
+      digestEntry.catFrom(bais);
+    } finally {
+      Closeables.closeQuietly(bais);
+    }
   }
 
   protected MessageDigest newDigest() {
@@ -59,22 +78,17 @@ public class DigestOutputStreamWrapper implements OutputStreamWrapper {
    */
   private class WrappedDigestOutputStream extends DigestOutputStream {
 
-    private final File digestEntry;
+    private final File entry;
 
-    private WrappedDigestOutputStream(OutputStream stream, File digestEntry) {
+    private WrappedDigestOutputStream(OutputStream stream, File entry) {
       super(stream, newDigest());
-      this.digestEntry = digestEntry;
+      this.entry = entry;
     }
 
     @Override
     public void close() throws IOException {
       super.close();
-      ByteArrayInputStream bais = new ByteArrayInputStream(getMessageDigest().digest());
-      try {
-        digestEntry.catFrom(bais);
-      } finally {
-        Closeables.closeQuietly(bais);
-      }
+      writeDigest(entry, getMessageDigest().digest());
     }
   }
 }
@@ -15,6 +15,10 @@ public class FsDatasourceFactory extends AbstractDatasourceFactory {
 
   private DatasourceEncryptionStrategy encryptionStrategy;
 
+  private String version = FsDatasource.XML_VERSION;
+
+  private int writerThreads = 1;
+
   public void setFile(File file) {
     this.file = file;
   }
@@ -23,10 +27,20 @@ public class FsDatasourceFactory extends AbstractDatasourceFactory {
     this.encryptionStrategy = encryptionStrategy;
   }
 
+  public void setVersion(String version) {
+    this.version = version;
+  }
+
+  public void setWriterThreads(int writerThreads) {
+    this.writerThreads = writerThreads;
+  }
+
   @Nonnull
   @Override
   protected Datasource internalCreate() {
     FsDatasource datasource = new FsDatasource(getName(), file);
+    datasource.setVersion(version);
+    datasource.setWriterThreads(writerThreads);
     if(encryptionStrategy != null) {
       datasource.setEncryptionStrategy(encryptionStrategy);
     }
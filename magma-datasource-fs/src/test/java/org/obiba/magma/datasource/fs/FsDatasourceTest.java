@@ -0,0 +1,292 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.MagmaDate;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.ValueTableWriter.ValueSetWriter;
+import org.obiba.magma.ValueTableWriter.VariableWriter;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.Disposables;
+import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.BinaryType;
+import org.obiba.magma.type.BooleanType;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.DateType;
+import org.obiba.magma.type.DecimalType;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.LocaleType;
+import org.obiba.magma.type.PointType;
+import org.obiba.magma.type.TextType;
+import org.obiba.magma.xstream.MagmaXStreamExtension;
+
+import com.google.common.collect.Lists;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FsDatasourceTest extends AbstractMagmaTest {
+
+  private static final String PARTICIPANT = "Participant";
+
+  private final List<Variable> variables = Lists.newArrayList();
+
+  private File archive;
+
+  @Before
+  public void before() throws IOException {
+    MagmaEngine.get().extend(new MagmaXStreamExtension());
+    for(ValueType valueType : Arrays.asList(TextType.get(), IntegerType.get(), DecimalType.get(), BooleanType.get(),
+        DateType.get(), DateTimeType.get(), LocaleType.get(), BinaryType.get(), PointType.get())) {
+      variables.add(Variable.Builder.newVariable(valueType.getName(), valueType, PARTICIPANT).build());
+    }
+    variables.add(Variable.Builder.newVariable("texts", TextType.get(), PARTICIPANT).repeatable().build());
+    variables.add(Variable.Builder.newVariable("integers", IntegerType.get(), PARTICIPANT).repeatable().build());
+
+    archive = File.createTempFile("magma", "test-fs.zip");
+    // the datasource creates the archive
+    archive.delete();
+  }
+
+  @After
+  public void deleteArchive() {
+    archive.delete();
+  }
+
+  @Test
+  public void test_columnar_writesAndReadsEveryValueType() throws IOException {
+    assertRoundTrip(FsDatasource.COLUMNAR_VERSION);
+  }
+
+  @Test
+  public void test_xml_writesAndReadsEveryValueType() throws IOException {
+    assertRoundTrip(FsDatasource.XML_VERSION);
+  }
+
+  @Test
+  public void test_columnar_rewritingAnEntityKeepsItsLatestValueSet() throws IOException {
+    FsDatasource datasource = createDatasource(FsDatasource.COLUMNAR_VERSION);
+    write(datasource, 0, 10, 0);
+    write(datasource, 5, 15, 100);
+    assertThat(datasource.getValueTable("table").getVariableEntities().size(), is(15));
+    Disposables.dispose(datasource);
+
+    datasource = openDatasource();
+    ValueTable table = datasource.getValueTable("table");
+    assertThat(table.getVariableEntities().size(), is(15));
+    assertValues(table, 0, 5, 0);
+    assertValues(table, 5, 15, 100);
+    Disposables.dispose(datasource);
+  }
+
+  @Test
+  public void test_columnar_vectorSourceReadsTheValuesOfAllChunks() throws IOException {
+    int size = FsColumnStore.ROWS_PER_CHUNK * 2 + 5;
+    FsDatasource datasource = createDatasource(FsDatasource.COLUMNAR_VERSION);
+    write(datasource, 0, size, 0);
+    Disposables.dispose(datasource);
+
+    datasource = openDatasource();
+    ValueTable table = datasource.getValueTable("table");
+    for(Variable variable : variables) {
+      SortedSet<VariableEntity> entities = new TreeSet<VariableEntity>(table.getVariableEntities());
+      int i = 0;
+      for(Value value : table.getVariableValueSource(variable.getName()).asVectorSource().getValues(entities)) {
+        assertValue(value, valueOf(variable, i++));
+      }
+      assertThat(i, is(size));
+    }
+    Disposables.dispose(datasource);
+  }
+
+  @Test
+  public void test_columnar_vectorSourceReturnsNullValuesOfEntitiesWithoutValueSet() throws IOException {
+    assertNullValuesOfEntitiesWithoutValueSet(FsDatasource.COLUMNAR_VERSION);
+  }
+
+  @Test
+  public void test_xml_vectorSourceReturnsNullValuesOfEntitiesWithoutValueSet() throws IOException {
+    assertNullValuesOfEntitiesWithoutValueSet(FsDatasource.XML_VERSION);
+  }
+
+  @Test
+  public void test_reopen_keepsTheVersionOfTheArchive() throws IOException {
+    FsDatasource datasource = createDatasource(FsDatasource.COLUMNAR_VERSION);
+    write(datasource, 0, 3, 0);
+    Disposables.dispose(datasource);
+
+    datasource = new FsDatasource("fs", archive);
+    datasource.setVersion(FsDatasource.XML_VERSION);
+    Initialisables.initialise(datasource);
+    assertThat(datasource.getVersion(), is(FsDatasource.COLUMNAR_VERSION));
+    assertValues(datasource.getValueTable("table"), 0, 3, 0);
+    Disposables.dispose(datasource);
+  }
+
+  @Test
+  public void test_reopen_readsArchiveWithoutVersionAsXml() throws IOException {
+    FsDatasource datasource = new FsDatasource("fs", archive) {
+      @Override
+      protected void onInitialise() {
+        super.onInitialise();
+        // an archive created before the versions
+        getInstanceAttributes().removeAll("magma.datasource.fs.version");
+      }
+    };
+    Initialisables.initialise(datasource);
+    write(datasource, 0, 3, 0);
+    Disposables.dispose(datasource);
+
+    datasource = new FsDatasource("fs", archive);
+    datasource.setVersion(FsDatasource.COLUMNAR_VERSION);
+    Initialisables.initialise(datasource);
+    assertThat(datasource.getVersion(), is(FsDatasource.XML_VERSION));
+    assertValues(datasource.getValueTable("table"), 0, 3, 0);
+    Disposables.dispose(datasource);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_setVersion_rejectsUnsupportedVersion() {
+    new FsDatasource("fs", archive).setVersion("0");
+  }
+
+  private void assertRoundTrip(String version) throws IOException {
+    FsDatasource datasource = createDatasource(version);
+    write(datasource, 0, 20, 0);
+    Disposables.dispose(datasource);
+
+    datasource = openDatasource();
+    assertThat(datasource.getVersion(), is(version));
+    ValueTable table = datasource.getValueTable("table");
+    assertThat(table.getEntityType(), is(PARTICIPANT));
+    assertThat(table.getVariableEntities().size(), is(20));
+    assertValues(table, 0, 20, 0);
+    Disposables.dispose(datasource);
+  }
+
+  private void assertNullValuesOfEntitiesWithoutValueSet(String version) throws IOException {
+    FsDatasource datasource = createDatasource(version);
+    write(datasource, 0, 3, 0);
+    Disposables.dispose(datasource);
+
+    datasource = openDatasource();
+    ValueTable table = datasource.getValueTable("table");
+    SortedSet<VariableEntity> entities = new TreeSet<VariableEntity>(Arrays.asList(entity(1), entity(5)));
+    for(Variable variable : variables) {
+      Iterator<Value> values = table.getVariableValueSource(variable.getName()).asVectorSource().getValues(entities)
+          .iterator();
+      assertValue(values.next(), valueOf(variable, 1));
+      ValueType valueType = variable.getValueType();
+      assertValue(values.next(), variable.isRepeatable() ? valueType.nullSequence() : valueType.nullValue());
+      assertThat(values.hasNext(), is(false));
+    }
+    Disposables.dispose(datasource);
+  }
+
+  private FsDatasource createDatasource(String version) {
+    FsDatasource datasource = new FsDatasource("fs", archive);
+    datasource.setVersion(version);
+    Initialisables.initialise(datasource);
+    return datasource;
+  }
+
+  private FsDatasource openDatasource() {
+    FsDatasource datasource = new FsDatasource("fs", archive);
+    Initialisables.initialise(datasource);
+    return datasource;
+  }
+
+  /**
+   * Writes the value sets of the entities {@code from} to {@code to}, with the values of {@code seed + entity}.
+   */
+  private void write(FsDatasource datasource, int from, int to, int seed) throws IOException {
+    ValueTableWriter writer = datasource.createWriter("table", PARTICIPANT);
+    try {
+      VariableWriter variableWriter = writer.writeVariables();
+      for(Variable variable : variables) {
+        variableWriter.writeVariable(variable);
+      }
+      variableWriter.close();
+      for(int i = from; i < to; i++) {
+        ValueSetWriter valueSetWriter = writer.writeValueSet(entity(i));
+        for(Variable variable : variables) {
+          // values that are not written are null
+          if(!isMissing(variable, seed + i)) {
+            valueSetWriter.writeValue(variable, valueOf(variable, seed + i));
+          }
+        }
+        valueSetWriter.close();
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void assertValues(ValueTable table, int from, int to, int seed) {
+    for(int i = from; i < to; i++) {
+      ValueSet valueSet = table.getValueSet(entity(i));
+      for(Variable variable : variables) {
+        assertValue(table.getVariableValueSource(variable.getName()).getValue(valueSet), valueOf(variable, seed + i));
+      }
+    }
+  }
+
+  private void assertValue(Value actual, Value expected) {
+    assertThat(actual.getValueType(), is(expected.getValueType()));
+    assertThat(actual.isNull(), is(expected.isNull()));
+    assertThat(actual.isSequence(), is(expected.isSequence()));
+    assertThat(actual.toString(), is(expected.toString()));
+  }
+
+  private static VariableEntity entity(int i) {
+    return new VariableEntityBean(PARTICIPANT, String.format("%06d", i));
+  }
+
+  private static boolean isMissing(Variable variable, int i) {
+    return i % 5 == 2 && !variable.isRepeatable();
+  }
+
+  private static Value valueOf(Variable variable, int i) {
+    ValueType valueType = variable.getValueType();
+    if(isMissing(variable, i)) {
+      return valueType.nullValue();
+    }
+    if(variable.isRepeatable()) {
+      if(i % 5 == 3) return valueType.nullSequence();
+      return valueType.sequenceOf(Arrays.asList(occurrenceOf(valueType, i), valueType.nullValue(),
+          occurrenceOf(valueType, i + 1)));
+    }
+    return i % 5 == 3 ? valueType.nullValue() : occurrenceOf(valueType, i);
+  }
+
+  private static Value occurrenceOf(ValueType valueType, int i) {
+    if(valueType == IntegerType.get()) return valueType.valueOf(i * 1000000007L);
+    if(valueType == DecimalType.get()) return valueType.valueOf(i / 3.0);
+    if(valueType == BooleanType.get()) return valueType.valueOf(i % 2 == 0);
+    if(valueType == DateType.get()) return valueType.valueOf(new MagmaDate(1900 + i % 200, i % 12 + 1, i % 28 + 1));
+    if(valueType == DateTimeType.get()) return valueType.valueOf(new Date(1000000000000L + i * 1001L));
+    if(valueType == LocaleType.get()) return valueType.valueOf(i % 2 == 0 ? "fr_CA" : "en");
+    if(valueType == BinaryType.get()) return valueType.valueOf(new byte[] { (byte) i, 0, (byte) -i });
+    if(valueType == PointType.get()) return valueType.valueOf("[" + i % 180 + ".5," + i % 90 + ".25]");
+    return valueType.valueOf("text é\n" + i);
+  }
+
+}
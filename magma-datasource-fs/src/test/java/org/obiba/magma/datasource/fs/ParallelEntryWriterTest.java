@@ -0,0 +1,289 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.ValueTableWriter.ValueSetWriter;
+import org.obiba.magma.ValueTableWriter.VariableWriter;
+import org.obiba.magma.Variable;
+import org.obiba.magma.crypt.support.GeneratedKeyPairProvider;
+import org.obiba.magma.datasource.crypt.DatasourceEncryptionStrategy;
+import org.obiba.magma.datasource.crypt.EncryptedSecretKeyDatasourceEncryptionStrategy;
+import org.obiba.magma.datasource.crypt.GeneratedSecretKeyDatasourceEncryptionStrategy;
+import org.obiba.magma.datasource.fs.FsDatasource.InputStreamCallback;
+import org.obiba.magma.datasource.fs.FsDatasource.OutputStreamCallback;
+import org.obiba.magma.support.Disposables;
+import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.xstream.MagmaXStreamExtension;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import de.schlichtherle.io.File;
+import de.schlichtherle.io.FileInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ParallelEntryWriterTest extends AbstractMagmaTest {
+
+  private static final String PARTICIPANT = "Participant";
+
+  private static final Variable VARIABLE = Variable.Builder.newVariable("var", IntegerType.get(), PARTICIPANT)
+      .build();
+
+  private java.io.File archive;
+
+  private GeneratedKeyPairProvider keyProvider;
+
+  @Before
+  public void before() throws IOException, NoSuchAlgorithmException {
+    MagmaEngine.get().extend(new MagmaXStreamExtension());
+    archive = java.io.File.createTempFile("magma", "test-fs.zip");
+    // the datasource creates the archive
+    archive.delete();
+    keyProvider = new GeneratedKeyPairProvider();
+  }
+
+  @After
+  public void deleteArchive() {
+    archive.delete();
+  }
+
+  @Test
+  public void test_write_appendsEntriesInOrder() throws IOException {
+    FsDatasource datasource = createDatasource(null, FsDatasource.XML_VERSION);
+    List<File> entries = writeEntries(datasource, 50);
+    Disposables.dispose(datasource);
+
+    datasource = openDatasource(null);
+    assertEntries(datasource, entries);
+    Disposables.dispose(datasource);
+  }
+
+  @Test
+  public void test_write_appendsEncryptedEntriesAndTheirDigests() throws IOException, NoSuchAlgorithmException {
+    FsDatasource datasource = createDatasource(generatedKeyStrategy(), FsDatasource.XML_VERSION);
+    List<File> entries = writeEntries(datasource, 50);
+    Disposables.dispose(datasource);
+
+    datasource = openDatasource(encryptedKeyStrategy());
+    assertEntries(datasource, entries);
+    for(File entry : entries) {
+      byte[] digest = MessageDigest.getInstance("SHA-512").digest(contentOf(entry.getName()));
+      assertThat(readRawEntry(new File(entry.getParent(), entry.getName() + ".sha512")), is(digest));
+      assertThat(readRawEntry(entry), not(contentOf(entry.getName())));
+    }
+    Disposables.dispose(datasource);
+  }
+
+  @Test
+  public void test_write_throwsTheFailureOfAnEntryAndDoesNotAppendTheFollowingOnes() throws IOException {
+    FsDatasource datasource = createDatasource(null, FsDatasource.XML_VERSION);
+    ParallelEntryWriter entryWriter = new ParallelEntryWriter(datasource, 3);
+    AtomicInteger appended = new AtomicInteger();
+    try {
+      entryWriter.write(entry(datasource, 0), callback(0), count(appended));
+      entryWriter.write(entry(datasource, 1), new OutputStreamCallback<Void>() {
+        @Override
+        public Void writeEntry(OutputStream output) throws IOException {
+          throw new IOException("cannot encode");
+        }
+      }, count(appended));
+      entryWriter.write(entry(datasource, 2), callback(2), count(appended));
+      entryWriter.close();
+      fail("MagmaRuntimeException expected");
+    } catch(MagmaRuntimeException e) {
+      assertThat(e.getCause().getMessage(), is("cannot encode"));
+    }
+    // the failure discards the pending entries
+    entryWriter.close();
+    assertThat(appended.get(), is(1));
+    assertThat(entry(datasource, 0).exists(), is(true));
+    assertThat(entry(datasource, 1).exists(), is(false));
+    assertThat(entry(datasource, 2).exists(), is(false));
+    Disposables.dispose(datasource);
+  }
+
+  @Test
+  public void test_columnar_valueSetsOfAChunkThatFailsAreNotIndexed() throws IOException {
+    final String failingChunk = "0000002.bin";
+    FsDatasource datasource = new FsDatasource("fs", archive) {
+      @Override
+      EncodedEntry encodeEntry(File entry, byte[] content) {
+        if(entry.getName().equals(failingChunk)) throw new MagmaRuntimeException("cannot encode");
+        return super.encodeEntry(entry, content);
+      }
+    };
+    datasource.setVersion(FsDatasource.COLUMNAR_VERSION);
+    datasource.setWriterThreads(3);
+    Initialisables.initialise(datasource);
+    try {
+      writeValueSets(datasource, FsColumnStore.ROWS_PER_CHUNK * 2);
+      fail("MagmaRuntimeException expected");
+    } catch(MagmaRuntimeException e) {
+      assertThat(e.getMessage(), is("cannot encode"));
+    }
+    assertThat(datasource.getValueTable("table").getVariableEntities().size(), is(FsColumnStore.ROWS_PER_CHUNK));
+    Disposables.dispose(datasource);
+
+    datasource = openDatasource(null);
+    ValueTable table = datasource.getValueTable("table");
+    assertThat(table.getVariableEntities().size(), is(FsColumnStore.ROWS_PER_CHUNK));
+    assertThat(table.getVariableValueSource(VARIABLE.getName()).getValue(table.getValueSet(valueSetEntity(0))),
+        is(IntegerType.get().valueOf(0)));
+    Disposables.dispose(datasource);
+  }
+
+  @Test
+  public void test_columnar_writesEncryptedValueSetsWithThreads() throws IOException {
+    int size = FsColumnStore.ROWS_PER_CHUNK * 3 + 10;
+    FsDatasource datasource = createDatasource(generatedKeyStrategy(), FsDatasource.COLUMNAR_VERSION);
+    writeValueSets(datasource, size);
+    Disposables.dispose(datasource);
+
+    datasource = openDatasource(encryptedKeyStrategy());
+    ValueTable table = datasource.getValueTable("table");
+    assertThat(table.getVariableEntities().size(), is(size));
+    for(int i = 0; i < size; i += 97) {
+      assertThat(table.getVariableValueSource(VARIABLE.getName()).getValue(table.getValueSet(valueSetEntity(i))),
+          is(IntegerType.get().valueOf(i)));
+    }
+    Disposables.dispose(datasource);
+  }
+
+  private FsDatasource createDatasource(@Nullable DatasourceEncryptionStrategy strategy, String version) {
+    FsDatasource datasource = new FsDatasource("fs", archive, strategy);
+    datasource.setVersion(version);
+    datasource.setWriterThreads(3);
+    Initialisables.initialise(datasource);
+    return datasource;
+  }
+
+  private FsDatasource openDatasource(@Nullable DatasourceEncryptionStrategy strategy) {
+    FsDatasource datasource = new FsDatasource("fs", archive, strategy);
+    Initialisables.initialise(datasource);
+    return datasource;
+  }
+
+  private DatasourceEncryptionStrategy generatedKeyStrategy() {
+    DatasourceEncryptionStrategy strategy = new GeneratedSecretKeyDatasourceEncryptionStrategy();
+    strategy.setKeyProvider(keyProvider);
+    return strategy;
+  }
+
+  private DatasourceEncryptionStrategy encryptedKeyStrategy() {
+    DatasourceEncryptionStrategy strategy = new EncryptedSecretKeyDatasourceEncryptionStrategy();
+    strategy.setKeyProvider(keyProvider);
+    return strategy;
+  }
+
+  private List<File> writeEntries(FsDatasource datasource, int count) {
+    List<File> entries = Lists.newArrayList();
+    ParallelEntryWriter entryWriter = new ParallelEntryWriter(datasource, 3);
+    try {
+      for(int i = 0; i < count; i++) {
+        File entry = entry(datasource, i);
+        entryWriter.write(entry, callback(i));
+        entries.add(entry);
+      }
+    } finally {
+      entryWriter.close();
+    }
+    return entries;
+  }
+
+  private void writeValueSets(FsDatasource datasource, int count) throws IOException {
+    ValueTableWriter writer = datasource.createWriter("table", PARTICIPANT);
+    try {
+      VariableWriter variableWriter = writer.writeVariables();
+      variableWriter.writeVariable(VARIABLE);
+      variableWriter.close();
+      for(int i = 0; i < count; i++) {
+        ValueSetWriter valueSetWriter = writer.writeValueSet(valueSetEntity(i));
+        valueSetWriter.writeValue(VARIABLE, IntegerType.get().valueOf(i));
+        valueSetWriter.close();
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void assertEntries(FsDatasource datasource, List<File> entries) {
+    for(File entry : entries) {
+      assertThat(datasource.readEntry(entry, new InputStreamCallback<byte[]>() {
+        @Override
+        public byte[] readEntry(InputStream input) throws IOException {
+          return ByteStreams.toByteArray(input);
+        }
+      }), is(contentOf(entry.getName())));
+    }
+  }
+
+  private static byte[] readRawEntry(File entry) throws IOException {
+    InputStream input = new FileInputStream(entry);
+    try {
+      return ByteStreams.toByteArray(input);
+    } finally {
+      input.close();
+    }
+  }
+
+  private static File entry(FsDatasource datasource, int i) {
+    return datasource.getEntry(i + ".bin");
+  }
+
+  private static VariableEntityBean valueSetEntity(int i) {
+    return new VariableEntityBean(PARTICIPANT, String.format("%06d", i));
+  }
+
+  /**
+   * Content of an entry, of a size that depends on the entry.
+   */
+  private static byte[] contentOf(String name) {
+    StringBuilder content = new StringBuilder();
+    for(int i = 0; i < name.length() * 100; i++) {
+      content.append(name);
+    }
+    return content.toString().getBytes();
+  }
+
+  private static OutputStreamCallback<Void> callback(final int i) {
+    return new OutputStreamCallback<Void>() {
+      @Override
+      public Void writeEntry(OutputStream output) throws IOException {
+        output.write(contentOf(i + ".bin"));
+        return null;
+      }
+    };
+  }
+
+  private static Runnable count(final AtomicInteger appended) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        appended.incrementAndGet();
+      }
+    };
+  }
+
+}
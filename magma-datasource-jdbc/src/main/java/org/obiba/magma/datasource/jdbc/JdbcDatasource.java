@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -112,6 +113,16 @@ public class JdbcDatasource extends AbstractDatasource {
     return new JdbcValueTableWriter(table);
   }
 
+  /**
+   * Writers share nothing but the JDBC data source: each one batches its own statements. Writers used from other
+   * threads do not take part in a transaction of the calling thread, so concurrent writes are only allowed when no
+   * Spring transaction is active: they would otherwise be committed outside of it.
+   */
+  @Override
+  public boolean canWriteConcurrently() {
+    return !TransactionSynchronizationManager.isActualTransactionActive();
+  }
+
   @Override
   protected void onInitialise() {
     if(getSettings().useMetadataTables()) {
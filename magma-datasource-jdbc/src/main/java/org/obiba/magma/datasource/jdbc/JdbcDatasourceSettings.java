@@ -29,6 +29,16 @@ public class JdbcDatasourceSettings {
    */
   private String defaultUpdatedTimestampColumnName;
 
+  /**
+   * The number of value sets sent to the database in one JDBC batch by the table writers
+   */
+  private int batchSize = 1;
+
+  /**
+   * The number of value sets loaded by one query when value sets are read in table order
+   */
+  private int valueSetFetchSize = 100;
+
   //
   // Constructors
   //
@@ -140,6 +150,37 @@ public class JdbcDatasourceSettings {
     return defaultUpdatedTimestampColumnName;
   }
 
+  /**
+   * Sets the number of value sets the table writers send in one JDBC batch. With the default size of 1, each value set
+   * is written when its writer is closed; with a larger size, value sets are written when the batch is full and when
+   * the table writer is closed.
+   */
+  public void setBatchSize(int batchSize) {
+    if(batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be at least 1");
+    }
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Sets the number of value sets loaded by one query when value sets are read in table order. A size of 1 loads each
+   * value set on its own.
+   */
+  public void setValueSetFetchSize(int valueSetFetchSize) {
+    if(valueSetFetchSize < 1) {
+      throw new IllegalArgumentException("valueSetFetchSize must be at least 1");
+    }
+    this.valueSetFetchSize = valueSetFetchSize;
+  }
+
+  public int getValueSetFetchSize() {
+    return valueSetFetchSize;
+  }
+
   public boolean isCreatedTimestampColumnNameProvided() {
     return defaultCreatedTimestampColumnName != null && !"".equals(defaultCreatedTimestampColumnName);
   }
@@ -1,32 +1,37 @@
 package org.obiba.magma.datasource.jdbc;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.Value;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
-import org.obiba.magma.datasource.jdbc.support.NameConverter;
 import org.obiba.magma.support.ValueSetBean;
-import org.springframework.jdbc.core.ResultSetExtractor;
 
 public class JdbcValueSet extends ValueSetBean {
 
-  private final Map<String, Value> resultSetCache;
+  /**
+   * Values by variable name, null until loaded.
+   */
+  @Nullable
+  private volatile Map<String, Value> values;
 
-  private final String escapedSqlTableName;
+  /**
+   * False if the values were loaded for some variables only.
+   */
+  private volatile boolean complete;
 
   public JdbcValueSet(JdbcValueTable valueTable, VariableEntity variableEntity) {
     super(valueTable, variableEntity);
-    resultSetCache = new HashMap<String, Value>();
-    String sqlTableName = valueTable.getSettings().getSqlTableName();
-    escapedSqlTableName = valueTable.getDatasource().escapeSqlTableName(sqlTableName);
+  }
+
+  JdbcValueSet(JdbcValueTable valueTable, VariableEntity variableEntity, Map<String, Value> values, boolean complete) {
+    super(valueTable, variableEntity);
+    this.values = values;
+    this.complete = complete;
   }
 
   @Nonnull
@@ -41,71 +46,32 @@ public class JdbcValueSet extends ValueSetBean {
   }
 
   public Value getValue(Variable variable) {
-    loadResultSetCache();
-    return resultSetCache.get(variable.getName());
+    return getValue(variable.getName());
   }
 
-  private synchronized void loadResultSetCache() {
-    if(resultSetCache.isEmpty()) {
-      loadValues();
-    }
+  public Value getCreated() {
+    return getValue(getValueTable().getCreatedTimestampColumnName());
   }
 
-  private void loadValues() {
-    // Build the SQL query.
-    StringBuilder sql = new StringBuilder();
-
-    // ...select all columns
-    sql.append("SELECT * ");
-
-    // ...from the mapped table
-    sql.append("FROM ");
-    sql.append(escapedSqlTableName);
-
-    // ...for the specified entity
-    sql.append(" WHERE ");
-    List<String> entityIdentifierColumns = getValueTable().getSettings().getEntityIdentifierColumns();
-    int size = entityIdentifierColumns.size();
-    for(int i = 0; i < size; i++) {
-      sql.append(entityIdentifierColumns.get(i));
-      sql.append(" = ?");
-      if(i < size - 1) {
-        sql.append(" AND ");
-      }
-    }
-
-    // Execute the query.
-    String[] entityIdentifierColumnValues = getVariableEntity().getIdentifier().split("-");
-    getValueTable().getDatasource().getJdbcTemplate()
-        .query(sql.toString(), entityIdentifierColumnValues, new ResultSetExtractor<Void>() {
-          @Override
-          public Void extractData(ResultSet rs) throws SQLException {
-            // Cache the data.
-            rs.next();
-            for(int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-              if(!getValueTable().getSettings().getEntityIdentifierColumns()
-                  .contains(rs.getMetaData().getColumnName(i))) {
-                String variableName = NameConverter.toMagmaVariableName(rs.getMetaData().getColumnName(i));
-                Value variableValue = SqlTypes.valueTypeFor(rs.getMetaData().getColumnType(i)).valueOf(rs.getObject(i));
-                resultSetCache.put(variableName, variableValue);
-              }
-            }
-
-            // Just return null. We have everything we need in the cache.
-            return null;
-          }
-        });
-
+  public Value getUpdated() {
+    return getValue(getValueTable().getUpdatedTimestampColumnName());
   }
 
-  public Value getCreated() {
-    loadResultSetCache();
-    return resultSetCache.get(getValueTable().getCreatedTimestampColumnName());
+  private Value getValue(String variableName) {
+    Map<String, Value> loaded = values;
+    if(loaded == null || !complete && !loaded.containsKey(variableName)) {
+      loaded = loadValues();
+    }
+    return loaded.get(variableName);
   }
 
-  public Value getUpdated() {
-    loadResultSetCache();
-    return resultSetCache.get(getValueTable().getUpdatedTimestampColumnName());
+  private synchronized Map<String, Value> loadValues() {
+    if(values == null || !complete) {
+      values = getValueTable().getValueSetFetcher().getValues(getVariableEntity());
+      complete = true;
+    }
+    //noinspection ConstantConditions
+    return values;
   }
 
 }
@@ -0,0 +1,267 @@
+package org.obiba.magma.datasource.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.datasource.jdbc.support.NameConverter;
+import org.obiba.magma.support.VariableEntityBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import liquibase.database.structure.Column;
+
+/**
+ * Loads the values of the value sets of a {@link JdbcValueTable} by blocks of entities ({@code WHERE id IN (...)}),
+ * selecting the columns of the requested variables only. The column to variable mapping is resolved once, when the
+ * fetcher is created.
+ * <p/>
+ * Value sets requested one by one in the table entities order, as concurrent readers and copiers do, are prefetched by
+ * pages of {@link JdbcDatasourceSettings#getValueSetFetchSize()} entities. Other requests load a single row.
+ */
+class JdbcValueSetFetcher {
+
+  private static final Logger log = LoggerFactory.getLogger(JdbcValueSetFetcher.class);
+
+  private static final int PAGE_LOCKS = 16;
+
+  private final JdbcValueTable valueTable;
+
+  private final String escapedSqlTableName;
+
+  private final List<String> entityIdentifierColumns;
+
+  private final List<ColumnMapping> columnMappings;
+
+  private final int fetchSize;
+
+  private final Cache<VariableEntity, Map<String, Value>> prefetchedValues;
+
+  private final Object[] pageLocks = new Object[PAGE_LOCKS];
+
+  /**
+   * Position of the entities in the table, built on first prefetch.
+   */
+  @Nullable
+  private volatile Map<VariableEntity, Integer> entityPositions;
+
+  @Nullable
+  private volatile List<VariableEntity> entities;
+
+  private volatile int lastPosition;
+
+  JdbcValueSetFetcher(JdbcValueTable valueTable, Iterable<Column> columns) {
+    this.valueTable = valueTable;
+    escapedSqlTableName = valueTable.getDatasource().escapeSqlTableName(valueTable.getSettings().getSqlTableName());
+    entityIdentifierColumns = valueTable.getSettings().getEntityIdentifierColumns();
+    columnMappings = new ArrayList<ColumnMapping>();
+    for(Column column : columns) {
+      if(!entityIdentifierColumns.contains(column.getName())) {
+        columnMappings.add(new ColumnMapping(column));
+      }
+    }
+    fetchSize = valueTable.getDatasource().getSettings().getValueSetFetchSize();
+    prefetchedValues = CacheBuilder.newBuilder().maximumSize(fetchSize * 4L).build();
+    for(int i = 0; i < PAGE_LOCKS; i++) {
+      pageLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * Returns the values of all the variables of an entity, by variable name.
+   */
+  Map<String, Value> getValues(VariableEntity entity) {
+    Map<String, Value> values = prefetchedValues.getIfPresent(entity);
+    if(values != null) return values;
+
+    Integer position = fetchSize > 1 ? getEntityPositions().get(entity) : null;
+    if(position == null || Math.abs(position - lastPosition) > fetchSize) {
+      // random access
+      if(position != null) lastPosition = position;
+      values = fetch(Collections.singletonList(entity), columnMappings).get(entity);
+      return values == null ? Collections.<String, Value>emptyMap() : values;
+    }
+
+    lastPosition = position;
+    int page = position / fetchSize;
+    synchronized(pageLocks[page % PAGE_LOCKS]) {
+      values = prefetchedValues.getIfPresent(entity);
+      if(values == null) {
+        //noinspection ConstantConditions
+        List<VariableEntity> pageEntities = entities
+            .subList(page * fetchSize, Math.min(entities.size(), (page + 1) * fetchSize));
+        Map<VariableEntity, Map<String, Value>> pageValues = fetch(pageEntities, columnMappings);
+        prefetchedValues.putAll(pageValues);
+        values = pageValues.get(entity);
+      }
+    }
+    return values == null ? Collections.<String, Value>emptyMap() : values;
+  }
+
+  /**
+   * Returns the value sets of {@code entities}, in that order, loading pages of entities with the columns of {@code
+   * variables} only. The values of other variables are loaded on demand, one value set at a time.
+   *
+   * @param variables null for all the variables
+   */
+  Iterable<ValueSet> getValueSets(final Iterable<VariableEntity> entities, @Nullable Iterable<Variable> variables) {
+    final List<ColumnMapping> mappings = variables == null ? columnMappings : getColumnMappings(variables);
+    final boolean complete = mappings.size() == columnMappings.size();
+    return new Iterable<ValueSet>() {
+      @Override
+      public Iterator<ValueSet> iterator() {
+        final Iterator<List<VariableEntity>> pages = Iterables.partition(entities, fetchSize).iterator();
+        return new AbstractIterator<ValueSet>() {
+
+          private Iterator<VariableEntity> pageEntities = Collections.<VariableEntity>emptyList().iterator();
+
+          private Map<VariableEntity, Map<String, Value>> pageValues;
+
+          @Override
+          protected ValueSet computeNext() {
+            if(!pageEntities.hasNext()) {
+              if(!pages.hasNext()) return endOfData();
+              List<VariableEntity> page = pages.next();
+              pageValues = fetch(page, mappings);
+              pageEntities = page.iterator();
+            }
+            VariableEntity entity = pageEntities.next();
+            Map<String, Value> values = pageValues.get(entity);
+            return new JdbcValueSet(valueTable, entity,
+                values == null ? Collections.<String, Value>emptyMap() : values, complete);
+          }
+        };
+      }
+    };
+  }
+
+  private List<ColumnMapping> getColumnMappings(Iterable<Variable> variables) {
+    List<ColumnMapping> mappings = new ArrayList<ColumnMapping>();
+    for(Variable variable : variables) {
+      String columnName = NameConverter.toSqlName(variable.getName());
+      for(ColumnMapping mapping : columnMappings) {
+        if(mapping.columnName.equalsIgnoreCase(columnName) && !mappings.contains(mapping)) {
+          mappings.add(mapping);
+          break;
+        }
+      }
+    }
+    return mappings;
+  }
+
+  /**
+   * Loads the values of {@code mappings} columns for a block of entities.
+   */
+  private Map<VariableEntity, Map<String, Value>> fetch(Collection<VariableEntity> block,
+      final List<ColumnMapping> mappings) {
+    final Map<VariableEntity, Map<String, Value>> values = new HashMap<VariableEntity, Map<String, Value>>();
+    if(block.isEmpty()) return values;
+
+    StringBuilder sql = new StringBuilder("SELECT ");
+    for(String column : entityIdentifierColumns) {
+      sql.append(column).append(", ");
+    }
+    for(ColumnMapping mapping : mappings) {
+      sql.append(mapping.columnName).append(", ");
+    }
+    sql.setLength(sql.length() - 2);
+    sql.append(" FROM ").append(escapedSqlTableName).append(" WHERE ");
+
+    List<Object> parameters = new ArrayList<Object>();
+    if(entityIdentifierColumns.size() == 1) {
+      sql.append(entityIdentifierColumns.get(0)).append(" IN (");
+      for(VariableEntity entity : block) {
+        sql.append(parameters.isEmpty() ? "?" : ", ?");
+        parameters.add(entity.getIdentifier());
+      }
+      sql.append(")");
+    } else {
+      for(VariableEntity entity : block) {
+        if(!parameters.isEmpty()) sql.append(" OR ");
+        sql.append("(");
+        for(int i = 0; i < entityIdentifierColumns.size(); i++) {
+          if(i > 0) sql.append(" AND ");
+          sql.append(entityIdentifierColumns.get(i)).append(" = ?");
+        }
+        sql.append(")");
+        Collections.addAll(parameters, (Object[]) entity.getIdentifier().split("-"));
+      }
+    }
+
+    log.debug("Loading {} value sets of table {}", block.size(), valueTable.getName());
+    valueTable.getDatasource().getJdbcTemplate().query(sql.toString(), parameters.toArray(), new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        int identifierCount = entityIdentifierColumns.size();
+        StringBuilder identifier = new StringBuilder();
+        for(int i = 1; i <= identifierCount; i++) {
+          if(i > 1) identifier.append('-');
+          identifier.append(rs.getObject(i).toString());
+        }
+        Map<String, Value> row = new LinkedHashMap<String, Value>();
+        int index = identifierCount + 1;
+        for(ColumnMapping mapping : mappings) {
+          row.put(mapping.variableName, mapping.valueType.valueOf(rs.getObject(index++)));
+        }
+        values.put(new VariableEntityBean(valueTable.getEntityType(), identifier.toString()), row);
+      }
+    });
+    return values;
+  }
+
+  private Map<VariableEntity, Integer> getEntityPositions() {
+    Map<VariableEntity, Integer> positions = entityPositions;
+    if(positions == null) {
+      synchronized(this) {
+        positions = entityPositions;
+        if(positions == null) {
+          List<VariableEntity> list = Lists.newArrayList(valueTable.getVariableEntities());
+          positions = new HashMap<VariableEntity, Integer>(list.size() * 2);
+          for(int i = 0; i < list.size(); i++) {
+            positions.put(list.get(i), i);
+          }
+          entities = list;
+          entityPositions = positions;
+        }
+      }
+    }
+    return positions;
+  }
+
+  private static class ColumnMapping {
+
+    private final String columnName;
+
+    private final String variableName;
+
+    private final ValueType valueType;
+
+    private ColumnMapping(Column column) {
+      columnName = column.getName();
+      variableName = NameConverter.toMagmaVariableName(columnName);
+      valueType = SqlTypes.valueTypeFor(column.getDataType());
+    }
+  }
+
+}
@@ -64,6 +64,13 @@ class JdbcValueTable extends AbstractValueTable {
 
   private String escapedCategoriesSqlTableName;
 
+  private JdbcValueSetFetcher valueSetFetcher;
+
+  /**
+   * Number of writers of this table that are not closed yet.
+   */
+  private int openWriters;
+
   JdbcValueTable(JdbcDatasource datasource, JdbcValueTableSettings settings) {
     super(datasource, settings.getMagmaTableName());
     this.settings = settings;
@@ -90,6 +97,7 @@ class JdbcValueTable extends AbstractValueTable {
     super.initialise();
     initialiseVariableValueSources();
     Initialisables.initialise(getVariableEntityProvider());
+    valueSetFetcher = new JdbcValueSetFetcher(this, table.getColumns());
   }
 
   @Override
@@ -110,6 +118,24 @@ class JdbcValueTable extends AbstractValueTable {
     return new JdbcValueSet(this, entity);
   }
 
+  /**
+   * Value sets are loaded by pages of entities.
+   */
+  @Override
+  public Iterable<ValueSet> getValueSets() {
+    return getValueSets(getVariableEntities(), null);
+  }
+
+  /**
+   * Returns the value sets of {@code entities}, loaded by pages of entities with the values of {@code variables} only.
+   * Values of other variables are loaded one value set at a time when requested.
+   *
+   * @param variables null for all the variables
+   */
+  public Iterable<ValueSet> getValueSets(Iterable<VariableEntity> entities, @Nullable Iterable<Variable> variables) {
+    return valueSetFetcher.getValueSets(entities, variables);
+  }
+
   @Override
   public Timestamps getValueSetTimestamps(final VariableEntity entity) throws NoSuchValueSetException {
     if(hasCreatedTimestampColumn() && hasUpdatedTimestampColumn()) {
@@ -191,7 +217,23 @@ class JdbcValueTable extends AbstractValueTable {
     return NameConverter.toSqlName(getName());
   }
 
-  void tableChanged() {
+  JdbcValueSetFetcher getValueSetFetcher() {
+    return valueSetFetcher;
+  }
+
+  synchronized void writerOpened() {
+    openWriters++;
+  }
+
+  /**
+   * Returns true when the last open writer of this table is closed: concurrent writers refresh the table once, after
+   * all of them have written.
+   */
+  synchronized boolean writerClosed() {
+    return --openWriters == 0;
+  }
+
+  synchronized void tableChanged() {
     table = getDatasource().getDatabaseSnapshot().getTable(settings.getSqlTableName());
     initialise();
   }
@@ -432,7 +474,7 @@ class JdbcValueTable extends AbstractValueTable {
 
   class JdbcVariableEntityProvider extends AbstractVariableEntityProvider implements Initialisable {
 
-    private Set<VariableEntity> entities = new LinkedHashSet<VariableEntity>();
+    private volatile Set<VariableEntity> entities = new LinkedHashSet<VariableEntity>();
 
     JdbcVariableEntityProvider(String entityType) {
       super(entityType);
@@ -440,8 +482,6 @@ class JdbcValueTable extends AbstractValueTable {
 
     @Override
     public void initialise() {
-      entities = new LinkedHashSet<VariableEntity>();
-
       // MAGMA-100
       if(escapedSqlTableName == null) {
         escapedSqlTableName = getDatasource().escapeSqlTableName(getSqlName());
@@ -466,7 +506,8 @@ class JdbcValueTable extends AbstractValueTable {
             }
           });
 
-      entities.addAll(results);
+      // replaced at once, concurrent writers may be looking up entities
+      entities = new LinkedHashSet<VariableEntity>(results);
     }
 
     @Override
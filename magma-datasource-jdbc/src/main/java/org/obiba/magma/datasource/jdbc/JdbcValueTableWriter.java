@@ -11,11 +11,15 @@ import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.obiba.magma.Attribute;
 import org.obiba.magma.Category;
@@ -31,10 +35,12 @@ import org.obiba.magma.type.LocaleType;
 import org.obiba.magma.type.TextType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.support.AbstractLobCreatingPreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.support.lob.DefaultLobHandler;
 import org.springframework.jdbc.support.lob.LobCreator;
+import org.springframework.jdbc.support.lob.LobHandler;
 import org.springframework.util.Assert;
 
 import com.google.common.collect.ImmutableList;
@@ -46,7 +52,6 @@ import liquibase.change.ModifyColumnChange;
 
 class JdbcValueTableWriter implements ValueTableWriter {
 
-  @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(JdbcValueTableWriter.class);
 
   static final String VARIABLE_METADATA_TABLE = "variables";
@@ -79,8 +84,35 @@ class JdbcValueTableWriter implements ValueTableWriter {
 
   private final JdbcValueTable valueTable;
 
+  private final int batchSize;
+
+  private final LobHandler lobHandler = new DefaultLobHandler();
+
+  /**
+   * INSERT and UPDATE statements by column set.
+   */
+  private final Map<List<String>, String> insertSqlCache = new HashMap<List<String>, String>();
+
+  private final Map<List<String>, String> updateSqlCache = new HashMap<List<String>, String>();
+
+  /**
+   * Entities inserted by this writer: they are not in the table entities until the writer is closed.
+   */
+  private final Set<VariableEntity> insertedEntities = new HashSet<VariableEntity>();
+
+  /**
+   * Statement parameters of the value sets not written yet, by statement.
+   */
+  private final Map<String, List<Object[]>> pendingBatches = new LinkedHashMap<String, List<Object[]>>();
+
+  private final Set<VariableEntity> pendingEntities = new HashSet<VariableEntity>();
+
+  private boolean closed;
+
   JdbcValueTableWriter(JdbcValueTable valueTable) {
     this.valueTable = valueTable;
+    batchSize = valueTable.getDatasource().getSettings().getBatchSize();
+    valueTable.writerOpened();
   }
 
   @Nonnull
@@ -98,8 +130,85 @@ class JdbcValueTableWriter implements ValueTableWriter {
 
   @Override
   public void close() throws IOException {
-    valueTable.getDatasource().databaseChanged();
-    valueTable.tableChanged();
+    if(closed) return;
+    closed = true;
+    try {
+      flush();
+    } finally {
+      if(valueTable.writerClosed()) {
+        valueTable.getDatasource().databaseChanged();
+        valueTable.tableChanged();
+      }
+    }
+  }
+
+  private void addToBatch(VariableEntity entity, String sql, Object... parameters) {
+    // statements of a same entity must be executed in order
+    if(pendingEntities.contains(entity)) flush();
+
+    List<Object[]> batch = pendingBatches.get(sql);
+    if(batch == null) {
+      batch = new ArrayList<Object[]>();
+      pendingBatches.put(sql, batch);
+    }
+    batch.add(parameters);
+    pendingEntities.add(entity);
+    if(pendingEntities.size() >= batchSize) flush();
+  }
+
+  private void flush() {
+    JdbcTemplate jdbcTemplate = valueTable.getDatasource().getJdbcTemplate();
+    for(Map.Entry<String, List<Object[]>> entry : pendingBatches.entrySet()) {
+      log.debug("Executing {} value set statements: {}", entry.getValue().size(), entry.getKey());
+      jdbcTemplate.execute(entry.getKey(), new BatchPreparedStatementCallback(entry.getValue()));
+    }
+    pendingBatches.clear();
+    pendingEntities.clear();
+  }
+
+  /**
+   * Executes a statement once per parameter array, as a JDBC batch if there are several.
+   */
+  private class BatchPreparedStatementCallback implements PreparedStatementCallback<Object> {
+
+    private final List<Object[]> batch;
+
+    private BatchPreparedStatementCallback(List<Object[]> batch) {
+      this.batch = batch;
+    }
+
+    @Nullable
+    @Override
+    public Object doInPreparedStatement(PreparedStatement ps) throws SQLException, DataAccessException {
+      LobCreator lobCreator = lobHandler.getLobCreator();
+      try {
+        if(batch.size() == 1) {
+          setValues(ps, lobCreator, batch.get(0));
+          ps.executeUpdate();
+        } else {
+          for(Object[] parameters : batch) {
+            setValues(ps, lobCreator, parameters);
+            ps.addBatch();
+          }
+          ps.executeBatch();
+        }
+        return null;
+      } finally {
+        lobCreator.close();
+      }
+    }
+
+    private void setValues(PreparedStatement ps, LobCreator lobCreator, Object... parameters) throws SQLException {
+      int index = 1;
+      for(Object parameter : parameters) {
+        if(parameter instanceof byte[]) {
+          lobCreator.setBlobAsBinaryStream(ps, index++, new ByteArrayInputStream((byte[]) parameter),
+              ((byte[]) parameter).length);
+        } else {
+          ps.setObject(index++, parameter);
+        }
+      }
+    }
   }
 
   private class JdbcVariableWriter implements VariableWriter {
@@ -280,67 +389,85 @@ class JdbcValueTableWriter implements ValueTableWriter {
     @Override
     public void close() throws IOException {
       if(columnValueMap.size() != 0) {
-        JdbcTemplate jdbcTemplate = valueTable.getDatasource().getJdbcTemplate();
-
-        jdbcTemplate.execute(valueTable.hasValueSet(entity) ? getUpdateSql() : getInsertSql(),
-            new AbstractLobCreatingPreparedStatementCallback(new DefaultLobHandler()) {
-              @Override
-              protected void setValues(PreparedStatement ps, LobCreator lobCreator) throws SQLException {
-                int index = 1;
-                for(Map.Entry<String, Object> entry : columnValueMap.entrySet()) {
-                  if(entry.getValue() instanceof byte[]) {
-                    lobCreator.setBlobAsBinaryStream(ps, index++, new ByteArrayInputStream((byte[]) entry.getValue()),
-                        ((byte[]) entry.getValue()).length);
-                  } else {
-                    ps.setObject(index++, entry.getValue());
-                  }
-                }
-              }
-            });
+        if(valueTable.hasValueSet(entity) || insertedEntities.contains(entity)) {
+          addUpdate();
+        } else {
+          addInsert();
+          insertedEntities.add(entity);
+        }
       }
     }
 
-    @SuppressWarnings({ "PMD.NcssMethodCount", "OverlyLongMethod" })
-    private String getInsertSql() {
+    private void addInsert() {
       String timestamp = formattedDate(new Date());
       if(valueTable.hasCreatedTimestampColumn()) {
-        writeValue(Variable.Builder
-            .newVariable(valueTable.getCreatedTimestampColumnName(), TextType.get(), valueTable.getEntityType())
-            .build(), TextType.get().valueOf(timestamp));
+        columnValueMap.put(NameConverter.toSqlName(valueTable.getCreatedTimestampColumnName()), timestamp);
       }
       if(valueTable.hasUpdatedTimestampColumn()) {
-        writeValue(Variable.Builder
-            .newVariable(valueTable.getUpdatedTimestampColumnName(), TextType.get(), valueTable.getEntityType())
-            .build(), TextType.get().valueOf(timestamp));
+        columnValueMap.put(NameConverter.toSqlName(valueTable.getUpdatedTimestampColumnName()), timestamp);
+      }
+      List<String> columns = new ArrayList<String>(columnValueMap.keySet());
+      String sql = insertSqlCache.get(columns);
+      if(sql == null) {
+        sql = getInsertSql(columns);
+        insertSqlCache.put(columns, sql);
       }
 
-      StringBuffer sql = new StringBuffer();
+      String[] identifierValues = getEntityIdentifierValues();
+      Object[] parameters = new Object[identifierValues.length + columnValueMap.size()];
+      System.arraycopy(identifierValues, 0, parameters, 0, identifierValues.length);
+      int index = identifierValues.length;
+      for(Object value : columnValueMap.values()) {
+        parameters[index++] = value;
+      }
+      addToBatch(entity, sql, parameters);
+    }
+
+    private void addUpdate() {
+      if(valueTable.hasUpdatedTimestampColumn()) {
+        columnValueMap.put(NameConverter.toSqlName(valueTable.getUpdatedTimestampColumnName()),
+            formattedDate(new Date()));
+      }
+      List<String> columns = new ArrayList<String>(columnValueMap.keySet());
+      String sql = updateSqlCache.get(columns);
+      if(sql == null) {
+        sql = getUpdateSql(columns);
+        updateSqlCache.put(columns, sql);
+      }
+
+      String[] identifierValues = getEntityIdentifierValues();
+      Object[] parameters = new Object[columnValueMap.size() + identifierValues.length];
+      int index = 0;
+      for(Object value : columnValueMap.values()) {
+        parameters[index++] = value;
+      }
+      System.arraycopy(identifierValues, 0, parameters, index, identifierValues.length);
+      addToBatch(entity, sql, parameters);
+    }
+
+    private String getInsertSql(Iterable<String> columns) {
+      StringBuilder sql = new StringBuilder();
 
       sql.append("INSERT INTO ");
       sql.append(valueTable.getSqlName());
 
-      Map<String, String> entityIdentifierColumnValueMap = getEntityIdentifierColumnValueMap();
-
       sql.append(" (");
-      for(Map.Entry<String, String> entry : entityIdentifierColumnValueMap.entrySet()) {
-        sql.append(entry.getKey());
+      int count = 0;
+      for(String column : valueTable.getSettings().getEntityIdentifierColumns()) {
+        sql.append(column);
         sql.append(", ");
+        count++;
       }
-      for(Map.Entry<String, Object> entry : columnValueMap.entrySet()) {
-        sql.append(entry.getKey());
+      for(String column : columns) {
+        sql.append(column);
         sql.append(", ");
+        count++;
       }
       deleteFromEnd(sql, ", ");
       sql.append(") ");
 
       sql.append("VALUES (");
-      for(Map.Entry<String, String> entry : entityIdentifierColumnValueMap.entrySet()) {
-        sql.append("'");
-        sql.append(entry.getValue());
-        sql.append("'");
-        sql.append(", ");
-      }
-      for(int i = 0; i < columnValueMap.size(); i++) {
+      for(int i = 0; i < count; i++) {
         sql.append("?");
         sql.append(", ");
       }
@@ -350,50 +477,31 @@ class JdbcValueTableWriter implements ValueTableWriter {
       return sql.toString();
     }
 
-    private String getUpdateSql() {
-      if(valueTable.hasUpdatedTimestampColumn()) {
-        writeValue(Variable.Builder
-            .newVariable(valueTable.getUpdatedTimestampColumnName(), TextType.get(), valueTable.getEntityType())
-            .build(), TextType.get().valueOf(formattedDate(new Date())));
-      }
-      StringBuffer sql = new StringBuffer();
+    private String getUpdateSql(Iterable<String> columns) {
+      StringBuilder sql = new StringBuilder();
 
       sql.append("UPDATE ");
       sql.append(valueTable.getSqlName());
 
       sql.append(" SET ");
-      for(Map.Entry<String, Object> entry : columnValueMap.entrySet()) {
-        sql.append(entry.getKey());
+      for(String column : columns) {
+        sql.append(column);
         sql.append(" = ?, ");
       }
       deleteFromEnd(sql, ", ");
 
-      sql.append(" ");
-      sql.append(getWhereClause());
-
-      return sql.toString();
-    }
-
-    private String getWhereClause() {
-      StringBuffer whereClause = new StringBuffer();
-
-      whereClause.append("WHERE ");
-      for(Map.Entry<String, String> entry : getEntityIdentifierColumnValueMap().entrySet()) {
-        whereClause.append(entry.getKey());
-        whereClause.append(" = ");
-        whereClause.append("'");
-        whereClause.append(entry.getValue());
-        whereClause.append("'");
-        whereClause.append(" AND ");
+      sql.append(" WHERE ");
+      for(String column : valueTable.getSettings().getEntityIdentifierColumns()) {
+        sql.append(column);
+        sql.append(" = ?");
+        sql.append(" AND ");
       }
-      deleteFromEnd(whereClause, " AND ");
+      deleteFromEnd(sql, " AND ");
 
-      return whereClause.toString();
+      return sql.toString();
     }
 
-    private Map<String, String> getEntityIdentifierColumnValueMap() {
-      Map<String, String> entityIdentifierColumnValueMap = new LinkedHashMap<String, String>();
-
+    private String[] getEntityIdentifierValues() {
       List<String> entityIdentifierColumns = valueTable.getSettings().getEntityIdentifierColumns();
 
       String[] entityIdentifierValues = entityIdentifierColumns.size() > 1
@@ -402,14 +510,10 @@ class JdbcValueTableWriter implements ValueTableWriter {
       Assert.isTrue(entityIdentifierColumns.size() == entityIdentifierValues.length,
           "number of entity identifier columns does not match number of entity identifiers");
 
-      for(int i = 0; i < entityIdentifierColumns.size(); i++) {
-        entityIdentifierColumnValueMap.put(entityIdentifierColumns.get(i), entityIdentifierValues[i]);
-      }
-
-      return entityIdentifierColumnValueMap;
+      return entityIdentifierValues;
     }
 
-    private void deleteFromEnd(StringBuffer sb, String stringToDelete) {
+    private void deleteFromEnd(StringBuilder sb, String stringToDelete) {
       sb.delete(sb.length() - stringToDelete.length(), sb.length());
     }
 
@@ -417,4 +521,4 @@ class JdbcValueTableWriter implements ValueTableWriter {
       return timestampDateFormat.format(date);
     }
   }
-}
\ No newline at end of file
+}
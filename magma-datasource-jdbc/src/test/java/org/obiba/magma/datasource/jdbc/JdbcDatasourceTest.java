@@ -27,6 +27,7 @@ import org.obiba.magma.test.TestSchema;
 import org.obiba.magma.type.DecimalType;
 import org.obiba.magma.type.IntegerType;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -34,10 +35,15 @@ import org.springframework.test.context.support.DependencyInjectionTestExecution
 import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
 import org.springframework.test.context.transaction.TransactionConfiguration;
 import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -130,6 +136,32 @@ public class JdbcDatasourceTest extends AbstractMagmaTest {
     jdbcDatasource.dispose();
   }
 
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-nometa.sql",
+      afterSchema = "schema-notables.sql")
+  @Dataset(filenames = "JdbcDatasourceTest-nometa.xml")
+  @Test
+  public void test_projectedValueSets() {
+    JdbcDatasourceSettings settings = new JdbcDatasourceSettings("Participant", null, null, false);
+    settings.setValueSetFetchSize(1);
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource", dataSource, settings);
+    jdbcDatasource.initialise();
+
+    JdbcValueTable bdTable = (JdbcValueTable) jdbcDatasource.getValueTable("BONE_DENSITY");
+    Variable bd = bdTable.getVariable("BD");
+    Variable bd2 = bdTable.getVariable("BD_2");
+    int valueSetCount = 0;
+    for(ValueSet valueSet : bdTable.getValueSets(bdTable.getVariableEntities(), ImmutableList.of(bd))) {
+      valueSetCount++;
+      int expected = "1234-2".equals(valueSet.getVariableEntity().getIdentifier()) ? 64 : 65;
+      assertEquals(IntegerType.get().valueOf(expected), bdTable.getValue(bd, valueSet));
+      // not projected, loaded on demand
+      assertEquals(IntegerType.get().valueOf(65), bdTable.getValue(bd2, valueSet));
+    }
+    assertEquals(2, valueSetCount);
+
+    jdbcDatasource.dispose();
+  }
+
   @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-notables.sql",
       afterSchema = "schema-notables.sql")
   @Test
@@ -180,6 +212,55 @@ public class JdbcDatasourceTest extends AbstractMagmaTest {
     jdbcDatasource.dispose();
   }
 
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-notables.sql",
+      afterSchema = "schema-notables.sql")
+  @Test
+  public void test_batchedWrites() throws IOException {
+    JdbcDatasourceSettings settings = new JdbcDatasourceSettings("Participant", null, null, false);
+    settings.setBatchSize(3);
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource-nodb", dataSource, settings);
+    jdbcDatasource.initialise();
+
+    Variable myVar1 = Variable.Builder.newVariable("my_var1", IntegerType.get(), "Participant").build();
+    ValueTableWriter tableWriter = jdbcDatasource.createWriter("my_table", null);
+    VariableWriter variableWriter = tableWriter.writeVariables();
+    variableWriter.writeVariable(myVar1);
+    variableWriter.close();
+    for(int i = 0; i < 10; i++) {
+      ValueSetWriter valueSetWriter = tableWriter.writeValueSet(new VariableEntityBean("Participant", "" + i));
+      valueSetWriter.writeValue(myVar1, IntegerType.get().valueOf(i));
+      valueSetWriter.close();
+    }
+    // update of an entity inserted in a pending batch
+    ValueSetWriter valueSetWriter = tableWriter.writeValueSet(new VariableEntityBean("Participant", "9"));
+    valueSetWriter.writeValue(myVar1, IntegerType.get().valueOf(99));
+    valueSetWriter.close();
+    tableWriter.close();
+
+    ValueTable table = jdbcDatasource.getValueTable("my_table");
+    assertEquals(10, table.getVariableEntities().size());
+    ValueSet valueSet = table.getValueSet(new VariableEntityBean("Participant", "8"));
+    assertEquals(IntegerType.get().valueOf(8), table.getValue(table.getVariable("MY_VAR1"), valueSet));
+    valueSet = table.getValueSet(new VariableEntityBean("Participant", "9"));
+    assertEquals(IntegerType.get().valueOf(99), table.getValue(table.getVariable("MY_VAR1"), valueSet));
+
+    jdbcDatasource.dispose();
+  }
+
+  @Test
+  public void test_canWriteConcurrently_onlyOutsideOfTransactions() {
+    final JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource-nodb", dataSource, "Participant", false);
+    assertTrue(jdbcDatasource.canWriteConcurrently());
+
+    new TransactionTemplate(new DataSourceTransactionManager(dataSource))
+        .execute(new TransactionCallbackWithoutResult() {
+          @Override
+          protected void doInTransactionWithoutResult(TransactionStatus status) {
+            assertFalse(jdbcDatasource.canWriteConcurrently());
+          }
+        });
+  }
+
   //
   // Methods
   //
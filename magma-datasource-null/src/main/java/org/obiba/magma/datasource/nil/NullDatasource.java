@@ -33,6 +33,11 @@ public class NullDatasource extends AbstractDatasource {
     return null;
   }
 
+  @Override
+  public boolean canWriteConcurrently() {
+    return true;
+  }
+
   @Override
   @Nonnull
   public ValueTableWriter createWriter(@Nonnull String name, @Nonnull String entityType) {
@@ -0,0 +1,133 @@
+package org.obiba.magma.hibernate.type;
+
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import javax.annotation.Nullable;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.Mapping;
+import org.hibernate.engine.SessionImplementor;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.support.BinaryValueCodec;
+
+/**
+ * A Hibernate Type for persisting {@code Value} instances either as text or with the {@link BinaryValueCodec} encoding.
+ * The strategy uses the 3 columns of {@link ValueHibernateType} plus a binary one:
+ * <ul>
+ * <li>value_type: stores the name of the ValueType</li>
+ * <li>is_sequence: stores true when the {@code Value} is a {@code ValueSequence},false otherwise.</li>
+ * <li>value: stores the value returned by {@code value.toString()}, or an empty string when the value is binary
+ * encoded</li>
+ * <li>binary_value: stores the binary encoded value, or null when the value is stored as text</li>
+ * </ul>
+ * Values are binary encoded when the {@link #BINARY_STORAGE} Hibernate property is true. Values are read from whichever
+ * column was written, so that existing text values remain readable once the binary storage is enabled.
+ */
+public class BinaryValueHibernateType extends ValueHibernateType {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Hibernate property that enables the binary storage of values.
+   */
+  public static final String BINARY_STORAGE = "magma.value.binary_storage";
+
+  @Nullable
+  private transient volatile Boolean binaryStorage;
+
+  @Override
+  public int getColumnSpan(Mapping mapping) throws MappingException {
+    return 4;
+  }
+
+  @Override
+  public String getName() {
+    return "BinaryValue";
+  }
+
+  @Nullable
+  @Override
+  public Object nullSafeGet(ResultSet rs, String[] names, SessionImplementor session, Object owner)
+      throws HibernateException, SQLException {
+    String valueTypeName = rs.getString(names[0]);
+    // see ValueHibernateType
+    if(valueTypeName == null) {
+      return null;
+    }
+    ValueType valueType = ValueType.Factory.forName(valueTypeName);
+    boolean isSequence = rs.getBoolean(names[1]);
+    byte[] bytes = rs.getBytes(names[3]);
+    if(bytes != null) {
+      return BinaryValueCodec.decode(valueType, isSequence, bytes);
+    }
+    String stringValue = rs.getString(names[2]);
+    return isSequence ? valueType.sequenceOf(stringValue) : valueType.valueOf(stringValue);
+  }
+
+  @Override
+  public void nullSafeSet(PreparedStatement st, Object obj, int index, boolean[] settable, SessionImplementor session)
+      throws HibernateException, SQLException {
+    Value value = (Value) obj;
+    boolean binary = isBinaryStorage(session);
+
+    int offset = 0;
+    if(settable[0]) {
+      st.setString(index + offset++, value.getValueType().getName());
+    }
+    if(settable[1]) {
+      st.setBoolean(index + offset++, value.isSequence());
+    }
+    if(settable[2]) {
+      st.setString(index + offset++, binary ? "" : value.toString());
+    }
+    if(settable[3]) {
+      setBytes(st, index + offset, binary ? BinaryValueCodec.encode(value) : null);
+    }
+  }
+
+  @Override
+  public void nullSafeSet(PreparedStatement st, Object obj, int index, SessionImplementor session)
+      throws HibernateException, SQLException {
+    Value value = (Value) obj;
+    boolean binary = isBinaryStorage(session);
+    st.setString(index, value.getValueType().getName());
+    st.setBoolean(index + 1, value.isSequence());
+    String stringValue = binary ? "" : value.toString();
+    st.setClob(index + 2, new StringReader(stringValue), stringValue == null ? 0 : stringValue.length());
+    setBytes(st, index + 3, binary ? BinaryValueCodec.encode(value) : null);
+  }
+
+  @Override
+  public int[] sqlTypes(Mapping mapping) throws MappingException {
+    return new int[] { Types.VARCHAR, Types.BIT, Types.CLOB, Types.VARBINARY };
+  }
+
+  @Override
+  public boolean[] toColumnNullness(Object value, Mapping mapping) {
+    return new boolean[] { false, false, false, true };
+  }
+
+  private boolean isBinaryStorage(SessionImplementor session) {
+    Boolean binary = binaryStorage;
+    if(binary == null) {
+      binary = Boolean.valueOf(session.getFactory().getProperties().getProperty(BINARY_STORAGE));
+      binaryStorage = binary;
+    }
+    return binary;
+  }
+
+  private static void setBytes(PreparedStatement st, int index, @Nullable byte[] bytes) throws SQLException {
+    if(bytes == null) {
+      st.setNull(index, Types.VARBINARY);
+    } else {
+      st.setBytes(index, bytes);
+    }
+  }
+
+}
@@ -1,6 +1,10 @@
 package org.obiba.magma.datasource.hibernate;
 
 import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -16,19 +20,24 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 import org.obiba.core.service.impl.hibernate.AssociationCriteria;
 import org.obiba.core.service.impl.hibernate.AssociationCriteria.Operation;
 import org.obiba.core.util.TimedExecution;
 import org.obiba.magma.NoSuchValueTableException;
+import org.obiba.magma.Value;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.ValueType;
 import org.obiba.magma.datasource.hibernate.converter.AttributeAwareConverter;
 import org.obiba.magma.datasource.hibernate.converter.HibernateMarshallingContext;
 import org.obiba.magma.datasource.hibernate.domain.AttributeState;
 import org.obiba.magma.datasource.hibernate.domain.DatasourceState;
 import org.obiba.magma.datasource.hibernate.domain.ValueTableState;
 import org.obiba.magma.datasource.hibernate.domain.VariableState;
+import org.obiba.magma.hibernate.type.BinaryValueHibernateType;
 import org.obiba.magma.support.AbstractDatasource;
+import org.obiba.magma.support.BinaryValueCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,10 +53,22 @@ public class HibernateDatasource extends AbstractDatasource {
 
   public static final String TYPE = "hibernate";
 
+  private static final int MIGRATION_BATCH_SIZE = 500;
+
+  private static final String SELECT_TEXT_VALUES
+      = "SELECT vsv.value_set_id, vsv.variable_id, vsv.value_type, vsv.is_sequence, vsv.value " +
+      "FROM value_set_value vsv WHERE vsv.binary_value IS NULL AND vsv.value_set_id IN " +
+      "(SELECT vs.id FROM value_set vs, value_table vt WHERE vs.value_table_id = vt.id AND vt.datasource_id = ?)";
+
+  private static final String UPDATE_BINARY_VALUE
+      = "UPDATE value_set_value SET value = '', binary_value = ? WHERE value_set_id = ? AND variable_id = ?";
+
   private final SessionFactory sessionFactory;
 
   private Serializable datasourceId;
 
+  private int writeBatchSize = 1;
+
   /**
    * A Map of {@code org.hibernate.Transaction} to a list of all {@code HibernateValueTable} involved in the
    * transaction. This map uses weak keys, meaning that when the transaction object is no longer reference anywhere, its
@@ -162,6 +183,75 @@ public class HibernateDatasource extends AbstractDatasource {
     log.info("Dropped table '{}' in {}", tableFullName, timedExecution.end().formatExecutionTime());
   }
 
+  /**
+   * Sets the number of value sets a table writer keeps in the session before flushing and clearing it. The default, 1,
+   * flushes each value set when it is closed. With a larger size, the statements of several value sets are grouped
+   * (see {@code hibernate.jdbc.batch_size}) and the value table is locked once per writer instead of once per value.
+   * Remaining value sets are flushed when the table writer is closed, durability still relies on the transaction
+   * commit.
+   */
+  public void setWriteBatchSize(int writeBatchSize) {
+    if(writeBatchSize < 1) throw new IllegalArgumentException("writeBatchSize must be at least 1");
+    this.writeBatchSize = writeBatchSize;
+  }
+
+  public int getWriteBatchSize() {
+    return writeBatchSize;
+  }
+
+  /**
+   * Re-encodes the values of this datasource that are still stored as text with the binary encoding of
+   * {@link BinaryValueHibernateType}. Text values remain readable once the binary storage is enabled, this migration
+   * only saves their parsing on later reads. Values are migrated by batches of {@value #MIGRATION_BATCH_SIZE}.
+   * <p/>
+   * Note that a Hibernate transaction must be active.
+   *
+   * @return the number of migrated values
+   */
+  public int migrateToBinaryValues() {
+    TimedExecution timedExecution = new TimedExecution().start();
+    final int[] migrated = { 0 };
+    getSessionFactory().getCurrentSession().doWork(new Work() {
+      @Override
+      public void execute(Connection connection) throws SQLException {
+        PreparedStatement select = connection.prepareStatement(SELECT_TEXT_VALUES);
+        PreparedStatement update = connection.prepareStatement(UPDATE_BINARY_VALUE);
+        try {
+          select.setObject(1, datasourceId);
+          select.setMaxRows(MIGRATION_BATCH_SIZE);
+          int count;
+          do {
+            count = 0;
+            ResultSet rs = select.executeQuery();
+            try {
+              while(rs.next()) {
+                ValueType valueType = ValueType.Factory.forName(rs.getString(3));
+                Value value = rs.getBoolean(4)
+                    ? valueType.sequenceOf(rs.getString(5))
+                    : valueType.valueOf(rs.getString(5));
+                update.setBytes(1, BinaryValueCodec.encode(value));
+                update.setObject(2, rs.getObject(1));
+                update.setObject(3, rs.getObject(2));
+                update.addBatch();
+                count++;
+              }
+            } finally {
+              rs.close();
+            }
+            if(count > 0) update.executeBatch();
+            migrated[0] += count;
+          } while(count == MIGRATION_BATCH_SIZE);
+        } finally {
+          select.close();
+          update.close();
+        }
+      }
+    });
+    log.info("Migrated {} values of {} to binary storage in {}", new Object[] { migrated[0], getName(),
+        timedExecution.end().formatExecutionTime() });
+    return migrated[0];
+  }
+
   @SuppressWarnings("ReuseOfLocalVariable")
   private void deleteValueSets(String tableFullName, Session session, Collection<?> valueSetIds) {
     TimedExecution deleteBinariesTime = new TimedExecution().start();
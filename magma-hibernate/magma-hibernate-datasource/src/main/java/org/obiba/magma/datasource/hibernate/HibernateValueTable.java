@@ -3,6 +3,7 @@ package org.obiba.magma.datasource.hibernate;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -16,11 +17,13 @@ import org.hibernate.FetchMode;
 import org.hibernate.LockMode;
 import org.hibernate.LockOptions;
 import org.hibernate.Query;
+import org.hibernate.Session;
 import org.obiba.core.service.impl.hibernate.AssociationCriteria;
 import org.obiba.core.service.impl.hibernate.AssociationCriteria.Operation;
 import org.obiba.magma.Datasource;
 import org.obiba.magma.Initialisable;
 import org.obiba.magma.NoSuchValueSetException;
+import org.obiba.magma.NoSuchVariableException;
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
@@ -42,8 +45,10 @@ import org.obiba.magma.type.DateTimeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 @SuppressWarnings("OverlyCoupledClass")
@@ -51,6 +56,11 @@ class HibernateValueTable extends AbstractValueTable {
 
   private static final Logger log = LoggerFactory.getLogger(HibernateValueTable.class);
 
+  /**
+   * Number of value sets loaded per query when reading value sets in bulk.
+   */
+  private static final int VALUE_SET_PAGE_SIZE = 100;
+
   private final Serializable valueTableId;
 
   private final HibernateVariableEntityProvider variableEntityProvider;
@@ -90,6 +100,86 @@ class HibernateValueTable extends AbstractValueTable {
     return new HibernateValueSet(entity, criteria.getCriteria().setFetchMode("values", FetchMode.JOIN));
   }
 
+  /**
+   * Streams all the value sets of this table. The value set ids are read and their states are loaded with their values
+   * by pages of {@value #VALUE_SET_PAGE_SIZE}, in two queries per page, then evicted from the session.
+   */
+  @Override
+  public Iterable<ValueSet> getValueSets() {
+    return new Iterable<ValueSet>() {
+      @Override
+      public Iterator<ValueSet> iterator() {
+        return new PagingValueSetIterator();
+      }
+    };
+  }
+
+  /**
+   * Returns the value sets of {@code entities}, in that order. The value set states are loaded with their values by
+   * pages of {@value #VALUE_SET_PAGE_SIZE} entities, in one query per page, then evicted from the session.
+   *
+   * @throws NoSuchValueSetException when iterating over an entity that has no value set in this table
+   */
+  public Iterable<ValueSet> getValueSets(final Iterable<VariableEntity> entities) {
+    return new Iterable<ValueSet>() {
+      @Override
+      public Iterator<ValueSet> iterator() {
+        final Iterator<List<VariableEntity>> pages = Iterables.partition(entities, VALUE_SET_PAGE_SIZE).iterator();
+        return new AbstractIterator<ValueSet>() {
+
+          private Iterator<VariableEntity> pageEntities = Collections.<VariableEntity>emptyList().iterator();
+
+          private Map<String, ValueSetState> pageStates;
+
+          @Override
+          protected ValueSet computeNext() {
+            if(!pageEntities.hasNext()) {
+              if(!pages.hasNext()) return endOfData();
+              List<VariableEntity> page = pages.next();
+              pageStates = loadValueSetStates(page);
+              pageEntities = page.iterator();
+            }
+            VariableEntity entity = pageEntities.next();
+            ValueSetState state = pageStates.get(entity.getIdentifier());
+            if(state == null) {
+              throw new NoSuchValueSetException(HibernateValueTable.this, entity);
+            }
+            return new HibernateValueSet(entity, state);
+          }
+        };
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, ValueSetState> loadValueSetStates(Collection<VariableEntity> entities) {
+    List<String> identifiers = Lists.newArrayListWithCapacity(entities.size());
+    for(VariableEntity entity : entities) {
+      identifiers.add(entity.getIdentifier());
+    }
+    Session session = getDatasource().getSessionFactory().getCurrentSession();
+    List<ValueSetState> states = session.getNamedQuery("findValueSetsWithValuesByIdentifiers") //
+        .setParameter("valueTableId", valueTableId) //
+        .setParameter("entityType", getEntityType()) //
+        .setParameterList("identifiers", identifiers) //
+        .list();
+    Map<String, ValueSetState> statesByIdentifier = Maps.newHashMapWithExpectedSize(states.size());
+    for(ValueSetState state : states) {
+      evict(session, state);
+      statesByIdentifier.put(state.getVariableEntity().getIdentifier(), state);
+    }
+    return statesByIdentifier;
+  }
+
+  /**
+   * Evicts a value set state, its values and its entity: otherwise, they accumulate in the session when reading a whole
+   * table and make flushing longer and longer.
+   */
+  private static void evict(Session session, ValueSetState state) {
+    session.evict(state);
+    session.evict(state.getVariableEntity());
+  }
+
   @Override
   public Timestamps getValueSetTimestamps(VariableEntity entity) throws NoSuchValueSetException {
     if(!hasValueSet(entity)) {
@@ -165,6 +255,51 @@ class HibernateValueTable extends AbstractValueTable {
     }
   }
 
+  /**
+   * Overridden to include uncommitted variables, see {@link #getSources()}.
+   */
+  @Override
+  public boolean hasVariable(String variableName) {
+    return super.hasVariable(variableName) || getUncommittedSource(variableName) != null;
+  }
+
+  /**
+   * Overridden to include uncommitted variables, see {@link #getSources()}.
+   */
+  @Override
+  public Set<Variable> getVariables() {
+    if(!getDatasource().hasTableTransaction(getName())) return super.getVariables();
+    ImmutableSet.Builder<Variable> variables = ImmutableSet.<Variable>builder().addAll(super.getVariables());
+    for(VariableValueSource source : getDatasource().getTableTransaction(getName()).getUncommittedSources()) {
+      variables.add(source.getVariable());
+    }
+    return variables.build();
+  }
+
+  /**
+   * Overridden to include uncommitted variables, see {@link #getSources()}.
+   */
+  @Override
+  public VariableValueSource getVariableValueSource(String variableName) throws NoSuchVariableException {
+    try {
+      return super.getVariableValueSource(variableName);
+    } catch(NoSuchVariableException e) {
+      VariableValueSource source = getUncommittedSource(variableName);
+      if(source == null) throw e;
+      return source;
+    }
+  }
+
+  @Nullable
+  private VariableValueSource getUncommittedSource(String variableName) {
+    if(getDatasource().hasTableTransaction(getName())) {
+      for(VariableValueSource source : getDatasource().getTableTransaction(getName()).getUncommittedSources()) {
+        if(source.getVariable().getName().equals(variableName)) return source;
+      }
+    }
+    return null;
+  }
+
   ValueTableState getValueTableState() {
     return (ValueTableState) getDatasource().getSessionFactory().getCurrentSession()
         .get(ValueTableState.class, valueTableId);
@@ -201,6 +336,7 @@ class HibernateValueTable extends AbstractValueTable {
 
   class HibernateValueSet extends ValueSetBean {
 
+    @Nullable
     private final Criteria valueSetCriteria;
 
     private ValueSetState valueSetState;
@@ -210,6 +346,16 @@ class HibernateValueTable extends AbstractValueTable {
       this.valueSetCriteria = valueSetCriteria;
     }
 
+    /**
+     * Value set of a state loaded with its values.
+     */
+    HibernateValueSet(VariableEntity entity, ValueSetState valueSetState) {
+      super(HibernateValueTable.this, entity);
+      valueSetCriteria = null;
+      this.valueSetState = valueSetState;
+    }
+
+    @SuppressWarnings("ConstantConditions")
     synchronized ValueSetState getValueSetState() {
       if(valueSetState == null) {
         valueSetState = (ValueSetState) valueSetCriteria.uniqueResult();
@@ -230,6 +376,66 @@ class HibernateValueTable extends AbstractValueTable {
     }
   }
 
+  /**
+   * Reads the value set ids of this table by pages, in the order of the ids, and loads their states. Each page of ids
+   * is read by its own query, from the last id of the previous page, so no cursor is left open when the iteration is
+   * not completed.
+   */
+  private class PagingValueSetIterator extends AbstractIterator<ValueSet> {
+
+    private final Session session = getDatasource().getSessionFactory().getCurrentSession();
+
+    @Nullable
+    private Serializable lastId;
+
+    private boolean exhausted;
+
+    private Iterator<ValueSetState> pageStates = Collections.<ValueSetState>emptyList().iterator();
+
+    @Override
+    protected ValueSet computeNext() {
+      while(!pageStates.hasNext()) {
+        if(exhausted) return endOfData();
+        pageStates = nextPage().iterator();
+      }
+      ValueSetState state = pageStates.next();
+      VariableEntity entity = new VariableEntityBean(state.getVariableEntity().getType(),
+          state.getVariableEntity().getIdentifier());
+      return new HibernateValueSet(entity, state);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ValueSetState> nextPage() {
+      Query query = lastId == null
+          ? session.getNamedQuery("findValueSetIdsByTableId")
+          : session.getNamedQuery("findValueSetIdsByTableIdAfterId").setParameter("lastId", lastId);
+      List<Serializable> ids = query.setParameter("valueTableId", valueTableId) //
+          .setMaxResults(VALUE_SET_PAGE_SIZE) //
+          .list();
+      if(ids.size() < VALUE_SET_PAGE_SIZE) {
+        exhausted = true;
+      }
+      if(ids.isEmpty()) return Collections.emptyList();
+      lastId = ids.get(ids.size() - 1);
+
+      List<ValueSetState> states = session.getNamedQuery("findValueSetsWithValuesByIds") //
+          .setParameterList("valueSetIds", ids) //
+          .list();
+      // keep the scrolling order
+      Map<Serializable, ValueSetState> statesById = Maps.newHashMapWithExpectedSize(states.size());
+      for(ValueSetState state : states) {
+        evict(session, state);
+        statesById.put(state.getId(), state);
+      }
+      List<ValueSetState> page = Lists.newArrayListWithCapacity(ids.size());
+      for(Serializable id : ids) {
+        ValueSetState state = statesById.get(id);
+        if(state != null) page.add(state);
+      }
+      return page;
+    }
+  }
+
   public class HibernateVariableEntityProvider extends AbstractVariableEntityProvider implements Initialisable {
 
     private final Set<VariableEntity> entities = new LinkedHashSet<VariableEntity>();
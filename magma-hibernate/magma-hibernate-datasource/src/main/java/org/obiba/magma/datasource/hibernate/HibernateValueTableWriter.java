@@ -58,6 +58,15 @@ class HibernateValueTableWriter implements ValueTableWriter {
 
   private final HibernateMarshallingContext context;
 
+  private final int batchSize;
+
+  /**
+   * Value sets written since the last flush, by entity, when value sets are flushed by batches.
+   */
+  private final Map<VariableEntity, ValueSetState> pendingValueSets = Maps.newHashMap();
+
+  private boolean valueTableLocked = false;
+
   HibernateValueTableWriter(HibernateValueTableTransaction transaction) {
     if(transaction == null) throw new IllegalArgumentException("transaction cannot be null");
     this.transaction = transaction;
@@ -70,6 +79,7 @@ class HibernateValueTableWriter implements ValueTableWriter {
     }
 
     context = valueTable.createContext();
+    batchSize = valueTable.getDatasource().getWriteBatchSize();
   }
 
   @Nonnull
@@ -85,6 +95,34 @@ class HibernateValueTableWriter implements ValueTableWriter {
 
   @Override
   public void close() throws IOException {
+    if(!errorOccurred && !pendingValueSets.isEmpty()) {
+      flush();
+      // the table timestamp follows its last value set
+      forceIncrementValueTable();
+    }
+  }
+
+  /**
+   * Updates the value table timestamp. When value sets are flushed by batches, the lock is taken once per writer (and
+   * its timestamp updated once more on close).
+   */
+  private void lockValueTable() {
+    if(batchSize == 1 || !valueTableLocked) {
+      forceIncrementValueTable();
+      valueTableLocked = true;
+    }
+  }
+
+  private void forceIncrementValueTable() {
+    session.buildLockRequest(new LockOptions(LockMode.PESSIMISTIC_FORCE_INCREMENT))
+        .lock(valueTable.getValueTableState());
+  }
+
+  private void flush() {
+    session.flush();
+    // Empty the Session so we don't fill it up
+    session.clear();
+    pendingValueSets.clear();
   }
 
   private class HibernateVariableWriter implements VariableWriter {
@@ -137,11 +175,23 @@ class HibernateValueTableWriter implements ValueTableWriter {
       if(entity == null) throw new IllegalArgumentException("entity cannot be null");
       this.entity = entity;
 
+      // not flushed yet: cannot be queried
+      ValueSetState state = pendingValueSets.get(entity);
+      if(state != null) {
+        values = Maps.newHashMap();
+        for(ValueSetValue valueSetValue : state.getValues()) {
+          values.put(valueSetValue.getVariable().getName(), valueSetValue);
+        }
+        isNewValueSet = false;
+        valueSetState = state;
+        return;
+      }
+
       // find entity or create it
       VariableEntityState variableEntityState = entityConverter.marshal(entity, context);
 
       // Will update version timestamp if it exists
-      ValueSetState state = (ValueSetState) AssociationCriteria.create(ValueSetState.class, session) //
+      state = (ValueSetState) AssociationCriteria.create(ValueSetState.class, session) //
           .add("valueTable", Operation.eq, valueTable.getValueTableState()) //
           .add("variableEntity", Operation.eq, variableEntityState) //
           .getCriteria().setLockMode(LockMode.PESSIMISTIC_FORCE_INCREMENT) //
@@ -176,8 +226,7 @@ class HibernateValueTableWriter implements ValueTableWriter {
           updateValue(variable, value, valueSetValue);
         }
         // update valueTable timestamp
-        session.buildLockRequest(new LockOptions(LockMode.PESSIMISTIC_FORCE_INCREMENT))
-            .lock(valueTable.getValueTableState());
+        lockValueTable();
       } catch(RuntimeException e) {
         errorOccurred = true;
         throw e;
@@ -286,10 +335,11 @@ class HibernateValueTableWriter implements ValueTableWriter {
           // Make the entity visible within this transaction
           transaction.addEntity(entity);
         }
-        // Persists valueSetState
-        session.flush();
-        // Empty the Session so we don't fill it up
-        session.clear();
+        pendingValueSets.put(entity, valueSetState);
+        if(pendingValueSets.size() >= batchSize) {
+          // Persists valueSetStates
+          flush();
+        }
       }
     }
 
@@ -32,6 +32,17 @@ import com.google.common.collect.Sets;
 @NamedQueries({ //
     @NamedQuery(name = "findValueSetsByTableId",
         query = "SELECT vs FROM ValueSetState vs WHERE vs.valueTable.id = :valueTableId"),
+    @NamedQuery(name = "findValueSetIdsByTableId",
+        query = "SELECT vs.id FROM ValueSetState vs WHERE vs.valueTable.id = :valueTableId ORDER BY vs.id"),
+    @NamedQuery(name = "findValueSetIdsByTableIdAfterId",
+        query = "SELECT vs.id FROM ValueSetState vs WHERE vs.valueTable.id = :valueTableId AND vs.id > :lastId " +
+            "ORDER BY vs.id"),
+    @NamedQuery(name = "findValueSetsWithValuesByIds",
+        query = "SELECT DISTINCT vs FROM ValueSetState vs JOIN FETCH vs.variableEntity LEFT JOIN FETCH vs.values " +
+            "WHERE vs.id IN (:valueSetIds)"),
+    @NamedQuery(name = "findValueSetsWithValuesByIdentifiers",
+        query = "SELECT DISTINCT vs FROM ValueSetState vs JOIN FETCH vs.variableEntity ve LEFT JOIN FETCH vs.values " +
+            "WHERE vs.valueTable.id = :valueTableId AND ve.type = :entityType AND ve.identifier IN (:identifiers)"),
     @NamedQuery(name = "deleteValueSetStates",
         query = "DELETE FROM ValueSetState WHERE id IN (:valueTableIds)") })
 public class ValueSetState extends AbstractTimestampedEntity {
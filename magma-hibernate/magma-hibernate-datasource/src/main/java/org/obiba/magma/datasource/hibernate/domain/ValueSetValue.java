@@ -30,13 +30,13 @@ import org.hibernate.annotations.Columns;
 import org.hibernate.annotations.Type;
 import org.hibernate.annotations.TypeDef;
 import org.obiba.magma.Value;
-import org.obiba.magma.hibernate.type.ValueHibernateType;
+import org.obiba.magma.hibernate.type.BinaryValueHibernateType;
 
 import com.google.common.base.Objects;
 
 @Entity
 @Table(name = "value_set_value")
-@TypeDef(name = "value", typeClass = ValueHibernateType.class)
+@TypeDef(name = "binary_value", typeClass = BinaryValueHibernateType.class)
 @NamedQueries({ //
     @NamedQuery(name = "findValuesByTable",
         query = "SELECT vsv FROM ValueSetValue vsv WHERE vsv.id.valueSet " + //
@@ -50,11 +50,14 @@ public class ValueSetValue implements Timestamped, Serializable {
   @EmbeddedId
   private ValueSetValueId id;
 
-  @Type(type = "value")
+  // binary_value is null for values stored as text and Hibernate does not allow mixing nullable and non nullable
+  // columns: the other ones are never null
+  @Type(type = "binary_value")
   @Columns(columns = { //
-      @Column(name = "value_type", nullable = false), //
-      @Column(name = "is_sequence", nullable = false), //
-      @Column(name = "value", length = Integer.MAX_VALUE, nullable = false) })
+      @Column(name = "value_type"), //
+      @Column(name = "is_sequence"), //
+      @Column(name = "value", length = Integer.MAX_VALUE), //
+      @Column(name = "binary_value", length = Integer.MAX_VALUE) })
   private Value value;
 
   @SuppressWarnings("FieldMayBeFinal")
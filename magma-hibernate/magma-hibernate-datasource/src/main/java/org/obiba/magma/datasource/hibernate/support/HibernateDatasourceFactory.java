@@ -17,6 +17,8 @@ public class HibernateDatasourceFactory extends AbstractDatasourceFactory implem
   @Nonnull
   private SessionFactoryProvider sessionFactoryProvider;
 
+  private int writeBatchSize;
+
   /**
    * Empty constructor for XML serialization
    */
@@ -32,7 +34,23 @@ public class HibernateDatasourceFactory extends AbstractDatasourceFactory implem
   @Nonnull
   @Override
   public Datasource internalCreate() {
-    return new HibernateDatasource(getName(), sessionFactoryProvider.getSessionFactory());
+    HibernateDatasource datasource = new HibernateDatasource(getName(), sessionFactoryProvider.getSessionFactory());
+    // not set when unmarshalled from a previous version
+    if(writeBatchSize > 0) {
+      datasource.setWriteBatchSize(writeBatchSize);
+    }
+    return datasource;
+  }
+
+  /**
+   * @see HibernateDatasource#setWriteBatchSize(int)
+   */
+  public void setWriteBatchSize(int writeBatchSize) {
+    this.writeBatchSize = writeBatchSize;
+  }
+
+  public int getWriteBatchSize() {
+    return writeBatchSize;
   }
 
   public void setSessionFactoryProvider(@Nonnull SessionFactoryProvider sessionFactoryProvider) {
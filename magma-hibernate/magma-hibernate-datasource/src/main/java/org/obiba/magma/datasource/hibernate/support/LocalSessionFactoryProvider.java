@@ -53,6 +53,8 @@ public class LocalSessionFactoryProvider implements SessionFactoryProvider, Init
     cfg.setProperty(Environment.TRANSACTION_STRATEGY, "org.hibernate.transaction.JDBCTransactionFactory");
     cfg.setProperty(Environment.CURRENT_SESSION_CONTEXT_CLASS, "thread");
     cfg.setProperty(Environment.CACHE_PROVIDER, "org.hibernate.cache.EhCacheProvider");
+    cfg.setProperty(Environment.STATEMENT_BATCH_SIZE, "50");
+    cfg.setProperty(Environment.ORDER_INSERTS, "true");
     cfg.setNamingStrategy(ImprovedNamingStrategy.INSTANCE);
 
     if(properties != null) {
@@ -1,8 +1,10 @@
 package org.obiba.magma.datasource.hibernate;
 
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -13,11 +15,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.obiba.magma.Category;
 import org.obiba.magma.Datasource;
+import org.obiba.magma.MagmaDate;
 import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.ValueTableWriter.ValueSetWriter;
 import org.obiba.magma.ValueTableWriter.VariableWriter;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
@@ -25,14 +29,21 @@ import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.VectorSource;
 import org.obiba.magma.datasource.generated.GeneratedValueTable;
 import org.obiba.magma.datasource.hibernate.support.LocalSessionFactoryProvider;
+import org.obiba.magma.hibernate.type.BinaryValueHibernateType;
 import org.obiba.magma.support.DatasourceCopier;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.BooleanType;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.DateType;
 import org.obiba.magma.type.DecimalType;
 import org.obiba.magma.type.IntegerType;
 import org.obiba.magma.type.TextType;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import junit.framework.Assert;
 
@@ -264,6 +275,183 @@ public class HibernateDatasourceTest {
     cleanlyRemoveDatasource(ds);
   }
 
+  @Test
+  public void testBinaryValueStorage() throws Exception {
+    Variable integerVariable = Variable.Builder.newVariable("Integer", IntegerType.get(), "Participant").build();
+    Variable decimalVariable = Variable.Builder.newVariable("Decimal", DecimalType.get(), "Participant").build();
+    Variable booleanVariable = Variable.Builder.newVariable("Boolean", BooleanType.get(), "Participant").build();
+    Variable dateVariable = Variable.Builder.newVariable("Date", DateType.get(), "Participant").build();
+    Variable dateTimeVariable = Variable.Builder.newVariable("DateTime", DateTimeType.get(), "Participant").build();
+    Variable textVariable = Variable.Builder.newVariable("Text", TextType.get(), "Participant").repeatable().build();
+
+    Value integerValue = IntegerType.get().valueOf(-42L);
+    Value decimalValue = DecimalType.get().valueOf(3.14159);
+    Value booleanValue = BooleanType.get().trueValue();
+    Value dateValue = DateType.get().valueOf(new MagmaDate(2012, 1, 29));
+    Value dateTimeValue = DateTimeType.get().valueOf(new Date(1329142392000L));
+    Value textValue = TextType.get()
+        .sequenceOf(ImmutableList.of(TextType.get().valueOf("été"), TextType.get().nullValue(), TextType.get().valueOf(
+            "a,\"b\"")));
+    VariableEntity entity = new VariableEntityBean("Participant", "1");
+
+    // values written as text
+    HibernateDatasource ds = new HibernateDatasource("binaryStorage", provider.getSessionFactory());
+    provider.getSessionFactory().getCurrentSession().beginTransaction();
+    MagmaEngine.get().addDatasource(ds);
+    ValueTableWriter vtWriter = ds.createWriter("values", "Participant");
+    VariableWriter vw = vtWriter.writeVariables();
+    for(Variable variable : ImmutableList
+        .of(integerVariable, decimalVariable, booleanVariable, dateVariable, dateTimeVariable, textVariable)) {
+      vw.writeVariable(variable);
+    }
+    vw.close();
+    ValueSetWriter vsw = vtWriter.writeValueSet(entity);
+    vsw.writeValue(integerVariable, integerValue);
+    vsw.writeValue(decimalVariable, decimalValue);
+    vsw.writeValue(booleanVariable, booleanValue);
+    vsw.writeValue(dateVariable, dateValue);
+    vsw.writeValue(dateTimeVariable, dateTimeValue);
+    vsw.writeValue(textVariable, textValue);
+    vsw.close();
+    vtWriter.close();
+    provider.getSessionFactory().getCurrentSession().getTransaction().commit();
+    cleanlyRemoveDatasource(ds);
+
+    LocalSessionFactoryProvider binaryProvider = newProvider("theTest", true);
+    try {
+      // text values are readable and migrated
+      ds = new HibernateDatasource("binaryStorage", binaryProvider.getSessionFactory());
+      binaryProvider.getSessionFactory().getCurrentSession().beginTransaction();
+      MagmaEngine.get().addDatasource(ds);
+      ValueTable table = ds.getValueTable("values");
+      assertThat(table.getValue(textVariable, table.getValueSet(entity)), is(textValue));
+      assertThat(ds.migrateToBinaryValues(), is(6));
+      assertThat(ds.migrateToBinaryValues(), is(0));
+      binaryProvider.getSessionFactory().getCurrentSession().getTransaction().commit();
+
+      binaryProvider.getSessionFactory().getCurrentSession().beginTransaction();
+      table = ds.getValueTable("values");
+      ValueSet valueSet = table.getValueSet(entity);
+      assertThat(table.getValue(integerVariable, valueSet), is(integerValue));
+      assertThat(table.getValue(decimalVariable, valueSet), is(decimalValue));
+      assertThat(table.getValue(booleanVariable, valueSet), is(booleanValue));
+      assertThat(table.getValue(dateVariable, valueSet), is(dateValue));
+      assertThat(table.getValue(dateTimeVariable, valueSet), is(dateTimeValue));
+      assertThat(table.getValue(textVariable, valueSet), is(textValue));
+
+      // values written as binary
+      vtWriter = ds.createWriter("values", "Participant");
+      vsw = vtWriter.writeValueSet(entity);
+      vsw.writeValue(integerVariable, IntegerType.get().valueOf(Long.MAX_VALUE));
+      vsw.close();
+      vtWriter.close();
+      binaryProvider.getSessionFactory().getCurrentSession().getTransaction().commit();
+
+      binaryProvider.getSessionFactory().getCurrentSession().beginTransaction();
+      table = ds.getValueTable("values");
+      assertThat(table.getValue(integerVariable, table.getValueSet(entity)),
+          is(IntegerType.get().valueOf(Long.MAX_VALUE)));
+      assertThat(ds.migrateToBinaryValues(), is(0));
+      MagmaEngine.get().removeDatasource(ds);
+      binaryProvider.getSessionFactory().getCurrentSession().getTransaction().commit();
+    } finally {
+      binaryProvider.getSessionFactory().close();
+    }
+  }
+
+  @Test
+  public void testBulkValueSets() throws Exception {
+    Variable variable = Variable.Builder.newVariable("Var1", IntegerType.get(), "Participant").build();
+    HibernateDatasource ds = new HibernateDatasource("bulkValueSets", provider.getSessionFactory());
+    provider.getSessionFactory().getCurrentSession().beginTransaction();
+    MagmaEngine.get().addDatasource(ds);
+    ValueTableWriter vtWriter = ds.createWriter("values", "Participant");
+    VariableWriter vw = vtWriter.writeVariables();
+    vw.writeVariable(variable);
+    vw.close();
+    // more than 2 pages
+    for(int i = 0; i < 250; i++) {
+      ValueSetWriter vsw = vtWriter.writeValueSet(new VariableEntityBean("Participant", "" + i));
+      vsw.writeValue(variable, IntegerType.get().valueOf(i));
+      vsw.close();
+    }
+    vtWriter.close();
+    provider.getSessionFactory().getCurrentSession().getTransaction().commit();
+
+    provider.getSessionFactory().getCurrentSession().beginTransaction();
+    HibernateValueTable table = (HibernateValueTable) ds.getValueTable("values");
+    // stopping within the second page leaves nothing open
+    Iterator<ValueSet> iterator = table.getValueSets().iterator();
+    for(int i = 0; i < 150; i++) {
+      iterator.next();
+    }
+    Set<VariableEntity> readEntities = Sets.newHashSet();
+    for(ValueSet valueSet : table.getValueSets()) {
+      assertThat(table.getValue(variable, valueSet),
+          is(IntegerType.get().valueOf(valueSet.getVariableEntity().getIdentifier())));
+      readEntities.add(valueSet.getVariableEntity());
+    }
+    assertThat(readEntities.size(), is(250));
+
+    List<VariableEntity> entities = Lists.newArrayList();
+    for(int i = 249; i >= 0; i -= 2) {
+      entities.add(new VariableEntityBean("Participant", "" + i));
+    }
+    List<ValueSet> valueSets = Lists.newArrayList(table.getValueSets(entities));
+    assertThat(valueSets.size(), is(entities.size()));
+    for(int i = 0; i < entities.size(); i++) {
+      assertThat(valueSets.get(i).getVariableEntity(), is(entities.get(i)));
+      assertThat(table.getValue(variable, valueSets.get(i)),
+          is(IntegerType.get().valueOf(entities.get(i).getIdentifier())));
+    }
+    cleanlyRemoveDatasource(ds);
+  }
+
+  @Test
+  public void testBatchedWrites() throws Exception {
+    Variable variable = Variable.Builder.newVariable("Var1", IntegerType.get(), "Participant").build();
+    Variable otherVariable = Variable.Builder.newVariable("Var2", TextType.get(), "Participant").build();
+    HibernateDatasource ds = new HibernateDatasource("batchedWrites", provider.getSessionFactory());
+    ds.setWriteBatchSize(50);
+    provider.getSessionFactory().getCurrentSession().beginTransaction();
+    MagmaEngine.get().addDatasource(ds);
+    ValueTableWriter vtWriter = ds.createWriter("values", "Participant");
+    VariableWriter vw = vtWriter.writeVariables();
+    vw.writeVariable(variable);
+    vw.writeVariable(otherVariable);
+    vw.close();
+    for(int i = 0; i < 120; i++) {
+      ValueSetWriter vsw = vtWriter.writeValueSet(new VariableEntityBean("Participant", "" + i));
+      vsw.writeValue(variable, IntegerType.get().valueOf(i));
+      vsw.close();
+    }
+    // value set written twice in the same batch
+    ValueSetWriter vsw = vtWriter.writeValueSet(new VariableEntityBean("Participant", "110"));
+    vsw.writeValue(otherVariable, TextType.get().valueOf("other"));
+    vsw.close();
+    vtWriter.close();
+    provider.getSessionFactory().getCurrentSession().getTransaction().commit();
+
+    provider.getSessionFactory().getCurrentSession().beginTransaction();
+    ValueTable table = ds.getValueTable("values");
+    assertThat(table.getVariableEntities().size(), is(120));
+    Date lastValueSetUpdate = null;
+    for(ValueSet valueSet : table.getValueSets()) {
+      String identifier = valueSet.getVariableEntity().getIdentifier();
+      assertThat(table.getValue(variable, valueSet), is(IntegerType.get().valueOf(identifier)));
+      assertThat(table.getValue(otherVariable, valueSet),
+          is("110".equals(identifier) ? TextType.get().valueOf("other") : TextType.get().nullValue()));
+      Date lastUpdate = (Date) valueSet.getTimestamps().getLastUpdate().getValue();
+      if(lastValueSetUpdate == null || lastValueSetUpdate.before(lastUpdate)) {
+        lastValueSetUpdate = lastUpdate;
+      }
+    }
+    Date tableLastUpdate = (Date) table.getTimestamps().getLastUpdate().getValue();
+    //noinspection ConstantConditions
+    assertThat(tableLastUpdate.before(lastValueSetUpdate), is(false));
+    cleanlyRemoveDatasource(ds);
+  }
+
   private void assertSameCategories(Variable expected, Variable actual) {
     List<Category> expectedCategories = Lists.newArrayList(expected.getCategories());
     List<Category> actualCategories = Lists.newArrayList(actual.getCategories());
@@ -290,10 +478,15 @@ public class HibernateDatasourceTest {
   }
 
   private LocalSessionFactoryProvider newProvider(String testName) {
+    return newProvider(testName, false);
+  }
+
+  private LocalSessionFactoryProvider newProvider(String testName, boolean binaryStorage) {
     LocalSessionFactoryProvider newProvider = new LocalSessionFactoryProvider("org.hsqldb.jdbcDriver",
         "jdbc:hsqldb:mem:" + testName + ";shutdown=true", "sa", "", "org.hibernate.dialect.HSQLDialect");
     Properties p = new Properties();
     p.setProperty(Environment.CACHE_PROVIDER, "org.hibernate.cache.HashtableCacheProvider");
+    p.setProperty(BinaryValueHibernateType.BINARY_STORAGE, String.valueOf(binaryStorage));
     newProvider.setProperties(p);
     newProvider.initialise();
     return newProvider;
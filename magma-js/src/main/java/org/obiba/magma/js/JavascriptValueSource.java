@@ -4,18 +4,26 @@ import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Undefined;
 import org.obiba.magma.Initialisable;
 import org.obiba.magma.Value;
@@ -28,9 +36,11 @@ import org.obiba.magma.VectorSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
@@ -40,6 +50,9 @@ import com.google.common.collect.Maps;
  * <p/>
  * This class implements {@code Initialisable}. During the {@code #initialise()} method, the provided script is
  * compiled. Any compile error is thrown as a {@code EvaluatorException} which contains the details of the error.
+ * <p/>
+ * The variable references of the script are resolved once and kept in a {@code ReferenceCache} until the structure of
+ * the datasources changes.
  *
  * @see ScriptableValue
  */
@@ -47,6 +60,11 @@ public class JavascriptValueSource implements ValueSource, VectorSource, Initial
 
   private static final Logger log = LoggerFactory.getLogger(JavascriptValueSource.class);
 
+  /**
+   * Minimum number of entities of a range evaluated in its own thread.
+   */
+  private static final int MINIMUM_PARTITION_SIZE = 1000;
+
   @Nonnull
   private ValueType type;
 
@@ -59,6 +77,9 @@ public class JavascriptValueSource implements ValueSource, VectorSource, Initial
   @SuppressWarnings("TransientFieldInNonSerializableClass")
   private transient Script compiledScript;
 
+  @SuppressWarnings("TransientFieldInNonSerializableClass")
+  private transient ReferenceCache referenceCache;
+
   public JavascriptValueSource() {
 
   }
@@ -118,9 +139,120 @@ public class JavascriptValueSource implements ValueSource, VectorSource, Initial
     if(compiledScript == null) {
       initialise();
     }
+    int partitions = getVectorPartitions(entities);
+    if(partitions > 1) {
+      return getValues(entities, partitions);
+    }
     return (Iterable<Value>) ContextFactory.getGlobal().call(new ValueVectorEvaluationContextAction(entities));
   }
 
+  /**
+   * Number of contiguous ranges of entities to evaluate concurrently: one per vector evaluation thread of the {@code
+   * MagmaContextFactory}, provided that each range has {@link #MINIMUM_PARTITION_SIZE} entities. Vectors are evaluated
+   * in the calling thread when the entities are not specified or within the evaluation of a range.
+   */
+  private int getVectorPartitions(@Nullable SortedSet<VariableEntity> entities) {
+    ContextFactory factory = ContextFactory.getGlobal();
+    if(entities == null || !(factory instanceof MagmaContextFactory)) return 1;
+    Context current = Context.getCurrentContext();
+    if(current instanceof MagmaContext && ((MagmaContext) current).has(PartitionEvaluationContextAction.class)) {
+      return 1;
+    }
+    int threads = ((MagmaContextFactory) factory).getVectorEvaluationThreads();
+    return Math.max(1, Math.min(threads, entities.size() / MINIMUM_PARTITION_SIZE));
+  }
+
+  /**
+   * Evaluates each range of entities in a thread of the {@code MagmaContextFactory} executor, with its own context and
+   * {@code VectorCache}, and concatenates the values in the order of the entities.
+   */
+  @SuppressWarnings("unchecked")
+  private Iterable<Value> getValues(SortedSet<VariableEntity> entities, int partitions) {
+    ExecutorService executor = ((MagmaContextFactory) ContextFactory.getGlobal()).getVectorEvaluationExecutor();
+    List<Future<List<Value>>> futures = Lists.newArrayList();
+    try {
+      for(final SortedSet<VariableEntity> range : partition(entities, partitions)) {
+        futures.add(executor.submit(new Callable<List<Value>>() {
+          @Override
+          public List<Value> call() throws Exception {
+            return (List<Value>) ContextFactory.getGlobal().call(new PartitionEvaluationContextAction(range));
+          }
+        }));
+      }
+      List<Value> values = Lists.newArrayListWithCapacity(entities.size());
+      for(Future<List<Value>> future : futures) {
+        values.addAll(getResult(future));
+      }
+      return values;
+    } finally {
+      // ranges left when one failed are not evaluated
+      for(Future<List<Value>> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private List<Value> getResult(Future<List<Value>> future) {
+    try {
+      return future.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Splits the entities in contiguous ranges of about the same size.
+   */
+  private static List<SortedSet<VariableEntity>> partition(SortedSet<VariableEntity> entities, int partitions) {
+    int size = entities.size() / partitions;
+    List<VariableEntity> lowerBounds = Lists.newArrayList();
+    int index = 0;
+    for(VariableEntity entity : entities) {
+      if(index % size == 0 && lowerBounds.size() < partitions) {
+        lowerBounds.add(entity);
+      }
+      index++;
+    }
+    List<SortedSet<VariableEntity>> ranges = Lists.newArrayList();
+    for(int i = 0; i < lowerBounds.size(); i++) {
+      ranges.add(i == lowerBounds.size() - 1
+          ? entities.tailSet(lowerBounds.get(i))
+          : entities.subSet(lowerBounds.get(i), lowerBounds.get(i + 1)));
+    }
+    return ranges;
+  }
+
+  /**
+   * Evaluates the script for each value set in a row, within a single context and local scope. The scope is cleared
+   * after each evaluation and the {@code ScriptableValue} instances returned by {@code $()} are recycled from one value
+   * set to the next.
+   *
+   * @param valueSets the value sets to evaluate the script for
+   * @return the values, in the order of the value sets
+   */
+  @SuppressWarnings("unchecked")
+  public List<Value> evaluate(Iterable<? extends ValueSet> valueSets) {
+    if(getValueType() == null) {
+      throw new IllegalStateException("valueType must be set before calling evaluate().");
+    }
+    if(compiledScript == null) {
+      initialise();
+    }
+    long start = System.currentTimeMillis();
+    List<Value> values = (List<Value>) ContextFactory.getGlobal()
+        .call(new ValueSetsEvaluationContextAction(valueSets));
+    log.trace("Evaluation of {} for {} value sets: {}ms", getScriptName(), values.size(),
+        System.currentTimeMillis() - start);
+    return values;
+  }
+
   @Nonnull
   @Override
   public ValueType getValueType() {
@@ -136,15 +268,38 @@ public class JavascriptValueSource implements ValueSource, VectorSource, Initial
     compiledScript = (Script) ContextFactory.getGlobal().call(new ContextAction() {
       @Override
       public Object run(Context cx) {
-        return cx.compileString(script1, getScriptName(), 1, null);
+        return MagmaContext.asMagmaContext(cx).compileScript(script1, getScriptName());
       }
     });
+    referenceCache = new ReferenceCache();
   }
 
   protected boolean isSequence() {
     return false;
   }
 
+  /**
+   * Returns the compiled script, shared with the sources having the same script (see {@link
+   * MagmaContextFactory#compileScript(Context, String, String)}).
+   */
+  @VisibleForTesting
+  Script getCompiledScript() {
+    return compiledScript;
+  }
+
+  /**
+   * Executes the compiled script. Its runtime errors are reported with the name of this source, as the compiled script
+   * may have the name of another source.
+   */
+  private Object exec(Context context, Scriptable scope) {
+    try {
+      return compiledScript.exec(context, scope);
+    } catch(RhinoException e) {
+      throw new MagmaJsEvaluationRuntimeException(
+          "Error in script '" + getScriptName() + "' at line " + e.lineNumber() + ": " + e.details(), e);
+    }
+  }
+
   /**
    * This method is invoked before evaluating the script. It provides a chance for derived classes to initialise values
    * within the context. This method will add the current {@code ValueSet} as a {@code ThreadLocal} variable with
@@ -182,15 +337,38 @@ public class JavascriptValueSource implements ValueSource, VectorSource, Initial
     }
 
     void enterContext(MagmaContext context, Scriptable scope) {
+      context.push(ReferenceCache.class, referenceCache);
+      // Hides the pool of an enclosing batch evaluation
+      context.push(ScriptableValuePool.class, null);
       JavascriptValueSource.this.enterContext(context, scope);
     }
 
     void exitContext(MagmaContext context) {
       JavascriptValueSource.this.exitContext(context);
+      context.pop(ScriptableValuePool.class);
+      context.pop(ReferenceCache.class);
     }
 
+
     abstract Object eval(MagmaContext context, Scriptable scope);
 
+    /**
+     * Removes what the script defined in the scope, including the variables it declared, which cannot be deleted
+     * otherwise. A declared variable would keep the value of the previous evaluation.
+     */
+    void clear(ScriptableObject scope) {
+      for(Object id : scope.getAllIds()) {
+        if(id instanceof String) {
+          scope.setAttributes((String) id, ScriptableObject.EMPTY);
+          scope.delete((String) id);
+        } else {
+          int index = ((Number) id).intValue();
+          scope.setAttributes(index, ScriptableObject.EMPTY);
+          scope.delete(index);
+        }
+      }
+    }
+
     Value asValue(Object value) {
       Value result = null;
       if(value == null || value instanceof Undefined) {
@@ -262,7 +440,99 @@ public class JavascriptValueSource implements ValueSource, VectorSource, Initial
 
     @Override
     Object eval(MagmaContext context, Scriptable scope) {
-      return asValue(compiledScript.exec(context, scope));
+      return asValue(exec(context, scope));
+    }
+
+  }
+
+  private final class ValueSetsEvaluationContextAction extends AbstractEvaluationContextAction {
+
+    private final Iterable<? extends ValueSet> valueSets;
+
+    private final ScriptableValuePool scriptableValuePool = new ScriptableValuePool();
+
+    ValueSetsEvaluationContextAction(Iterable<? extends ValueSet> valueSets) {
+      this.valueSets = valueSets;
+    }
+
+    @Override
+    void enterContext(MagmaContext context, Scriptable scope) {
+      context.push(ReferenceCache.class, referenceCache);
+      context.push(ScriptableValuePool.class, scriptableValuePool);
+    }
+
+    @Override
+    void exitContext(MagmaContext context) {
+      context.pop(ScriptableValuePool.class);
+      context.pop(ReferenceCache.class);
+    }
+
+    @Override
+    Object eval(MagmaContext context, Scriptable scope) {
+      List<Value> values = Lists.newArrayList();
+      for(ValueSet valueSet : valueSets) {
+        // Same order as for a single value set, so that derived classes may push their own table on top
+        context.push(ValueSet.class, valueSet);
+        context.push(ValueTable.class, valueSet.getValueTable());
+        context.push(VariableEntity.class, valueSet.getVariableEntity());
+        JavascriptValueSource.this.enterContext(context, scope);
+        try {
+          values.add(asValue(exec(context, scope)));
+        } finally {
+          JavascriptValueSource.this.exitContext(context);
+          context.pop(VariableEntity.class);
+          context.pop(ValueTable.class);
+          context.pop(ValueSet.class);
+          clear((ScriptableObject) scope);
+        }
+      }
+      return values;
+    }
+  }
+
+  /**
+   * Evaluates the vector of a range of entities, see {@link #getValues(SortedSet, int)}.
+   */
+  private final class PartitionEvaluationContextAction extends AbstractEvaluationContextAction {
+
+    private final SortedSet<VariableEntity> entities;
+
+    private final VectorCache vectorCache = new VectorCache();
+
+    PartitionEvaluationContextAction(SortedSet<VariableEntity> entities) {
+      this.entities = entities;
+    }
+
+    @Override
+    void enterContext(MagmaContext context, Scriptable scope) {
+      super.enterContext(context, scope);
+      context.push(PartitionEvaluationContextAction.class, this);
+      context.push(SortedSet.class, entities);
+      context.push(VectorCache.class, vectorCache);
+    }
+
+    @Override
+    void exitContext(MagmaContext context) {
+      super.exitContext(context);
+      context.pop(VectorCache.class);
+      context.pop(SortedSet.class);
+      context.pop(PartitionEvaluationContextAction.class);
+    }
+
+    @Override
+    Object eval(MagmaContext context, Scriptable scope) {
+      List<Value> values = Lists.newArrayListWithCapacity(entities.size());
+      for(VariableEntity entity : entities) {
+        context.push(VariableEntity.class, entity);
+        try {
+          values.add(asValue(exec(context, scope)));
+        } finally {
+          context.pop(VariableEntity.class);
+          vectorCache.next();
+          clear((ScriptableObject) scope);
+        }
+      }
+      return values;
     }
 
   }
@@ -307,13 +577,15 @@ public class JavascriptValueSource implements ValueSource, VectorSource, Initial
             // We have to set the current thread's context because this code will be executed outside of the
             // ContextAction.
             ContextFactory.getGlobal().enterContext(context);
+            context.push(ReferenceCache.class, referenceCache);
             JavascriptValueSource.this.enterContext(context, scope);
             context.push(VectorCache.class, vectorCache);
             context.push(SortedSet.class, entities);
             context.push(VariableEntity.class, from);
-            return asValue(compiledScript.exec(context, scope));
+            return asValue(exec(context, scope));
           } finally {
             JavascriptValueSource.this.exitContext(context);
+            context.pop(ReferenceCache.class);
             context.pop(VectorCache.class).next();
             context.pop(SortedSet.class);
             context.pop(VariableEntity.class);
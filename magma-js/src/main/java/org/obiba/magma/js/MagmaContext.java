@@ -4,6 +4,7 @@ import java.util.EmptyStackException;
 import java.util.Stack;
 
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 
@@ -56,6 +57,14 @@ public class MagmaContext extends Context {
     return scope;
   }
 
+  /**
+   * Compiles a script, or returns the script compiled previously from the same text (see {@link
+   * MagmaContextFactory#compileScript(Context, String, String)}).
+   */
+  public Script compileScript(String script, String scriptName) {
+    return getMagmaContextFactory().compileScript(this, script, scriptName);
+  }
+
   @SuppressWarnings("unchecked")
   public <T> void push(Class<T> type, T value) {
     Stack<T> stack = (Stack<T>) getThreadLocal(type);
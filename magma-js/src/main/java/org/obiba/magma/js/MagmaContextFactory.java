@@ -3,24 +3,35 @@ package org.obiba.magma.js;
 import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.FunctionObject;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.obiba.magma.Initialisable;
 import org.obiba.magma.js.methods.GlobalMethods;
 
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Creates instances of {@code MagmaContext}
  */
 public class MagmaContextFactory extends ContextFactory implements Initialisable {
 
+  private static final int COMPILED_SCRIPTS_MAXIMUM_SIZE = 10000;
+
   /**
    * The global scope shared by all evaluated scripts. Should contain top-level functions and prototypes.
    */
@@ -33,9 +44,25 @@ public class MagmaContextFactory extends ContextFactory implements Initialisable
 
   private Set<GlobalMethodProvider> globalMethodProviders = Collections.emptySet();
 
+  private int vectorEvaluationThreads = 1;
+
+  @Nullable
+  private ExecutorService vectorEvaluationExecutor;
+
+  private int optimizationLevel = 0;
+
+  /**
+   * Compiled scripts by script text and optimization level, shared by all the sources and clauses having the same
+   * script.
+   */
+  private final Cache<CompiledScriptKey, Script> compiledScripts = CacheBuilder.newBuilder()
+      .maximumSize(COMPILED_SCRIPTS_MAXIMUM_SIZE).build();
+
   @Override
   protected Context makeContext() {
-    return new MagmaContext(this);
+    MagmaContext context = new MagmaContext(this);
+    context.setOptimizationLevel(optimizationLevel);
+    return context;
   }
 
   public ScriptableObject sharedScope() {
@@ -60,6 +87,67 @@ public class MagmaContextFactory extends ContextFactory implements Initialisable
     scriptableValuePrototypeFactory = factory;
   }
 
+  public synchronized int getVectorEvaluationThreads() {
+    return vectorEvaluationThreads;
+  }
+
+  /**
+   * Sets the number of threads evaluating the vector of a script (see {@link JavascriptValueSource#getValues}), each
+   * one on a contiguous range of the entities. The vectors of the variables the script refers to are then read
+   * concurrently, which their sources must support. Default is 1: vectors are evaluated in the calling thread.
+   */
+  public synchronized void setVectorEvaluationThreads(int vectorEvaluationThreads) {
+    if(vectorEvaluationThreads < 1) throw new IllegalArgumentException("vectorEvaluationThreads must be at least 1");
+    this.vectorEvaluationThreads = vectorEvaluationThreads;
+    if(vectorEvaluationExecutor != null) {
+      // the evaluations already submitted complete
+      vectorEvaluationExecutor.shutdown();
+      vectorEvaluationExecutor = null;
+    }
+  }
+
+  /**
+   * Returns the executor evaluating the ranges of entities of vectors, shared by all the sources. Its daemon threads,
+   * as many as {@link #getVectorEvaluationThreads()}, are created on first use.
+   */
+  synchronized ExecutorService getVectorEvaluationExecutor() {
+    if(vectorEvaluationExecutor == null) {
+      vectorEvaluationExecutor = Executors.newFixedThreadPool(vectorEvaluationThreads,
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("magma-js-vector-%d").build());
+    }
+    return vectorEvaluationExecutor;
+  }
+
+  public int getOptimizationLevel() {
+    return optimizationLevel;
+  }
+
+  /**
+   * Sets the Rhino optimization level of the contexts created by this factory: -1 to interpret scripts, 0 (the
+   * default) to 9 to compile them to JVM bytecode. Scripts already compiled are not affected.
+   */
+  public void setOptimizationLevel(int optimizationLevel) {
+    if(!Context.isValidOptimizationLevel(optimizationLevel)) {
+      throw new IllegalArgumentException("invalid optimization level: " + optimizationLevel);
+    }
+    this.optimizationLevel = optimizationLevel;
+  }
+
+  /**
+   * Compiles a script at the optimization level of the context, or returns the script compiled previously from the
+   * same text at the same level. The name reports the compile errors; a shared script keeps the name it was first
+   * compiled with, so callers report runtime errors with their own name.
+   */
+  public Script compileScript(Context cx, String script, String scriptName) {
+    CompiledScriptKey key = new CompiledScriptKey(script, cx.getOptimizationLevel());
+    Script compiledScript = compiledScripts.getIfPresent(key);
+    if(compiledScript == null) {
+      compiledScript = cx.compileString(script, scriptName, 1, null);
+      compiledScripts.put(key, compiledScript);
+    }
+    return compiledScript;
+  }
+
   @Override
   public void initialise() {
     sharedScope = (ScriptableObject) ContextFactory.getGlobal().call(new ContextAction() {
@@ -88,4 +176,29 @@ public class MagmaContextFactory extends ContextFactory implements Initialisable
       }
     });
   }
+
+  private static final class CompiledScriptKey {
+
+    private final String script;
+
+    private final int optimizationLevel;
+
+    private CompiledScriptKey(String script, int optimizationLevel) {
+      this.script = script;
+      this.optimizationLevel = optimizationLevel;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj) return true;
+      if(obj == null || obj.getClass() != getClass()) return false;
+      CompiledScriptKey other = (CompiledScriptKey) obj;
+      return optimizationLevel == other.optimizationLevel && script.equals(other.script);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(script, optimizationLevel);
+    }
+  }
 }
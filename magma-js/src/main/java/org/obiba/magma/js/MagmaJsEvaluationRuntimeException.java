@@ -10,4 +10,8 @@ public class MagmaJsEvaluationRuntimeException extends MagmaRuntimeException {
     super(message);
   }
 
+  public MagmaJsEvaluationRuntimeException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
 }
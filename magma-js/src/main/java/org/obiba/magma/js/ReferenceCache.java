@@ -0,0 +1,138 @@
+package org.obiba.magma.js;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.obiba.magma.NoSuchValueSetException;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.support.MagmaEngineVariableResolver;
+import org.obiba.magma.support.StructureVersion;
+
+/**
+ * Keeps the resolution of the variable references of a script (the arguments of {@code $()}, {@code $join()},
+ * {@code $var()}...) by table of evaluation, so that the reference is parsed and its table and {@code
+ * VariableValueSource} are looked up once, instead of once per evaluation.
+ * <p/>
+ * The resolutions are all dropped as soon as the {@link StructureVersion} changes, i.e. when a datasource, a table or
+ * a variable is added or removed, so that the tables they hold are not kept.
+ * <p/>
+ * An instance is pushed in the {@code MagmaContext} during the evaluation of a script. When there is none, {@link
+ * #resolve(MagmaContext, ValueTable, String)} resolves references without caching them.
+ */
+public class ReferenceCache {
+
+  private final ConcurrentMap<Key, Reference> references = new ConcurrentHashMap<Key, Reference>();
+
+  /**
+   * The {@link StructureVersion} of the resolutions in {@link #references}.
+   */
+  private volatile long referencesVersion = StructureVersion.current();
+
+  /**
+   * Resolves a reference using the {@code ReferenceCache} of the context, if any.
+   *
+   * @param context the current context
+   * @param table the table against which the reference is resolved
+   * @param name the reference to a variable: {@code VAR}, {@code table:VAR} or {@code datasource.table:VAR}
+   */
+  public static Reference resolve(MagmaContext context, @Nullable ValueTable table, @Nonnull String name) {
+    return context.has(ReferenceCache.class)
+        ? context.peek(ReferenceCache.class).resolve(table, name)
+        : new Reference(table, name, StructureVersion.current());
+  }
+
+  public Reference resolve(@Nullable ValueTable table, @Nonnull String name) {
+    long version = StructureVersion.current();
+    if(version != referencesVersion) {
+      references.clear();
+      referencesVersion = version;
+    }
+    Key key = new Key(table, name);
+    Reference reference = references.get(key);
+    if(reference == null || reference.version != version) {
+      reference = new Reference(table, name, version);
+      references.put(key, reference);
+    }
+    return reference;
+  }
+
+  /**
+   * A variable reference resolved against a table. The table is resolved eagerly and the variable source on first
+   * access.
+   */
+  public static final class Reference {
+
+    private final long version;
+
+    private final MagmaEngineVariableResolver resolver;
+
+    private final ValueTable table;
+
+    private volatile VariableValueSource source;
+
+    private Reference(@Nullable ValueTable context, String name, long version) {
+      this.version = version;
+      resolver = MagmaEngineVariableResolver.valueOf(name);
+      table = resolver.resolveTable(context);
+    }
+
+    /**
+     * The referenced table.
+     */
+    public ValueTable getTable() {
+      return table;
+    }
+
+    public VariableValueSource getSource() {
+      if(source == null) {
+        source = table.getVariableValueSource(resolver.getVariableName());
+      }
+      return source;
+    }
+
+    /**
+     * Returns true if the specified {@code ValueSet} is within a different table than the referenced one.
+     */
+    public boolean isJoin(ValueSet valueSet) {
+      return table != valueSet.getValueTable();
+    }
+
+    /**
+     * Returns the value set of the entity of the specified {@code ValueSet} in the referenced table.
+     */
+    public ValueSet join(ValueSet valueSet) throws NoSuchValueSetException {
+      return table.getValueSet(valueSet.getVariableEntity());
+    }
+  }
+
+  private static final class Key {
+
+    private final ValueTable table;
+
+    private final String name;
+
+    private Key(ValueTable table, String name) {
+      this.table = table;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj) return true;
+      if(obj == null || obj.getClass() != getClass()) return false;
+      Key other = (Key) obj;
+      return table == other.table && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(table) + name.hashCode();
+    }
+  }
+
+}
@@ -57,6 +57,17 @@ public class ScriptableValue extends ScriptableObject {
     this(scope, value, null);
   }
 
+  /**
+   * Makes this instance hold another value. Only used by {@link ScriptableValuePool} to recycle instances.
+   */
+  void recycle(@Nonnull Value newValue, @Nullable String newUnit) {
+    if(newValue == null) {
+      throw new NullPointerException("value cannot be null");
+    }
+    value = newValue;
+    unit = newUnit;
+  }
+
   public boolean hasUnit() {
     return unit != null;
   }
@@ -0,0 +1,43 @@
+package org.obiba.magma.js;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.mozilla.javascript.Scriptable;
+import org.obiba.magma.Value;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Recycles the {@code ScriptableValue} instances returned by {@code $()} when a script is evaluated for many value
+ * sets in a row (see {@link JavascriptValueSource#evaluate(Iterable)}): there is one instance per variable reference,
+ * which holds the value of the value set being evaluated.
+ * <p/>
+ * An instance is pushed in the {@code MagmaContext} for the duration of the batch and must not be shared between
+ * threads.
+ */
+public class ScriptableValuePool {
+
+  private final Map<Object, ScriptableValue> values = Maps.newHashMap();
+
+  /**
+   * Returns a {@code ScriptableValue} for the value of a variable reference, recycling the one of the previous value
+   * set if it was created within the same scope.
+   *
+   * @param scope the scope of the {@code ScriptableValue}
+   * @param key identifies the variable reference
+   */
+  public ScriptableValue wrap(Scriptable scope, @Nonnull Object key, @Nonnull Value value, @Nullable String unit) {
+    ScriptableValue scriptable = values.get(key);
+    if(scriptable == null || scriptable.getParentScope() != scope) {
+      scriptable = new ScriptableValue(scope, value, unit);
+      values.put(key, scriptable);
+    } else {
+      scriptable.recycle(value, unit);
+    }
+    return scriptable;
+  }
+
+}
@@ -28,7 +28,10 @@ import org.obiba.magma.VectorSource;
 import org.obiba.magma.js.JavascriptValueSource.VectorCache;
 import org.obiba.magma.js.MagmaContext;
 import org.obiba.magma.js.MagmaJsEvaluationRuntimeException;
+import org.obiba.magma.js.ReferenceCache;
+import org.obiba.magma.js.ReferenceCache.Reference;
 import org.obiba.magma.js.ScriptableValue;
+import org.obiba.magma.js.ScriptableValuePool;
 import org.obiba.magma.js.ScriptableVariable;
 import org.obiba.magma.support.MagmaEngineVariableResolver;
 import org.obiba.magma.support.VariableEntityBean;
@@ -135,9 +138,9 @@ public final class GlobalMethods extends AbstractGlobalMethodProvider {
     Value identifier = valueFromContext(context, thisObj, name).getValue();
 
     // Find the joined named source
-    MagmaEngineVariableResolver reference = MagmaEngineVariableResolver.valueOf(joinedName);
-    ValueTable joinedTable = reference.resolveTable(valueTable);
-    VariableValueSource joinedSource = reference.resolveSource(valueTable);
+    Reference reference = ReferenceCache.resolve(context, valueTable, joinedName);
+    ValueTable joinedTable = reference.getTable();
+    VariableValueSource joinedSource = reference.getSource();
 
     // Default value is null if joined table has no valueSet (equivalent to a LEFT JOIN)
     Value value = joinedSource.getVariable().isRepeatable()
@@ -212,19 +215,17 @@ public final class GlobalMethods extends AbstractGlobalMethodProvider {
   private static ScriptableValue valueFromContext(MagmaContext context, Scriptable thisObj, String name) {
     ValueTable valueTable = context.peek(ValueTable.class);
 
-    MagmaEngineVariableResolver reference = MagmaEngineVariableResolver.valueOf(name);
-
     // Find the named source
-    VariableValueSource source = reference.resolveSource(valueTable);
+    Reference reference = ReferenceCache.resolve(context, valueTable, name);
 
     // Test whether this is a vector-oriented evaluation or a ValueSet-oriented evaluation
     return context.has(VectorCache.class) //
-        ? valuesForVector(context, thisObj, reference, source) //
-        : valueForValueSet(context, thisObj, reference, source);
+        ? valuesForVector(context, thisObj, reference.getSource()) //
+        : valueForValueSet(context, thisObj, name, reference);
   }
 
   private static ScriptableValue valuesForVector(MagmaContext context, Scriptable thisObj,
-      MagmaEngineVariableResolver reference, VariableValueSource source) {
+      VariableValueSource source) {
     VectorSource vectorSource = source.asVectorSource();
     if(vectorSource == null) {
       throw new IllegalArgumentException("source cannot provide vectors (" + source.getClass().getName() + ")");
@@ -234,9 +235,11 @@ public final class GlobalMethods extends AbstractGlobalMethodProvider {
     return new ScriptableValue(thisObj, cache.get(context, vectorSource), source.getVariable().getUnit());
   }
 
-  private static ScriptableValue valueForValueSet(MagmaContext context, Scriptable thisObj,
-      MagmaEngineVariableResolver reference, VariableValueSource source) {
+  private static ScriptableValue valueForValueSet(MagmaContext context, Scriptable thisObj, String name,
+      Reference sourceReference) {
+    VariableValueSource source = sourceReference.getSource();
     ValueSet valueSet = context.peek(ValueSet.class);
+    Reference reference = ReferenceCache.resolve(context, valueSet.getValueTable(), name);
     // Tests whether this valueSet is in the same table as the referenced ValueTable
     if(reference.isJoin(valueSet)) {
       // Resolve the joined valueSet
@@ -245,12 +248,16 @@ public final class GlobalMethods extends AbstractGlobalMethodProvider {
       } catch(NoSuchValueSetException e) {
         // Entity does not have a ValueSet in joined collection
         // Return a null value
-        return new ScriptableValue(thisObj, source.getValueType().nullValue(), source.getVariable().getUnit());
+        valueSet = null;
       }
     }
 
-    Value value = source.getValue(valueSet);
-    return new ScriptableValue(thisObj, value, source.getVariable().getUnit());
+    Value value = valueSet == null ? source.getValueType().nullValue() : source.getValue(valueSet);
+
+    // Recycle the ScriptableValue of the previous value set when evaluating a batch of value sets
+    return context.has(ScriptableValuePool.class) //
+        ? context.peek(ScriptableValuePool.class).wrap(thisObj, sourceReference, value, source.getVariable().getUnit())
+        : new ScriptableValue(thisObj, value, source.getVariable().getUnit());
   }
 
   /**
@@ -353,10 +360,9 @@ public final class GlobalMethods extends AbstractGlobalMethodProvider {
   }
 
   private static Variable variableFromContext(MagmaContext context, String name) {
-    MagmaEngineVariableResolver reference = MagmaEngineVariableResolver.valueOf(name);
     VariableValueSource source = context.has(ValueTable.class)
-        ? reference.resolveSource(context.peek(ValueTable.class))
-        : reference.resolveSource();
+        ? ReferenceCache.resolve(context, context.peek(ValueTable.class), name).getSource()
+        : MagmaEngineVariableResolver.valueOf(name).resolveSource();
     return source.getVariable();
   }
 
@@ -14,6 +14,7 @@ import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.NativeArray;
 import org.mozilla.javascript.Scriptable;
+import org.obiba.magma.NumberValue;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSequence;
 import org.obiba.magma.ValueType;
@@ -625,7 +626,7 @@ public class NumericMethods {
     if(obj instanceof ScriptableValue) {
       ScriptableValue sv = (ScriptableValue) obj;
       if(sv.getValue().isNull()) return null;
-      return ((Number) sv.getValue().getValue()).doubleValue();
+      return NumberValue.doubleValue(sv.getValue());
     }
     if(obj instanceof String) {
       return Double.valueOf((String) obj);
@@ -657,7 +658,7 @@ public class NumericMethods {
       return null;
     }
     if(scriptableValue.getValueType().isNumeric()) {
-      return new BigDecimal(((Number) scriptableValue.getValue().getValue()).doubleValue());
+      return new BigDecimal(NumberValue.doubleValue(scriptableValue.getValue()));
     }
     Value value = DecimalType.get().convert(scriptableValue.getValue());
     return new BigDecimal((Double) value.getValue());
@@ -669,7 +670,7 @@ public class NumericMethods {
       if(v.isNull()) {
         return null;
       }
-      sum += ((Number) v.getValue()).doubleValue();
+      sum += NumberValue.doubleValue(v);
     }
     return sum;
   }
@@ -696,7 +697,7 @@ public class NumericMethods {
       if(v.isNull()) {
         return null;
       }
-      double d = ((Number) v.getValue()).doubleValue();
+      double d = NumberValue.doubleValue(v);
       sumDev += (d - avg) * (d - avg);
     }
 
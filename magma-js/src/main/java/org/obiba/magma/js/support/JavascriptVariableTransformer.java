@@ -75,7 +75,7 @@ public class JavascriptVariableTransformer implements VariableTransformer {
     compiledScript = (Script) ContextFactory.getGlobal().call(new ContextAction() {
       @Override
       public Object run(Context cx) {
-        return cx.compileString(getScript(), getScriptName(), 1, null);
+        return MagmaContext.asMagmaContext(cx).compileScript(getScript(), getScriptName());
       }
     });
   }
@@ -6,6 +6,7 @@ import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.obiba.magma.Initialisable;
@@ -15,6 +16,8 @@ import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
 import org.obiba.magma.js.MagmaContext;
+import org.obiba.magma.js.MagmaJsEvaluationRuntimeException;
+import org.obiba.magma.js.ReferenceCache;
 import org.obiba.magma.js.ScriptableValue;
 import org.obiba.magma.js.ScriptableVariable;
 import org.obiba.magma.type.BooleanType;
@@ -34,6 +37,9 @@ public class JavascriptClause implements Initialisable, SelectClause, WhereClaus
   @SuppressWarnings("TransientFieldInNonSerializableClass")
   private transient Script compiledScript;
 
+  @SuppressWarnings("TransientFieldInNonSerializableClass")
+  private transient ReferenceCache referenceCache;
+
   //
   // Constructors
   //
@@ -62,9 +68,10 @@ public class JavascriptClause implements Initialisable, SelectClause, WhereClaus
     compiledScript = (Script) ContextFactory.getGlobal().call(new ContextAction() {
       @Override
       public Object run(Context cx) {
-        return cx.compileString(getScript(), getScriptName(), 1, null);
+        return MagmaContext.asMagmaContext(cx).compileScript(getScript(), getScriptName());
       }
     });
+    referenceCache = new ReferenceCache();
   }
 
   //
@@ -85,7 +92,7 @@ public class JavascriptClause implements Initialisable, SelectClause, WhereClaus
         // Don't pollute the global scope
         Scriptable scope = new ScriptableVariable(context.newLocalScope(), variable);
 
-        Object value = compiledScript.exec(ctx, scope);
+        Object value = exec(ctx, scope);
 
         if(value instanceof Boolean) {
           return value;
@@ -120,7 +127,7 @@ public class JavascriptClause implements Initialisable, SelectClause, WhereClaus
         Scriptable scope = context.newLocalScope();
 
         enterContext(context, scope, valueSet);
-        Object value = compiledScript.exec(ctx, scope);
+        Object value = exec(ctx, scope);
         exitContext(context);
 
         if(value instanceof Boolean) {
@@ -156,7 +163,7 @@ public class JavascriptClause implements Initialisable, SelectClause, WhereClaus
         // Don't pollute the global scope
         Scriptable scope = new ScriptableVariable(context.newLocalScope(), variable);
 
-        Object value = compiledScript.exec(ctx, scope);
+        Object value = exec(ctx, scope);
 
         if(value instanceof ScriptableValue) {
           ScriptableValue scriptable = (ScriptableValue) value;
@@ -191,6 +198,19 @@ public class JavascriptClause implements Initialisable, SelectClause, WhereClaus
     this.script = script;
   }
 
+  /**
+   * Executes the compiled script. Its runtime errors are reported with the name of this clause, as the compiled script
+   * may have the name of another clause.
+   */
+  private Object exec(Context context, Scriptable scope) {
+    try {
+      return compiledScript.exec(context, scope);
+    } catch(RhinoException e) {
+      throw new MagmaJsEvaluationRuntimeException(
+          "Error in script '" + getScriptName() + "' at line " + e.lineNumber() + ": " + e.details(), e);
+    }
+  }
+
   /**
    * This method is invoked before evaluating the script. It provides a chance for derived classes to initialise values
    * within the context. This method will add the current {@code ValueSet} as a {@code ThreadLocal} variable with
@@ -207,10 +227,12 @@ public class JavascriptClause implements Initialisable, SelectClause, WhereClaus
       ValueSet valueSet) {
     ctx.push(ValueSet.class, valueSet);
     ctx.push(ValueTable.class, valueSet.getValueTable());
+    ctx.push(ReferenceCache.class, referenceCache);
   }
 
   protected void exitContext(MagmaContext ctx) {
     ctx.pop(ValueSet.class);
     ctx.pop(ValueTable.class);
+    ctx.pop(ReferenceCache.class);
   }
 }
@@ -16,6 +16,7 @@ import org.obiba.magma.Variable;
 import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.js.JavascriptVariableValueSourceFactory;
 import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.StructureVersion;
 import org.obiba.magma.views.ListClause;
 
 /**
@@ -78,6 +79,7 @@ public class VariablesClause implements ListClause, Initialisable {
       }
     }
     initialised = true;
+    StructureVersion.increment();
   }
 
   @Override
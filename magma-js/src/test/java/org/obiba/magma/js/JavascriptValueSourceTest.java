@@ -1,14 +1,26 @@
 package org.obiba.magma.js;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EcmaError;
 import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Script;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.support.StaticDatasource;
+import org.obiba.magma.support.StaticValueTable;
+import org.obiba.magma.support.StructureVersion;
+import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.type.DateTimeType;
 import org.obiba.magma.type.DecimalType;
 import org.obiba.magma.type.IntegerType;
@@ -89,4 +101,127 @@ public class JavascriptValueSourceTest extends AbstractJsTest {
     JavascriptValueSource source = null;
     source.initialise();
   }
+
+  @Test
+  public void test_references_areResolvedOnceUntilStructureChanges() {
+    final int[] lookups = { 0 };
+    StaticValueTable table = new StaticValueTable(new StaticDatasource("ds"), "table", Arrays.asList("1", "2")) {
+      @Override
+      public VariableValueSource getVariableValueSource(String variableName) {
+        lookups[0]++;
+        return super.getVariableValueSource(variableName);
+      }
+    };
+    table.addVariables(IntegerType.get(), "A");
+    table.addValues("1", "A", 1).addValues("2", "A", 2);
+
+    JavascriptValueSource source = new JavascriptValueSource(IntegerType.get(), "$('A').plus($('A'))");
+    source.initialise();
+    Assert.assertEquals(2L, source.getValue(table.getValueSet(new VariableEntityBean("Participant", "1"))).getValue());
+    Assert.assertEquals(4L, source.getValue(table.getValueSet(new VariableEntityBean("Participant", "2"))).getValue());
+    Assert.assertEquals(1, lookups[0]);
+
+    StructureVersion.increment();
+    source.getValue(table.getValueSet(new VariableEntityBean("Participant", "1")));
+    Assert.assertEquals(2, lookups[0]);
+  }
+
+  @Test
+  public void test_evaluate_returnsTheValueOfEachValueSet() {
+    StaticValueTable table = createTable();
+    JavascriptValueSource source = new JavascriptValueSource(IntegerType.get(), "$('A').plus($('B'))");
+    source.initialise();
+
+    List<Value> values = source.evaluate(getValueSets(table));
+    Assert.assertEquals(3, values.size());
+    Assert.assertEquals(11L, values.get(0).getValue());
+    Assert.assertEquals(22L, values.get(1).getValue());
+    Assert.assertTrue(values.get(2).isNull());
+  }
+
+  @Test
+  public void test_evaluate_declaredVariablesAreClearedBetweenValueSets() {
+    StaticValueTable table = createTable();
+    JavascriptValueSource source = new JavascriptValueSource(IntegerType.get(),
+        "var n = typeof(n) == 'undefined' ? 1 : n + 1; n");
+    source.initialise();
+
+    for(Value value : source.evaluate(getValueSets(table))) {
+      Assert.assertEquals(1L, value.getValue());
+    }
+  }
+
+  @Test
+  public void test_compileScript_sharesScriptsOfSameTextAndOptimizationLevel() {
+    MagmaContext context = getMagmaContext();
+    Script script = context.compileScript("$('A')", "A");
+    Assert.assertSame(script, context.compileScript("$('A')", "A"));
+    Assert.assertSame(script, context.compileScript("$('A')", "B"));
+    Assert.assertNotSame(script, context.compileScript("$('B')", "A"));
+
+    int optimizationLevel = context.getOptimizationLevel();
+    try {
+      context.setOptimizationLevel(9);
+      Assert.assertNotSame(script, context.compileScript("$('A')", "A"));
+    } finally {
+      context.setOptimizationLevel(optimizationLevel);
+    }
+  }
+
+  @Test
+  public void test_getValue_runtimeErrorsHaveTheNameOfTheSource() {
+    JavascriptValueSource first = new JavascriptValueSource(IntegerType.get(), "undefinedFunction()");
+    first.setScriptName("A");
+    first.initialise();
+    JavascriptValueSource second = new JavascriptValueSource(IntegerType.get(), "undefinedFunction()");
+    second.setScriptName("B");
+    second.initialise();
+    try {
+      second.getValue(getValueSets(createTable()).get(0));
+      Assert.fail("MagmaJsEvaluationRuntimeException expected");
+    } catch(MagmaJsEvaluationRuntimeException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Error in script 'B' at line 1: "));
+      Assert.assertTrue(e.getCause() instanceof EcmaError);
+    }
+  }
+
+  @Test
+  public void test_setOptimizationLevel_appliesToNewContexts() {
+    MagmaContextFactory factory = (MagmaContextFactory) ContextFactory.getGlobal();
+    // Leave the context entered for the test, so that the evaluation enters a new one
+    Context.exit();
+    try {
+      factory.setOptimizationLevel(9);
+      StaticValueTable table = createTable();
+      JavascriptValueSource source = new JavascriptValueSource(IntegerType.get(), "$('A').plus($('B'))");
+      source.initialise();
+
+      Assert.assertEquals(11L, source.getValue(getValueSets(table).get(0)).getValue());
+      Assert.assertEquals(9, factory.enterContext().getOptimizationLevel());
+      Context.exit();
+    } finally {
+      factory.setOptimizationLevel(0);
+      Context.enter();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_setOptimizationLevel_rejectsInvalidLevel() {
+    ((MagmaContextFactory) ContextFactory.getGlobal()).setOptimizationLevel(10);
+  }
+
+  private StaticValueTable createTable() {
+    StaticValueTable table = new StaticValueTable(new StaticDatasource("ds"), "table", Arrays.asList("1", "2", "3"));
+    table.addVariables(IntegerType.get(), "A", "B");
+    table.addValues("1", "A", 1, "B", 10).addValues("2", "A", 2, "B", 20).addValues("3", "A", 3);
+    return table;
+  }
+
+  private List<ValueSet> getValueSets(ValueTable table) {
+    List<ValueSet> valueSets = new ArrayList<ValueSet>();
+    for(String identifier : Arrays.asList("1", "2", "3")) {
+      valueSets.add(table.getValueSet(new VariableEntityBean("Participant", identifier)));
+    }
+    return valueSets;
+  }
 }
@@ -1,19 +1,38 @@
 package org.obiba.magma.js;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import org.easymock.EasyMock;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mozilla.javascript.ContextFactory;
 import org.obiba.magma.Datasource;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.VectorSource;
+import org.obiba.magma.support.StaticValueTable;
 import org.obiba.magma.support.ValueSetBean;
 import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.IntegerType;
 import org.obiba.magma.type.TextType;
 
+import com.google.common.collect.Lists;
+
+import static org.obiba.magma.test.StaticTables.createTable;
+
 public class JavascriptVariableValueSourceTest extends AbstractJsTest {
 
   @Test
@@ -88,4 +107,117 @@ public class JavascriptVariableValueSourceTest extends AbstractJsTest {
 
   }
 
+  @Test
+  public void test_initialise_sharesTheCompiledScriptOfVariablesWithTheSameScript() {
+    JavascriptVariableValueSource first = new JavascriptVariableValueSource(
+        Variable.Builder.newVariable("First", IntegerType.get(), "Participant").extend(JavascriptVariableBuilder.class)
+            .setScript("$('A').plus(1)").build());
+    first.initialise();
+    JavascriptVariableValueSource second = new JavascriptVariableValueSource(
+        Variable.Builder.newVariable("Second", IntegerType.get(), "Participant").extend(JavascriptVariableBuilder.class)
+            .setScript("$('A').plus(1)").build());
+    second.initialise();
+
+    Assert.assertNotNull(first.getCompiledScript());
+    Assert.assertSame(first.getCompiledScript(), second.getCompiledScript());
+  }
+
+  @Test
+  public void test_getValues_evaluatesRangesOfEntitiesConcurrently() {
+    ThreadRecordingSource vectorSource = new ThreadRecordingSource(
+        Variable.Builder.newVariable("A", IntegerType.get(), "Participant").build());
+    StaticValueTable table = createTable(4000, vectorSource);
+    JavascriptVariableValueSource source = createSource(table);
+
+    MagmaContextFactory factory = (MagmaContextFactory) ContextFactory.getGlobal();
+    factory.setVectorEvaluationThreads(4);
+    try {
+      for(int run = 0; run < 2; run++) {
+        List<Value> values = Lists
+            .newArrayList(source.getValues(new TreeSet<VariableEntity>(table.getVariableEntities())));
+        Assert.assertEquals(4000, values.size());
+        for(int i = 0; i < values.size(); i++) {
+          Assert.assertEquals((long) i + 1, values.get(i).getValue());
+        }
+      }
+      // the threads are reused from one evaluation to the other
+      Assert.assertEquals(4, vectorSource.threads.size());
+    } finally {
+      factory.setVectorEvaluationThreads(1);
+    }
+  }
+
+  @Test
+  public void test_getValues_keepsInterruptedStatus() {
+    StaticValueTable table = createTable(4000,
+        new ThreadRecordingSource(Variable.Builder.newVariable("A", IntegerType.get(), "Participant").build()));
+    JavascriptVariableValueSource source = createSource(table);
+
+    MagmaContextFactory factory = (MagmaContextFactory) ContextFactory.getGlobal();
+    factory.setVectorEvaluationThreads(4);
+    Thread.currentThread().interrupt();
+    try {
+      source.getValues(new TreeSet<VariableEntity>(table.getVariableEntities()));
+      Assert.fail("RuntimeException expected");
+    } catch(RuntimeException e) {
+      Assert.assertTrue(e.getCause() instanceof InterruptedException);
+      Assert.assertTrue(Thread.interrupted());
+    } finally {
+      Thread.interrupted();
+      factory.setVectorEvaluationThreads(1);
+    }
+  }
+
+  private JavascriptVariableValueSource createSource(ValueTable table) {
+    Variable variable = Variable.Builder.newVariable("JavascriptVariable", IntegerType.get(), "Participant")
+        .extend(JavascriptVariableBuilder.class).setScript("$('A').plus(1)").build();
+    JavascriptVariableValueSource source = new JavascriptVariableValueSource(variable, table);
+    source.initialise();
+    return source;
+  }
+
+  private static class ThreadRecordingSource implements VariableValueSource, VectorSource {
+
+    private final Variable variable;
+
+    private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+    private ThreadRecordingSource(Variable variable) {
+      this.variable = variable;
+    }
+
+    @Override
+    public Variable getVariable() {
+      return variable;
+    }
+
+    @Nonnull
+    @Override
+    public ValueType getValueType() {
+      return variable.getValueType();
+    }
+
+    @Nonnull
+    @Override
+    public Value getValue(ValueSet valueSet) {
+      return getValueType().valueOf(valueSet.getVariableEntity().getIdentifier());
+    }
+
+    @Nullable
+    @Override
+    public VectorSource asVectorSource() {
+      return this;
+    }
+
+    @Override
+    public Iterable<Value> getValues(SortedSet<VariableEntity> entities) {
+      threads.add(Thread.currentThread());
+      List<Value> values = Lists.newArrayList();
+      for(VariableEntity entity : entities) {
+        values.add(getValueType().valueOf(entity.getIdentifier()));
+      }
+      return values;
+    }
+  }
+
 }
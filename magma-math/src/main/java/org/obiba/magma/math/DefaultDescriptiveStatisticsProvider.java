@@ -1,6 +1,7 @@
 package org.obiba.magma.math;
 
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.obiba.magma.NumberValue;
 import org.obiba.magma.Value;
 import org.obiba.magma.VariableValueSource;
 
@@ -13,7 +14,7 @@ public class DefaultDescriptiveStatisticsProvider extends AbstractDescriptiveSta
   @Override
   protected void processValue(VariableValueSource valueSource, Value value, DescriptiveStatistics stats) {
     if(!value.isNull()) {
-      stats.addValue(((Number) value.getValue()).doubleValue());
+      stats.addValue(NumberValue.doubleValue(value));
     }
   }
 
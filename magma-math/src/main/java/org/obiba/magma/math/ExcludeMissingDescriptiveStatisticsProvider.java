@@ -2,6 +2,7 @@ package org.obiba.magma.math;
 
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
 import org.obiba.magma.Category;
+import org.obiba.magma.NumberValue;
 import org.obiba.magma.Value;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableValueSource;
@@ -15,7 +16,7 @@ public class ExcludeMissingDescriptiveStatisticsProvider extends AbstractDescrip
   @Override
   protected void processValue(VariableValueSource valueSource, Value value, DescriptiveStatistics stats) {
     if(!isMissing(valueSource.getVariable(), value)) {
-      stats.addValue(((Number) value.getValue()).doubleValue());
+      stats.addValue(NumberValue.doubleValue(value));
     }
   }
 
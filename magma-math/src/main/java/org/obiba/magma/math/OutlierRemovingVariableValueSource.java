@@ -7,6 +7,7 @@ import javax.annotation.Nullable;
 
 import org.apache.commons.math.stat.descriptive.StatisticalSummary;
 import org.apache.commons.math.stat.descriptive.StatisticalSummaryValues;
+import org.obiba.magma.NumberValue;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
@@ -92,8 +93,7 @@ public class OutlierRemovingVariableValueSource extends AbstractVariableValueSou
     if(value.isNull()) {
       return false;
     }
-    Number number = (Number) value.getValue();
-    return isOutlier(number.doubleValue(), calculateStats());
+    return isOutlier(NumberValue.doubleValue(value), calculateStats());
   }
 
   /**
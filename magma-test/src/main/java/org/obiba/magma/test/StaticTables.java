@@ -0,0 +1,55 @@
+package org.obiba.magma.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.support.StaticDatasource;
+import org.obiba.magma.support.StaticValueTable;
+import org.obiba.magma.type.IntegerType;
+
+/**
+ * Creates in-memory tables of numbered entities.
+ */
+public final class StaticTables {
+
+  private StaticTables() {}
+
+  /**
+   * Creates the table {@code table} of datasource {@code ds} with {@code size} entities identified by their number,
+   * zero-padded so that they are sorted in the order of their numbers.
+   *
+   * @param sources the variable value sources of the table
+   */
+  public static StaticValueTable createTable(int size, final VariableValueSource... sources) {
+    String format = "%0" + String.valueOf(Math.max(size - 1, 0)).length() + "d";
+    List<String> identifiers = new ArrayList<String>(size);
+    for(int i = 0; i < size; i++) {
+      identifiers.add(String.format(format, i));
+    }
+    return new StaticValueTable(new StaticDatasource("ds"), "table", identifiers) {
+      {
+        for(VariableValueSource source : sources) {
+          addVariableValueSource(source);
+        }
+      }
+    };
+  }
+
+  /**
+   * Creates a table of {@code size} entities with the integer variable {@code var}, whose value is the number of the
+   * entity.
+   *
+   * @see #createTable(int, VariableValueSource...)
+   */
+  public static StaticValueTable createIntegerTable(int size) {
+    StaticValueTable table = createTable(size);
+    table.addVariables(IntegerType.get(), "var");
+    for(VariableEntity entity : table.getVariableEntities()) {
+      table.addValues(entity.getIdentifier(), "var", Integer.parseInt(entity.getIdentifier()));
+    }
+    return table;
+  }
+
+}
@@ -4,6 +4,8 @@ import java.util.List;
 
 import javax.annotation.Nullable;
 
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSequence;
 import org.obiba.magma.ValueType;
 import org.obiba.magma.xstream.converter.AttributeConverter;
 import org.obiba.magma.xstream.converter.CategoryConverter;
@@ -24,11 +26,32 @@ public class DefaultXStreamFactory implements XStreamFactory {
 
   private final transient List<Converter> converters = Lists.newArrayList();
 
+  private transient volatile XStream sharedXStream;
+
   @Override
   public XStream createXStream() {
     return createXStream(null);
   }
 
+  @Override
+  public XStream getXStream() {
+    XStream xstream = sharedXStream;
+    if(xstream == null) {
+      synchronized(this) {
+        if(sharedXStream == null) {
+          sharedXStream = createXStream();
+          // Look up the converters of the value set classes, XStream then keeps them by type
+          for(Class<?> type : new Class<?>[] { XStreamValueSet.class, XStreamValueSetValue.class, Value.class,
+              ValueSequence.class }) {
+            sharedXStream.getConverterLookup().lookupConverterForType(type);
+          }
+        }
+        xstream = sharedXStream;
+      }
+    }
+    return xstream;
+  }
+
   @Override
   @SuppressWarnings("PMD.NcssMethodCount")
   public XStream createXStream(@Nullable ReflectionProvider reflectionProvider) {
@@ -72,8 +95,9 @@ public class DefaultXStreamFactory implements XStreamFactory {
   }
 
   @Override
-  public void registerConverter(Converter converter) {
+  public synchronized void registerConverter(Converter converter) {
     converters.add(converter);
+    sharedXStream = null;
   }
 
 }
@@ -20,6 +20,8 @@ public class MagmaXStreamExtension implements MagmaEngineExtension {
 
   @Override
   public void initialise() {
+    // Configure the shared instance before it is first needed
+    currentFactory.getXStream();
   }
 
   public XStreamFactory getXStreamFactory() {
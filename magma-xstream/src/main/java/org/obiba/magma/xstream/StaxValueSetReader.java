@@ -0,0 +1,120 @@
+package org.obiba.magma.xstream;
+
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+/**
+ * Reads the values of a {@link XStreamValueSet} from its XML representation with a StAX parser, without building the
+ * {@code XStreamValueSet}. When the variables to read are specified, the {@code variableValue} elements of the other
+ * variables are skipped without being decoded and the parsing stops once all the specified variables were read.
+ * <p/>
+ * The values are decoded as {@link org.obiba.magma.xstream.converter.ValueConverter} and {@link
+ * org.obiba.magma.xstream.converter.ValueSequenceConverter} do.
+ */
+public final class StaxValueSetReader {
+
+  private static final String VARIABLE_VALUE = "variableValue";
+
+  private static final String SEQUENCE = "sequence";
+
+  private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+  static {
+    xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+  }
+
+  private StaxValueSetReader() {}
+
+  /**
+   * Reads all the values of a value set, by variable name.
+   */
+  public static Map<String, Value> read(Reader reader) {
+    return read(reader, null);
+  }
+
+  /**
+   * Reads the values of the specified variables, by variable name. A variable that has no value in the value set is
+   * not in the returned map.
+   *
+   * @param variables the names of the variables to read, null to read all of them
+   */
+  public static Map<String, Value> read(Reader reader, @Nullable Set<String> variables) {
+    try {
+      XMLStreamReader xml = xmlInputFactory.createXMLStreamReader(reader);
+      try {
+        return read(xml, variables);
+      } finally {
+        xml.close();
+      }
+    } catch(XMLStreamException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
+  private static Map<String, Value> read(XMLStreamReader xml, @Nullable Set<String> variables)
+      throws XMLStreamException {
+    Map<String, Value> values = Maps.newHashMap();
+    while(xml.hasNext()) {
+      if(xml.next() == XMLStreamConstants.START_ELEMENT && VARIABLE_VALUE.equals(xml.getLocalName())) {
+        String variable = xml.getAttributeValue(null, "variable");
+        if(variables == null || variables.contains(variable)) {
+          xml.nextTag();
+          values.put(variable, readValue(xml));
+          if(variables != null && values.size() == variables.size()) break;
+        } else {
+          skipElement(xml);
+        }
+      }
+    }
+    return values;
+  }
+
+  private static Value readValue(XMLStreamReader xml) throws XMLStreamException {
+    ValueType valueType = ValueType.Factory.forName(xml.getAttributeValue(null, "valueType"));
+    if(!SEQUENCE.equals(xml.getAttributeValue(null, "class"))) {
+      return valueType.valueOf(Strings.emptyToNull(xml.getElementText()));
+    }
+    String size = xml.getAttributeValue(null, "size");
+    Value[] values = new Value[size == null ? 0 : Integer.parseInt(size)];
+    int count = 0;
+    while(xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String order = xml.getAttributeValue(null, "order");
+      values[order == null ? count : Integer.parseInt(order)] = valueType
+          .valueOf(Strings.emptyToNull(xml.getElementText()));
+      count++;
+    }
+    return count == 0 ? valueType.nullSequence() : valueType.sequenceOf(Arrays.asList(values));
+  }
+
+  /**
+   * Moves to the end of the current element.
+   */
+  private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+    int depth = 1;
+    while(depth > 0) {
+      int event = xml.next();
+      if(event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if(event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+}
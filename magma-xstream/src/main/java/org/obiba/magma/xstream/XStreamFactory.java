@@ -8,6 +8,12 @@ public interface XStreamFactory {
 
   XStream createXStream();
 
+  /**
+   * Returns an instance configured once and shared by all callers: an XStream instance can be used concurrently once
+   * configured, so callers must not change its configuration. Registering a converter discards it.
+   */
+  XStream getXStream();
+
   XStream createXStream(ReflectionProvider reflectionProvider);
 
   void registerConverter(Converter converter);
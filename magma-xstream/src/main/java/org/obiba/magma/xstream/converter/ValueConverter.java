@@ -1,6 +1,7 @@
 package org.obiba.magma.xstream.converter;
 
 import org.obiba.magma.Value;
+import org.obiba.magma.ValueSequence;
 import org.obiba.magma.ValueType;
 
 import com.google.common.base.Strings;
@@ -17,7 +18,7 @@ public class ValueConverter implements Converter {
 
   @Override
   public boolean canConvert(Class type) {
-    return Value.class.equals(type);
+    return Value.class.isAssignableFrom(type) && !ValueSequence.class.equals(type);
   }
 
   @Override
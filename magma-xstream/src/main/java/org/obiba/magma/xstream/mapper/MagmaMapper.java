@@ -2,6 +2,7 @@ package org.obiba.magma.xstream.mapper;
 
 import org.obiba.magma.Attribute;
 import org.obiba.magma.Category;
+import org.obiba.magma.Value;
 import org.obiba.magma.ValueSequence;
 import org.obiba.magma.Variable;
 
@@ -32,6 +33,10 @@ public class MagmaMapper extends MapperWrapper {
     if(ValueSequence.class.equals(type)) {
       return "sequence";
     }
+    // Values held inline are serialized as any other value
+    if(Value.class.isAssignableFrom(type)) {
+      return super.serializedClass(Value.class);
+    }
     return super.serializedClass(type);
   }
 
@@ -0,0 +1,67 @@
+package org.obiba.magma.xstream;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.Variable;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+
+import com.google.common.collect.ImmutableSet;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class StaxValueSetReaderTest extends AbstractMagmaXStreamTest {
+
+  private String xml;
+
+  @Before
+  public void createValueSet() {
+    XStreamValueSet valueSet = new XStreamValueSet("testTable", new VariableEntityBean("TestType", "id"));
+    valueSet.setValue(variable("INT", IntegerType.get(), false), IntegerType.get().valueOf(42));
+    valueSet.setValue(variable("NULL", IntegerType.get(), false), IntegerType.get().nullValue());
+    valueSet.setValue(variable("TEXT", TextType.get(), false), TextType.get().valueOf("a < b & \"c\""));
+    valueSet.setValue(variable("SEQ", TextType.get(), true), TextType.get()
+        .sequenceOf(Arrays.asList(TextType.get().valueOf("x"), TextType.get().nullValue(), TextType.get().valueOf("z"))));
+    valueSet.setValue(variable("NULL_SEQ", TextType.get(), true), TextType.get().nullSequence());
+    xml = getDefaultXStream().toXML(valueSet);
+  }
+
+  @Test
+  public void test_read_decodesAllValues() {
+    Map<String, Value> values = StaxValueSetReader.read(new StringReader(xml));
+
+    assertThat(values.size(), is(5));
+    assertThat(values.get("INT"), is(IntegerType.get().valueOf(42)));
+    assertThat(values.get("NULL").isNull(), is(true));
+    assertThat(values.get("TEXT"), is(TextType.get().valueOf("a < b & \"c\"")));
+    assertThat(values.get("SEQ").asSequence().getSize(), is(3));
+    assertThat(values.get("SEQ").asSequence().get(0), is(TextType.get().valueOf("x")));
+    assertThat(values.get("SEQ").asSequence().get(1).isNull(), is(true));
+    assertThat(values.get("SEQ").asSequence().get(2), is(TextType.get().valueOf("z")));
+    assertThat(values.get("NULL_SEQ").isSequence(), is(true));
+    assertThat(values.get("NULL_SEQ").isNull(), is(true));
+  }
+
+  @Test
+  public void test_read_decodesRequestedVariablesOnly() {
+    Map<String, Value> values = StaxValueSetReader.read(new StringReader(xml), ImmutableSet.of("TEXT", "UNKNOWN"));
+
+    assertThat(values.size(), is(1));
+    assertThat(values.get("TEXT"), is(TextType.get().valueOf("a < b & \"c\"")));
+  }
+
+  private Variable variable(String name, ValueType valueType, boolean repeatable) {
+    Variable.Builder builder = Variable.Builder.newVariable(name, valueType, "TestType");
+    if(repeatable) builder.repeatable();
+    return builder.build();
+  }
+
+}